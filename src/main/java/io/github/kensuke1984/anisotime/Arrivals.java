@@ -0,0 +1,81 @@
+package io.github.kensuke1984.anisotime;
+
+import java.util.Arrays;
+
+/**
+ * Arrivals of a phase at an epicentral distance for a source.
+ * Ray parameters and travel times are sorted in the order of the ray parameters.
+ * <p>
+ * This class is <b>IMMUTABLE</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see RaypathCatalog#computeArrivals(Phase, double[], double[])
+ */
+public final class Arrivals {
+
+    static final Arrivals NONE = new Arrivals(new double[0], new double[0]);
+
+    /**
+     * [s/rad] ray parameters
+     */
+    private final double[] RAY_PARAMETERS;
+    /**
+     * [s] travel times
+     */
+    private final double[] TRAVEL_TIMES;
+
+    /**
+     * @param rayParameters [s/rad] in ascending order
+     * @param travelTimes   [s] for the ray parameters
+     */
+    Arrivals(double[] rayParameters, double[] travelTimes) {
+        if (rayParameters.length != travelTimes.length)
+            throw new IllegalArgumentException("Numbers of ray parameters and travel times differ.");
+        RAY_PARAMETERS = rayParameters;
+        TRAVEL_TIMES = travelTimes;
+    }
+
+    /**
+     * @return number of the arrivals
+     */
+    public int getMultiplicity() {
+        return RAY_PARAMETERS.length;
+    }
+
+    /**
+     * @param i index of an arrival
+     * @return [s/rad] ray parameter of the i th arrival
+     */
+    public double getRayParameter(int i) {
+        return RAY_PARAMETERS[i];
+    }
+
+    /**
+     * @param i index of an arrival
+     * @return [s] travel time of the i th arrival
+     */
+    public double getTravelTime(int i) {
+        return TRAVEL_TIMES[i];
+    }
+
+    /**
+     * @return [s/rad] ray parameters of the arrivals
+     */
+    public double[] getRayParameters() {
+        return RAY_PARAMETERS.clone();
+    }
+
+    /**
+     * @return [s] travel times of the arrivals
+     */
+    public double[] getTravelTimes() {
+        return TRAVEL_TIMES.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "Arrivals ray parameters " + Arrays.toString(RAY_PARAMETERS) + ", travel times " +
+                Arrays.toString(TRAVEL_TIMES);
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.kensuke1984.anisotime;
 
+import io.github.kensuke1984.kibrary.math.AdaptiveSimpson;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 
@@ -8,13 +9,17 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * Radius interval for integration.
+ * <p>
+ * A mesh also has an {@link AdaptiveSimpson} integrator, which is used in ranges where the integrand changes
+ * too much for the Simpson's rule on an interval of the mesh.
  * This class is <b>IMMUTABLE</b>.
  *
  * @author Kensuke Konishi
- * @version 0.0.5
+ * @version 0.0.6
  */
 public class ComputationalMesh implements Serializable {
 
@@ -24,6 +29,11 @@ public class ComputationalMesh implements Serializable {
      */
     static final double EPS = 1e-7;
 
+    /**
+     * integrator used by default
+     */
+    static final AdaptiveSimpson DEFAULT_INTEGRATOR = new AdaptiveSimpson(1e-7, 1e-12, 30);
+
     /**
      * 2019/11/9
      */
@@ -54,6 +64,11 @@ public class ComputationalMesh implements Serializable {
      */
     private transient RealVector mantleMesh;
 
+    /**
+     * integrator for critical ranges (null in meshes serialized by older versions, then the default is used)
+     */
+    private AdaptiveSimpson integrator;
+
     /**
      * @param structure         to create mesh for
      * @param innerCoreInterval [km] interval in the inner-core
@@ -62,11 +77,31 @@ public class ComputationalMesh implements Serializable {
      */
     public ComputationalMesh(VelocityStructure structure, double innerCoreInterval, double outerCoreInterval,
                              double mantleInterval) {
+        this(structure, innerCoreInterval, outerCoreInterval, mantleInterval, DEFAULT_INTEGRATOR);
+    }
+
+    /**
+     * @param structure         to create mesh for
+     * @param innerCoreInterval [km] interval in the inner-core
+     * @param outerCoreInterval [km] interval in the outer-core
+     * @param mantleInterval    [km] interval in the mantle
+     * @param integrator        for ranges where the integrand changes too much
+     */
+    public ComputationalMesh(VelocityStructure structure, double innerCoreInterval, double outerCoreInterval,
+                             double mantleInterval, AdaptiveSimpson integrator) {
         if (innerCoreInterval < EPS || outerCoreInterval < EPS || mantleInterval < EPS)
             throw new IllegalArgumentException("Intervals are too small.");
+        this.integrator = Objects.requireNonNull(integrator);
         createSimpleMesh(structure, innerCoreInterval, outerCoreInterval, mantleInterval);
     }
 
+    /**
+     * @return integrator for ranges where the integrand changes too much
+     */
+    AdaptiveSimpson getIntegrator() {
+        return integrator;
+    }
+
     /**
      * @param i        index of the mesh to be refined
      * @param n        the i th mesh is divided into n parts. (2 &lt; n)
@@ -177,11 +212,12 @@ public class ComputationalMesh implements Serializable {
         result = prime * result + ((innerCoreMesh == null) ? 0 : Arrays.hashCode(innerCoreMesh.toArray()));
         result = prime * result + ((mantleMesh == null) ? 0 : Arrays.hashCode(mantleMesh.toArray()));
         result = prime * result + ((outerCoreMesh == null) ? 0 : Arrays.hashCode(outerCoreMesh.toArray()));
+        result = prime * result + integrator.hashCode();
         return result;
     }
 
     /**
-     * All the radii in the mesh and the integral_threshold are checked.
+     * All the radii in the mesh and the integrators are checked.
      *
      * @param obj another mesh
      * @return if the mesh (obj) equals to this.
@@ -201,7 +237,7 @@ public class ComputationalMesh implements Serializable {
         if (outerCoreMesh == null) {
             if (other.outerCoreMesh != null) return false;
         } else if (!Arrays.equals(outerCoreMesh.toArray(), other.outerCoreMesh.toArray())) return false;
-        return true;
+        return integrator.equals(other.integrator);
     }
 
     /**
@@ -236,6 +272,7 @@ public class ComputationalMesh implements Serializable {
         mantleMesh = RealVector.unmodifiableRealVector((RealVector) stream.readObject());
         outerCoreMesh = RealVector.unmodifiableRealVector((RealVector) stream.readObject());
         innerCoreMesh = RealVector.unmodifiableRealVector((RealVector) stream.readObject());
+        if (integrator == null) integrator = DEFAULT_INTEGRATOR;
     }
 
 }
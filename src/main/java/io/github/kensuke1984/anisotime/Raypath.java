@@ -9,10 +9,11 @@ import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.DoubleFunction;
 import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
 
 import static io.github.kensuke1984.kibrary.math.Integrand.bySimpsonRule;
 import static io.github.kensuke1984.kibrary.math.Integrand.jeffreysMethod1;
@@ -49,7 +50,7 @@ import static io.github.kensuke1984.kibrary.math.Integrand.jeffreysMethod1;
  * TODO cache eventR phase    Tau
  *
  * @author Kensuke Konishi, Anselme Borgeaud
- * @version 0.7.6b
+ * @version 0.7.9
  * @see "Woodhouse, 1981"
  */
 public class Raypath implements Serializable, Comparable<Raypath> {
@@ -97,7 +98,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * &delta;&Delta; = 0 where the raypath does not reach or the range is in
      * the Jefferey's range.
      */
-    private transient Map<PhasePart, double[]> dThetaMap;
+    private transient AtomicReferenceArray<double[]> dThetas;
     /**
      * &delta;T<sub>i</sub> at r<sub>i</sub>&le; r &le; r<sub>i+1</sub> (i = 0,
      * 1, ..., n-1)
@@ -109,40 +110,50 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * &delta;T = 0 where the raypath does not reach or the range is in the
      * Jefferey's range.
      */
-    private transient Map<PhasePart, double[]> dTMap;
+    private transient AtomicReferenceArray<double[]> dTs;
     /**
      * Radius of bouncing points for all phase parts.
      * TODO turning depth may be many and we have to care of jeffreys as well.
      */
-    private transient Map<PhasePart, Double> turningRMap;
+    private transient double[] turningRs;
 
     /**
      * &Delta; [rad] of phase parts. Each part is only half way, not including election, bouncing.
      */
-    private transient Map<PhasePart, Double> deltaMap;
+    private transient double[] deltas;
 
     /**
      * T [s] (travel time) of phase parts
      */
-    private transient Map<PhasePart, Double> timeMap;
+    private transient double[] times;
 
     /**
      * &Delta; [rad] (epicentral distance) in the Jeffrey's zone of each phase part(pp).
      * If the pp has no bounce point, the value is NaN.
      */
-    private transient Map<PhasePart, Double> jeffreysDeltaMap;
+    private transient double[] jeffreysDeltas;
 
     /**
      * T [s] (travel time) in the Jeffrey's zone of each phase part (pp).
      * If the pp has no bounce point, the value is NaN.
      */
-    private transient Map<PhasePart, Double> jeffreysTMap;
+    private transient double[] jeffreysTs;
 
     /**
      * Radius [km] of the Jeffrey's boundary for each phase part(pp).
      * The boundary is on mesh. If the pp has no bounce point, the value is NaN.
      */
-    private transient Map<PhasePart, Double> jeffreysBoundaryMap;
+    private transient double[] jeffreysBoundaries;
+
+    /**
+     * Columns in a catalog file which this is read from (null if this is computed).
+     * &delta;&Delta; are read from them when they are used.
+     */
+    private transient RaypathColumns columns;
+    /**
+     * index of this in {@link #columns}
+     */
+    private transient int columnIndex;
 
     /**
      * The source is on the surface. PREM is used.
@@ -181,8 +192,9 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         RAY_PARAMETER = rayParameter;
         WOODHOUSE = woodhouse;
         MESH = mesh == null ? ComputationalMesh.simple(woodhouse.getStructure()) : mesh;
+        WOODHOUSE.addMesh(MESH);
         setTurningRs();
-        createMaps();
+        createArrays();
         computeJeffreysRange();
         computeTau();
         computeDelta();
@@ -190,19 +202,117 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     }
 
     /**
-     * Creates maps of &tau;, &Delta; T and so on..
+     * Raypath read from columns in a catalog file. Nothing is computed.
+     *
+     * @param rayParameter [s/rad] ray parameter P
+     * @param woodhouse    {@link Woodhouse1981}
+     * @param mesh         {@link ComputationalMesh}
+     * @param columns      of raypaths in a catalog file
+     * @param index        of this raypath in the columns
      */
-    private void createMaps() {
-        jeffreysBoundaryMap = new ConcurrentHashMap<>();
-        jeffreysDeltaMap = new ConcurrentHashMap<>();
-        jeffreysTMap = new ConcurrentHashMap<>();
-        criticalTauMap = new ConcurrentHashMap<>();
-        tauMap = new ConcurrentHashMap<>();
-        dTauMap = new ConcurrentHashMap<>();
-        deltaMap = new ConcurrentHashMap<>();
-        dThetaMap = new ConcurrentHashMap<>();
-        timeMap = new ConcurrentHashMap<>();
-        dTMap = new ConcurrentHashMap<>();
+    Raypath(double rayParameter, Woodhouse1981 woodhouse, ComputationalMesh mesh, RaypathColumns columns, int index) {
+        RAY_PARAMETER = rayParameter;
+        WOODHOUSE = woodhouse;
+        MESH = mesh;
+        WOODHOUSE.addMesh(MESH);
+        this.columns = columns;
+        columnIndex = index;
+        createArrays();
+        turningRs = new double[PhasePart.values().length];
+        for (PhasePart pp : PhasePart.values()) {
+            turningRs[pp.ordinal()] = columns.get(0, pp, index);
+            criticalTaus[pp.ordinal()] = columns.get(1, pp, index);
+            taus[pp.ordinal()] = columns.get(2, pp, index);
+            deltas[pp.ordinal()] = columns.get(3, pp, index);
+            times[pp.ordinal()] = columns.get(4, pp, index);
+            jeffreysBoundaries[pp.ordinal()] = columns.get(5, pp, index);
+            jeffreysDeltas[pp.ordinal()] = columns.get(6, pp, index);
+            jeffreysTs[pp.ordinal()] = columns.get(7, pp, index);
+        }
+    }
+
+    /**
+     * @param k  index of the value in {@link RaypathColumns}
+     * @param pp target phase part
+     * @return the k th value of pp stored in a catalog file
+     */
+    double getCatalogValue(int k, PhasePart pp) {
+        switch (k) {
+            case 0:
+                return turningRs[pp.ordinal()];
+            case 1:
+                return criticalTaus[pp.ordinal()];
+            case 2:
+                return taus[pp.ordinal()];
+            case 3:
+                return deltas[pp.ordinal()];
+            case 4:
+                return times[pp.ordinal()];
+            case 5:
+                return jeffreysBoundaries[pp.ordinal()];
+            case 6:
+                return jeffreysDeltas[pp.ordinal()];
+            case 7:
+                return jeffreysTs[pp.ordinal()];
+            default:
+                throw new IllegalArgumentException("Invalid index " + k);
+        }
+    }
+
+    /**
+     * @param pp target phase part
+     * @return &delta;&Delta; of pp in each layer of its mesh (NOT copied)
+     */
+    double[] getDTheta(PhasePart pp) {
+        return computeIfAbsent(dThetas, pp, this::readOrComputeDTheta);
+    }
+
+    /**
+     * @param pp target phase part
+     * @return &delta;&Delta; of pp read from {@link #columns} if they are stored there, otherwise computed
+     */
+    private double[] readOrComputeDTheta(PhasePart pp) {
+        int j = RaypathColumns.indexOfDTheta(pp);
+        if (columns != null && 0 <= j)
+            return columns.readDTheta(j, columnIndex, MESH.getMesh(pp.whichPartition()).getDimension() - 1);
+        return computeTransients(pp, r -> WOODHOUSE.computeQDelta(pp, RAY_PARAMETER, r));
+    }
+
+    /**
+     * Creates arrays of &tau;, &Delta; T and so on, indexed by {@link PhasePart#ordinal()}.
+     * Values of phase parts are set before this raypath is used, and never changed.
+     * Arrays of &delta;&Delta;, &delta;T and &delta;&tau; in layers can be computed later
+     * ({@link #computeIfAbsent(AtomicReferenceArray, PhasePart, Function)}).
+     */
+    private void createArrays() {
+        int n = PhasePart.values().length;
+        jeffreysBoundaries = new double[n];
+        jeffreysDeltas = new double[n];
+        jeffreysTs = new double[n];
+        criticalTaus = new double[n];
+        taus = new double[n];
+        deltas = new double[n];
+        times = new double[n];
+        dTaus = new AtomicReferenceArray<>(n);
+        dThetas = new AtomicReferenceArray<>(n);
+        dTs = new AtomicReferenceArray<>(n);
+    }
+
+    /**
+     * The array is published safely to other threads. If some threads compute it at the same time,
+     * the first one is shared (they are same).
+     *
+     * @param arrays  arrays of phase parts
+     * @param pp      target phase part
+     * @param compute computes the array of a phase part
+     * @return the array of pp, computed only if it is not there
+     */
+    private static double[] computeIfAbsent(AtomicReferenceArray<double[]> arrays, PhasePart pp,
+                                            Function<PhasePart, double[]> compute) {
+        double[] array = arrays.get(pp.ordinal());
+        if (array != null) return array;
+        arrays.compareAndSet(pp.ordinal(), null, compute.apply(pp));
+        return arrays.get(pp.ordinal());
     }
 
     /**
@@ -295,31 +405,32 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      */
     private void readObject(ObjectInputStream stream) throws ClassNotFoundException, IOException {
         stream.defaultReadObject();
+        WOODHOUSE.addMesh(MESH);
         int existFlag = stream.readByte();
         int jeffFlag = stream.readByte();
-        createMaps();
+        createArrays();
 
         for (PhasePart pp : PhasePart.values())
             if ((existFlag & pp.getFlag()) == 0) {
-                criticalTauMap.put(pp, Double.NaN);
-                tauMap.put(pp, Double.NaN);
-                deltaMap.put(pp, Double.NaN);
-                timeMap.put(pp, Double.NaN);
+                criticalTaus[pp.ordinal()] = Double.NaN;
+                taus[pp.ordinal()] = Double.NaN;
+                deltas[pp.ordinal()] = Double.NaN;
+                times[pp.ordinal()] = Double.NaN;
             } else {
-                criticalTauMap.put(pp, stream.readDouble());
-                tauMap.put(pp, stream.readDouble());
-                deltaMap.put(pp, stream.readDouble());
-                timeMap.put(pp, stream.readDouble());
+                criticalTaus[pp.ordinal()] = stream.readDouble();
+                taus[pp.ordinal()] = stream.readDouble();
+                deltas[pp.ordinal()] = stream.readDouble();
+                times[pp.ordinal()] = stream.readDouble();
             }
         for (PhasePart pp : PhasePart.values())
             if ((jeffFlag & pp.getFlag()) == 0) {
-                jeffreysBoundaryMap.put(pp, Double.NaN);
-                jeffreysDeltaMap.put(pp, Double.NaN);
-                jeffreysTMap.put(pp, Double.NaN);
+                jeffreysBoundaries[pp.ordinal()] = Double.NaN;
+                jeffreysDeltas[pp.ordinal()] = Double.NaN;
+                jeffreysTs[pp.ordinal()] = Double.NaN;
             } else {
-                jeffreysBoundaryMap.put(pp, stream.readDouble());
-                jeffreysDeltaMap.put(pp, stream.readDouble());
-                jeffreysTMap.put(pp, stream.readDouble());
+                jeffreysBoundaries[pp.ordinal()] = stream.readDouble();
+                jeffreysDeltas[pp.ordinal()] = stream.readDouble();
+                jeffreysTs[pp.ordinal()] = stream.readDouble();
             }
         setTurningRs();
         readDTheta(stream);
@@ -334,19 +445,19 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         List<Double> outputList = new ArrayList<>();
         List<Double> jeffList = new ArrayList<>();
         Arrays.stream(PhasePart.values())
-                .filter(pp -> !Double.isNaN(deltaMap.get(pp)) || !Double.isNaN(jeffreysBoundaryMap.get(pp)))
+                .filter(pp -> !Double.isNaN(deltas[pp.ordinal()]) || !Double.isNaN(jeffreysBoundaries[pp.ordinal()]))
                 .forEach(pp -> {
                     existFlag.set(existFlag.get() | pp.getFlag());
-                    if (!Double.isNaN(jeffreysBoundaryMap.get(pp))) {
+                    if (!Double.isNaN(jeffreysBoundaries[pp.ordinal()])) {
                         bounceFlag.set(bounceFlag.get() | pp.getFlag());
-                        jeffList.add(jeffreysBoundaryMap.get(pp));
-                        jeffList.add(jeffreysDeltaMap.get(pp));
-                        jeffList.add(jeffreysTMap.get(pp));
+                        jeffList.add(jeffreysBoundaries[pp.ordinal()]);
+                        jeffList.add(jeffreysDeltas[pp.ordinal()]);
+                        jeffList.add(jeffreysTs[pp.ordinal()]);
                     }
-                    outputList.add(criticalTauMap.get(pp));
-                    outputList.add(tauMap.get(pp));
-                    outputList.add(deltaMap.get(pp));
-                    outputList.add(timeMap.get(pp));
+                    outputList.add(criticalTaus[pp.ordinal()]);
+                    outputList.add(taus[pp.ordinal()]);
+                    outputList.add(deltas[pp.ordinal()]);
+                    outputList.add(times[pp.ordinal()]);
                 });
         stream.writeByte(existFlag.get());
         stream.writeByte(bounceFlag.get());
@@ -363,12 +474,12 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double[] pTheta = new double[mantle.getDimension() - 1];
         double[] svTheta = new double[mantle.getDimension() - 1];
         double[] shTheta = new double[mantle.getDimension() - 1];
-        dThetaMap.put(PhasePart.P, pTheta);
-        dThetaMap.put(PhasePart.SV, svTheta);
-        dThetaMap.put(PhasePart.SH, shTheta);
-        double pJeff = jeffreysBoundaryMap.get(PhasePart.P);
-        double svJeff = jeffreysBoundaryMap.get(PhasePart.SV);
-        double shJeff = jeffreysBoundaryMap.get(PhasePart.SH);
+        dThetas.set(PhasePart.P.ordinal(), pTheta);
+        dThetas.set(PhasePart.SV.ordinal(), svTheta);
+        dThetas.set(PhasePart.SH.ordinal(), shTheta);
+        double pJeff = jeffreysBoundaries[PhasePart.P.ordinal()];
+        double svJeff = jeffreysBoundaries[PhasePart.SV.ordinal()];
+        double shJeff = jeffreysBoundaries[PhasePart.SH.ordinal()];
         for (int i = 0; i < mantle.getDimension() - 1; i++) {
             double r = mantle.getEntry(i);
             if (r < limitR) continue;
@@ -381,12 +492,12 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     private void writeDTheta(ObjectOutputStream stream) throws IOException {
         RealVector mantle = MESH.getMesh(Partition.MANTLE);
         double limitR = getStructure().earthRadius() - 700;
-        double[] pTheta = dThetaMap.get(PhasePart.P);
-        double[] svTheta = dThetaMap.get(PhasePart.SV);
-        double[] shTheta = dThetaMap.get(PhasePart.SH);
-        double pJeff = jeffreysBoundaryMap.get(PhasePart.P);
-        double svJeff = jeffreysBoundaryMap.get(PhasePart.SV);
-        double shJeff = jeffreysBoundaryMap.get(PhasePart.SH);
+        double[] pTheta = getDTheta(PhasePart.P);
+        double[] svTheta = getDTheta(PhasePart.SV);
+        double[] shTheta = getDTheta(PhasePart.SH);
+        double pJeff = jeffreysBoundaries[PhasePart.P.ordinal()];
+        double svJeff = jeffreysBoundaries[PhasePart.SV.ordinal()];
+        double shJeff = jeffreysBoundaries[PhasePart.SH.ordinal()];
         for (int i = 0; i < mantle.getDimension() - 1; i++) {
             double r = mantle.getEntry(i);
             if (r < limitR) continue;
@@ -406,34 +517,10 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         return Arrays.stream(getStructure().velocityBoundaries()).filter(r -> startR < r && r < endR).toArray();
     }
 
-    /**
-     * @param dXdr   {@link DoubleUnaryOperator} to compute q<sub>&Delta;</sub> or q<sub>T</sub>
-     * @param startR [km]
-     * @param endR   [km]
-     * @return the number of layers to have enough mesh for &Delta;
-     * where any neighbors are similar (according to {@link ComputationalMesh#EPS})
-     */
-    private static int computeEnoughMesh(DoubleUnaryOperator dXdr, double startR, double endR) {
-        int n = 1;
-        for (; n < 100000; ++n) {
-            double deltaR = (endR - startR) / n;
-            boolean closeEnough = true;
-            for (int i = 0; i < n && closeEnough; i++) {
-                double r0 = startR + deltaR * i;
-                double r1 = startR + deltaR * (i + 1);
-                double q0 = dXdr.applyAsDouble(r0);
-                double q1 = dXdr.applyAsDouble(r1);
-                double ratio = q0 < q1 ? q0 / q1 : q1 / q0;
-                closeEnough = INTEGRAL_THRESHOLD < ratio;
-                if (Double.isNaN(ratio)) return 0;
-            }
-            if (closeEnough) break;
-        }
-        return n;
-    }
-
     /**
      * Use this method when dX/dr at startR and endR are very different.
+     * The range is integrated by the adaptive Simpson's rule of the {@link #MESH}
+     * ({@link ComputationalMesh#getIntegrator()}).
      * When dXdr is for q<sub>&Delta;</sub>, this method returns &Delta;.
      * When dXdr is for q<sub>T</sub>, this method returns T (travel time).
      *
@@ -443,13 +530,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * @return [s] &Delta; or T (travel time) for startR &le; r &le; endR
      */
     private double simpsonInCriticalRange(DoubleUnaryOperator dXdr, double startR, double endR) {
-        int n = computeEnoughMesh(dXdr, startR, endR);
-        if (n == 0) return Double.NaN;
-        double sum = 0;
-        double deltaR = (endR - startR) / n;
-        for (int i = 0; i < n; i++)
-            sum += simpson(dXdr, startR + i * deltaR, startR + (i + 1) * deltaR);
-        return sum;
+        return MESH.getIntegrator().integrate(dXdr, startR, endR);
     }
 
     /**
@@ -459,9 +540,9 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * @return jeffreys boundary for the target pp
      */
     private double computeJeffreysBoundary(PhasePart pp) {
-        int index = MESH.getNextIndexOf(turningRMap.get(pp), pp.whichPartition());
+        int index = MESH.getNextIndexOf(turningRs[pp.ordinal()], pp.whichPartition());
         RealVector mesh = MESH.getMesh(pp.whichPartition());
-        double turningR = turningRMap.get(pp);
+        double turningR = turningRs[pp.ordinal()];
         double boundary = turningR;
         while (++index < mesh.getDimension()) {
             double next = mesh.getEntry(index);
@@ -484,14 +565,14 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      */
     private void computeJeffreysRange() {
         Arrays.stream(PhasePart.values()).parallel().forEach(pp -> {
-            if (Double.isNaN(turningRMap.get(pp))) {
-                jeffreysBoundaryMap.put(pp, Double.NaN);
-                jeffreysDeltaMap.put(pp, Double.NaN);
-                jeffreysTMap.put(pp, Double.NaN);
+            if (Double.isNaN(turningRs[pp.ordinal()])) {
+                jeffreysBoundaries[pp.ordinal()] = Double.NaN;
+                jeffreysDeltas[pp.ordinal()] = Double.NaN;
+                jeffreysTs[pp.ordinal()] = Double.NaN;
             } else {
-                jeffreysBoundaryMap.put(pp, computeJeffreysBoundary(pp));
-                jeffreysDeltaMap.put(pp, computeJeffreys(r -> WOODHOUSE.computeQDelta(pp, RAY_PARAMETER, r), pp));
-                jeffreysTMap.put(pp, computeJeffreys(r -> WOODHOUSE.computeQT(pp, RAY_PARAMETER, r), pp));
+                jeffreysBoundaries[pp.ordinal()] = computeJeffreysBoundary(pp);
+                jeffreysDeltas[pp.ordinal()] = computeJeffreys(r -> WOODHOUSE.computeQDelta(pp, RAY_PARAMETER, r), pp);
+                jeffreysTs[pp.ordinal()] = computeJeffreys(r -> WOODHOUSE.computeQT(pp, RAY_PARAMETER, r), pp);
             }
         });
     }
@@ -503,10 +584,10 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     private void computeT() {
         Arrays.stream(PhasePart.values()).parallel().forEach(pp -> {
             RealVector mesh = MESH.getMesh(pp.whichPartition());
-            dTMap.computeIfAbsent(pp, p -> computeTransients(pp, r -> WOODHOUSE.computeQT(pp, RAY_PARAMETER, r)));
+            computeIfAbsent(dTs, pp, p -> computeTransients(pp, r -> WOODHOUSE.computeQT(pp, RAY_PARAMETER, r)));
             double turningR = getTurningR(pp);
             double startR = Double.isNaN(turningR) ? mesh.getEntry(0) : turningR;
-            timeMap.put(pp, computeT(pp, startR, mesh.getEntry(mesh.getDimension() - 1)));
+            times[pp.ordinal()] = computeT(pp, startR, mesh.getEntry(mesh.getDimension() - 1));
         });
     }
 
@@ -515,13 +596,31 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      */
     private double[] computeTransients(PhasePart pp, DoubleUnaryOperator dXdr) {
         RealVector mesh = MESH.getMesh(pp.whichPartition());
-        double[] transients = new double[mesh.getDimension() - 1];
-        double jeffreysBoundary = jeffreysBoundaryMap.get(pp);
-        for (int i = 0; i < transients.length; i++) {
-            if (mesh.getEntry(i) < jeffreysBoundary) continue;
-            transients[i] = simpson(dXdr, mesh.getEntry(i), mesh.getEntry(i + 1));
+        double jeffreysBoundary = jeffreysBoundaries[pp.ordinal()];
+        int startIndex = 0;
+        while (startIndex < mesh.getDimension() - 1 && mesh.getEntry(startIndex) < jeffreysBoundary) startIndex++;
+        return simpsonOnMesh(dXdr, mesh, startIndex);
+    }
+
+    /**
+     * Integrates on each interval of the mesh from startIndex by {@link #simpson(DoubleUnaryOperator, double, double)}.
+     * Values on the mesh points are computed once and shared by adjacent intervals.
+     *
+     * @param dXdr       {@link DoubleUnaryOperator} to integrate
+     * @param mesh       [km] radii of the mesh
+     * @param startIndex index of the first interval to integrate
+     * @return [i] integral on [mesh<sub>i</sub>, mesh<sub>i+1</sub>] (0 for i &lt; startIndex)
+     */
+    private double[] simpsonOnMesh(DoubleUnaryOperator dXdr, RealVector mesh, int startIndex) {
+        double[] integrals = new double[mesh.getDimension() - 1];
+        if (integrals.length <= startIndex) return integrals;
+        double q0 = dXdr.applyAsDouble(mesh.getEntry(startIndex));
+        for (int i = startIndex; i < integrals.length; i++) {
+            double q1 = dXdr.applyAsDouble(mesh.getEntry(i + 1));
+            integrals[i] = simpson(dXdr, mesh.getEntry(i), mesh.getEntry(i + 1), q0, q1);
+            q0 = q1;
         }
-        return transients;
+        return integrals;
     }
 
     /**
@@ -547,10 +646,10 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double turningR = getTurningR(pp);
         if (innerIsBoundary && !Double.isNaN(turningR)) return Double.NaN;
         if (innerIsBoundary || (inner == PassPoint.BOUNCE_POINT && !Double.isNaN(turningR))) {
-            if (outerIsBoundary) return deltaMap.get(pp);
+            if (outerIsBoundary) return deltas[pp.ordinal()];
             else if (outer == PassPoint.SEISMIC_SOURCE)
-                return deltaMap.get(pp) - computeDelta(pp, eventR, getStructure().earthRadius());
-            else if (!Double.isNaN(deltaMap.get(pp))) return deltaMap.get(pp) -
+                return deltas[pp.ordinal()] - computeDelta(pp, eventR, getStructure().earthRadius());
+            else if (!Double.isNaN(deltas[pp.ordinal()])) return deltas[pp.ordinal()] -
                     computeDelta(pp, getStructure().earthRadius() - part.getOuterDepth(), getStructure().earthRadius());
         }
         double[] interval = getIntegralInterval(part, eventR);
@@ -569,7 +668,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         PassPoint inner = part.getInnerPoint();
         PassPoint outer = part.getOuterPoint();
         PhasePart pp = part.getPhase();
-        double turningR = turningRMap.get(pp);
+        double turningR = turningRs[pp.ordinal()];
         switch (inner) {
             case OTHER:
                 innerR = toRadius(part.getInnerDepth());
@@ -631,10 +730,10 @@ public class Raypath implements Serializable, Comparable<Raypath> {
                 (outer == PassPoint.SEISMIC_SOURCE && eventR == getStructure().earthRadius());
         double turningR = getTurningR(pp);
         if (innerIsBoundary || (inner == PassPoint.BOUNCE_POINT && !Double.isNaN(turningR))) {
-            if (outerIsBoundary) return timeMap.get(pp);
+            if (outerIsBoundary) return times[pp.ordinal()];
             else if (outer == PassPoint.SEISMIC_SOURCE)
-                return timeMap.get(pp) - computeT(pp, eventR, getStructure().earthRadius());
-            else if (!Double.isNaN(timeMap.get(pp))) return timeMap.get(pp) -
+                return times[pp.ordinal()] - computeT(pp, eventR, getStructure().earthRadius());
+            else if (!Double.isNaN(times[pp.ordinal()])) return times[pp.ordinal()] -
                     computeT(pp, getStructure().earthRadius() - part.getOuterDepth(), getStructure().earthRadius());
         }
         double[] interval = getIntegralInterval(part, eventR);
@@ -750,8 +849,8 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double cmbR = getStructure().coreMantleBoundary();
         double earthR = getStructure().earthRadius();
         double icbR = getStructure().innerCoreBoundary();
-        if (Math.abs(nextR - turningRMap.get(pp)) < ComputationalMesh.EPS)
-            nextR = turningRMap.get(pp) + ComputationalMesh.EPS;
+        if (Math.abs(nextR - turningRs[pp.ordinal()]) < ComputationalMesh.EPS)
+            nextR = turningRs[pp.ordinal()] + ComputationalMesh.EPS;
         else if (Math.abs(nextR - icbR) < permissibleGapForDiff)
             nextR = icbR + ComputationalMesh.EPS * (nextR < icbR ? -1 : 1);
         else if (Math.abs(nextR - cmbR) < permissibleGapForDiff)
@@ -835,7 +934,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
                 int endIndex = MESH.getNextIndexOf(endR, partition);
                 if (!g.isDownward()) startIndex++;
                 RealVector mesh = MESH.getMesh(partition);
-                double jeffreysBoundary = jeffreysBoundaryMap.get(pp);
+                double jeffreysBoundary = jeffreysBoundaries[pp.ordinal()];
                 for (int j = startIndex; j != endIndex; ) {
                     double r = mesh.getEntry(j);
                     //when the path reaches the jeffreys boundary.
@@ -843,14 +942,14 @@ public class Raypath implements Serializable, Comparable<Raypath> {
                         if (g.isDownward()) {
                             addRThetaTime(pp, jeffreysBoundary, rList, thetaList, tList);
                             rList.add(endR);
-                            thetaList.add(thetaList.getLast() + jeffreysDeltaMap.get(pp));
-                            tList.add(tList.getLast() + jeffreysTMap.get(pp));
+                            thetaList.add(thetaList.getLast() + jeffreysDeltas[pp.ordinal()]);
+                            tList.add(tList.getLast() + jeffreysTs[pp.ordinal()]);
                             break;
                         } else {
                             while (r < jeffreysBoundary) r = mesh.getEntry(j++);
                             rList.add(jeffreysBoundary + ComputationalMesh.EPS);
-                            thetaList.add(thetaList.getLast() + jeffreysDeltaMap.get(pp));
-                            tList.add(tList.getLast() + jeffreysTMap.get(pp));
+                            thetaList.add(thetaList.getLast() + jeffreysDeltas[pp.ordinal()]);
+                            tList.add(tList.getLast() + jeffreysTs[pp.ordinal()]);
                             if (j == endIndex) break;
                         }
                     }
@@ -887,7 +986,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
             case OTHER:
                 return toRadius(inner ? part.getInnerDepth() : part.getOuterDepth());
             case BOUNCE_POINT:
-                return turningRMap.get(part.getPhase());
+                return turningRs[part.getPhase().ordinal()];
             case EARTH_SURFACE:
             case CMB:
             case ICB:
@@ -933,7 +1032,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * @return [rad] &Delta; or [s] T (travel time_for Jeffreys radius range.
      */
     private double computeJeffreys(DoubleUnaryOperator dXdr, PhasePart pp) {
-        double jeffBoundary = jeffreysBoundaryMap.get(pp);
+        double jeffBoundary = jeffreysBoundaries[pp.ordinal()];
         double turningR = getTurningR(pp);
         double[] boundaries = boundariesIn(turningR, jeffBoundary - ComputationalMesh.EPS);
         if (boundaries.length == 0) return jeffreys(dXdr, pp, jeffBoundary - ComputationalMesh.EPS);
@@ -959,7 +1058,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * endR is in many cases jeffreys boundary.
      */
     private double jeffreys(DoubleUnaryOperator dXdr, PhasePart pp, double endR) {
-        double turningR = turningRMap.get(pp);
+        double turningR = turningRs[pp.ordinal()];
         if (Math.abs(endR - turningR) <= 5 * ComputationalMesh.EPS) return 0;
         DoubleFunction<Double> rToY = r -> dXdr.applyAsDouble(r) * drdx(pp, r);
         double rCenter = (endR + turningR) / 2;
@@ -1019,7 +1118,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         if (startR + ComputationalMesh.EPS < turningR && turningR < endR) return Double.NaN;
         startR = Math.max(startR, minR);
         endR = Math.min(endR, maxR);
-        double jeffreysBoundary = jeffreysBoundaryMap.get(pp);
+        double jeffreysBoundary = jeffreysBoundaries[pp.ordinal()];
         // the value <= jeffreysBoundary
         double closestSmallerJeffreysBoundaryInMesh = Double.isNaN(jeffreysBoundary) ? Double.NaN :
                 radii.getEntry(MESH.getNextIndexOf(jeffreysBoundary, partition));
@@ -1027,7 +1126,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
                 Double.isNaN(jeffreysBoundary) || Math.abs(jeffreysBoundary - endR) < ComputationalMesh.EPS ||
                         endR < jeffreysBoundary ? Double.NaN :
                         radii.getEntry(MESH.getNextIndexOf(jeffreysBoundary, partition) + 1);
-        double jeffreysDelta = jeffreysDeltaMap.get(pp);
+        double jeffreysDelta = jeffreysDeltas[pp.ordinal()];
         //index of the mesh point next to startR  (startR < mesh[firstIndex]) TODO redundant? when startR is on mesh
         int firstIndexForMemory = MESH.getNextIndexOf(startR, partition) + 1;
         //index of the mesh point next to endR  (mesh[endIndex] <= endR)
@@ -1051,7 +1150,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double nextREnd = radii.getEntry(endIndexForMemory);
         //outside the nextREnd, if it is inside the jeffreys region, outside the region.
         double delta = simpson(qDelta, nextREnd < jeffreysBoundary ? jeffreysBoundary : nextREnd, endR);
-        double[] theta = dThetaMap.computeIfAbsent(pp, p -> computeTransients(pp, qDelta));
+        double[] theta = getDTheta(pp);
         for (int i = firstIndexForMemory; i < endIndexForMemory; i++)
             delta += theta[i];
         if (Double.isNaN(jeffreysBoundary) || jeffreysBoundary <= startR)
@@ -1085,7 +1184,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         if (startR + ComputationalMesh.EPS < turningR && turningR < endR) return Double.NaN;
         startR = Math.max(startR, minR);
         endR = Math.min(endR, maxR);
-        double jeffreysBoundary = jeffreysBoundaryMap.get(pp);
+        double jeffreysBoundary = jeffreysBoundaries[pp.ordinal()];
         // the value <= jeffreysBoundary
         double closestSmallerJeffreysBoundaryInMesh = Double.isNaN(jeffreysBoundary) ? Double.NaN :
                 radii.getEntry(MESH.getNextIndexOf(jeffreysBoundary, partition));
@@ -1093,7 +1192,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
                 Double.isNaN(jeffreysBoundary) || Math.abs(jeffreysBoundary - endR) < ComputationalMesh.EPS ||
                         endR < jeffreysBoundary ? Double.NaN :
                         radii.getEntry(MESH.getNextIndexOf(jeffreysBoundary, partition) + 1);
-        double jeffreysT = jeffreysTMap.get(pp);
+        double jeffreysT = jeffreysTs[pp.ordinal()];
         //index of the mesh point next to startR  (startR < mesh[firstIndex])//TODO when startR is on mesh
         int firstIndexForMemory = MESH.getNextIndexOf(startR, partition) + 1;
         //index of the mesh point next to endR (mesh[endIndex]<=endR)
@@ -1115,7 +1214,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double nextREnd = radii.getEntry(endIndexForMemory);
         //outside the nextREnd, if it is inside the jeffreys region, outside the region.
         double time = simpson(qT, nextREnd < jeffreysBoundary ? jeffreysBoundary : nextREnd, endR);
-        double[] t = dTMap.computeIfAbsent(pp, p -> computeTransients(pp, qT));
+        double[] t = computeIfAbsent(dTs, pp, p -> computeTransients(pp, qT));
         for (int i = firstIndexForMemory; i < endIndexForMemory; i++)
             time += t[i];
         if (Double.isNaN(jeffreysBoundary) || jeffreysBoundary <= startR)
@@ -1169,10 +1268,10 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         //outside the nextREnd
         double tau = simpson(qTau, nextREnd, endR);
 
-        double[] dTau = dTauMap.computeIfAbsent(pp, this::computeTransientTau);
+        double[] dTau = computeIfAbsent(dTaus, pp, this::computeTransientTau);
         for (int i = firstIndexForMemory; i < endIndexForMemory; i++)
             tau += dTau[i];
-        return tau + startR == turningR ? criticalTauMap.get(pp) :
+        return tau + startR == turningR ? criticalTaus[pp.ordinal()] :
                 simpson(qTau, startR, radii.getEntry(firstIndexForMemory));
     }
 
@@ -1185,14 +1284,14 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     private void computeDelta() {
         Arrays.stream(PhasePart.values()).parallel().forEach(pp -> {
             RealVector mesh = MESH.getMesh(pp.whichPartition());
-            dThetaMap.computeIfAbsent(pp,
+            computeIfAbsent(dThetas, pp,
                     p -> computeTransients(pp, r -> WOODHOUSE.computeQDelta(pp, RAY_PARAMETER, r)));
             double turningR = getTurningR(pp);
             double startR = Double.isNaN(turningR) ? mesh.getEntry(0) : turningR;
             //TODO diffraction
-            deltaMap.put(pp, computeDelta(pp, startR, mesh.getEntry(mesh.getDimension() - 1)));
+            deltas[pp.ordinal()] = computeDelta(pp, startR, mesh.getEntry(mesh.getDimension() - 1));
             if (RAY_PARAMETER == 0 && (pp == PhasePart.I || pp == PhasePart.JV))
-                deltaMap.put(pp, dThetaMap.get(pp)[0] = Math.PI / 2);
+                deltas[pp.ordinal()] = dThetas.get(pp.ordinal())[0] = Math.PI / 2;
         });
     }
 
@@ -1202,11 +1301,11 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     /**
      * &tau; for each phase part (pp)
      */
-    private transient Map<PhasePart, Double> tauMap;
+    private transient double[] taus;
     /**
      * &delta;&tau; in each layer for each pp
      */
-    private transient Map<PhasePart, double[]> dTauMap;
+    private transient AtomicReferenceArray<double[]> dTaus;
 
     double computeTau(Phase phase, double eventR) {
         if (getStructure().earthRadius() < eventR || eventR < getStructure().coreMantleBoundary())
@@ -1233,7 +1332,8 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double turningR = getTurningR(pp);
         if (innerIsBoundary && !Double.isNaN(turningR)) return Double.NaN;
         if (outerIsBoundary)
-            if (innerIsBoundary || (inner == PassPoint.BOUNCE_POINT && !Double.isNaN(turningR))) return tauMap.get(pp);
+            if (innerIsBoundary || (inner == PassPoint.BOUNCE_POINT && !Double.isNaN(turningR)))
+                return taus[pp.ordinal()];
         double[] interval = getIntegralInterval(part, eventR);
         if (Double.isNaN(interval[0]) || Double.isNaN(interval[1]) || interval[1] < interval[0]) return Double.NaN;
         return computeTau(pp, interval[0], interval[1]);
@@ -1300,7 +1400,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * a critical range for a phase part is from a bounce point to next mesh grid.
      * If there is no bounce point for a phase part, the value for the pp is NaN.
      */
-    private transient Map<PhasePart, Double> criticalTauMap;
+    private transient double[] criticalTaus;
 
     private void computeTau() {
         Arrays.stream(PhasePart.values()).parallel().forEach(pp -> {
@@ -1310,18 +1410,18 @@ public class Raypath implements Serializable, Comparable<Raypath> {
             DoubleUnaryOperator computeQTau = r -> WOODHOUSE.computeQTau(pp, RAY_PARAMETER, r);
             if (!Double.isNaN(turningR) && !Double.isNaN(computeQTau.applyAsDouble(mesh.getEntry(startIndex)))) {
                 double minimumR = turningR;
-                if (mesh.getEntry(startIndex) - turningR < ComputationalMesh.EPS) criticalTauMap.put(pp, 0d);
+                if (mesh.getEntry(startIndex) - turningR < ComputationalMesh.EPS) criticalTaus[pp.ordinal()] = 0d;
                 else {
                     while (Double.isNaN(computeQTau.applyAsDouble(minimumR))) minimumR += ComputationalMesh.EPS; //TODO
                     double cut = (mesh.getEntry(startIndex) - minimumR) / 2; //TODO
-                    criticalTauMap.put(pp, simpson(r -> WOODHOUSE.computeQTau(pp, RAY_PARAMETER, r), minimumR + cut,
-                            mesh.getEntry(startIndex)));
+                    criticalTaus[pp.ordinal()] = simpson(r -> WOODHOUSE.computeQTau(pp, RAY_PARAMETER, r),
+                            minimumR + cut, mesh.getEntry(startIndex));
                 }
-            } else criticalTauMap.put(pp, Double.NaN);
-            dTauMap.computeIfAbsent(pp, this::computeTransientTau);
-//            tauMap.put(pp, computeTau(pp, Double.isNaN(turningR) ? mesh.getEntry(0) : turningR,
-//                    mesh.getEntry(mesh.getDimension() - 1))); TODO TAU
-            tauMap.put(pp,Double.NaN);
+            } else criticalTaus[pp.ordinal()] = Double.NaN;
+            computeIfAbsent(dTaus, pp, this::computeTransientTau);
+//            taus[pp.ordinal()] = computeTau(pp, Double.isNaN(turningR) ? mesh.getEntry(0) : turningR,
+//                    mesh.getEntry(mesh.getDimension() - 1)); TODO TAU
+            taus[pp.ordinal()] = Double.NaN;
         });
     }
 
@@ -1332,10 +1432,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         RealVector mesh = MESH.getMesh(pp.whichPartition());
         double turningR = getTurningR(pp);
         int startIndex = Double.isNaN(turningR) ? 0 : MESH.getNextIndexOf(turningR, pp.whichPartition()) + 1;
-        double[] dTau = new double[mesh.getDimension() - 1];
-        for (int i = startIndex; i < dTau.length; i++)
-            dTau[i] = simpson(r -> WOODHOUSE.computeQTau(pp, RAY_PARAMETER, r), mesh.getEntry(i), mesh.getEntry(i + 1));
-        return dTau;
+        return simpsonOnMesh(r -> WOODHOUSE.computeQTau(pp, RAY_PARAMETER, r), mesh, startIndex);
     }
 
 /////////////////////////////////////////////////////////////////////////////////////////////
@@ -1346,15 +1443,15 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * computes turning radius
      */
     private void setTurningRs() {
-        turningRMap = Collections.synchronizedMap(new EnumMap<>(PhasePart.class));
+        turningRs = new double[PhasePart.values().length];
         if (RAY_PARAMETER == 0) {
-            Arrays.stream(PhasePart.values()).forEach(pp -> turningRMap.put(pp, Double.NaN));
-            turningRMap.put(PhasePart.I, 0d);
-            turningRMap.put(PhasePart.JV, 0d);
+            Arrays.stream(PhasePart.values()).forEach(pp -> turningRs[pp.ordinal()] = Double.NaN);
+            turningRs[PhasePart.I.ordinal()] = 0d;
+            turningRs[PhasePart.JV.ordinal()] = 0d;
             return;
         }
         Arrays.stream(PhasePart.values())
-                .forEach(pp -> turningRMap.put(pp, getStructure().getTurningR(pp, RAY_PARAMETER)));
+                .forEach(pp -> turningRs[pp.ordinal()] = getStructure().getTurningR(pp, RAY_PARAMETER));
     }
 
     /**
@@ -1364,9 +1461,9 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     public void printInfo() {
         System.out.println("#Phase:Turning points[km] Jeffrey boundary[km] Propagation delta[deg] time[s]");
         Arrays.stream(PhasePart.values()).forEach(pp -> System.out.println(
-                pp + ": " + Precision.round(turningRMap.get(pp), 3) + " " + jeffreysBoundaryMap.get(pp) + " " +
-                        Precision.round(Math.toDegrees(deltaMap.get(pp)), 3) + " " +
-                        Precision.round(timeMap.get(pp), 3)));
+                pp + ": " + Precision.round(turningRs[pp.ordinal()], 3) + " " + jeffreysBoundaries[pp.ordinal()] + " " +
+                        Precision.round(Math.toDegrees(deltas[pp.ordinal()]), 3) + " " +
+                        Precision.round(times[pp.ordinal()], 3)));
     }
 
     /**
@@ -1374,7 +1471,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * @return [km] radius of turning point
      */
     public double getTurningR(PhasePart pp) {
-        return turningRMap.get(pp);
+        return turningRs[pp.ordinal()];
     }
 
     /**
@@ -1388,19 +1485,29 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      * @see Integrand#bySimpsonRule(double, double, double, double)
      */
     private double simpson(DoubleUnaryOperator dXdr, double startR, double endR) {
+        if (endR - startR < ComputationalMesh.EPS) return 0;
+        return simpson(dXdr, startR, endR, dXdr.applyAsDouble(startR), dXdr.applyAsDouble(endR));
+    }
+
+    /**
+     * {@link #simpson(DoubleUnaryOperator, double, double)} with values at startR and endR computed in advance.
+     *
+     * @param dXdr   {@link DoubleUnaryOperator} to compute q<sub>&Delta;</sub> or q<sub>T</sub> for integration
+     * @param startR [km]
+     * @param endR   [km]
+     * @param a      dXdr at startR
+     * @param c      dXdr at endR
+     * @return [rad] &Delta; or [s] T (travel time) for startR &le; r &le; endR
+     */
+    private double simpson(DoubleUnaryOperator dXdr, double startR, double endR, double a, double c) {
         double deltaX = endR - startR;
         if (deltaX < ComputationalMesh.EPS) return 0;
-        double a = dXdr.applyAsDouble(startR);
         double b = dXdr.applyAsDouble(startR + 0.5 * deltaX);
-        double c = dXdr.applyAsDouble(endR);
         if (Double.isNaN(a + c)) return Double.isNaN(b) ? Double.NaN : 0; //TODO
         double ratio = a < c ? a / c : c / a;
         if (INTEGRAL_THRESHOLD < ratio) return bySimpsonRule(a, b, c, deltaX);
         if (a + b + c == 0) return 0;
-        double width = 0.01 * deltaX;
-        return simpsonInCriticalRange(dXdr, startR, startR + width) +
-                simpsonInCriticalRange(dXdr, startR + width, endR);
-//        return simpsonInCriticalRange(dXdr, startR, endR);
+        return MESH.getIntegrator().integrate(dXdr, startR, endR, a, b, c);
     }
 
     /**
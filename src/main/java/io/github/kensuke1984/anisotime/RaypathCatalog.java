@@ -5,27 +5,36 @@ import io.github.kensuke1984.kibrary.util.Utilities;
 import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math3.fitting.PolynomialCurveFitter;
 import org.apache.commons.math3.fitting.WeightedObservedPoints;
+import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.util.Precision;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.*;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Raypath catalog for one model.
  * If a new catalog is computed which does not exist in Kibrary share, it
  * automatically is stored.
+ * <p>
+ * Catalogs are written in a binary format ('*.bcat', see {@link #write(Path, OpenOption...)}).
+ * Files by Java serialization ('*.cat', e.g. the downloaded default catalogs) are also read, and never rewritten,
+ * as older versions sharing Kibrary share read them.
  *
  * @author Kensuke Konishi, Anselme Borgeaud
- * @version 0.2.18
+ * @version 0.3.4
  */
 public class RaypathCatalog implements Serializable {
     private static final Raypath[] EMPTY_RAYPATH = new Raypath[0];
@@ -33,6 +42,14 @@ public class RaypathCatalog implements Serializable {
      * 2020/8/2
      */
     private static final long serialVersionUID = 1261342672467429092L;
+    /**
+     * First bytes of a catalog file in the binary format ("ANISOCAT")
+     */
+    private static final long CATALOG_MAGIC = 0x414E49534F434154L;
+    /**
+     * Version of the binary format of catalog files
+     */
+    private static final int CATALOG_FORMAT_VERSION = 1;
     private static final String PIAC_SHA256 = "28e29e7fc7ab8cdfbb4b710a962172982b2517a9bd1bd50c0c11d9e53761698f";
 
     private static Path downloadCatalogZip() throws IOException {
@@ -100,17 +117,17 @@ public class RaypathCatalog implements Serializable {
             case "prem":
             case "PREM":
                 structure = VelocityStructure.prem();
-                catalogPath = PREM_PATH;
+                catalogPath = PREM_BINARY_PATH;
                 break;
             case "iprem":
             case "iPREM":
                 structure = VelocityStructure.iprem();
-                catalogPath = ISO_PREM_PATH;
+                catalogPath = ISO_PREM_BINARY_PATH;
                 break;
             case "ak135":
             case "AK135":
                 structure = VelocityStructure.ak135();
-                catalogPath = AK135_PATH;
+                catalogPath = AK135_BINARY_PATH;
                 break;
             default:
                 structure = new PolynomialStructure(Paths.get(args[0]));
@@ -150,6 +167,9 @@ public class RaypathCatalog implements Serializable {
     private static final Path ISO_PREM_PATH = SHARE_PATH.resolve("iprem.cat");
     private static final Path PREM_PATH = SHARE_PATH.resolve("prem.cat");
     private static final Path AK135_PATH = SHARE_PATH.resolve("ak135.cat");
+    private static final Path ISO_PREM_BINARY_PATH = SHARE_PATH.resolve("iprem.bcat");
+    private static final Path PREM_BINARY_PATH = SHARE_PATH.resolve("prem.bcat");
+    private static final Path AK135_BINARY_PATH = SHARE_PATH.resolve("ak135.bcat");
 
     /**
      * @param out       path to output a catalog
@@ -167,29 +187,70 @@ public class RaypathCatalog implements Serializable {
         return c;
     }
 
+    /**
+     * Reads a default catalog. The file in the binary format is read if it exists. Otherwise, the file by Java
+     * serialization is read (downloaded if it does not exist or is broken) and a copy in the binary format is written
+     * for the next time. If they fail, a catalog is computed.
+     *
+     * @param name       of the catalog
+     * @param path       of the file by Java serialization (downloaded)
+     * @param binaryPath of the file in the binary format
+     * @param structure  of the catalog
+     * @return the default catalog
+     */
+    private static RaypathCatalog readDefault(String name, Path path, Path binaryPath,
+                                              Supplier<VelocityStructure> structure) {
+        if (Files.exists(binaryPath)) try {
+            long t = System.nanoTime();
+            System.err.print("Reading a catalog for " + name + "...");
+            RaypathCatalog catalog = read(binaryPath);
+            System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
+            return catalog;
+        } catch (Exception e) {
+            System.err.println("failed. " + binaryPath + " is removed.");
+            try {
+                Files.deleteIfExists(binaryPath);
+            } catch (IOException ignored) {
+            }
+        }
+        RaypathCatalog catalog;
+        try {
+            long t = System.nanoTime();
+            System.err.print("Reading a catalog for " + name + "...");
+            catalog = read(path);
+            System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
+        } catch (Exception e) {
+            try {
+                System.err.println("failed.\nDownloading a catalog for " + name + "...");
+                Files.deleteIfExists(path);
+                extractInShare();
+                catalog = read(path);
+            } catch (Exception e2) {
+                System.err.println("failed.\nCreating a catalog for " + name + ".");
+                return createAndWrite(binaryPath, structure.get());
+            }
+        }
+        try {
+            Path tmp = Files.createTempFile(SHARE_PATH, "raypath", ".tmp");
+            try {
+                catalog.write(tmp);
+                Files.move(tmp, binaryPath, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (Exception e) {
+            System.err.println("Catalog " + binaryPath + " cannot be written. " + path + " is read again next time.");
+        }
+        return catalog;
+    }
+
     /**
      * @return the default catalog for the anisotropic PREM.
      */
     public static RaypathCatalog prem() {
         if (Objects.isNull(PREM)) synchronized (LOCK_PREM) {
-            if (Objects.isNull(PREM)) {
-                try {
-                    long t = System.nanoTime();
-                    System.err.print("Reading a catalog for PREM...");
-                    PREM = read(PREM_PATH);
-                    System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
-                } catch (Exception e) {
-                    try {
-                        System.err.println("failed.\nDownloading a catalog for PREM...");
-                        Files.deleteIfExists(PREM_PATH);
-                        extractInShare();
-                        PREM = read(PREM_PATH);
-                    } catch (Exception e2) {
-                        System.err.println("failed.\nCreating a catalog for PREM.");
-                        PREM = createAndWrite(PREM_PATH, VelocityStructure.prem());
-                    }
-                }
-            }
+            if (Objects.isNull(PREM))
+                PREM = readDefault("PREM", PREM_PATH, PREM_BINARY_PATH, VelocityStructure::prem);
         }
         return PREM;
     }
@@ -199,24 +260,8 @@ public class RaypathCatalog implements Serializable {
      */
     public static RaypathCatalog iprem() {
         if (Objects.isNull(ISO_PREM)) synchronized (LOCK_ISO_PREM) {
-            if (Objects.isNull(ISO_PREM)) {
-                try {
-                    long t = System.nanoTime();
-                    System.err.print("Reading a catalog for ISO_PREM...");
-                    ISO_PREM = read(ISO_PREM_PATH);
-                    System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
-                } catch (Exception e) {
-                    try {
-                        System.err.println("failed.\nDownloading a catalog for ISO_PREM...");
-                        Files.deleteIfExists(ISO_PREM_PATH);
-                        extractInShare();
-                        ISO_PREM = read(ISO_PREM_PATH);
-                    } catch (Exception e2) {
-                        System.err.println("failed.\nCreating a catalog for ISO_PREM.");
-                        ISO_PREM = createAndWrite(ISO_PREM_PATH, VelocityStructure.iprem());
-                    }
-                }
-            }
+            if (Objects.isNull(ISO_PREM))
+                ISO_PREM = readDefault("ISO_PREM", ISO_PREM_PATH, ISO_PREM_BINARY_PATH, VelocityStructure::iprem);
         }
         return ISO_PREM;
     }
@@ -226,24 +271,8 @@ public class RaypathCatalog implements Serializable {
      */
     public static RaypathCatalog ak135() {
         if (Objects.isNull(AK135)) synchronized (LOCK_AK135) {
-            if (Objects.isNull(AK135)) {
-                try {
-                    long t = System.nanoTime();
-                    System.err.print("Reading a catalog for AK135...");
-                    AK135 = read(AK135_PATH);
-                    System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
-                } catch (Exception e) {
-                    try {
-                        System.err.println("failed.\nDownloading a catalog for AK135...");
-                        Files.deleteIfExists(AK135_PATH);
-                        extractInShare();
-                        AK135 = read(AK135_PATH);
-                    } catch (Exception e2) {
-                        System.err.println("failed.\nCreating a catalog for AK135.");
-                        AK135 = createAndWrite(AK135_PATH, VelocityStructure.ak135());
-                    }
-                }
-            }
+            if (Objects.isNull(AK135))
+                AK135 = readDefault("AK135", AK135_PATH, AK135_BINARY_PATH, VelocityStructure::ak135);
         }
         return AK135;
     }
@@ -258,6 +287,14 @@ public class RaypathCatalog implements Serializable {
      * does not have a denser ray parameter than the value.
      */
     private static final double MINIMUM_DELTA_P = 1e-3;
+    /**
+     * [rad] Raypaths found by a search have &Delta; closer to a target than this.
+     */
+    private static final double DELTA_TOLERANCE = Math.toRadians(0.01);
+    /**
+     * Maximum number of {@link TravelTimeTable}s kept for {@link #searchPath(Phase, double, double, boolean)}
+     */
+    private static final int MAXIMUM_TABLES = 64;
     /**
      * Woodhouse formula with certain velocity structure
      */
@@ -286,6 +323,11 @@ public class RaypathCatalog implements Serializable {
      * Raypath of SHdiff
      */
     private Raypath shDiff;
+    /**
+     * Tables for {@link #searchPath(Phase, double, double, boolean)} for each (phase, radius on the mesh)
+     * in the order of access. They are created when they are needed and the least recently used ones are removed.
+     */
+    private transient Map<String, TravelTimeTable> searchTables;
 
     /**
      * We compute epicentral distances &Delta;<sup>(P)</sup><sub>i</sub> (P or
@@ -330,7 +372,7 @@ public class RaypathCatalog implements Serializable {
         else if (structure.equals(VelocityStructure.ak135()) &&
                 mesh.equals(ComputationalMesh.simple(VelocityStructure.ak135()))) return ak135();
 
-        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(SHARE_PATH, "*.cat")) {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(SHARE_PATH, "*.{bcat,cat}")) {
             for (Path path : directoryStream) {
                 try {
                     RaypathCatalog catalog = read(path);
@@ -346,7 +388,7 @@ public class RaypathCatalog implements Serializable {
         System.err.println("Computing a catalog for the input structure.");
         cat.create();
         try {
-            Path p = Files.createTempFile(SHARE_PATH, "raypath", ".cat");
+            Path p = Files.createTempFile(SHARE_PATH, "raypath", ".bcat");
             cat.write(p);
             System.err.println(p + " is created.");
         } catch (IOException e) {
@@ -356,6 +398,10 @@ public class RaypathCatalog implements Serializable {
     }
 
     /**
+     * A catalog file in the binary format ({@link #write(Path, OpenOption...)}) is mapped in memory.
+     * Values of raypaths are read from the mapped file directly, and nothing is computed.
+     * A catalog file by Java serialization (written by older versions) is also readable.
+     *
      * @param path    the path for the catalog file.
      * @param options open option
      * @return catalog read from the path
@@ -363,11 +409,93 @@ public class RaypathCatalog implements Serializable {
      * @throws ClassNotFoundException if any
      */
     public static RaypathCatalog read(Path path, OpenOption... options) throws IOException, ClassNotFoundException {
+        if (isBinary(path, options)) {
+            Set<OpenOption> openOptions = new HashSet<>(Arrays.asList(options));
+            openOptions.add(StandardOpenOption.READ);
+            try (FileChannel channel = FileChannel.open(path, openOptions)) {
+                return readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
         try (ObjectInputStream oi = new ObjectInputStream(Files.newInputStream(path, options))) {
             return (RaypathCatalog) oi.readObject();
         }
     }
 
+    /**
+     * @param path    the path for the catalog file.
+     * @param options open option
+     * @return if the file is in the binary format
+     * @throws IOException if any
+     */
+    private static boolean isBinary(Path path, OpenOption... options) throws IOException {
+        try (DataInputStream stream = new DataInputStream(Files.newInputStream(path, options))) {
+            return stream.readLong() == CATALOG_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param buffer of a catalog file in the binary format
+     * @return catalog in the buffer
+     * @throws IOException            if the format is invalid
+     * @throws ClassNotFoundException if the structure or mesh in the header is unknown
+     */
+    private static RaypathCatalog readBinary(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        ((Buffer) buffer).position(8);
+        int version = buffer.getInt();
+        if (version != CATALOG_FORMAT_VERSION) throw new IOException("Unsupported catalog format version " + version);
+        byte[] header = new byte[buffer.getInt()];
+        buffer.get(header);
+        ((Buffer) buffer).position((buffer.position() + 7) / 8 * 8);
+        RaypathCatalog catalog;
+        try (ObjectInputStream headerStream = new ObjectInputStream(new ByteArrayInputStream(header))) {
+            VelocityStructure structure = (VelocityStructure) headerStream.readObject();
+            ComputationalMesh mesh = (ComputationalMesh) headerStream.readObject();
+            catalog = new RaypathCatalog(structure, mesh, headerStream.readDouble());
+        }
+        int nRay = buffer.getInt();
+        if (buffer.getInt() != PhasePart.values().length) throw new IOException("Phase parts do not match.");
+        int dThetaStart = buffer.getInt();
+        int dThetaLength = buffer.getInt();
+        double[] rayParameters = new double[nRay];
+        buffer.asDoubleBuffer().get(rayParameters);
+        ((Buffer) buffer).position(buffer.position() + 8 * nRay);
+        RaypathColumns columns = new RaypathColumns(buffer, nRay, dThetaStart, dThetaLength);
+        Raypath[] raypaths = new Raypath[nRay];
+        for (int i = 0; i < nRay; i++)
+            raypaths[i] = new Raypath(rayParameters[i], catalog.WOODHOUSE, catalog.MESH, columns, i);
+        catalog.raypathList.addAll(Arrays.asList(raypaths));
+        catalog.pDiff = raypaths[buffer.getInt()];
+        catalog.svDiff = raypaths[buffer.getInt()];
+        catalog.shDiff = raypaths[buffer.getInt()];
+        for (int i = 0, n = buffer.getInt(); i < n; i++) {
+            double boundaryR = buffer.getDouble();
+            PhasePart pp = PhasePart.values()[buffer.getInt()];
+            catalog.reflectionCatalogs.add(catalog.new ReflectionCatalog(boundaryR, pp, readSet(buffer, raypaths)));
+        }
+        for (int i = 0, n = buffer.getInt(); i < n; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            Phase reference = Phase.create(new String(name, StandardCharsets.UTF_8), buffer.get() != 0);
+            catalog.bounceCatalogs.add(catalog.new BounceCatalog(reference, readSet(buffer, raypaths)));
+        }
+        if (buffer.hasRemaining()) throw new IOException("Invalid catalog file.");
+        return catalog;
+    }
+
+    /**
+     * @param buffer   with the number of raypaths and their indices
+     * @param raypaths all the raypaths in a catalog
+     * @return set of the raypaths of the indices
+     */
+    private static Set<Raypath> readSet(ByteBuffer buffer, Raypath[] raypaths) {
+        Set<Raypath> set = new TreeSet<>();
+        for (int i = 0, n = buffer.getInt(); i < n; i++)
+            set.add(raypaths[buffer.getInt()]);
+        return set;
+    }
+
     /**
      * If an input angle is a radian for 370 deg, then one for 10 deg returns.
      * If an input angle is a radian for 190 deg, then one for 170 deg returns.
@@ -600,6 +728,15 @@ public class RaypathCatalog implements Serializable {
                     target.contains("J");
         }
 
+        /**
+         * @param targetPhase target phase
+         * @return actual phases to search in this catalog for the targetPhase. Phase[0] if it should be skipped.
+         */
+        private Phase[] toSearchPhases(Phase targetPhase) {
+            if (CATALOG.isEmpty() || shouldSkip(targetPhase)) return new Phase[0];
+            return toReflections(targetPhase);
+        }
+
         /**
          * @param targetPhase   target phase
          * @param eventR        [km] event radius
@@ -662,6 +799,15 @@ public class RaypathCatalog implements Serializable {
                     targetPhase.isPSV() ^ REFERENCE_PHASE.isPSV();
         }
 
+        /**
+         * @param targetPhase target phase
+         * @return phases to search in this catalog for the targetPhase. Phase[0] if it should be skipped.
+         */
+        private Phase[] toSearchPhases(Phase targetPhase) {
+            if (CATALOG.isEmpty() || shouldSkip(targetPhase)) return new Phase[0];
+            return new Phase[]{targetPhase};
+        }
+
         private Raypath[] searchPath(Phase targetPhase, double eventR, double targetDelta, boolean relativeAngle) {
             if (CATALOG.isEmpty()) return EMPTY_RAYPATH;
             if (shouldSkip(targetPhase)) return EMPTY_RAYPATH;
@@ -692,29 +838,80 @@ public class RaypathCatalog implements Serializable {
     private void catalogOfBounceWaves() {
         Phase[] targetPhases = new Phase[]{Phase.P, Phase.S, Phase.SV, Phase.PKP, Phase.SKS, Phase.PKIKP, Phase.SKIKS};
         long t = System.nanoTime();
-        for (Phase targetPhase : targetPhases) {
-            List<Double[]> edgeList = computeRaypameterEdge(targetPhase);
-            System.err.print("\rCreating a catalog for " + targetPhase);
-            for (Double[] edges : edgeList)
-                bounceCatalogs.add(new BounceCatalog(targetPhase, computeRaypaths(targetPhase, edges[0], edges[1])));
+        List<Branch> branches = new ArrayList<>();
+        for (Phase targetPhase : targetPhases)
+            for (Double[] edges : computeRaypameterEdge(targetPhase))
+                branches.add(new Branch(targetPhase, edges[0], edges[1]));
+        System.err.print("Computing edges of branches of bouncing waves");
+        computeEdges(branches);
+        for (Branch branch : branches) {
+            System.err.print("\rCreating a catalog for " + branch.PHASE);
+            bounceCatalogs.add(new BounceCatalog(branch.PHASE, catalogInBranch(branch)));
         }
         System.err.println(
                 "\rCreating catalogs for bouncing waves done in " + Utilities.toTimeString(System.nanoTime() - t));
     }
 
     /**
-     * @param boundaryR radius at a target jump
-     * @param phase     target {@link Phase}
-     * @param calcV     to compute a velocity
-     * @return Set of {@link Raypath}s which has a reflecting raypath of the phase.
+     * Branch of a phase in a range of ray parameter, for which raypaths are cataloged.
+     * Raypaths at the edges of the range do not depend on the raypaths already in the catalog,
+     * so they are computed in parallel before the branches are cataloged in order.
+     */
+    private class Branch {
+        private final Phase PHASE;
+        private final Supplier<Raypath[]> EDGE_COMPUTATION;
+        private final String DESCRIPTION;
+        /**
+         * Raypaths at the edges (both null if the phase does not exist in the range)
+         */
+        private Raypath[] edgeRaypaths;
+
+        /**
+         * @param phase         target phase
+         * @param rayParameter1 min/maximum of the range
+         * @param rayParameter2 min/maximum of the range
+         */
+        private Branch(Phase phase, double rayParameter1, double rayParameter2) {
+            PHASE = phase;
+            double startP = Math.min(rayParameter1, rayParameter2);
+            double endP = Math.max(rayParameter1, rayParameter2);
+            EDGE_COMPUTATION = () -> adjustRaypathRange(phase, startP, endP);
+            DESCRIPTION = "in " + startP + " " + endP;
+        }
+
+        /**
+         * @param boundaryR radius at a target jump
+         * @param phase     target phase reflecting at the jump
+         * @param calcV     to compute a velocity
+         */
+        private Branch(double boundaryR, Phase phase, DoubleUnaryOperator calcV) {
+            PHASE = phase;
+            EDGE_COMPUTATION = () -> getEdgeRaypathsInPRangeForRelectingRaypaths(boundaryR, phase, calcV);
+            DESCRIPTION = "reflecting at " + boundaryR;
+        }
+    }
+
+    /**
+     * Computes edges of the branches in parallel (in the common {@link java.util.concurrent.ForkJoinPool}).
+     *
+     * @param branches to compute edges of
+     */
+    private static void computeEdges(List<Branch> branches) {
+        branches.parallelStream().forEach(branch -> branch.edgeRaypaths = branch.EDGE_COMPUTATION.get());
+    }
+
+    /**
+     * @param branch with the edges computed
+     * @return Set of {@link Raypath}s in the branch, which have &Delta;s for the phase of the branch.
+     * The &Delta;s satisfy the condition of {@link #MAXIMUM_D_DELTA}.
      * If no raypaths found, it returns an empty set(not null).
      */
-    private Set<Raypath> computeReflectingRaypaths(double boundaryR, Phase phase, DoubleUnaryOperator calcV) {
-        Raypath[] edgeRaypaths = getEdgeRaypathsInPRangeForRelectingRaypaths(boundaryR, phase, calcV);
+    private Set<Raypath> catalogInBranch(Branch branch) {
+        Raypath[] edgeRaypaths = branch.edgeRaypaths;
         if (Objects.isNull(edgeRaypaths[0]) && Objects.isNull(edgeRaypaths[1])) return Collections.emptySet();
         else if (Objects.isNull(edgeRaypaths[0]) || Objects.isNull(edgeRaypaths[1]))
-            throw new RuntimeException("UNEXPECTED " + phase + " reflecting at " + boundaryR);
-        return catalogInBranch(phase, edgeRaypaths[0], edgeRaypaths[1]);
+            throw new RuntimeException("UNEXPECTED " + branch.PHASE + " " + branch.DESCRIPTION);
+        return catalogInBranch(branch.PHASE, edgeRaypaths[0], edgeRaypaths[1]);
     }
 
     /**
@@ -729,25 +926,21 @@ public class RaypathCatalog implements Serializable {
         DoubleUnaryOperator computeVsv = getStructure()::computeVsv;
         DoubleUnaryOperator computeVsh = getStructure()::computeVsh;
         long t = System.nanoTime();
+        List<Double> boundaries = new ArrayList<>();
+        List<PhasePart> parts = new ArrayList<>();
+        List<Branch> branches = new ArrayList<>();
         for (double mantleBoundary : mantleBoundaries) {
             if (mantleBoundary == getStructure().coreMantleBoundary() || !getStructure().isJump(mantleBoundary))
                 continue;
-            System.err.print("Creating a catalog for the boundary at " + mantleBoundary);
             String depthString = String.valueOf(Precision.round(getStructure().earthRadius() - mantleBoundary, 4));
-            System.err.print(" for P ..");
+            boundaries.addAll(Collections.nCopies(3, mantleBoundary));
+            parts.addAll(Arrays.asList(PhasePart.P, PhasePart.SV, PhasePart.SH));
             //P
-            reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.P,
-                    computeReflectingRaypaths(mantleBoundary, Phase.create("Pv" + depthString + "P"), computeVph)));
-            System.err.print(" SV ..");
+            branches.add(new Branch(mantleBoundary, Phase.create("Pv" + depthString + "P"), computeVph));
             //SV
-            reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.SV,
-                    computeReflectingRaypaths(mantleBoundary, Phase.create("Sv" + depthString + "S", true),
-                            computeVsv)));
-            System.err.print(" SH ..");
+            branches.add(new Branch(mantleBoundary, Phase.create("Sv" + depthString + "S", true), computeVsv));
             //SH
-            reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.SH,
-                    computeReflectingRaypaths(mantleBoundary, Phase.create("Sv" + depthString + "S"), computeVsh)));
-            System.err.print("\r");
+            branches.add(new Branch(mantleBoundary, Phase.create("Sv" + depthString + "S"), computeVsh));
         }
         //inside outercore innercore TODO
 
@@ -757,17 +950,28 @@ public class RaypathCatalog implements Serializable {
         double pPcP = lowerMostMantle / getStructure().computeVph(lowerMostMantle);
         double pSVcS = lowerMostMantle / getStructure().computeVsv(lowerMostMantle);
         double pScS = lowerMostMantle / getStructure().computeVsh(lowerMostMantle);
-        System.err.print("Creating a catalog for CMB");
-        reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.P, computeRaypaths(Phase.PcP, 0, pPcP)));
-        reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.SV, computeRaypaths(Phase.SVcS, 0, pSVcS)));
-        reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.SH, computeRaypaths(Phase.ScS, 0, pScS)));
+        boundaries.addAll(Collections.nCopies(3, cmb));
+        parts.addAll(Arrays.asList(PhasePart.P, PhasePart.SV, PhasePart.SH));
+        branches.add(new Branch(Phase.PcP, 0, pPcP));
+        branches.add(new Branch(Phase.SVcS, 0, pSVcS));
+        branches.add(new Branch(Phase.ScS, 0, pScS));
         //ICB PKiKP SKiKS
-        System.err.print("\rCreating a catalog for ICB");
         double icb = getStructure().innerCoreBoundary();
         double loweMostOutercore = icb + ComputationalMesh.EPS;
         double pPKiKP = loweMostOutercore / getStructure().computeVph(loweMostOutercore);
-        reflectionCatalogs.add(new ReflectionCatalog(icb, PhasePart.K, computeRaypaths(Phase.PKiKP, 0, pPKiKP)));
-        reflectionCatalogs.add(new ReflectionCatalog(icb, PhasePart.K, computeRaypaths(Phase.SKiKS, 0, pPKiKP)));
+        boundaries.addAll(Collections.nCopies(2, icb));
+        parts.addAll(Arrays.asList(PhasePart.K, PhasePart.K));
+        branches.add(new Branch(Phase.PKiKP, 0, pPKiKP));
+        branches.add(new Branch(Phase.SKiKS, 0, pPKiKP));
+
+        System.err.print("Computing edges of branches of reflecting waves");
+        computeEdges(branches);
+        for (int i = 0; i < branches.size(); i++) {
+            double boundaryR = boundaries.get(i);
+            if (i == 0 || boundaryR != boundaries.get(i - 1))
+                System.err.print("\rCreating a catalog for the boundary at " + boundaryR);
+            reflectionCatalogs.add(new ReflectionCatalog(boundaryR, parts.get(i), catalogInBranch(branches.get(i))));
+        }
         System.err
                 .println("\rCatalogs for boundaries are computed in " + Utilities.toTimeString(System.nanoTime() - t));
     }
@@ -883,40 +1087,19 @@ public class RaypathCatalog implements Serializable {
         //copy from main
         raypathList.stream().filter(r -> startRaypath.getRayParameter() <= r.getRayParameter() &&
                 r.getRayParameter() <= endRaypath.getRayParameter()).forEach(catalog::add);
-        List<Raypath> supplementList = new ArrayList<>();
+        List<Raypath> supplementList;
+        // each round is computed in parallel; the catalog is the same as the serial one as it is a set
         do {
-            supplementList.clear();
-            for (Raypath raypath = catalog.first(); raypath != catalog.last(); raypath = catalog.higher(raypath)) {
-                Raypath higher = catalog.higher(raypath);
-                if (closeEnough.test(raypath, higher)) continue;
-                supplementList.add(centerRayparameterRaypath.apply(raypath, higher));
-            }
+            Raypath[] raypaths = catalog.toArray(EMPTY_RAYPATH);
+            supplementList = IntStream.range(0, raypaths.length - 1).parallel()
+                    .filter(i -> !closeEnough.test(raypaths[i], raypaths[i + 1]))
+                    .mapToObj(i -> centerRayparameterRaypath.apply(raypaths[i], raypaths[i + 1]))
+                    .collect(Collectors.toList());
         } while (catalog.addAll(supplementList));
         raypathList.addAll(catalog);
         return catalog;
     }
 
-    /**
-     * Computes rayParameters with rayparameters between input 2 values.
-     * The range is set [min of them, max of them].
-     *
-     * @param targetPhase   target phase
-     * @param rayParameter1 min/maximum of the range
-     * @param rayParameter2 min/maximum of the range
-     * @return Raypaths with a rayparameter range, which have $Delta;s for the input targetPhase.
-     * The &Delta;s satisfy the condition of {@link #MAXIMUM_D_DELTA}. Never returns null, but emptySet.
-     */
-    private Set<Raypath> computeRaypaths(Phase targetPhase, double rayParameter1, double rayParameter2) {
-        double startP = Math.min(rayParameter1, rayParameter2);
-        double endP = Math.max(rayParameter1, rayParameter2);
-        Raypath[] edgeRaypaths = adjustRaypathRange(targetPhase, startP, endP);
-        if (Objects.isNull(edgeRaypaths[0]) && Objects.isNull(edgeRaypaths[1])) return Collections.emptySet();
-        else if (Objects.isNull(edgeRaypaths[0]) || Objects.isNull(edgeRaypaths[1]))
-            throw new RuntimeException("UNEXPECTED " + targetPhase + " in " + startP + " " + endP);
-        return catalogInBranch(targetPhase, edgeRaypaths[0], edgeRaypaths[1]);
-    }
-
-
     /**
      * @param phase target {@link Phase}
      * @return critical ray parameters [s/rad]. e.g. a raypath which has turning depth at a boundary
@@ -1037,9 +1220,8 @@ public class RaypathCatalog implements Serializable {
         };
         Raypath nextRaypath = interpolateRaypath(targetPhase, eventR, targetDelta, relativeAngle, raySet);
         double nextTheta = nextRaypath.computeDelta(targetPhase, eventR);
-        double limit = Math.toRadians(0.01);
         int count = 0;
-        while (limit < Math.abs(nextTheta - targetDelta) && count++ < 10) {
+        while (DELTA_TOLERANCE < Math.abs(nextTheta - targetDelta) && count++ < 10) {
             moreSample.accept(raySet);
             nextRaypath = interpolateRaypath(targetPhase, eventR, targetDelta, relativeAngle, raySet);
             nextTheta = nextRaypath.computeDelta(targetPhase, eventR);
@@ -1048,16 +1230,79 @@ public class RaypathCatalog implements Serializable {
     }
 
     /**
+     * Writes the catalog in the binary format (version {@link #CATALOG_FORMAT_VERSION}).
+     * <p>
+     * After {@link #CATALOG_MAGIC}, the version and the header (the structure, the mesh and &delta;&Delta;
+     * by Java serialization) padded to 8 bytes,
+     * the number of raypaths, the number of phase parts, the range of layers in the mantle for &delta;&Delta;,
+     * the column of ray parameters and the columns of values of raypaths ({@link RaypathColumns}) follow.
+     * Finally, indices of diffraction raypaths and the raypaths in each reflection and bounce catalog are written.
+     *
      * @param path    the path to the write file
      * @param options if any
      * @throws IOException If an I/O error happens. it throws error.
      */
     public void write(Path path, OpenOption... options) throws IOException {
-        try (ObjectOutputStream o = new ObjectOutputStream(Files.newOutputStream(path, options))) {
-            o.writeObject(this);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (ObjectOutputStream headerStream = new ObjectOutputStream(header)) {
+            headerStream.writeObject(getStructure());
+            headerStream.writeObject(MESH);
+            headerStream.writeDouble(MAXIMUM_D_DELTA);
+        }
+        Raypath[] raypaths = getRaypaths();
+        double[] rayParameters = Arrays.stream(raypaths).mapToDouble(Raypath::getRayParameter).toArray();
+        RealVector mantleMesh = MESH.getMesh(Partition.MANTLE);
+        int dThetaStart = RaypathColumns.dThetaStart(mantleMesh, getStructure());
+        int dThetaLength = mantleMesh.getDimension() - 1 - dThetaStart;
+        try (DataOutputStream o = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path, options)))) {
+            o.writeLong(CATALOG_MAGIC);
+            o.writeInt(CATALOG_FORMAT_VERSION);
+            o.writeInt(header.size());
+            header.writeTo(o);
+            for (int i = 16 + header.size(); i % 8 != 0; i++)
+                o.writeByte(0);
+            o.writeInt(raypaths.length);
+            o.writeInt(PhasePart.values().length);
+            o.writeInt(dThetaStart);
+            o.writeInt(dThetaLength);
+            for (double rayParameter : rayParameters)
+                o.writeDouble(rayParameter);
+            RaypathColumns.write(raypaths, dThetaStart, dThetaLength, o);
+            ToIntFunction<Raypath> indexOf = raypath -> Arrays.binarySearch(rayParameters, raypath.getRayParameter());
+            o.writeInt(indexOf.applyAsInt(pDiff));
+            o.writeInt(indexOf.applyAsInt(svDiff));
+            o.writeInt(indexOf.applyAsInt(shDiff));
+            o.writeInt(reflectionCatalogs.size());
+            for (ReflectionCatalog reflectionCatalog : reflectionCatalogs) {
+                o.writeDouble(reflectionCatalog.BOUNDARY_R);
+                o.writeInt(reflectionCatalog.PP.ordinal());
+                writeSet(reflectionCatalog.CATALOG, indexOf, o);
+            }
+            o.writeInt(bounceCatalogs.size());
+            for (BounceCatalog bounceCatalog : bounceCatalogs) {
+                byte[] name = bounceCatalog.REFERENCE_PHASE.toString().getBytes(StandardCharsets.UTF_8);
+                o.writeInt(name.length);
+                o.write(name);
+                o.writeBoolean(bounceCatalog.REFERENCE_PHASE.isPSV());
+                writeSet(bounceCatalog.CATALOG, indexOf, o);
+            }
         }
     }
 
+    /**
+     * @param set     of raypaths to write
+     * @param indexOf index of a raypath in the catalog
+     * @param output  to write the number and the indices of the raypaths in
+     * @throws IOException if any
+     */
+    private static void writeSet(Set<Raypath> set, ToIntFunction<Raypath> indexOf, DataOutput output)
+            throws IOException {
+        output.writeInt(set.size());
+        for (Raypath raypath : set)
+            output.writeInt(indexOf.applyAsInt(raypath));
+    }
+
     /**
      * @param targetPhase   target phase
      * @param eventR        [km] event radius
@@ -1083,6 +1328,21 @@ public class RaypathCatalog implements Serializable {
         if (targetDelta < 0) throw new IllegalArgumentException("targetDelta must be non-negative.");
         if (relativeAngle && Math.PI < targetDelta) throw new IllegalArgumentException(
                 "When you search paths for a relative angle, a targetDelta must be pi or less.");
+        Raypath[] raypaths = searchPathInTable(targetPhase, eventR, targetDelta);
+        return raypaths != null ? raypaths : searchPathInCatalogs(targetPhase, eventR, targetDelta, relativeAngle);
+    }
+
+    /**
+     * Searches raypaths by scanning the bounce and reflection catalogs, and refining the candidates.
+     * It is used when {@link #searchPathInTable(Phase, double, double)} can not decide raypaths.
+     *
+     * @param targetPhase   target phase
+     * @param eventR        [km] event radius
+     * @param targetDelta   [rad] target &Delta;
+     * @param relativeAngle if the input targetDelta is a relative angle.
+     * @return Arrays of raypaths which epicentral distances are close to the targetDelta
+     */
+    Raypath[] searchPathInCatalogs(Phase targetPhase, double eventR, double targetDelta, boolean relativeAngle) {
         Set<Raypath> candidates = new HashSet<>();
         for (BounceCatalog bounceCatalog : bounceCatalogs)
             candidates.addAll(Arrays.asList(bounceCatalog.searchPath(targetPhase, eventR, targetDelta, relativeAngle)));
@@ -1092,6 +1352,197 @@ public class RaypathCatalog implements Serializable {
         return removeDuplicate(candidates);
     }
 
+    /**
+     * Searches raypaths in the table of the targetPhase for the mesh radius of the eventR.
+     * The ray parameters looked up in the table are checked by computing &Delta; for the eventR and,
+     * if the error is not smaller than {@link #DELTA_TOLERANCE}, corrected once by dp/d&Delta; in the table.
+     * If the eventR is not on the mesh, the table for the mesh radius below must give arrivals on the same curves.
+     * As a table without refinement of edges can not tell if the phase exists beyond an edge,
+     * a look-up without arrivals is not trusted either.
+     * <p>
+     * {@link TravelTimeTable#lookUp(double, double[], double[], double[], int[])} allocates nothing,
+     * but this method allocates arrays for the look-ups, and {@link Raypath}s for the arrivals.
+     *
+     * @param targetPhase target phase
+     * @param eventR      [km] event radius
+     * @param targetDelta [rad] target &Delta;
+     * @return raypaths with the targetDelta, or null if the table can not decide them
+     * (the targetDelta is close to an edge, there are no arrivals in the table, the arrivals change between the mesh
+     * radii, or a raypath is out of the tolerance)
+     */
+    Raypath[] searchPathInTable(Phase targetPhase, double eventR, double targetDelta) {
+        RealVector mantleMesh = MESH.getMesh(Partition.MANTLE);
+        int index = MESH.getNextIndexOf(eventR, Partition.MANTLE);
+        boolean onMesh = Math.abs(mantleMesh.getEntry(index) - eventR) <= ComputationalMesh.EPS;
+        TravelTimeTable table = getSearchTable(targetPhase, mantleMesh.getEntry(onMesh ? index : index + 1));
+        int max = table.getMaximumMultiplicity();
+        double[] p = new double[max];
+        double[] t = new double[max];
+        double[] dpdDelta = new double[max];
+        int[] curves = new int[max];
+        int n = table.lookUp(targetDelta, p, t, dpdDelta, curves);
+        if (n <= 0) return null;
+        if (!onMesh) {
+            TravelTimeTable lowerTable = getSearchTable(targetPhase, mantleMesh.getEntry(index));
+            int[] lowerCurves = new int[max];
+            if (lowerTable.lookUp(targetDelta, new double[max], new double[max], new double[max], lowerCurves) != n)
+                return null;
+            for (int i = 0; i < n; i++)
+                if (curves[i] != lowerCurves[i]) return null;
+        }
+        Raypath[] raypaths = new Raypath[n];
+        for (int i = 0; i < n; i++) {
+            Phase phase = table.getPhase(curves[i]);
+            Raypath raypath = new Raypath(p[i], WOODHOUSE, MESH);
+            double error = raypath.computeDelta(phase, eventR) - targetDelta;
+            if (!(Math.abs(error) < DELTA_TOLERANCE)) {
+                double rayParameter = p[i] - error * dpdDelta[i];
+                if (!(0 <= rayParameter)) return null;
+                raypath = new Raypath(rayParameter, WOODHOUSE, MESH);
+                if (!(Math.abs(raypath.computeDelta(phase, eventR) - targetDelta) < DELTA_TOLERANCE)) return null;
+            }
+            raypaths[i] = raypath;
+        }
+        return raypaths;
+    }
+
+    /**
+     * @param eventR [km] event radius
+     * @return [km] radius on the mesh in the mantle for the eventR (the next one above if it is not on the mesh)
+     */
+    private double meshRadiusOf(double eventR) {
+        RealVector mantleMesh = MESH.getMesh(Partition.MANTLE);
+        int index = MESH.getNextIndexOf(eventR, Partition.MANTLE);
+        double meshR = mantleMesh.getEntry(index);
+        return ComputationalMesh.EPS < Math.abs(meshR - eventR) ? mantleMesh.getEntry(index + 1) : meshR;
+    }
+
+    /**
+     * @param targetPhase target phase
+     * @param meshR       [km] radius on the mesh
+     * @return table (without refinement of edges) of the targetPhase for the meshR. If it is not kept, it is created.
+     */
+    private TravelTimeTable getSearchTable(Phase targetPhase, double meshR) {
+        Map<String, TravelTimeTable> tables;
+        synchronized (this) {
+            if (searchTables == null) searchTables = new LinkedHashMap<String, TravelTimeTable>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TravelTimeTable> eldest) {
+                    return MAXIMUM_TABLES < size();
+                }
+            };
+            tables = searchTables;
+        }
+        String key = targetPhase + (targetPhase.isPSV() ? " PSV " : " SH ") + meshR;
+        TravelTimeTable table;
+        synchronized (tables) {
+            table = tables.get(key);
+        }
+        if (table != null) return table;
+        // created out of the lock. Another thread may create the same table at the same time, which is harmless.
+        table = createTravelTimeTable(targetPhase, meshR, false);
+        synchronized (tables) {
+            TravelTimeTable previous = tables.putIfAbsent(key, table);
+            return previous == null ? table : previous;
+        }
+    }
+
+    /**
+     * Arrivals of a phase for many pairs of a source and an epicentral distance.
+     * <p>
+     * For each source radius, &Delta; and T of the phase are computed once on the raypaths in the catalog
+     * ({@link TravelTimeTable}), and the pairs are looked up in the tables.
+     * Both the tables and the look-ups are computed in parallel.
+     * Only pairs which the tables can not resolve (close to edges of branches), special cases
+     * (such as &Delta; = 0) and diffracted phases are searched by
+     * {@link #searchPath(Phase, double, double, boolean)} one by one.
+     *
+     * @param targetPhase target phase
+     * @param eventR      [km] eventR[i] is the radius of the source of the i th pair
+     * @param targetDelta [rad] targetDelta[i] is the epicentral distance of the i th pair
+     * @return arrivals of the pairs
+     */
+    public Arrivals[] computeArrivals(Phase targetPhase, double[] eventR, double[] targetDelta) {
+        if (eventR.length != targetDelta.length)
+            throw new IllegalArgumentException("Numbers of eventR and targetDelta differ.");
+        for (double delta : targetDelta)
+            if (!(0 <= delta)) throw new IllegalArgumentException("targetDelta must be non-negative. " + delta);
+        String phase = targetPhase.toString();
+        boolean depthPhase = phase.startsWith("p") || phase.startsWith("s");
+        Map<Double, TravelTimeTable> tables = new ConcurrentHashMap<>();
+        if (!targetPhase.isDiffracted()) Arrays.stream(eventR).distinct().parallel()
+                .filter(r -> !depthPhase || ComputationalMesh.EPS <= Math.abs(r - getStructure().earthRadius()))
+                .forEach(r -> tables.put(r, createTravelTimeTable(targetPhase, r, true)));
+        return IntStream.range(0, eventR.length).parallel().mapToObj(i -> {
+            TravelTimeTable table = tables.get(eventR[i]);
+            boolean special = targetDelta[i] == 0 || (targetDelta[i] == Math.PI && phase.contains("I"));
+            Arrivals arrivals = table == null || special ? null : table.lookUp(targetDelta[i]);
+            return arrivals == null ? searchArrivals(targetPhase, eventR[i], targetDelta[i]) : arrivals;
+        }).toArray(Arrivals[]::new);
+    }
+
+    /**
+     * @param targetPhase target phase
+     * @param eventR      [km] radius of the source
+     * @param refineEdges if edges of branches are refined by bisection
+     * @return table of &Delta; and T of the targetPhase on the raypaths in the bounce and reflection catalogs
+     */
+    private TravelTimeTable createTravelTimeTable(Phase targetPhase, double eventR, boolean refineEdges) {
+        List<Phase> phases = new ArrayList<>();
+        List<Raypath[]> raypaths = new ArrayList<>();
+        for (BounceCatalog bounceCatalog : bounceCatalogs)
+            for (Phase phase : bounceCatalog.toSearchPhases(targetPhase)) {
+                phases.add(phase);
+                raypaths.add(bounceCatalog.CATALOG.toArray(EMPTY_RAYPATH));
+            }
+        for (ReflectionCatalog reflectionCatalog : reflectionCatalogs)
+            for (Phase phase : reflectionCatalog.toSearchPhases(targetPhase)) {
+                phases.add(phase);
+                raypaths.add(reflectionCatalog.CATALOG.toArray(EMPTY_RAYPATH));
+            }
+        return new TravelTimeTable(eventR, phases.toArray(new Phase[0]), raypaths.toArray(new Raypath[0][]),
+                p -> new Raypath(p, WOODHOUSE, MESH), refineEdges, 10 * MINIMUM_DELTA_P);
+    }
+
+    /**
+     * Arrivals by {@link #searchPath(Phase, double, double, boolean)}.
+     * Travel times are computed for the actual phases (the targetPhase, or one of its possibilities
+     * such as PvXXP with &Delta; closest to the targetDelta), and corrected to the targetDelta.
+     *
+     * @param targetPhase target phase
+     * @param eventR      [km] radius of the source
+     * @param targetDelta [rad] epicentral distance
+     * @return arrivals at the targetDelta
+     */
+    private Arrivals searchArrivals(Phase targetPhase, double eventR, double targetDelta) {
+        Raypath[] raypaths = searchPath(targetPhase, eventR, targetDelta, false);
+        Arrays.sort(raypaths);
+        double[] rayParameters = new double[raypaths.length];
+        double[] travelTimes = new double[raypaths.length];
+        for (int i = 0; i < raypaths.length; i++) {
+            Raypath raypath = raypaths[i];
+            rayParameters[i] = raypath.getRayParameter();
+            if (targetPhase.isDiffracted()) {
+                double deltaOnBoundary = Math.toDegrees(targetDelta - raypath.computeDelta(targetPhase, eventR));
+                if (deltaOnBoundary < 0) return Arrivals.NONE;
+                travelTimes[i] = raypath
+                        .computeT(Phase.create(targetPhase.toString() + deltaOnBoundary, targetPhase.isPSV()), eventR);
+                continue;
+            }
+            Phase phase = targetPhase;
+            if (!(Math.abs(raypath.computeDelta(targetPhase, eventR) - targetDelta) < DEFAULT_MAXIMUM_D_DELTA))
+                phase = Arrays.stream(targetPhase.toAllPossibilities(getStructure())).min(Comparator
+                        .comparingDouble(p -> Math.abs(raypath.computeDelta(p, eventR) - targetDelta)))
+                        .orElse(targetPhase);
+            // the raypath has a slightly different Delta from the targetDelta, and dT/dDelta = p
+            travelTimes[i] = raypath.computeT(phase, eventR) +
+                    rayParameters[i] * (targetDelta - raypath.computeDelta(phase, eventR));
+        }
+        return new Arrivals(rayParameters, travelTimes);
+    }
+
     /**
      * Remove one of duplicate raypaths with rayparameter difference smaller than {@link #MINIMUM_DELTA_P}
      *
@@ -1150,9 +1601,7 @@ public class RaypathCatalog implements Serializable {
     private List<Integer> searchForClosestMeshCase(Phase targetPhase, double eventR, double targetDelta,
                                                    boolean relativeAngle, Raypath[] referenceRaypaths) {
         List<Integer> indexList = new ArrayList<>();
-        double meshR = MESH.getMesh(Partition.MANTLE).getEntry(MESH.getNextIndexOf(eventR, Partition.MANTLE));
-        if (ComputationalMesh.EPS < Math.abs(meshR - eventR))
-            meshR = MESH.getMesh(Partition.MANTLE).getEntry(MESH.getNextIndexOf(eventR, Partition.MANTLE) + 1);
+        double meshR = meshRadiusOf(eventR);
         for (int i = 0; i < referenceRaypaths.length - 1; i++) {
             Raypath rayI = referenceRaypaths[i];
             Raypath rayP = referenceRaypaths[i + 1];
@@ -0,0 +1,142 @@
+package io.github.kensuke1984.anisotime;
+
+import org.apache.commons.math3.linear.RealVector;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Values of {@link Raypath}s in a catalog file, stored in columns.
+ * <p>
+ * For each phase part pp, {@link #NUMBER_OF_VALUES} values (turning R, critical &tau;, &tau;, &Delta;, T,
+ * and the boundary, &Delta; and T of the Jeffreys range) are stored in a column over the raypaths.
+ * &delta;&Delta; of {@link #D_THETA_PARTS} in the mesh of the mantle shallower than {@link #D_THETA_DEPTH}
+ * are stored after them, which are read only when they are used.
+ * <p>
+ * The values are read from a (mapped) buffer directly, so no objects are created for a raypath until it is used.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+final class RaypathColumns {
+
+    /**
+     * Number of values of a phase part
+     */
+    static final int NUMBER_OF_VALUES = 8;
+    /**
+     * Phase parts whose &delta;&Delta; are stored
+     */
+    static final PhasePart[] D_THETA_PARTS = {PhasePart.P, PhasePart.SV, PhasePart.SH};
+    /**
+     * [km] &delta;&Delta; are stored in the mantle shallower than this depth
+     */
+    static final double D_THETA_DEPTH = 700;
+
+    private static final int N_PART = PhasePart.values().length;
+
+    /**
+     * [(k * {@link #N_PART} + pp.ordinal()) * {@link #N_RAY} + i] is the k th value of pp of the i th raypath
+     */
+    private final DoubleBuffer VALUES;
+    /**
+     * [(j * {@link #N_RAY} + i) * {@link #D_THETA_LENGTH} + l] is &delta;&Delta; of {@link #D_THETA_PARTS}[j] in
+     * the ({@link #D_THETA_START} + l) th layer of the i th raypath
+     */
+    private final DoubleBuffer D_THETA;
+    private final int N_RAY;
+    private final int D_THETA_START;
+    private final int D_THETA_LENGTH;
+
+    /**
+     * @param buffer       whose position is at the beginning of the columns. The position is moved to the end.
+     * @param nRay         number of raypaths
+     * @param dThetaStart  index of the first layer in the mesh of the mantle whose &delta;&Delta; are stored
+     * @param dThetaLength number of the layers whose &delta;&Delta; are stored
+     */
+    RaypathColumns(ByteBuffer buffer, int nRay, int dThetaStart, int dThetaLength) {
+        N_RAY = nRay;
+        D_THETA_START = dThetaStart;
+        D_THETA_LENGTH = dThetaLength;
+        int position = buffer.position();
+        int valueBytes = 8 * NUMBER_OF_VALUES * N_PART * nRay;
+        int dThetaBytes = 8 * D_THETA_PARTS.length * nRay * dThetaLength;
+        ((Buffer) buffer).limit(position + valueBytes);
+        VALUES = buffer.slice().asDoubleBuffer();
+        ((Buffer) buffer).limit(position + valueBytes + dThetaBytes).position(position + valueBytes);
+        D_THETA = buffer.slice().asDoubleBuffer();
+        ((Buffer) buffer).limit(buffer.capacity()).position(position + valueBytes + dThetaBytes);
+    }
+
+    /**
+     * @param mantleMesh mesh of the mantle
+     * @param structure  of the mesh
+     * @return index of the first layer whose &delta;&Delta; are stored
+     */
+    static int dThetaStart(RealVector mantleMesh, VelocityStructure structure) {
+        double limitR = structure.earthRadius() - D_THETA_DEPTH;
+        int start = 0;
+        while (start < mantleMesh.getDimension() - 1 && mantleMesh.getEntry(start) < limitR) start++;
+        return start;
+    }
+
+    /**
+     * @param pp phase part
+     * @return index of pp in {@link #D_THETA_PARTS}, or -1 if &delta;&Delta; of pp are not stored
+     */
+    static int indexOfDTheta(PhasePart pp) {
+        for (int j = 0; j < D_THETA_PARTS.length; j++)
+            if (D_THETA_PARTS[j] == pp) return j;
+        return -1;
+    }
+
+    /**
+     * Writes the columns of the raypaths.
+     *
+     * @param raypaths     to write
+     * @param dThetaStart  index of the first layer whose &delta;&Delta; are stored
+     * @param dThetaLength number of the layers whose &delta;&Delta; are stored
+     * @param output       to write in
+     * @throws IOException if any
+     */
+    static void write(Raypath[] raypaths, int dThetaStart, int dThetaLength, DataOutput output) throws IOException {
+        for (int k = 0; k < NUMBER_OF_VALUES; k++)
+            for (PhasePart pp : PhasePart.values())
+                for (Raypath raypath : raypaths)
+                    output.writeDouble(raypath.getCatalogValue(k, pp));
+        for (PhasePart pp : D_THETA_PARTS)
+            for (Raypath raypath : raypaths) {
+                double[] dTheta = raypath.getDTheta(pp);
+                for (int l = 0; l < dThetaLength; l++)
+                    output.writeDouble(dTheta[dThetaStart + l]);
+            }
+    }
+
+    /**
+     * @param k  index of the value (0 &le; k &lt; {@link #NUMBER_OF_VALUES})
+     * @param pp phase part
+     * @param i  index of the raypath
+     * @return the k th value of pp of the i th raypath
+     */
+    double get(int k, PhasePart pp, int i) {
+        return VALUES.get((k * N_PART + pp.ordinal()) * N_RAY + i);
+    }
+
+    /**
+     * @param j      index in {@link #D_THETA_PARTS}
+     * @param i      index of the raypath
+     * @param nLayer number of the layers in the mesh of the mantle
+     * @return &delta;&Delta; of {@link #D_THETA_PARTS}[j] of the i th raypath. 0 in layers which are not stored.
+     */
+    double[] readDTheta(int j, int i, int nLayer) {
+        double[] dTheta = new double[nLayer];
+        int offset = (j * N_RAY + i) * D_THETA_LENGTH;
+        for (int l = 0; l < D_THETA_LENGTH; l++)
+            dTheta[D_THETA_START + l] = D_THETA.get(offset + l);
+        return dTheta;
+    }
+
+}
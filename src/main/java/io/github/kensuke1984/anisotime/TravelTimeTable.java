@@ -0,0 +1,378 @@
+package io.github.kensuke1984.anisotime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.DoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Table of &Delta; and T against ray parameter of a phase for a source radius,
+ * tabulated on raypaths in a {@link RaypathCatalog}.
+ * <p>
+ * A table has a curve for each set of reference raypaths (and the actual phase, such as PvXXP for P).
+ * Between adjacent raypaths on a curve, T(&Delta;) is interpolated by the cubic Hermite polynomial
+ * with the slopes dT/d&Delta; = p at the both ends, and p is its derivative.
+ * So no {@link Raypath}s are created for a look-up. Ray parameters are less accurate close to caustics,
+ * where &Delta; hardly changes, than travel times.
+ * <p>
+ * Each curve is split into runs where &Delta; changes monotonically with the ray parameter
+ * (they are separated at undefined &Delta;, caustics and so on). A look-up is a binary search in each run,
+ * O(R log n) for R runs and n raypaths, and {@link #lookUp(double, double[], double[], double[], int[])}
+ * allocates nothing.
+ * <p>
+ * Where &Delta; is not defined next to a raypath (e.g. at the end of a branch), the edge is refined by bisection
+ * of the ray parameter. As the table still can not tell if the phase exists just around the edge,
+ * a look-up there fails. A table without the refinement can not tell it anywhere beyond the edge.
+ * Use {@link RaypathCatalog#searchPath(Phase, double, double, boolean)} in the case.
+ * <p>
+ * This class is <b>IMMUTABLE</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+final class TravelTimeTable {
+
+    /**
+     * [km] radius of the source
+     */
+    private final double EVENT_R;
+    /**
+     * [s/rad] P[j][i] is the ray parameter of the i th raypath on the j th curve (in ascending order)
+     */
+    private final double[][] P;
+    /**
+     * [rad] DELTA[j][i] is &Delta; of the i th raypath on the j th curve (NaN if the phase does not exist)
+     */
+    private final double[][] DELTA;
+    /**
+     * [s] TIME[j][i] is T of the i th raypath on the j th curve
+     */
+    private final double[][] TIME;
+    /**
+     * PHASES[j] is the actual phase of the j th curve
+     */
+    private final Phase[] PHASES;
+    /**
+     * RUN_CURVE[k] is the index of the curve of the k th monotone run
+     */
+    private final int[] RUN_CURVE;
+    /**
+     * RUN_START[k] is the index of the first raypath in the k th monotone run
+     */
+    private final int[] RUN_START;
+    /**
+     * RUN_END[k] is the index of the last raypath in the k th monotone run
+     */
+    private final int[] RUN_END;
+    /**
+     * [rad] lower limits of &Delta; around the edges next to undefined &Delta;
+     */
+    private final double[] EDGE_LOWER;
+    /**
+     * [rad] upper limits of &Delta; around the edges. Look-ups between {@link #EDGE_LOWER} and this are not done
+     * by the table.
+     */
+    private final double[] EDGE_UPPER;
+    /**
+     * maximum number of bisections to refine an edge
+     */
+    private static final int MAX_BISECTION = 40;
+    /**
+     * [rad] an edge is refined until the width around it is smaller than this
+     */
+    private static final double EDGE_TOLERANCE = 1e-5;
+    /**
+     * [s/rad] arrivals with closer ray parameters than this are same
+     */
+    private final double RESOLUTION_P;
+
+    /**
+     * @param eventR      [km] radius of the source
+     * @param phases      actual phases for the reference raypaths
+     * @param raypaths    raypaths[j] are the reference raypaths for phases[j] in ascending order of ray parameter
+     * @param raypathOf   creates a raypath for a ray parameter, which is used for refining edges
+     * @param refineEdges if edges are refined. If false, they are bisected only until &Delta; is found next to them.
+     * @param resolutionP [s/rad] arrivals with closer ray parameters than this are regarded as same
+     */
+    TravelTimeTable(double eventR, Phase[] phases, Raypath[][] raypaths, DoubleFunction<Raypath> raypathOf,
+                    boolean refineEdges, double resolutionP) {
+        if (phases.length != raypaths.length)
+            throw new IllegalArgumentException("Numbers of phases and sets of raypaths differ.");
+        EVENT_R = eventR;
+        PHASES = phases.clone();
+        RESOLUTION_P = resolutionP;
+        int n = phases.length;
+        P = new double[n][];
+        DELTA = new double[n][];
+        TIME = new double[n][];
+        List<double[]> edges = new ArrayList<>();
+        for (int j = 0; j < n; j++) {
+            Phase phase = phases[j];
+            Raypath[] curve = raypaths[j];
+            double[] p = Arrays.stream(curve).mapToDouble(Raypath::getRayParameter).toArray();
+            double[] delta = IntStream.range(0, curve.length).parallel()
+                    .mapToDouble(i -> curve[i].computeDelta(phase, eventR)).toArray();
+            double[] time = IntStream.range(0, curve.length).parallel()
+                    .mapToDouble(i -> Double.isNaN(delta[i]) ? Double.NaN : curve[i].computeT(phase, eventR)).toArray();
+            for (int i = 0; i < delta.length; i++)
+                if (Double.isNaN(time[i])) delta[i] = Double.NaN;
+            List<double[]> points = new ArrayList<>();
+            for (int i = 0; i < p.length; i++)
+                points.add(new double[]{p[i], delta[i], time[i]});
+            for (int i = 0; i < p.length - 1; i++)
+                if (Double.isNaN(delta[i]) != Double.isNaN(delta[i + 1]))
+                    edges.add(refineEdge(phase, eventR, p, delta, Double.isNaN(delta[i]) ? i + 1 : i,
+                            Double.isNaN(delta[i]) ? i : i + 1, raypathOf, refineEdges, points));
+            points.sort(Comparator.comparingDouble(point -> point[0]));
+            P[j] = points.stream().mapToDouble(point -> point[0]).toArray();
+            DELTA[j] = points.stream().mapToDouble(point -> point[1]).toArray();
+            TIME[j] = points.stream().mapToDouble(point -> point[2]).toArray();
+        }
+        EDGE_LOWER = edges.stream().mapToDouble(edge -> edge[0]).toArray();
+        EDGE_UPPER = edges.stream().mapToDouble(edge -> edge[1]).toArray();
+        List<int[]> runs = new ArrayList<>();
+        for (int j = 0; j < n; j++)
+            addRuns(j, runs);
+        RUN_CURVE = runs.stream().mapToInt(run -> run[0]).toArray();
+        RUN_START = runs.stream().mapToInt(run -> run[1]).toArray();
+        RUN_END = runs.stream().mapToInt(run -> run[2]).toArray();
+    }
+
+    /**
+     * Splits the j th curve into runs where &Delta; is defined and changes monotonically.
+     * Adjacent runs share the raypath at the extremum of &Delta;.
+     *
+     * @param j    index of the curve
+     * @param runs {j, index of the first raypath, index of the last raypath} of each run (at least 2 raypaths)
+     *             are added
+     */
+    private void addRuns(int j, List<int[]> runs) {
+        double[] delta = DELTA[j];
+        int start = 0;
+        int sign = 0;
+        for (int i = 0; i < delta.length - 1; i++) {
+            if (Double.isNaN(delta[i]) || Double.isNaN(delta[i + 1])) {
+                if (start < i) runs.add(new int[]{j, start, i});
+                start = i + 1;
+                sign = 0;
+                continue;
+            }
+            int nextSign = (int) Math.signum(delta[i + 1] - delta[i]);
+            if (sign * nextSign < 0) {
+                runs.add(new int[]{j, start, i});
+                start = i;
+            }
+            if (nextSign != 0) sign = nextSign;
+        }
+        if (start < delta.length - 1) runs.add(new int[]{j, start, delta.length - 1});
+    }
+
+    /**
+     * Bisects the ray parameter between a raypath with &Delta; and one without it until the width around the edge
+     * is smaller than {@link #EDGE_TOLERANCE} (at most {@link #MAX_BISECTION} times),
+     * and adds raypaths with &Delta; in the bisection to the points.
+     * If the edge is not refined, the bisection stops as soon as two raypaths with &Delta; are there,
+     * and the phase can exist anywhere beyond the edge in the direction &Delta; changes toward it.
+     *
+     * @param phase     actual phase
+     * @param eventR    [km] radius of the source
+     * @param p         [s/rad] ray parameters of the reference raypaths
+     * @param delta     [rad] &Delta; of the reference raypaths
+     * @param finite    index of the raypath with &Delta;
+     * @param nan       index of the raypath without &Delta; (next to the finite)
+     * @param raypathOf creates a raypath for a ray parameter
+     * @param refine    if the edge is refined
+     * @param points    {p, &Delta;, T} of raypaths with &Delta; are added
+     * @return [rad] {lower, upper} limits of &Delta; around the edge where the table can not tell if the phase exists
+     */
+    private static double[] refineEdge(Phase phase, double eventR, double[] p, double[] delta, int finite, int nan,
+                                       DoubleFunction<Raypath> raypathOf, boolean refine, List<double[]> points) {
+        double pFinite = p[finite];
+        double pNaN = p[nan];
+        double edgeDelta = delta[finite];
+        int other = 2 * finite - nan;
+        double innerDelta = 0 <= other && other < p.length ? delta[other] : Double.NaN;
+        double width = Math.abs(innerDelta - edgeDelta);
+        for (int k = 0; k < MAX_BISECTION && (refine ? !(width < EDGE_TOLERANCE) : Double.isNaN(width)); k++) {
+            double center = (pFinite + pNaN) / 2;
+            Raypath raypath = raypathOf.apply(center);
+            double centerDelta = raypath.computeDelta(phase, eventR);
+            double centerTime = Double.isNaN(centerDelta) ? Double.NaN : raypath.computeT(phase, eventR);
+            if (Double.isNaN(centerTime)) {
+                pNaN = center;
+                continue;
+            }
+            points.add(new double[]{center, centerDelta, centerTime});
+            // the phase can exist up to the next bisection, where Delta changes as much as in this one
+            width = 2 * Math.abs(centerDelta - edgeDelta);
+            pFinite = center;
+            innerDelta = edgeDelta;
+            edgeDelta = centerDelta;
+        }
+        if (Double.isNaN(width)) return new double[]{edgeDelta, edgeDelta};
+        if (refine) return new double[]{edgeDelta - width, edgeDelta + width};
+        return innerDelta < edgeDelta ? new double[]{edgeDelta - width, Double.POSITIVE_INFINITY} :
+                new double[]{Double.NEGATIVE_INFINITY, edgeDelta + width};
+    }
+
+    /**
+     * @return [km] radius of the source
+     */
+    double getEventR() {
+        return EVENT_R;
+    }
+
+    /**
+     * @param curve index of a curve
+     * @return the actual phase of the curve
+     */
+    Phase getPhase(int curve) {
+        return PHASES[curve];
+    }
+
+    /**
+     * @return the maximum number of arrivals a look-up can give, which is the number of the monotone runs
+     */
+    int getMaximumMultiplicity() {
+        return RUN_CURVE.length;
+    }
+
+    /**
+     * @param targetDelta [rad] epicentral distance
+     * @return arrivals at the targetDelta, or null if it is too close to an edge to be looked up by the table
+     */
+    Arrivals lookUp(double targetDelta) {
+        int max = getMaximumMultiplicity();
+        double[] p = new double[max];
+        double[] t = new double[max];
+        int n = lookUp(targetDelta, p, t, new double[max], new int[max]);
+        if (n < 0) return null;
+        return n == 0 ? Arrivals.NONE : new Arrivals(Arrays.copyOf(p, n), Arrays.copyOf(t, n));
+    }
+
+    /**
+     * Looks up the arrivals at the targetDelta by binary search in each monotone run.
+     * The arrivals are sorted by ray parameter, and ones closer than {@link #RESOLUTION_P} to the previous are
+     * removed. The arrays must have at least {@link #getMaximumMultiplicity()} elements.
+     *
+     * @param targetDelta [rad] epicentral distance
+     * @param p           [s/rad] ray parameters of the arrivals are set
+     * @param t           [s] travel times of the arrivals are set
+     * @param dpdDelta    [s/rad<sup>2</sup>] dp/d&Delta; between the raypaths around the arrivals are set
+     * @param curves      indices of the curves of the arrivals are set
+     * @return number of the arrivals, or -1 if the targetDelta is too close to an edge to be looked up by the table
+     */
+    int lookUp(double targetDelta, double[] p, double[] t, double[] dpdDelta, int[] curves) {
+        for (int k = 0; k < EDGE_LOWER.length; k++)
+            if (EDGE_LOWER[k] <= targetDelta && targetDelta <= EDGE_UPPER[k]) return -1;
+        int n = 0;
+        for (int k = 0; k < RUN_CURVE.length; k++) {
+            int j = RUN_CURVE[k];
+            double[] delta = DELTA[j];
+            int i = searchSegment(delta, RUN_START[k], RUN_END[k], targetDelta);
+            if (i < 0) continue;
+            // the both ends are included only at the end of the curve
+            if (delta[i + 1] == targetDelta && i + 2 < delta.length) continue;
+            interpolate(j, i, targetDelta, p, t, n);
+            dpdDelta[n] = (P[j][i + 1] - P[j][i]) / (delta[i + 1] - delta[i]);
+            curves[n++] = j;
+        }
+        return sortArrivals(p, t, dpdDelta, curves, n);
+    }
+
+    /**
+     * @param delta       [rad] &Delta; on a curve
+     * @param start       index of the first raypath in a monotone run
+     * @param end         index of the last raypath in the run
+     * @param targetDelta [rad] epicentral distance
+     * @return the last index i in [start, end) with the targetDelta between delta[i] and delta[i+1],
+     * or -1 if the targetDelta is out of the run
+     */
+    private static int searchSegment(double[] delta, int start, int end, double targetDelta) {
+        boolean ascending = delta[start] <= delta[end];
+        double low = ascending ? delta[start] : delta[end];
+        double high = ascending ? delta[end] : delta[start];
+        if (targetDelta < low || high < targetDelta) return -1;
+        int lower = start;
+        int upper = end - 1;
+        while (lower < upper) {
+            int center = (lower + upper + 1) >>> 1;
+            if (ascending ? delta[center] <= targetDelta : targetDelta <= delta[center]) lower = center;
+            else upper = center - 1;
+        }
+        return lower;
+    }
+
+    /**
+     * Interpolates T(&Delta;) between the i th and (i+1) th raypaths on the j th curve.
+     *
+     * @param j           index of the curve
+     * @param i           index of the raypath
+     * @param targetDelta [rad] epicentral distance
+     * @param p           p[n] is set to the ray parameter
+     * @param t           t[n] is set to the travel time
+     * @param n           index to set
+     */
+    private void interpolate(int j, int i, double targetDelta, double[] p, double[] t, int n) {
+        double p0 = P[j][i];
+        double p1 = P[j][i + 1];
+        double t0 = TIME[j][i];
+        double t1 = TIME[j][i + 1];
+        double h = DELTA[j][i + 1] - DELTA[j][i];
+        if (h == 0) {
+            p[n] = p0;
+            t[n] = t0;
+            return;
+        }
+        double s = (targetDelta - DELTA[j][i]) / h;
+        double s2 = s * s;
+        double s3 = s2 * s;
+        t[n] = (2 * s3 - 3 * s2 + 1) * t0 + (s3 - 2 * s2 + s) * h * p0 + (3 * s2 - 2 * s3) * t1 + (s3 - s2) * h * p1;
+        double dt = (6 * s2 - 6 * s) * (t0 - t1) / h + (3 * s2 - 4 * s + 1) * p0 + (3 * s2 - 2 * s) * p1;
+        // dT/dDelta can be poor where Delta hardly changes (e.g. at a caustic)
+        p[n] = Math.max(Math.min(p0, p1), Math.min(Math.max(p0, p1), dt));
+    }
+
+    /**
+     * Sorts the arrivals by ray parameter in place (by insertion as they are few),
+     * and removes ones closer than {@link #RESOLUTION_P} to the previous.
+     *
+     * @param p        [s/rad] ray parameters
+     * @param t        [s] travel times
+     * @param dpdDelta [s/rad<sup>2</sup>] dp/d&Delta;
+     * @param curves   indices of the curves
+     * @param n        number of the arrivals in the arrays
+     * @return number of the remaining arrivals
+     */
+    private int sortArrivals(double[] p, double[] t, double[] dpdDelta, int[] curves, int n) {
+        for (int i = 1; i < n; i++) {
+            double pi = p[i];
+            double ti = t[i];
+            double di = dpdDelta[i];
+            int ci = curves[i];
+            int k = i - 1;
+            for (; 0 <= k && pi < p[k]; k--) {
+                p[k + 1] = p[k];
+                t[k + 1] = t[k];
+                dpdDelta[k + 1] = dpdDelta[k];
+                curves[k + 1] = curves[k];
+            }
+            p[k + 1] = pi;
+            t[k + 1] = ti;
+            dpdDelta[k + 1] = di;
+            curves[k + 1] = ci;
+        }
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (0 < m && p[i] - p[m - 1] <= RESOLUTION_P) continue;
+            p[m] = p[i];
+            t[m] = t[i];
+            dpdDelta[m] = dpdDelta[i];
+            curves[m++] = curves[i];
+        }
+        return m;
+    }
+
+}
@@ -1,17 +1,25 @@
 package io.github.kensuke1984.anisotime;
 
+import org.apache.commons.math3.linear.RealVector;
+
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.DoubleUnaryOperator;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
 
 /**
  * The class is calculator of the formulation in Woodhouse (1981).
+ * <p>
+ * S<sub>1</sub>&ndash;S<sub>5</sub> are computed in advance at radii of {@link ComputationalMesh}es
+ * (points of the meshes and centers of their intervals) given by {@link #addMesh(ComputationalMesh)},
+ * and they are computed directly at other radii.
+ * The table is shared by instances for the same structure.
  *
  * @author Kensuke Konishi
- * @version 0.0.8
+ * @version 0.0.9
  * @see <a href=
  * https://www.sciencedirect.com/science/article/pii/0031920181900479>Woodhouse,
  * 1981</a>
@@ -31,11 +39,7 @@ class Woodhouse1981 implements Serializable {
     }
 
     private final VelocityStructure STRUCTURE;
-    private transient Map<Double, Double> s1;
-    private transient Map<Double, Double> s2;
-    private transient Map<Double, Double> s3;
-    private transient Map<Double, Double> s4;
-    private transient Map<Double, Double> s5;
+    private transient SCoefficients cache;
 
     private transient DoubleUnaryOperator computeS1;
     private transient DoubleUnaryOperator computeS2;
@@ -48,8 +52,8 @@ class Woodhouse1981 implements Serializable {
      */
     Woodhouse1981(VelocityStructure structure) {
         STRUCTURE = structure;
-        copyOrCreate();
         setComputation();
+        copyOrCreate();
     }
 
     private void setComputation() {
@@ -67,31 +71,12 @@ class Woodhouse1981 implements Serializable {
         };
         computeS5 = x -> 0.5 * STRUCTURE.getRho(x) / STRUCTURE.getC(x) * (1 + STRUCTURE.getA(x) / STRUCTURE.getL(x)) -
                 computeS1(x) * computeS3(x);
-        Runnable clear = () -> {
-            try {
-                while (true) {
-                    if (s3.size() > 1000000) {
-                        s1.clear();
-                        s2.clear();
-                        s3.clear();
-                        s4.clear();
-                        s5.clear();
-                    }
-                    Thread.sleep(10000);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        };
-        Thread cleaner = new Thread(clear);
-        cleaner.setDaemon(true);
-        cleaner.start();
     }
 
     private void readObject(ObjectInputStream stream) throws ClassNotFoundException, IOException {
         stream.defaultReadObject();
-        createCache();
         setComputation();
+        createCache();
     }
 
     /**
@@ -110,6 +95,15 @@ class Woodhouse1981 implements Serializable {
         }
     }
 
+    /**
+     * Computes S<sub>1</sub>&ndash;S<sub>5</sub> at the radii of the mesh if they are not yet.
+     *
+     * @param mesh {@link ComputationalMesh} to be used with this
+     */
+    void addMesh(ComputationalMesh mesh) {
+        cache.add(mesh);
+    }
+
     /**
      * @return VelocityStructure
      */
@@ -242,25 +236,26 @@ class Woodhouse1981 implements Serializable {
     /**
      * Copies cash for s1-s5
      *
-     * @param woodhouse source map
+     * @param woodhouse source
      */
     private void copyCache(Woodhouse1981 woodhouse) {
-        s1 = woodhouse.s1;
-        s2 = woodhouse.s2;
-        s3 = woodhouse.s3;
-        s4 = woodhouse.s4;
-        s5 = woodhouse.s5;
+        cache = woodhouse.cache;
     }
 
     /**
-     * Creates new cache maps
+     * Creates a new empty cache
      */
     private void createCache() {
-        s1 = new ConcurrentHashMap<>();
-        s2 = new ConcurrentHashMap<>();
-        s3 = new ConcurrentHashMap<>();
-        s4 = new ConcurrentHashMap<>();
-        s5 = new ConcurrentHashMap<>();
+        cache = new SCoefficients(new DoubleUnaryOperator[]{computeS1, computeS2, computeS3, computeS4, computeS5});
+    }
+
+    /**
+     * @param i index of S (1&ndash;5)
+     * @param r [km]
+     * @return S<sub>i</sub> in the table, or NaN if r is not in the table
+     */
+    private double lookUp(int i, double r) {
+        return cache.get(i, r);
     }
 
     /**
@@ -268,8 +263,8 @@ class Woodhouse1981 implements Serializable {
      * @return S<sub>1</sub>
      */
     private double computeS1(double r) {
-        return s1.computeIfAbsent(r, computeS1::applyAsDouble);
-//        return computeS1.applyAsDouble(r);
+        double s = lookUp(1, r);
+        return Double.isNaN(s) ? computeS1.applyAsDouble(r) : s;
     }
 
     /**
@@ -277,8 +272,8 @@ class Woodhouse1981 implements Serializable {
      * @return S<sub>2</sub>
      */
     private double computeS2(double r) {
-        return s2.computeIfAbsent(r, computeS2::applyAsDouble);
-//        return computeS2.applyAsDouble(r);
+        double s = lookUp(2, r);
+        return Double.isNaN(s) ? computeS2.applyAsDouble(r) : s;
     }
 
     /**
@@ -286,8 +281,8 @@ class Woodhouse1981 implements Serializable {
      * @return S<sub>3</sub>
      */
     private double computeS3(double r) {
-        return s3.computeIfAbsent(r, computeS3::applyAsDouble);
-//        return computeS3.applyAsDouble(r);
+        double s = lookUp(3, r);
+        return Double.isNaN(s) ? computeS3.applyAsDouble(r) : s;
     }
 
     /**
@@ -295,8 +290,8 @@ class Woodhouse1981 implements Serializable {
      * @return S<sub>4</sub>
      */
     private double computeS4(double r) {
-        return s4.computeIfAbsent(r, computeS4::applyAsDouble);
-//        return computeS4.applyAsDouble(r);
+        double s = lookUp(4, r);
+        return Double.isNaN(s) ? computeS4.applyAsDouble(r) : s;
     }
 
     /**
@@ -304,7 +299,101 @@ class Woodhouse1981 implements Serializable {
      * @return S<sub>5</sub>
      */
     private double computeS5(double r) {
-        return s5.computeIfAbsent(r, computeS5::applyAsDouble);
-//        return computeS5.applyAsDouble(r);
+        double s = lookUp(5, r);
+        return Double.isNaN(s) ? computeS5.applyAsDouble(r) : s;
+    }
+
+    /**
+     * Table of S<sub>1</sub>&ndash;S<sub>5</sub> on radii in an open-addressing hash table in a primitive array.
+     * The table is replaced (not modified) when radii are added, so it can be read without locks.
+     */
+    private static final class SCoefficients {
+        /**
+         * key for empty slots (radii are never NaN)
+         */
+        private static final long EMPTY = Double.doubleToRawLongBits(Double.NaN);
+        /**
+         * [i] computes S<sub>i+1</sub>
+         */
+        private final DoubleUnaryOperator[] COMPUTE_S;
+        /**
+         * [6j] radius in the j th slot (NaN if empty), [6j + i] S<sub>i</sub> at the radius.
+         * The number of slots is a power of 2 and at least twice the number of radii.
+         */
+        private volatile double[] table = {Double.NaN, 0, 0, 0, 0, 0};
+        /**
+         * the last mesh added (the radii of an equal mesh are in the table)
+         */
+        private volatile ComputationalMesh lastMesh;
+
+        private SCoefficients(DoubleUnaryOperator[] computeS) {
+            COMPUTE_S = computeS;
+        }
+
+        /**
+         * @param bits  of a radius
+         * @param table to look in
+         * @return index of the slot with the radius or the empty slot to put it
+         */
+        private static int slotOf(long bits, double[] table) {
+            int mask = table.length / 6 - 1;
+            int slot = (int) ((bits * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            for (long key; (key = Double.doubleToRawLongBits(table[6 * slot])) != bits && key != EMPTY; )
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * @param i index of S (1&ndash;5)
+         * @param r [km]
+         * @return S<sub>i</sub> in the table, or NaN if r is not in the table
+         */
+        private double get(int i, double r) {
+            double[] table = this.table;
+            int slot = slotOf(Double.doubleToRawLongBits(r), table);
+            return Double.isNaN(table[6 * slot]) ? Double.NaN : table[6 * slot + i];
+        }
+
+        private synchronized void add(ComputationalMesh mesh) {
+            if (mesh.equals(lastMesh)) return;
+            double[] table = this.table;
+            double[] newRadii = Stream.of(Partition.MANTLE, Partition.OUTERCORE, Partition.INNERCORE).map(mesh::getMesh)
+                    .flatMapToDouble(SCoefficients::radiiToCompute).distinct()
+                    .filter(r -> Double.isNaN(table[6 * slotOf(Double.doubleToRawLongBits(r), table)])).toArray();
+            if (newRadii.length != 0) {
+                int n = newRadii.length;
+                for (int j = 0; j < table.length; j += 6)
+                    if (!Double.isNaN(table[j])) n++;
+                double[] newTable = new double[6 * Integer.highestOneBit(4 * n - 1)];
+                for (int j = 0; j < newTable.length; j += 6)
+                    newTable[j] = Double.NaN;
+                for (int j = 0; j < table.length; j += 6)
+                    if (!Double.isNaN(table[j]))
+                        System.arraycopy(table, j, newTable, 6 * slotOf(Double.doubleToRawLongBits(table[j]), newTable),
+                                6);
+                for (double r : newRadii) {
+                    int slot = slotOf(Double.doubleToRawLongBits(r), newTable);
+                    newTable[6 * slot] = r;
+                    for (int i = 1; i < 6; i++)
+                        newTable[6 * slot + i] = COMPUTE_S[i - 1].applyAsDouble(r);
+                }
+                this.table = newTable;
+            }
+            lastMesh = mesh;
+        }
+
+        /**
+         * @param mesh radii
+         * @return points of the mesh and the centers of the intervals as they are computed in {@link Raypath}
+         */
+        private static DoubleStream radiiToCompute(RealVector mesh) {
+            double[] radii = new double[2 * mesh.getDimension() - 1];
+            for (int i = 0; i < mesh.getDimension(); i++) {
+                radii[2 * i] = mesh.getEntry(i);
+                if (i + 1 < mesh.getDimension())
+                    radii[2 * i + 1] = mesh.getEntry(i) + 0.5 * (mesh.getEntry(i + 1) - mesh.getEntry(i));
+            }
+            return Arrays.stream(radii);
+        }
     }
 }
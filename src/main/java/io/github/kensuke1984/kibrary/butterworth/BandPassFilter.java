@@ -22,7 +22,7 @@ import java.nio.file.Paths;
  * ω=2πfδt
  *
  * @author Kensuke Konishi
- * @version 0.1.4
+ * @version 0.1.5
  */
 public class BandPassFilter extends ButterworthFilter {
 
@@ -127,30 +127,6 @@ public class BandPassFilter extends ButterworthFilter {
         // printParameters();
     }
 
-    /**
-     * y[t]=a<sub>0</sub>x[t]+a<sub>1</sub>x[t-1]+a<sub>2</sub>x[t-2]-b<sub>1</sub>y[t-1]-b<sub>2</sub>y[t-2] <br>
-     * a<sub>0</sub> =1, a<sub>1</sub>= 0, a<sub>2</sub> = -1
-     *
-     * @param b1 b<sub>1</sub>
-     * @param b2 b<sub>2</sub>
-     * @param x  x
-     * @return {@link Complex}[] y
-     */
-    private static Complex[] computeRecursion(double b1, double b2, Complex[] x) {
-        Complex[] y = new Complex[x.length];
-        y[0] = x[0];
-        // y[0] = x[0].multiply(a0);
-        y[1] = x[1].subtract(y[0].multiply(b1));
-        // y[1] = x[1].multiply(a0).add(x[0].multiply(a1))
-        // .subtract(y[0].multiply(b1));
-        for (int i = 2; i < x.length; i++)
-            y[i] = x[i].subtract(x[i - 2]).subtract(y[i - 1].multiply(b1)).subtract(y[i - 2].multiply(b2));
-        // y[i] = x[i].multiply(a0).add(x[i - 1].multiply(a1))
-        // .add(x[i - 2].multiply(a2)).subtract(y[i - 1].multiply(b1))
-        // .subtract(y[i - 2].multiply(b2));
-        return y;
-    }
-
     /**
      * @return &omega;<sub>H</sub>
      */
@@ -314,43 +290,11 @@ public class BandPassFilter extends ButterworthFilter {
     }
 
     @Override
-    public Complex[] applyFilter(Complex[] data) {
-        Complex[] y = new Complex[data.length];
-        System.arraycopy(data, 0, y, 0, data.length);
-        // Complex[] x = data;
-        for (int j = 0; j < n / 2 * 2; j++) {
-            Complex[] x = y;
-            y = computeRecursion(b1[j], b2[j], x);
-        }
-        if (n % 2 == 1) {
-            int j = n - 1;
-            Complex[] x = y;
-            y = computeRecursion(b1[j], b2[j], x);
-        }
-        // System.out.println("G" + g);
-        for (int i = 0; i < y.length; i++)
-            y[i] = y[i].multiply(g);
-
-        if (backward) {
-            Complex[] reverseY = new Complex[y.length];
-            for (int i = 0; i < y.length; i++)
-                reverseY[i] = y[y.length - i - 1];
-
-            for (int j = 0; j < n / 2 * 2; j++) {
-                Complex[] x = reverseY;
-                reverseY = computeRecursion(b1[j], b2[j], x);
-            }
-            if (n % 2 == 1) {
-                int j = n - 1;
-                Complex[] x = reverseY;
-                reverseY = computeRecursion(b1[j], b2[j], x);
-            }
-            for (int i = 0; i < reverseY.length; i++)
-                reverseY[i] = reverseY[i].multiply(g);
-            for (int i = 0; i < y.length; i++)
-                y[i] = reverseY[y.length - i - 1];
-        }
-        return y;
+    double[][] getSections() {
+        double[][] sections = new double[n][];
+        for (int j = 0; j < n; j++)
+            sections[j] = new double[]{0, -1, b1[j], b2[j]};
+        return sections;
     }
 
     private void setLambda02() {
@@ -3,6 +3,8 @@ package io.github.kensuke1984.kibrary.butterworth;
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.FastMath;
 
+import java.util.Arrays;
+
 /**
  * Masanori Saito recursive digital filter <br>
  * 斎藤正徳 漸化式ディジタルフィルタ<br>
@@ -11,9 +13,12 @@ import org.apache.commons.math3.util.FastMath;
  * <p>
  * If you want to create a causal one, use {@link #setBackward(boolean)} and set
  * true.
+ * <p>
+ * Real data are filtered in place with a work buffer given by the caller
+ * ({@link #filterInPlace(double[], double[])}), which creates no objects.
  *
  * @author Kensuke Konishi
- * @version 0.0.5.0.2
+ * @version 0.0.6
  */
 public abstract class ButterworthFilter {
 
@@ -47,6 +52,10 @@ public abstract class ButterworthFilter {
     boolean backward = true;
     double[] b1;
     double[] b2;
+    /**
+     * {@link #getSections()}
+     */
+    private volatile double[][] sections;
 
     ButterworthFilter() {
     }
@@ -73,29 +82,133 @@ public abstract class ButterworthFilter {
     }
 
     /**
+     * The real and imaginary parts are filtered separately.
+     *
      * @param data data to be applied the filter
      * @return arrays after applied the filter
      */
-    public abstract Complex[] applyFilter(Complex[] data);
+    public Complex[] applyFilter(Complex[] data) {
+        double[] real = new double[data.length];
+        double[] imaginary = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            real[i] = data[i].getReal();
+            imaginary[i] = data[i].getImaginary();
+        }
+        double[] work = new double[getWorkLength()];
+        filterInPlace(real, work);
+        filterInPlace(imaginary, work);
+        Complex[] y = new Complex[data.length];
+        for (int i = 0; i < data.length; i++)
+            y[i] = new Complex(real[i], imaginary[i]);
+        return y;
+    }
 
     /**
      * @param data data to be applied the filter
      * @return arrays after applied the filter
      */
     public double[] applyFilter(double[] data) {
-        Complex[] cdata = new Complex[data.length];
-        for (int i = 0; i < cdata.length; i++)
-            cdata[i] = Complex.valueOf(data[i]);
+        double[] y = data.clone();
+        filterInPlace(y, new double[getWorkLength()]);
+        return y;
+    }
 
-        cdata = applyFilter(cdata);
+    /**
+     * @return length of a work buffer for {@link #filterInPlace(double[], double[])}
+     */
+    public int getWorkLength() {
+        return 4 * sections().length;
+    }
 
-        double[] newData = new double[data.length];
-        for (int i = 0; i < data.length; i++)
-            newData[i] = cdata[i].getReal();
+    /**
+     * Applies the filter on the data in place. The work buffer can be reused for any data,
+     * so filtering creates no objects.
+     *
+     * @param data data to be applied the filter (overwritten)
+     * @param work work buffer (the length must be {@link #getWorkLength()} or more)
+     */
+    public void filterInPlace(double[] data, double[] work) {
+        filterInPlace(data, 0, data.length, work);
+    }
 
-        return newData;
+    /**
+     * Applies the filter on the part of the data in place.
+     *
+     * @param data data to be applied the filter (data[from, to) is overwritten)
+     * @param from index of the first point of the part (inclusive)
+     * @param to   index of the last point of the part (exclusive)
+     * @param work work buffer (the length must be {@link #getWorkLength()} or more)
+     */
+    public void filterInPlace(double[] data, int from, int to, double[] work) {
+        filterInPlace(data, from, to, from, work);
     }
 
+    /**
+     * Forward filtering on data[from, to) and, if {@link #backward}, backward filtering on data[first, to).
+     * Points before the first one are not correct for zero-phase filtering,
+     * but they are unnecessary when only data[first, to) are used.
+     * <p>
+     * All the sections are applied to each point in turn, so no intermediate series is created.
+     *
+     * @param data  data to be applied the filter
+     * @param from  index of the first point of the part (inclusive)
+     * @param to    index of the last point of the part (exclusive)
+     * @param first index of the first point needed (from &le; first)
+     * @param work  work buffer for the states of the sections
+     */
+    void filterInPlace(double[] data, int from, int to, int first, double[] work) {
+        if (from < 0 || data.length < to || to < from || first < from)
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") or first " + first);
+        double[][] sections = sections();
+        if (work.length < 4 * sections.length)
+            throw new IllegalArgumentException("Work buffer is too short. " + work.length);
+        Arrays.fill(work, 0, 4 * sections.length, 0);
+        for (int i = from; i < to; i++)
+            data[i] = cascade(sections, data[i], work) * g;
+        if (!backward) return;
+        Arrays.fill(work, 0, 4 * sections.length, 0);
+        for (int i = to - 1; first <= i; i--)
+            data[i] = cascade(sections, data[i], work) * g;
+    }
+
+    /**
+     * Applies all the sections to the next point.
+     *
+     * @param sections {@link #getSections()}
+     * @param x        input at t
+     * @param state    {x[t-1], x[t-2], y[t-1], y[t-2]} of each section, which are updated
+     * @return output of the last section at t
+     */
+    private static double cascade(double[][] sections, double x, double[] state) {
+        for (int j = 0, k = 0; j < sections.length; j++, k += 4) {
+            double[] section = sections[j];
+            double y = x + section[0] * state[k] + section[1] * state[k + 1] - section[2] * state[k + 2] -
+                    section[3] * state[k + 3];
+            state[k + 1] = state[k];
+            state[k] = x;
+            state[k + 3] = state[k + 2];
+            state[k + 2] = y;
+            x = y;
+        }
+        return x;
+    }
+
+    /**
+     * @return {@link #getSections()} (computed once)
+     */
+    private double[][] sections() {
+        if (sections == null) sections = getSections();
+        return sections;
+    }
+
+    /**
+     * Coefficients of the sections in the order of application. Each section is <br>
+     * y[t]=x[t]+a<sub>1</sub>x[t-1]+a<sub>2</sub>x[t-2]-b<sub>1</sub>y[t-1]-b<sub>2</sub>y[t-2]
+     *
+     * @return {a<sub>1</sub>, a<sub>2</sub>, b<sub>1</sub>, b<sub>2</sub>} of each section
+     */
+    abstract double[][] getSections();
+
     /**
      * @param backward if true, backword filtering is done
      */
@@ -0,0 +1,116 @@
+package io.github.kensuke1984.kibrary.butterworth;
+
+/**
+ * {@link ButterworthFilter} on real time series fused with decimation.
+ * <p>
+ * A part of a time series is filtered, and every {@link #getStep()} th point from given indices is picked up.
+ * The part is filtered in a work buffer by {@link ButterworthFilter#filterInPlace(double[], int, int, double[])},
+ * so neither {@link org.apache.commons.math3.complex.Complex} nor intermediate series for sections are created.
+ * In zero-phase filtering, the backward pass runs only down to the first point to pick up.
+ * <p>
+ * The points are identical to the ones picked up from {@link ButterworthFilter#applyFilter(double[])}.
+ * <p>
+ * This class is <b>NOT thread-safe</b> as it keeps work buffers. Use an instance in each thread.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+public class DecimatingFilter {
+
+    private final ButterworthFilter FILTER;
+    /**
+     * interval of the points to pick up
+     */
+    private final int STEP;
+    /**
+     * work buffer for the filter
+     */
+    private final double[] STATE;
+    /**
+     * filtered part (reused)
+     */
+    private double[] work = new double[0];
+
+    /**
+     * @param filter to be applied
+     * @param step   interval of the points to pick up
+     */
+    public DecimatingFilter(ButterworthFilter filter, int step) {
+        if (step <= 0) throw new IllegalArgumentException("Step must be positive. " + step);
+        FILTER = filter;
+        STEP = step;
+        STATE = new double[filter.getWorkLength()];
+    }
+
+    /**
+     * Only decimation (without filtering)
+     *
+     * @param data  time series
+     * @param start index of the first point to pick up
+     * @param step  interval of the points to pick up
+     * @param npts  number of points to pick up
+     * @return data[start + j * step] (j = 0, .., npts-1)
+     */
+    public static double[] decimate(double[] data, int start, int step, int npts) {
+        if (start < 0 || (0 < npts && data.length <= start + (npts - 1) * step))
+            throw new IllegalArgumentException("Invalid start " + start + " or npts " + npts);
+        double[] out = new double[npts];
+        for (int j = 0, i = start; j < npts; j++, i += step)
+            out[j] = data[i];
+        return out;
+    }
+
+    /**
+     * @return interval of the points to pick up
+     */
+    public int getStep() {
+        return STEP;
+    }
+
+    /**
+     * @param data  time series
+     * @param from  index of the first point of the part to be filtered (inclusive)
+     * @param to    index of the last point of the part to be filtered (exclusive)
+     * @param start index of the first point to pick up (from &le; start)
+     * @param npts  number of points to pick up
+     * @return filtered[start + j * step] (j = 0, .., npts-1), where filtered is data[from, to) after filtering
+     */
+    public double[] apply(double[] data, int from, int to, int start, int npts) {
+        double[][] outs = {new double[npts]};
+        apply(data, from, to, new int[]{start}, outs);
+        return outs[0];
+    }
+
+    /**
+     * The part is filtered once, and points for several windows are picked up.
+     *
+     * @param data   time series
+     * @param from   index of the first point of the part to be filtered (inclusive)
+     * @param to     index of the last point of the part to be filtered (exclusive)
+     * @param starts starts[i] is the index of the first point to pick up for the i th window (from &le; starts[i])
+     * @param outs   outs[i][j] is set to filtered[starts[i] + j * step] (j = 0, .., outs[i].length-1),
+     *               where filtered is data[from, to) after filtering
+     */
+    public void apply(double[] data, int from, int to, int[] starts, double[][] outs) {
+        if (from < 0 || data.length < to || to <= from)
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        if (starts.length != outs.length) throw new IllegalArgumentException("Numbers of starts and outs differ.");
+        int first = to;
+        for (int i = 0; i < starts.length; i++) {
+            if (outs[i].length == 0) continue;
+            if (starts[i] < from || to <= starts[i] + (outs[i].length - 1) * STEP)
+                throw new IllegalArgumentException(
+                        "Points from " + starts[i] + " are out of [" + from + ", " + to + ")");
+            first = Math.min(first, starts[i]);
+        }
+        int length = to - from;
+        if (work.length < length) work = new double[length];
+        System.arraycopy(data, from, work, 0, length);
+        // the points before the first one to pick up are unnecessary
+        FILTER.filterInPlace(work, 0, length, first - from, STATE);
+        for (int i = 0; i < starts.length; i++)
+            for (int j = 0, k = starts[i] - from; j < outs[i].length; j++, k += STEP)
+                outs[i][j] = work[k];
+    }
+
+}
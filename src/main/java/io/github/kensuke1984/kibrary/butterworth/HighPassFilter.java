@@ -8,7 +8,7 @@ import org.apache.commons.math3.util.FastMath;
  * High pass filter
  *
  * @author Kensuke Konishi
- * @version 0.0.5.1.1
+ * @version 0.0.5.1.2
  */
 public class HighPassFilter extends ButterworthFilter {
 
@@ -68,26 +68,6 @@ public class HighPassFilter extends ButterworthFilter {
         createRecursiveFilter();
     }
 
-    /**
-     * <sub></sub>
-     * y[t]=a<sub>0</sub>x[t]+a<sub>1</sub>x[t-1]+a2<sub>2</sub>x[t-2]-b<sub>1</sub>y[t-1]-b<sub>2</sub>y[t-2] <br>
-     * a<sub>0</sub> =1, a<sub>1</sub>= 0, a<sub>2</sub> = -1
-     *
-     * @param b1 b<sub>1</sub>
-     * @param b2 b<sub>2</sub>
-     * @param x  x
-     * @return {@link Complex}[] y
-     */
-    private static Complex[] computeRecursion(double b1, double b2, Complex[] x) {
-        Complex[] y = new Complex[x.length];
-        y[0] = x[0];
-        y[1] = x[1].subtract(x[0].multiply(2)).subtract(y[0].multiply(b1));
-        for (int i = 2; i < x.length; i++)
-            y[i] = x[i].subtract(x[i - 1].multiply(2)).add(x[i - 2]).subtract(y[i - 1].multiply(b1))
-                    .subtract(y[i - 2].multiply(b2));
-        return y;
-    }
-
     /**
      * @return &omega;<sub>p</sub>
      */
@@ -211,56 +191,12 @@ public class HighPassFilter extends ButterworthFilter {
     }
 
     @Override
-    public Complex[] applyFilter(Complex[] data) {
-        // data length
-        Complex[] y = new Complex[data.length];
-        System.arraycopy(data, 0, y, 0, data.length);
-
-        // Complex[] x = data;
-        for (int j = 0; j < n / 2; j++) {
-            // System.out.println("yo");
-            Complex[] x = y;
-            y = computeRecursion(b1[j], b2[j], x);
-        }
-        if (n % 2 == 1) {
-            int j = n / 2;
-            Complex[] x = y;
-            // y = computeRecursion(b1[j], b2[j], x);
-            y = new Complex[x.length];
-            y[0] = x[0];
-            y[1] = x[1].subtract(x[0]).subtract(y[0].multiply(b1[j]));
-            for (int i = 2; i < x.length; i++)
-                y[i] = x[i].subtract(x[i - 1]).subtract(y[i - 1].multiply(b1[j]));
-        }
-        // System.out.println(g);
-        for (int i = 0; i < y.length; i++)
-            y[i] = y[i].multiply(g);
-        if (backward) {
-            Complex[] reverseY = new Complex[y.length];
-            for (int i = 0; i < y.length; i++)
-                reverseY[i] = y[y.length - i - 1];
-
-            for (int j = 0; j < n / 2; j++) {
-                // System.out.println("yo");
-                Complex[] x = reverseY;
-                reverseY = computeRecursion(b1[j], b2[j], x);
-            }
-            if (n % 2 == 1) {
-                // System.out.println("orz");
-                int j = n / 2;
-                Complex[] x = reverseY;
-                reverseY = new Complex[x.length];
-                reverseY[0] = x[0];
-                reverseY[1] = x[1].subtract(x[0]).subtract(reverseY[0].multiply(b1[j]));
-                for (int i = 2; i < x.length; i++)
-                    reverseY[i] = x[i].subtract(x[i - 1]).subtract(reverseY[i - 1].multiply(b1[j]));
-            }
-            for (int i = 0; i < reverseY.length; i++)
-                reverseY[i] = reverseY[i].multiply(g);
-            for (int i = 0; i < y.length; i++)
-                y[i] = reverseY[y.length - i - 1];
-        }
-        return y;
+    double[][] getSections() {
+        double[][] sections = new double[(n + 1) / 2][];
+        for (int j = 0; j < n / 2; j++)
+            sections[j] = new double[]{-2, 1, b1[j], b2[j]};
+        if (n % 2 == 1) sections[n / 2] = new double[]{-1, 0, b1[n / 2], 0};
+        return sections;
     }
 
 }
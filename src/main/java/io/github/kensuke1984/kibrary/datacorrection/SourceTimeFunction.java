@@ -28,7 +28,7 @@ import java.util.stream.IntStream;
  * {@link #convolve(Complex[])}
  *
  * @author Kensuke Konishi
- * @version 0.0.7
+ * @version 0.0.8
  */
 public class SourceTimeFunction {
 
@@ -326,6 +326,23 @@ public class SourceTimeFunction {
                 .mapToObj(i -> i == 0 ? data[i] : data[i].multiply(sourceTimeFunction[i - 1])).toArray(Complex[]::new);
     }
 
+    /**
+     * Operates convolution for data in <b>frequency</b> domain in place.
+     *
+     * @param data to be convolved in <b>frequency</b> domain. Real and imaginary parts are interleaved
+     *             (data[2i], data[2i+1]) and the length must be 2({@link #np} + 1)
+     */
+    public final void convolveSpectrum(double[] data) {
+        if (data.length != 2 * (np + 1)) throw new IllegalArgumentException("Input data length is invalid.");
+        for (int i = 1; i < np + 1; i++) {
+            double real = data[2 * i];
+            double imaginary = data[2 * i + 1];
+            Complex stf = sourceTimeFunction[i - 1];
+            data[2 * i] = real * stf.getReal() - imaginary * stf.getImaginary();
+            data[2 * i + 1] = real * stf.getImaginary() + imaginary * stf.getReal();
+        }
+    }
+
     /**
      * @param sacData to convolute with this.
      * @return convoluted SACData
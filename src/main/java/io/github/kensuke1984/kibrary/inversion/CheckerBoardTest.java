@@ -23,7 +23,7 @@ import java.util.*;
  * Creates born-waveforms for checkerboard tests
  *
  * @author Kensuke Konishi
- * @version 0.2.2
+ * @version 0.2.2.2
  */
 public class CheckerBoardTest implements Operation {
 
@@ -159,9 +159,8 @@ public class CheckerBoardTest implements Operation {
     private void read() throws IOException {
         BasicID[] ids = BasicIDFile.read(waveIDPath, waveformPath);
         Dvector dVector = new Dvector(ids);
-        PartialID[] pids = PartialIDFile.read(partialIDPath, partialWaveformPath);
         List<UnknownParameter> parameterList = UnknownParameterFile.read(unknownParameterListPath);
-        eq = new ObservationEquation(pids, parameterList, dVector);
+        eq = new ObservationEquation(partialIDPath, partialWaveformPath, parameterList, dVector);
     }
 
     /**
@@ -247,10 +246,11 @@ public class CheckerBoardTest implements Operation {
         RealVector[] noiseV = new RealVector[dVector.getNTimeWindow()];
         int[] pts = dVector.getLengths();
         ButterworthFilter bpf = new BandPassFilter(2 * Math.PI * 0.05 * 0.08, 2 * Math.PI * 0.05 * 0.005, 4);
+        double[] work = new double[bpf.getWorkLength()];
         for (int i = 0; i < dVector.getNTimeWindow(); i++) {
             // System.out.println(i);
             double[] u = RandomNoiseMaker.create(noisePower, 20, 3276.8, 1024).getY();
-            u = bpf.applyFilter(u);
+            bpf.filterInPlace(u, work);
             int startT = (int) dVector.getObsIDs()[i].getStartTime() * 20; // 6*4=20
             noiseV[i] = new ArrayRealVector(pts[i]);
             for (int j = 0; j < pts[i]; j++)
@@ -2,6 +2,7 @@ package io.github.kensuke1984.kibrary.inversion;
 
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.sac.SACComponent;
 import io.github.kensuke1984.kibrary.util.sac.WaveformType;
 import io.github.kensuke1984.kibrary.waveformdata.BasicID;
 import org.apache.commons.math3.linear.ArrayRealVector;
@@ -15,7 +16,6 @@ import java.util.*;
 import java.util.function.Predicate;
 import java.util.function.ToDoubleBiFunction;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Am=d のdに対する情報 TODO 震源観測点ペア
@@ -27,10 +27,15 @@ import java.util.stream.IntStream;
  * TODO 同じ震源観測点ペアの波形も周波数やタイムウインドウによってあり得るから それに対処 varianceも
  *
  * @author Kensuke Konishi
- * @version 0.2.2.2
+ * @version 0.2.3
  */
 public class Dvector {
 
+    /**
+     * [s] Observed and synthetic IDs whose start times differ less than this can be a pair.
+     */
+    private static final double START_TIME_TOLERANCE = 20;
+
     /**
      * Predicate for choosing dataset. Observed IDs are used for the choice.
      */
@@ -115,6 +120,14 @@ public class Dvector {
      * Synthetic
      */
     private BasicID[] synIDs;
+    /**
+     * Index for searching in obsIDs
+     */
+    private TimewindowIndex obsIndex;
+    /**
+     * Index for searching in synIDs
+     */
+    private TimewindowIndex synIndex;
     /**
      * syn vector of each time window
      */
@@ -212,7 +225,8 @@ public class Dvector {
     private static boolean isPair(BasicID id0, BasicID id1) {
         return id0.getStation().equals(id1.getStation()) && id0.getGlobalCMTID().equals(id1.getGlobalCMTID()) &&
                 id0.getSacComponent() == id1.getSacComponent() && id0.getNpts() == id1.getNpts() &&
-                id0.getSamplingHz() == id1.getSamplingHz() && Math.abs(id0.getStartTime() - id1.getStartTime()) < 20 &&
+                id0.getSamplingHz() == id1.getSamplingHz() &&
+                Math.abs(id0.getStartTime() - id1.getStartTime()) < START_TIME_TOLERANCE &&
                 id0.getMaxPeriod() == id1.getMaxPeriod() && id0.getMinPeriod() == id1.getMinPeriod();
     }
 
@@ -509,9 +523,9 @@ public class Dvector {
                         .collect(Collectors.toList());
 
         // Duplication check
-        for (int i = 0; i < obsList.size(); i++)
-            for (int j = i + 1; j < obsList.size(); j++)
-                if (obsList.get(i).equals(obsList.get(j))) throw new RuntimeException("Duplicate observed detected");
+        Set<BasicID> obsSet = new HashSet<>();
+        for (BasicID obs : obsList)
+            if (!obsSet.add(obs)) throw new RuntimeException("Duplicate observed detected");
 
         // list syn
         List<BasicID> synList =
@@ -519,9 +533,9 @@ public class Dvector {
                         .collect(Collectors.toList());
 
         // Duplication check
-        for (int i = 0; i < synList.size(); i++)
-            for (int j = i + 1; j < synList.size(); j++)
-                if (synList.get(i).equals(synList.get(j))) throw new RuntimeException("Duplicate synthetic detected");
+        Set<BasicID> synSet = new HashSet<>();
+        for (BasicID syn : synList)
+            if (!synSet.add(syn)) throw new RuntimeException("Duplicate synthetic detected");
 
 
         if (obsList.size() != synList.size()) System.err.println(
@@ -532,13 +546,13 @@ public class Dvector {
         List<BasicID> useObsList = new ArrayList<>(size);
         List<BasicID> useSynList = new ArrayList<>(size);
 
-        for (BasicID syn : synList)
-            for (BasicID obs : obsList)
-                if (isPair(syn, obs)) {
-                    useObsList.add(obs);
-                    useSynList.add(syn);
-                    break;
-                }
+        TimewindowIndex obsListIndex = new TimewindowIndex(obsList.toArray(new BasicID[0]));
+        for (BasicID syn : synList) {
+            int i = obsListIndex.indexOf(syn);
+            if (i < 0) continue;
+            useObsList.add(obsList.get(i));
+            useSynList.add(syn);
+        }
 
         if (useObsList.size() != useSynList.size()) throw new RuntimeException("unanticipated");
 
@@ -559,6 +573,8 @@ public class Dvector {
         }
         usedStationSet = Collections.unmodifiableSet(usedStationSet);
         usedGlobalCMTIDset = Collections.unmodifiableSet(usedGlobalCMTIDset);
+        obsIndex = new TimewindowIndex(obsIDs);
+        synIndex = new TimewindowIndex(synIDs);
     }
 
     /**
@@ -569,7 +585,86 @@ public class Dvector {
      * @return index for the ID. -1 if no ID found.
      */
     int whichTimewindow(BasicID id) {
-        BasicID[] ids = id.getWaveformType() == WaveformType.OBS ? obsIDs : synIDs;
-        return IntStream.range(0, ids.length).filter(i -> isPair(id, ids[i])).findAny().orElse(-1);
+        return (id.getWaveformType() == WaveformType.OBS ? obsIndex : synIndex).indexOf(id);
+    }
+
+    /**
+     * Index of IDs for {@link #isPair(BasicID, BasicID)}.
+     * IDs are hashed by station, event, component, period range, npts and sampling Hz,
+     * and bucketed by start time with the width of {@link #START_TIME_TOLERANCE},
+     * so a search looks at only the three buckets around the start time.
+     */
+    private static final class TimewindowIndex {
+        private final BasicID[] IDS;
+        private final Map<Key, List<Integer>> MAP = new HashMap<>();
+
+        private TimewindowIndex(BasicID[] ids) {
+            IDS = ids;
+            for (int i = 0; i < ids.length; i++)
+                MAP.computeIfAbsent(new Key(ids[i], bucketOf(ids[i])), k -> new ArrayList<>()).add(i);
+        }
+
+        private static long bucketOf(BasicID id) {
+            return (long) Math.floor(id.getStartTime() / START_TIME_TOLERANCE);
+        }
+
+        /**
+         * @param id {@link BasicID} to look for
+         * @return the smallest index of the ID which is a pair of the input. -1 if no ID found.
+         */
+        private int indexOf(BasicID id) {
+            long bucket = bucketOf(id);
+            int index = -1;
+            for (long b = bucket - 1; b <= bucket + 1; b++) {
+                List<Integer> candidates = MAP.get(new Key(id, b));
+                if (candidates == null) continue;
+                for (int i : candidates)
+                    if ((index < 0 || i < index) && isPair(id, IDS[i])) {
+                        index = i;
+                        break;
+                    }
+            }
+            return index;
+        }
+
+        private static final class Key {
+            private final Station STATION;
+            private final GlobalCMTID ID;
+            private final SACComponent COMPONENT;
+            private final int NPTS;
+            private final double SAMPLINGHZ;
+            private final double MIN_PERIOD;
+            private final double MAX_PERIOD;
+            private final long BUCKET;
+
+            private Key(BasicID id, long bucket) {
+                STATION = id.getStation();
+                ID = id.getGlobalCMTID();
+                COMPONENT = id.getSacComponent();
+                NPTS = id.getNpts();
+                SAMPLINGHZ = id.getSamplingHz();
+                MIN_PERIOD = id.getMinPeriod();
+                MAX_PERIOD = id.getMaxPeriod();
+                BUCKET = bucket;
+            }
+
+            @Override
+            public int hashCode() {
+                int result = Objects.hash(STATION, ID, COMPONENT, NPTS, BUCKET);
+                result = 31 * result + Double.hashCode(SAMPLINGHZ);
+                result = 31 * result + Double.hashCode(MIN_PERIOD);
+                return 31 * result + Double.hashCode(MAX_PERIOD);
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                if (this == obj) return true;
+                if (obj == null || getClass() != obj.getClass()) return false;
+                Key other = (Key) obj;
+                return NPTS == other.NPTS && BUCKET == other.BUCKET && COMPONENT == other.COMPONENT &&
+                        SAMPLINGHZ == other.SAMPLINGHZ && MIN_PERIOD == other.MIN_PERIOD &&
+                        MAX_PERIOD == other.MAX_PERIOD && STATION.equals(other.STATION) && ID.equals(other.ID);
+            }
+        }
     }
 }
@@ -8,10 +8,10 @@ import org.apache.commons.math3.linear.RealVector;
  * value decomposition.. etc
  *
  * @author Kensuke Konishi
- * @version 0.0.3
+ * @version 0.0.4
  */
 public enum InverseMethodEnum {
-    SINGULAR_VALUE_DECOMPOSITION, CONJUGATE_GRADIENT, LEAST_SQUARES_METHOD;
+    SINGULAR_VALUE_DECOMPOSITION, CONJUGATE_GRADIENT, LEAST_SQUARES_METHOD, LSQR;
 
     public static InverseMethodEnum of(String simple) {
         switch (simple) {
@@ -24,6 +24,9 @@ public enum InverseMethodEnum {
             case "LSM":
             case "lsm":
                 return LEAST_SQUARES_METHOD;
+            case "LSQR":
+            case "lsqr":
+                return LSQR;
             default:
                 throw new IllegalArgumentException("Invalid name for InverseMethod");
         }
@@ -37,11 +40,20 @@ public enum InverseMethodEnum {
                 return "CG";
             case LEAST_SQUARES_METHOD:
                 return "LSM";
+            case LSQR:
+                return "LSQR";
             default:
                 throw new RuntimeException("UnEXpECCted");
         }
     }
 
+    /**
+     * {@link #LSQR} is matrix-free and can not be created from A<sup>T</sup>A. See {@link LSQRMethod}.
+     *
+     * @param ata A<sup>T</sup>A
+     * @param atd A<sup>T</sup>d
+     * @return inverse problem solved by this method
+     */
     InverseProblem getMethod(RealMatrix ata, RealVector atd) {
         switch (this) {
             case SINGULAR_VALUE_DECOMPOSITION:
@@ -12,7 +12,7 @@ import java.util.Arrays;
 
 /**
  * @author Kensuke Konishi
- * @version 0.0.4
+ * @version 0.0.5
  */
 public abstract class InverseProblem {
 
@@ -45,7 +45,7 @@ public abstract class InverseProblem {
      * @return the number of unknown parameters
      */
     public int getParN() {
-        return ata.getColumnDimension();
+        return atd.getDimension();
     }
 
     /**
@@ -397,6 +397,7 @@ public class InversionResult {
             // TODO
             if (inverse == InverseMethodEnum.LEAST_SQUARES_METHOD) continue;
             Path path = rootPath.resolve(inverse.simple() + "/variance.txt");
+            if (inverse == InverseMethodEnum.LSQR && !Files.exists(path)) continue;
             answerVarianceMap
                     .put(inverse, Files.lines(path).mapToDouble(Double::parseDouble).boxed().toArray(Double[]::new));
         }
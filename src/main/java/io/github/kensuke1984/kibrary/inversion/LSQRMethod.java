@@ -0,0 +1,149 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * LSQR method (Paige and Saunders, 1982) for A&delta;m = &delta;d.
+ * <p>
+ * This method is matrix-free. Only products Av and A<sup>T</sup>u are needed
+ * and A<sup>T</sup>A is never formed. Each iteration keeps vectors of the lengths of &delta;m and &delta;d,
+ * and the solution and the basis vector of each iteration are stored (i-th column for (i+1)-th iteration).
+ * <p>
+ * The iteration stops when the number of iterations reaches the maximum,
+ * or either |r| or |A<sup>T</sup>r| (r = &delta;d - A&delta;m) is relatively smaller than the tolerance.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see <a href=https://doi.org/10.1145/355984.355989>Paige and Saunders, 1982</a>
+ */
+public class LSQRMethod extends InverseProblem {
+
+    private final UnaryOperator<RealVector> A;
+    private final UnaryOperator<RealVector> AT;
+    private final RealVector D;
+    private final int MAX_ITERATION;
+    private final double TOLERANCE;
+    /**
+     * d<sub>i</sub> = w<sub>i</sub>/&rho;<sub>i</sub>. i-th column for (i+1)-th iteration.
+     */
+    private RealMatrix base;
+
+    /**
+     * @param equation     A&delta;m = &delta;d to solve
+     * @param maxIteration maximum number of iterations
+     * @param tolerance    relative tolerance for the early stopping
+     */
+    public LSQRMethod(ObservationEquation equation, int maxIteration, double tolerance) {
+        this(equation::operate, equation::computeAtD, equation.getDVector().getD(), maxIteration, tolerance);
+    }
+
+    /**
+     * @param a            v &rarr; Av
+     * @param at           u &rarr; A<sup>T</sup>u
+     * @param d            &delta;d
+     * @param maxIteration maximum number of iterations
+     * @param tolerance    relative tolerance for the early stopping
+     */
+    public LSQRMethod(UnaryOperator<RealVector> a, UnaryOperator<RealVector> at, RealVector d, int maxIteration,
+                      double tolerance) {
+        if (maxIteration <= 0) throw new IllegalArgumentException("maxIteration must be positive.");
+        A = a;
+        AT = at;
+        D = d;
+        atd = at.apply(d);
+        MAX_ITERATION = Math.min(maxIteration, atd.getDimension());
+        TOLERANCE = tolerance;
+    }
+
+    @Override
+    public void compute() {
+        System.err.println("Solving by LSQR method.");
+        List<RealVector> answers = new ArrayList<>();
+        List<RealVector> bases = new ArrayList<>();
+        double beta = D.getNorm();
+        double alpha = beta == 0 ? 0 : atd.getNorm() / beta;
+        RealVector x = atd.mapMultiply(0);
+        if (beta == 0 || alpha == 0) {
+            answers.add(x);
+            bases.add(x);
+        } else {
+            double bNorm = beta;
+            RealVector u = D.mapDivide(beta);
+            RealVector v = atd.mapDivide(beta * alpha);
+            RealVector w = v.copy();
+            double phiBar = beta;
+            double rhoBar = alpha;
+            double aNorm2 = 0;
+            for (int i = 0; i < MAX_ITERATION; i++) {
+                // bidiagonalization
+                u = A.apply(v).subtract(u.mapMultiply(alpha));
+                beta = u.getNorm();
+                if (0 < beta) u.mapDivideToSelf(beta);
+                aNorm2 += alpha * alpha + beta * beta;
+                v = AT.apply(u).subtract(v.mapMultiply(beta));
+                alpha = v.getNorm();
+                if (0 < alpha) v.mapDivideToSelf(alpha);
+
+                // plane rotation
+                double rho = Math.sqrt(rhoBar * rhoBar + beta * beta);
+                double c = rhoBar / rho;
+                double s = beta / rho;
+                double theta = s * alpha;
+                rhoBar = -c * alpha;
+                double phi = c * phiBar;
+                phiBar = s * phiBar;
+
+                RealVector d = w.mapDivide(rho);
+                x = x.add(d.mapMultiply(phi));
+                w = v.subtract(w.mapMultiply(theta / rho));
+                answers.add(x);
+                bases.add(d);
+
+                double rNorm = phiBar;
+                double atrNorm = phiBar * alpha * Math.abs(c);
+                System.err.println("LSQR iteration " + (i + 1) + " |r|/|d|: " + rNorm / bNorm);
+                if (rNorm <= TOLERANCE * bNorm || atrNorm <= TOLERANCE * Math.sqrt(aNorm2) * rNorm || alpha == 0 ||
+                        beta == 0) break;
+            }
+        }
+        ans = MatrixUtils.createRealMatrix(atd.getDimension(), answers.size());
+        base = MatrixUtils.createRealMatrix(atd.getDimension(), bases.size());
+        for (int i = 0; i < answers.size(); i++) {
+            ans.setColumnVector(i, answers.get(i));
+            base.setColumnVector(i, bases.get(i));
+        }
+    }
+
+    /**
+     * @param sigmaD &sigma;<sub>d</sub>
+     * @param j      index (1, 2, ...)
+     * @return &sigma;<sub>d</sub><sup>2</sup> &sum;<sub>i&lt;j</sub> d<sub>i</sub>d<sub>i</sub><sup>T</sup>,
+     * the estimate of (A<sup>T</sup>A)<sup>-1</sup> by the LSQR
+     */
+    @Override
+    public RealMatrix computeCovariance(double sigmaD, int j) {
+        RealMatrix covariance = MatrixUtils.createRealMatrix(getParN(), getParN());
+        double sigmaD2 = sigmaD * sigmaD;
+        for (int i = 0; i < j; i++) {
+            RealMatrix d = base.getColumnMatrix(i);
+            covariance = covariance.add(d.multiply(d.transpose()).scalarMultiply(sigmaD2));
+        }
+        return covariance;
+    }
+
+    @Override
+    public RealMatrix getBaseVectors() {
+        return base;
+    }
+
+    @Override
+    InverseMethodEnum getEnum() {
+        return InverseMethodEnum.LSQR;
+    }
+}
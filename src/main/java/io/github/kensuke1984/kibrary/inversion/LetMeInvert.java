@@ -9,8 +9,6 @@ import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTData;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
 import io.github.kensuke1984.kibrary.waveformdata.BasicID;
 import io.github.kensuke1984.kibrary.waveformdata.BasicIDFile;
-import io.github.kensuke1984.kibrary.waveformdata.PartialID;
-import io.github.kensuke1984.kibrary.waveformdata.PartialIDFile;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.util.Precision;
@@ -30,9 +28,15 @@ import java.util.stream.Collectors;
  * Let's invert
  *
  * @author Kensuke Konishi
- * @version 2.0.3.6
+ * @version 2.0.5
  */
 public class LetMeInvert implements Operation {
+    /**
+     * Description of the weighting for {@link NormalEquationFile#computeKey(String, Path[], Path...)}.
+     * Weighting of unknown parameters is in the unknown parameter file.
+     */
+    private static final String WEIGHTING = "Dvector: reciprocal of max |obs|";
+
     /**
      * path of waveform data
      */
@@ -71,6 +75,22 @@ public class LetMeInvert implements Operation {
      * α for AIC 独立データ数:n/α
      */
     protected double[] alpha;
+    /**
+     * Maximum number of iterations for LSQR
+     */
+    protected int lsqrIteration = 100;
+    /**
+     * Relative tolerance for the early stopping of LSQR
+     */
+    protected double lsqrTolerance = 1e-8;
+    /**
+     * If AtA and Atd are cached in a {@link NormalEquationFile} next to the partial data file
+     */
+    protected boolean normalEquationCache;
+    /**
+     * Path of the {@link NormalEquationFile} for the dataset
+     */
+    private Path normalEquationPath;
     private ObservationEquation eq;
     private Properties property;
     private Path workPath;
@@ -115,7 +135,14 @@ public class LetMeInvert implements Operation {
             pw.println("##double[] alpha it self, if it is set, compute aic for each alpha.");
             pw.println("#alpha");
             pw.println("##inverseMethods[] names of inverse methods (CG SVD)");
+            pw.println("##LSQR is also available, which does not compute AtA.");
             pw.println("#inverseMethods");
+            pw.println("##int Maximum number of iterations for LSQR (100)");
+            pw.println("#lsqrIteration");
+            pw.println("##double Relative tolerance for the early stopping of LSQR (1e-8)");
+            pw.println("#lsqrTolerance");
+            pw.println("##boolean If AtA and Atd are cached next to the partial data file and reused (true)");
+            pw.println("#normalEquationCache");
         }
         System.err.println(outPath + " is created.");
     }
@@ -152,6 +179,7 @@ public class LetMeInvert implements Operation {
         if (!property.containsKey("partialPath"))
             throw new IllegalArgumentException("There is no information about 'partialPath'.");
         if (!property.containsKey("inverseMethods")) property.setProperty("inverseMethods", "CG SVD");
+        if (!property.containsKey("normalEquationCache")) property.setProperty("normalEquationCache", "true");
     }
 
     private void set() {
@@ -170,6 +198,11 @@ public class LetMeInvert implements Operation {
                 Arrays.stream(property.getProperty("alpha").split("\\s+")).mapToDouble(Double::parseDouble).toArray();
         inverseMethods = Arrays.stream(property.getProperty("inverseMethods").split("\\s+")).map(InverseMethodEnum::of)
                 .collect(Collectors.toSet());
+        if (property.containsKey("lsqrIteration"))
+            lsqrIteration = Integer.parseInt(property.getProperty("lsqrIteration"));
+        if (property.containsKey("lsqrTolerance"))
+            lsqrTolerance = Double.parseDouble(property.getProperty("lsqrTolerance"));
+        normalEquationCache = Boolean.parseBoolean(property.getProperty("normalEquationCache"));
     }
 
     /**
@@ -189,8 +222,23 @@ public class LetMeInvert implements Operation {
         List<UnknownParameter> parameterList = UnknownParameterFile.read(unknownParameterListPath);
 
         // set partial matrix
-        PartialID[] partialIDs = PartialIDFile.read(partialIDPath, partialPath);
-        eq = new ObservationEquation(partialIDs, parameterList, dVector);
+        eq = new ObservationEquation(partialIDPath, partialPath, parameterList, dVector);
+        if (normalEquationCache) readNormalEquation();
+    }
+
+    /**
+     * Reads AtA from the {@link NormalEquationFile} for the dataset if it exists.
+     *
+     * @throws IOException if any
+     */
+    private void readNormalEquation() throws IOException {
+        String key = NormalEquationFile.computeKey(WEIGHTING,
+                new Path[]{partialIDPath, waveIDPath, unknownParameterListPath}, partialPath, waveformPath);
+        normalEquationPath = NormalEquationFile.pathOf(partialPath.toAbsolutePath().getParent(), key);
+        if (!Files.exists(normalEquationPath)) return;
+        NormalEquationFile normalEquation = NormalEquationFile.read(normalEquationPath);
+        if (!eq.setNormalEquation(normalEquation.getAtA(), normalEquation.getAtD()))
+            System.err.println(normalEquationPath + " does not agree with the equation and is ignored.");
     }
 
     /**
@@ -439,11 +487,18 @@ public class LetMeInvert implements Operation {
         inverseMethods.forEach(method -> {
             try {
                 if (method == InverseMethodEnum.LEAST_SQUARES_METHOD) return; // TODO
-                solve(outPath.resolve(method.simple()), method.getMethod(eq.getAtA(), eq.getAtD()));
+                if (method == InverseMethodEnum.LSQR) solve(outPath.resolve(method.simple()),
+                        new LSQRMethod(eq, lsqrIteration, lsqrTolerance));
+                else solve(outPath.resolve(method.simple()), method.getMethod(eq.getAtA(), eq.getAtD()));
             } catch (Exception e) {
                 e.printStackTrace();
             }
         });
+        if (normalEquationPath != null && !Files.exists(normalEquationPath) && eq.hasAtA()) try {
+            NormalEquationFile.write(normalEquationPath, eq.getAtA(), eq.getAtD());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     private void solve(Path outPath, InverseProblem inverseProblem) throws IOException {
@@ -454,7 +509,7 @@ public class LetMeInvert implements Operation {
 
         // 基底ベクトルの書き出し SVD: vt, CG: cg ベクトル
         RealMatrix p = inverseProblem.getBaseVectors();
-        for (int j = 0; j < eq.getMlength(); j++) {
+        for (int j = 0; j < p.getColumnDimension(); j++) {
             writeDat(outPath.resolve("p" + j + ".txt"), p.getColumn(j));
         }
     }
@@ -468,10 +523,11 @@ public class LetMeInvert implements Operation {
 
         Path out = outPath.resolve("variance.txt");
         if (Files.exists(out)) throw new FileAlreadyExistsException(out.toString());
-        double[] variance = new double[eq.getMlength() + 1];
+        RealMatrix ans = inverse.getANS();
+        double[] variance = new double[ans.getColumnDimension() + 1];
         variance[0] = eq.getDVector().getVariance();
-        for (int i = 0; i < eq.getMlength(); i++) {
-            variance[i + 1] = eq.varianceOf(inverse.getANS().getColumnVector(i));
+        for (int i = 0; i < ans.getColumnDimension(); i++) {
+            variance[i + 1] = eq.varianceOf(ans.getColumnVector(i));
         }
         writeDat(out, variance);
         if (alpha == null) return;
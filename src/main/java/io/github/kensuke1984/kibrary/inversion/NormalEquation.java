@@ -0,0 +1,135 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.waveformdata.BasicID;
+import io.github.kensuke1984.kibrary.waveformdata.PartialID;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DefaultRealMatrixChangingVisitor;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Normal equation A<sup>T</sup>A&delta;m = A<sup>T</sup>&delta;d which can be updated incrementally.
+ * <p>
+ * Rows of A for different time windows are independent, so A<sup>T</sup>A and A<sup>T</sup>&delta;d
+ * are sums of the contributions of each time window.
+ * Contributions of a set of time windows (e.g. an event) can be added, subtracted and reweighted
+ * in time proportional to the set, without rebuilding A for the whole dataset.
+ * <p>
+ * A weighting w for a set multiplies its rows of A and &delta;d, so its contribution is multiplied by
+ * w<sup>2</sup>.
+ * <p>
+ * This class is <b>thread-safe</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see NormalEquationFile
+ */
+public class NormalEquation {
+
+    private final List<UnknownParameter> PARAMETER_LIST;
+    private final RealMatrix ATA;
+    private final RealVector ATD;
+
+    /**
+     * An empty equation (A<sup>T</sup>A = 0, A<sup>T</sup>&delta;d = 0).
+     *
+     * @param parameterList for &delta;m
+     */
+    public NormalEquation(List<UnknownParameter> parameterList) {
+        PARAMETER_LIST = Collections.unmodifiableList(parameterList);
+        ATA = new Matrix(parameterList.size(), parameterList.size());
+        ATD = new ArrayRealVector(parameterList.size());
+    }
+
+    /**
+     * @param parameterList for &delta;m
+     * @param ata           A<sup>T</sup>A to start from (copied)
+     * @param atd           A<sup>T</sup>&delta;d to start from (copied)
+     */
+    public NormalEquation(List<UnknownParameter> parameterList, RealMatrix ata, RealVector atd) {
+        this(parameterList);
+        if (ata.getRowDimension() != ATA.getRowDimension() || ata.getColumnDimension() != ATA.getColumnDimension() ||
+                atd.getDimension() != ATD.getDimension())
+            throw new IllegalArgumentException("AtA or Atd is not for the parameters.");
+        accumulate(ata, atd, 1);
+    }
+
+    /**
+     * @param equation to start from
+     */
+    public NormalEquation(ObservationEquation equation) {
+        this(equation.getparameterList(), equation.getAtA(), equation.getAtD());
+    }
+
+    /**
+     * Adds the contribution of the time windows in the IDs.
+     *
+     * @param basicIDs   observed and synthetic waveforms to add (must contain waveform data)
+     * @param partialIDs partial waveforms for the basicIDs (must contain waveform data)
+     * @param weighting  for the time windows
+     */
+    public void add(BasicID[] basicIDs, PartialID[] partialIDs, double weighting) {
+        accumulate(basicIDs, partialIDs, weighting * weighting);
+    }
+
+    /**
+     * Subtracts the contribution of the time windows in the IDs, e.g. for a leave-one-event-out test.
+     *
+     * @param basicIDs   observed and synthetic waveforms which were added (must contain waveform data)
+     * @param partialIDs partial waveforms for the basicIDs (must contain waveform data)
+     * @param weighting  with which the time windows were added
+     */
+    public void subtract(BasicID[] basicIDs, PartialID[] partialIDs, double weighting) {
+        accumulate(basicIDs, partialIDs, -weighting * weighting);
+    }
+
+    /**
+     * Changes the weighting for the time windows in the IDs.
+     *
+     * @param basicIDs     observed and synthetic waveforms which were added (must contain waveform data)
+     * @param partialIDs   partial waveforms for the basicIDs (must contain waveform data)
+     * @param oldWeighting with which the time windows were added
+     * @param newWeighting to be applied
+     */
+    public void reweight(BasicID[] basicIDs, PartialID[] partialIDs, double oldWeighting, double newWeighting) {
+        accumulate(basicIDs, partialIDs, newWeighting * newWeighting - oldWeighting * oldWeighting);
+    }
+
+    private void accumulate(BasicID[] basicIDs, PartialID[] partialIDs, double coefficient) {
+        ObservationEquation delta =
+                new ObservationEquation(partialIDs, PARAMETER_LIST, new Dvector(basicIDs));
+        accumulate(delta.getAtA(), delta.getAtD(), coefficient);
+    }
+
+    private synchronized void accumulate(RealMatrix ata, RealVector atd, double coefficient) {
+        ATA.walkInOptimizedOrder(new DefaultRealMatrixChangingVisitor() {
+            @Override
+            public double visit(int row, int column, double value) {
+                return value + coefficient * ata.getEntry(row, column);
+            }
+        });
+        ATD.combineToSelf(1, coefficient, atd);
+    }
+
+    public List<UnknownParameter> getParameterList() {
+        return PARAMETER_LIST;
+    }
+
+    /**
+     * @return (copy of) A<sup>T</sup>A
+     */
+    public synchronized RealMatrix getAtA() {
+        return ATA.copy();
+    }
+
+    /**
+     * @return (copy of) A<sup>T</sup>&delta;d
+     */
+    public synchronized RealVector getAtD() {
+        return ATD.copy();
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.util.Utilities;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Binary file of normal equations A<sup>T</sup>A&delta;m = A<sup>T</sup>&delta;d
+ * to be reused among inversions over the same dataset.
+ * <p>
+ * The file contains<br>
+ * Number of unknown parameters n (int)<br>
+ * A<sup>T</sup>&delta;d (n double)<br>
+ * Upper triangle of A<sup>T</sup>A in row order (n(n+1)/2 double)
+ * <p>
+ * The name of a file is decided by {@link #computeKey(String, Path[], Path...)} of the files for the equation,
+ * so a file for a different dataset is never read.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public class NormalEquationFile {
+
+    private final RealMatrix ATA;
+    private final RealVector ATD;
+
+    private NormalEquationFile(RealMatrix ata, RealVector atd) {
+        ATA = ata;
+        ATD = atd;
+    }
+
+    /**
+     * The key is the SHA-256 of the checksums (MD5) of the small files (ID and unknown parameter files),
+     * the sizes and the last modified time of the other files, and the description of the weighting.
+     *
+     * @param weighting  description of the weighting scheme
+     * @param smallPaths {@link Path}s of files to compute checksums
+     * @param largePaths {@link Path}s of files (waveform data) to check sizes and modified times
+     * @return key for the dataset
+     * @throws IOException if an I/O error occurs
+     */
+    public static String computeKey(String weighting, Path[] smallPaths, Path... largePaths) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Path path : smallPaths)
+                md.update(Utilities.checksum(path, "MD5").getBytes(StandardCharsets.UTF_8));
+            for (Path path : largePaths)
+                md.update((Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis())
+                        .getBytes(StandardCharsets.UTF_8));
+            md.update(weighting.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : md.digest())
+                key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param directory where the file is
+     * @param key       computed by {@link #computeKey(String, Path[], Path...)}
+     * @return {@link Path} of the file for the key
+     */
+    public static Path pathOf(Path directory, String key) {
+        return directory.resolve("normalEquation" + key.substring(0, 16) + ".dat");
+    }
+
+    /**
+     * @param path of a normal equation file
+     * @return the equation in the file
+     * @throws IOException if an I/O error occurs
+     */
+    public static NormalEquationFile read(Path path) throws IOException {
+        long t = System.nanoTime();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int n = dis.readInt();
+            if (Files.size(path) != 4 + 8L * n + 8L * n * (n + 1) / 2)
+                throw new RuntimeException(path + " is invalid.");
+            double[] atd = new double[n];
+            for (int i = 0; i < n; i++)
+                atd[i] = dis.readDouble();
+            Matrix ata = new Matrix(n, n);
+            for (int i = 0; i < n; i++)
+                for (int j = i; j < n; j++) {
+                    double value = dis.readDouble();
+                    ata.setEntry(i, j, value);
+                    ata.setEntry(j, i, value);
+                }
+            System.err.println("AtA and Atd are read from " + path + " in " +
+                    Utilities.toTimeString(System.nanoTime() - t));
+            return new NormalEquationFile(ata, new ArrayRealVector(atd, false));
+        }
+    }
+
+    /**
+     * @param path for write (must not exist)
+     * @param ata  A<sup>T</sup>A
+     * @param atd  A<sup>T</sup>&delta;d
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(Path path, RealMatrix ata, RealVector atd) throws IOException {
+        int n = atd.getDimension();
+        if (ata.getRowDimension() != n || ata.getColumnDimension() != n)
+            throw new IllegalArgumentException("AtA and Atd are not consistent.");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.CREATE_NEW)))) {
+            dos.writeInt(n);
+            for (int i = 0; i < n; i++)
+                dos.writeDouble(atd.getEntry(i));
+            for (int i = 0; i < n; i++)
+                for (int j = i; j < n; j++)
+                    dos.writeDouble(ata.getEntry(i, j));
+        }
+        System.err.println(path + " is created as a cache of AtA and Atd.");
+    }
+
+    /**
+     * @return A<sup>T</sup>A
+     */
+    public RealMatrix getAtA() {
+        return ATA;
+    }
+
+    /**
+     * @return A<sup>T</sup>&delta;d
+     */
+    public RealVector getAtD() {
+        return ATD;
+    }
+}
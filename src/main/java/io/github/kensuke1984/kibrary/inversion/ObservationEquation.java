@@ -6,18 +6,22 @@ import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.spc.PartialType;
 import io.github.kensuke1984.kibrary.waveformdata.BasicID;
+import io.github.kensuke1984.kibrary.waveformdata.MappedWaveformData;
 import io.github.kensuke1984.kibrary.waveformdata.PartialID;
+import io.github.kensuke1984.kibrary.waveformdata.PartialIDFile;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -30,7 +34,7 @@ import java.util.stream.IntStream;
  * <p>
  *
  * @author Kensuke Konishi
- * @version 0.2.1.3
+ * @version 0.2.2
  * @see Dvector {@link UnknownParameter}
  */
 public class ObservationEquation {
@@ -49,9 +53,33 @@ public class ObservationEquation {
      * @param dVector       for &delta;d
      */
     public ObservationEquation(PartialID[] partialIDs, List<UnknownParameter> parameterList, Dvector dVector) {
+        this(partialIDs, null, parameterList, dVector);
+    }
+
+    /**
+     * A is built directly from the partial data file. The partial waveforms are decoded one by one when they are
+     * written in A, so the whole dataset is never resident.
+     *
+     * @param partialIDPath {@link Path} of a partial ID file
+     * @param partialPath   {@link Path} of a partial data file
+     * @param parameterList for &delta;m
+     * @param dVector       for &delta;d
+     * @throws IOException if an I/O error occurs
+     */
+    public ObservationEquation(Path partialIDPath, Path partialPath, List<UnknownParameter> parameterList,
+                               Dvector dVector) throws IOException {
+        this(PartialIDFile.read(partialIDPath), partialPath, parameterList, dVector);
+    }
+
+    private ObservationEquation(PartialID[] partialIDs, Path partialPath, List<UnknownParameter> parameterList,
+                                Dvector dVector) {
         DVECTOR = dVector;
         PARAMETER_LIST = Collections.unmodifiableList(parameterList);
-        readA(partialIDs);
+        try {
+            readA(partialIDs, partialPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         atd = RealVector.unmodifiableRealVector(computeAtD(dVector.getD()));
         BORN_GENERATOR = model -> DVECTOR.separate(operate(model).add(dVector.getSyn()));
         VARIANCE_GENERATOR = this::varianceOf;
@@ -107,6 +135,8 @@ public class ObservationEquation {
      * (&delta;d<sup>T</sup> - &delta;m<sup>T</sup>A<sup>T</sup>)(&delta;d - A&delta;m) = &delta;d<sup>T</sup>&delta;d - &delta;d<sup>T
      * </sup>A&delta;m - &delta;m<sup>T</sup>A<sup>T</sup>&delta;d + &delta;m<sup>T</sup>A<sup>T</sup>A&delta;m = &delta;d<sup>T
      * </sup>&delta;d - 2*(A<sup>T</sup>&delta;d)&delta;m<sup>T</sup> + &delta;m<sup>T</sup>(A<sup>T</sup>A)&delta;m
+     * <p>
+     * If A<sup>T</sup>A has not been computed, A&delta;m is computed instead.
      *
      * @param m &delta;m
      * @return |A&delta;m - &delta;d|<sup>2</sup>/|obs|<sup>2</sup>
@@ -114,6 +144,11 @@ public class ObservationEquation {
     public double varianceOf(RealVector m) {
         Objects.requireNonNull(m);
         double obs2 = DVECTOR.getObsNorm() * DVECTOR.getObsNorm();
+        // without AtA, |d - Am|^2 is computed directly
+        if (ata == null) {
+            RealVector residual = DVECTOR.getD().subtract(operate(m));
+            return residual.dotProduct(residual) / obs2;
+        }
         double variance =
                 DVECTOR.getDNorm() * DVECTOR.getDNorm() - 2 * atd.dotProduct(m) + m.dotProduct(getAtA().operate(m));
         return variance / obs2;
@@ -122,30 +157,42 @@ public class ObservationEquation {
     /**
      * Build a kernel matrix from the PartialIDs
      * according to unknown parameter and waveform data
-     * @param ids source for A
+     *
+     * @param ids         source for A
+     * @param partialPath {@link Path} of a partial data file for the ids. If it is null, the ids must contain
+     *                    waveform data.
      */
-    private void readA(PartialID[] ids) {
+    private void readA(PartialID[] ids, Path partialPath) throws IOException {
         a = new Matrix(DVECTOR.getNpts(), PARAMETER_LIST.size());
-        // partialDataFile.readWaveform();
         long t = System.nanoTime();
+        int nNeeded = DVECTOR.getNTimeWindow() * PARAMETER_LIST.size();
+        // only IDs for unknown parameters are read, in the order in the file
+        PartialID[] targets = Arrays.stream(ids).parallel()
+                .filter(id -> 0 <= whatNumber(id.getPartialType(), id.getPerturbationLocation()))
+                .sorted(Comparator.comparingLong(PartialID::getStartByte)).toArray(PartialID[]::new);
         AtomicInteger count = new AtomicInteger();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            if (count.get() == DVECTOR.getNTimeWindow() * PARAMETER_LIST.size()) return;
-            int column = whatNumber(id.getPartialType(), id.getPerturbationLocation());
-            if (column < 0) return;
-            // 偏微分係数id[i]が何番目のタイムウインドウにあるか
-            int k = DVECTOR.whichTimewindow(id);
-            if (k < 0) return;
-            int row = DVECTOR.getStartPoints(k);
-            double weighting = DVECTOR.getWeighting(k) * PARAMETER_LIST.get(column).getWeighting();
-            double[] partial = id.getData();
-            for (int j = 0; j < partial.length; j++)
-                a.setEntry(row + j, column, partial[j] * weighting);
-            count.incrementAndGet();
-        });
-//		System.out.println(count.get()+" "+ DVECTOR.getNTimeWindow() * PARAMETER_LIST.size()+" "+PARAMETER_LIST.size());
-        if (count.get() != DVECTOR.getNTimeWindow() * PARAMETER_LIST.size())
-            throw new RuntimeException("Input partials are not enough.");
+        AtomicInteger progress = new AtomicInteger();
+        int step = Math.max(1, targets.length / 20);
+        try (MappedWaveformData data = partialPath == null ? null : new MappedWaveformData(partialPath, targets)) {
+            Arrays.stream(targets).parallel().forEach(id -> {
+                if (progress.incrementAndGet() % step == 0) System.err.print(
+                        "\rBuilding A ... " + Math.ceil(progress.get() * 100.0 / targets.length) + " %");
+                if (count.get() == nNeeded) return;
+                int column = whatNumber(id.getPartialType(), id.getPerturbationLocation());
+                // 偏微分係数id[i]が何番目のタイムウインドウにあるか
+                int k = DVECTOR.whichTimewindow(id);
+                if (k < 0) return;
+                int row = DVECTOR.getStartPoints(k);
+                double weighting = DVECTOR.getWeighting(k) * PARAMETER_LIST.get(column).getWeighting();
+                // the waveform is released as soon as it is written in A
+                double[] partial = data == null ? id.getData() : data.read(id);
+                for (int j = 0; j < partial.length; j++)
+                    a.setEntry(row + j, column, partial[j] * weighting);
+                count.incrementAndGet();
+            });
+        }
+        System.err.println("\rBuilding A ... 100.0 %");
+        if (count.get() != nNeeded) throw new RuntimeException("Input partials are not enough.");
         System.err.println("A is read and built in " + Utilities.toTimeString(System.nanoTime() - t));
     }
 
@@ -192,6 +239,29 @@ public class ObservationEquation {
         return a.copy();
     }
 
+    /**
+     * Sets A<sup>T</sup>A computed in advance, e.g. by {@link NormalEquationFile}.
+     * It is accepted only if the input A<sup>T</sup>&delta;d agrees with the one of this equation.
+     *
+     * @param ata A<sup>T</sup>A for this equation
+     * @param atd A<sup>T</sup>&delta;d computed with the ata
+     * @return if the input is accepted
+     */
+    synchronized boolean setNormalEquation(RealMatrix ata, RealVector atd) {
+        int n = PARAMETER_LIST.size();
+        if (ata.getRowDimension() != n || ata.getColumnDimension() != n || atd.getDimension() != n) return false;
+        if (this.atd.getDistance(atd) > 1e-10 * this.atd.getNorm()) return false;
+        this.ata = ata;
+        return true;
+    }
+
+    /**
+     * @return if A<sup>T</sup>A has been computed (or set)
+     */
+    boolean hasAtA() {
+        return ata != null;
+    }
+
     public RealMatrix getAtA() {
         if (ata == null) synchronized (this) {
             if (ata == null) ata = a.computeAtA();
@@ -0,0 +1,117 @@
+package io.github.kensuke1984.kibrary.math;
+
+import java.io.Serializable;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Adaptive Simpson's rule with error control.
+ * <p>
+ * An interval is bisected only where the Simpson's rule on the halves differs from the one on the whole
+ * by more than 15 &epsilon; (&epsilon; is halved in each bisection), and the result is corrected by
+ * Richardson extrapolation. Values of the function are reused in the bisections,
+ * so only two new values are computed for each bisection.
+ * <p>
+ * If any value of the function is NaN, the integral is NaN.
+ * <p>
+ * This class is <b>IMMUTABLE</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see Integrand#bySimpsonRule(double, double, double, double)
+ */
+public final class AdaptiveSimpson implements Serializable {
+
+    private static final long serialVersionUID = 4470398932613412837L;
+
+    /**
+     * relative tolerance to the integral (estimated by the Simpson's rule on the whole interval)
+     */
+    private final double RELATIVE_TOLERANCE;
+    /**
+     * tolerance used when the integral is close to 0
+     */
+    private final double ABSOLUTE_TOLERANCE;
+    /**
+     * maximum number of bisections
+     */
+    private final int MAX_DEPTH;
+
+    /**
+     * @param relativeTolerance relative tolerance to the integral (positive)
+     * @param absoluteTolerance tolerance used when the integral is close to 0 (positive)
+     * @param maxDepth          maximum number of bisections (positive)
+     */
+    public AdaptiveSimpson(double relativeTolerance, double absoluteTolerance, int maxDepth) {
+        if (!(0 < relativeTolerance) || !(0 < absoluteTolerance) || maxDepth <= 0)
+            throw new IllegalArgumentException(
+                    "Invalid tolerances or depth " + relativeTolerance + " " + absoluteTolerance + " " + maxDepth);
+        RELATIVE_TOLERANCE = relativeTolerance;
+        ABSOLUTE_TOLERANCE = absoluteTolerance;
+        MAX_DEPTH = maxDepth;
+    }
+
+    /**
+     * @param f function to integrate
+     * @param a start of the interval
+     * @param b end of the interval
+     * @return &int;<sub>a</sub><sup>b</sup>f(x)dx
+     */
+    public double integrate(DoubleUnaryOperator f, double a, double b) {
+        return integrate(f, a, b, f.applyAsDouble(a), f.applyAsDouble((a + b) / 2), f.applyAsDouble(b));
+    }
+
+    /**
+     * Use this when the values at the both ends and the center are already computed.
+     *
+     * @param f  function to integrate
+     * @param a  start of the interval
+     * @param b  end of the interval
+     * @param fa f(a)
+     * @param fm f((a+b)/2)
+     * @param fb f(b)
+     * @return &int;<sub>a</sub><sup>b</sup>f(x)dx
+     */
+    public double integrate(DoubleUnaryOperator f, double a, double b, double fa, double fm, double fb) {
+        if (Double.isNaN(fa + fm + fb)) return Double.NaN;
+        double whole = Integrand.bySimpsonRule(fa, fm, fb, b - a);
+        double epsilon = Math.max(ABSOLUTE_TOLERANCE, RELATIVE_TOLERANCE * Math.abs(whole));
+        return bisect(f, a, b, fa, fm, fb, whole, epsilon, MAX_DEPTH);
+    }
+
+    private static double bisect(DoubleUnaryOperator f, double a, double b, double fa, double fm, double fb,
+                                 double whole, double epsilon, int depth) {
+        double m = (a + b) / 2;
+        double h = (b - a) / 2;
+        double flm = f.applyAsDouble((a + m) / 2);
+        double frm = f.applyAsDouble((m + b) / 2);
+        if (Double.isNaN(flm + frm)) return Double.NaN;
+        double left = Integrand.bySimpsonRule(fa, flm, fm, h);
+        double right = Integrand.bySimpsonRule(fm, frm, fb, h);
+        double difference = left + right - whole;
+        if (depth <= 0 || Math.abs(difference) <= 15 * epsilon) return left + right + difference / 15;
+        return bisect(f, a, m, fa, flm, fm, left, epsilon / 2, depth - 1) +
+                bisect(f, m, b, fm, frm, fb, right, epsilon / 2, depth - 1);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(RELATIVE_TOLERANCE);
+        result = 31 * result + Double.hashCode(ABSOLUTE_TOLERANCE);
+        return 31 * result + MAX_DEPTH;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        AdaptiveSimpson other = (AdaptiveSimpson) obj;
+        return RELATIVE_TOLERANCE == other.RELATIVE_TOLERANCE && ABSOLUTE_TOLERANCE == other.ABSOLUTE_TOLERANCE &&
+                MAX_DEPTH == other.MAX_DEPTH;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveSimpson relative tolerance " + RELATIVE_TOLERANCE + ", absolute tolerance " +
+                ABSOLUTE_TOLERANCE + ", max depth " + MAX_DEPTH;
+    }
+}
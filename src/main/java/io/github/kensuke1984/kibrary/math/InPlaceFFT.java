@@ -0,0 +1,214 @@
+package io.github.kensuke1984.kibrary.math;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Radix-2 fast Fourier transform of complex data stored in a primitive array.
+ * <p>
+ * Complex data z[i] (i = 0, .., n-1) are interleaved as data[2i] = Re z[i] and data[2i+1] = Im z[i]
+ * and transformed in place, so no {@link org.apache.commons.math3.complex.Complex} is created.
+ * The normalization is the same as {@link org.apache.commons.math3.transform.DftNormalization#STANDARD}
+ * (no factor in the forward transform, 1/n in the inverse one).
+ * <p>
+ * Tables of twiddle factors are kept for each n.
+ * <p>
+ * A part of an inverse transform can be computed by the chirp z-transform (Bluestein's algorithm),
+ * whose cost depends on the length of the part instead of n. See {@link #inverseHermitian(double[], int, int, int)}.
+ * <p>
+ * This class is <b>thread-safe</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+public final class InPlaceFFT {
+
+    /**
+     * n &rarr; {cos(2&pi;k/n), sin(2&pi;k/n)} (k = 0, .., n/2-1)
+     */
+    private static final Map<Integer, double[][]> TWIDDLE_TABLES = new ConcurrentHashMap<>();
+    /**
+     * (n, k, l) &rarr; transformed chirp for {@link #chirpZ(double[], int, int, int)}
+     */
+    private static final Map<List<Integer>, double[]> CHIRP_TABLES = new ConcurrentHashMap<>();
+
+    private InPlaceFFT() {
+    }
+
+    private static double[][] twiddleOf(int n) {
+        return TWIDDLE_TABLES.computeIfAbsent(n, k -> {
+            double[] cos = new double[k / 2];
+            double[] sin = new double[k / 2];
+            for (int i = 0; i < k / 2; i++) {
+                double angle = 2 * Math.PI * i / k;
+                cos[i] = FastMath.cos(angle);
+                sin[i] = FastMath.sin(angle);
+            }
+            return new double[][]{cos, sin};
+        });
+    }
+
+    /**
+     * @param data interleaved complex data (the length must be twice a power of 2). It is overwritten.
+     */
+    public static void forward(double[] data) {
+        transform(data, -1);
+    }
+
+    /**
+     * @param data interleaved complex data (the length must be twice a power of 2). It is overwritten.
+     */
+    public static void inverse(double[] data) {
+        transform(data, 1);
+        double factor = 2.0 / data.length;
+        for (int i = 0; i < data.length; i++)
+            data[i] *= factor;
+    }
+
+    /**
+     * Inverse transform of a spectrum U[0], .., U[np] of a real time series. The rest of the spectrum (up to n/2)
+     * is 0 and U[n-i] = U[i]<sup>*</sup>.
+     *
+     * @param spectrum interleaved U[0], .., U[np] (the length is 2(np+1))
+     * @param n        number of points in the time domain (a power of 2 larger than 2np)
+     * @return the real part of the time series (the length is n)
+     */
+    public static double[] inverseHermitian(double[] spectrum, int n) {
+        int np = spectrum.length / 2 - 1;
+        int nnp = n / 2;
+        if (Integer.bitCount(n) != 1 || nnp < np) throw new IllegalArgumentException("Invalid n " + n);
+        double[] data = new double[2 * n];
+        System.arraycopy(spectrum, 0, data, 0, spectrum.length);
+        // set values for imaginary frequency F[i] = F[N-i]
+        for (int i = 0; i < nnp - 1; i++) {
+            data[2 * (nnp + 1 + i)] = data[2 * (nnp - 1 - i)];
+            data[2 * (nnp + 1 + i) + 1] = -data[2 * (nnp - 1 - i) + 1];
+        }
+        inverse(data);
+        double[] real = new double[n];
+        for (int i = 0; i < n; i++)
+            real[i] = data[2 * i];
+        return real;
+    }
+
+    /**
+     * Samples [from, to) of {@link #inverseHermitian(double[], int)}. When the part is short enough,
+     * only the part is computed by the chirp z-transform, otherwise the whole series is computed.
+     *
+     * @param spectrum interleaved U[0], .., U[np] (the length is 2(np+1))
+     * @param n        number of points in the time domain (a power of 2 larger than 2np)
+     * @param from     first index of the part (inclusive)
+     * @param to       last index of the part (exclusive)
+     * @return the real part of the time series in [from, to) (the length is to-from)
+     */
+    public static double[] inverseHermitian(double[] spectrum, int n, int from, int to) {
+        if (from < 0 || n < to || to <= from)
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") for " + n);
+        int np = spectrum.length / 2 - 1;
+        int l = Integer.highestOneBit(np + to - from) * 2;
+        // three transforms of l (one of them is cached) against one of n
+        if (n <= 2 * l) return Arrays.copyOfRange(inverseHermitian(spectrum, n), from, to);
+        return chirpZ(spectrum, n, from, to);
+    }
+
+    /**
+     * x[m] = 1/n Re &sum;<sub>k</sub> a<sub>k</sub> U[k] w<sup>km</sup> (w = exp(2&pi;i/n),
+     * a<sub>k</sub> = 2 except for k = 0 and n/2) is computed for m in [from, to) as
+     * w<sup>j<sup>2</sup>/2</sup> &sum;<sub>k</sub> (b<sub>k</sub> w<sup>k<sup>2</sup>/2</sup>)
+     * w<sup>-(j-k)<sup>2</sup>/2</sup> (j = m - from, b<sub>k</sub> = a<sub>k</sub>U[k]w<sup>k from</sup>),
+     * where the sum is a convolution.
+     */
+    private static double[] chirpZ(double[] spectrum, int n, int from, int to) {
+        int np = spectrum.length / 2 - 1;
+        int nnp = n / 2;
+        if (Integer.bitCount(n) != 1 || nnp < np) throw new IllegalArgumentException("Invalid n " + n);
+        int width = to - from;
+        int l = Integer.highestOneBit(np + width) * 2;
+        double[] a = new double[2 * l];
+        for (int k = 0; k <= np; k++) {
+            double factor = (k == 0 || k == nnp ? 1.0 : 2.0) / n;
+            // w^(k from + k^2/2) = exp(i pi (2 k from + k^2) / n)
+            double angle = Math.PI * ((2L * k * from + (long) k * k) % (2L * n)) / n;
+            double cos = FastMath.cos(angle);
+            double sin = FastMath.sin(angle);
+            a[2 * k] = factor * (spectrum[2 * k] * cos - spectrum[2 * k + 1] * sin);
+            a[2 * k + 1] = factor * (spectrum[2 * k] * sin + spectrum[2 * k + 1] * cos);
+        }
+        forward(a);
+        double[] b = CHIRP_TABLES.computeIfAbsent(Arrays.asList(n, np, l), key -> {
+            // w^(-t^2/2) for t in [-np, l-np)
+            double[] chirp = new double[2 * l];
+            for (int t = -np; t < l - np; t++) {
+                int index = t < 0 ? t + l : t;
+                double angle = -Math.PI * (((long) t * t) % (2L * n)) / n;
+                chirp[2 * index] = FastMath.cos(angle);
+                chirp[2 * index + 1] = FastMath.sin(angle);
+            }
+            forward(chirp);
+            return chirp;
+        });
+        for (int i = 0; i < l; i++) {
+            double real = a[2 * i] * b[2 * i] - a[2 * i + 1] * b[2 * i + 1];
+            a[2 * i + 1] = a[2 * i] * b[2 * i + 1] + a[2 * i + 1] * b[2 * i];
+            a[2 * i] = real;
+        }
+        inverse(a);
+        double[] x = new double[width];
+        for (int j = 0; j < width; j++) {
+            // real part of w^(j^2/2) c[j]
+            double angle = Math.PI * (((long) j * j) % (2L * n)) / n;
+            x[j] = a[2 * j] * FastMath.cos(angle) - a[2 * j + 1] * FastMath.sin(angle);
+        }
+        return x;
+    }
+
+    /**
+     * @param data interleaved complex data
+     * @param sign -1 for forward, 1 for inverse
+     */
+    private static void transform(double[] data, int sign) {
+        int n = data.length / 2;
+        if (data.length % 2 != 0 || Integer.bitCount(n) != 1)
+            throw new IllegalArgumentException("The number of complex data must be a power of 2. " + n);
+        // bit reversal
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1)
+                j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double tmp = data[2 * i];
+                data[2 * i] = data[2 * j];
+                data[2 * j] = tmp;
+                tmp = data[2 * i + 1];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j + 1] = tmp;
+            }
+        }
+        double[][] twiddle = twiddleOf(n);
+        double[] cos = twiddle[0];
+        double[] sin = twiddle[1];
+        // butterflies
+        for (int length = 2; length <= n; length <<= 1) {
+            int half = length >> 1;
+            int step = n / length;
+            for (int start = 0; start < n; start += length)
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = 2 * (start + k);
+                    int b = a + 2 * half;
+                    double xr = data[b] * wr - data[b + 1] * wi;
+                    double xi = data[b] * wi + data[b + 1] * wr;
+                    data[b] = data[a] - xr;
+                    data[b + 1] = data[a + 1] - xi;
+                    data[a] += xr;
+                    data[a + 1] += xi;
+                }
+        }
+    }
+}
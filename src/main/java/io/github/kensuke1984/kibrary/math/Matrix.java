@@ -1,38 +1,164 @@
 package io.github.kensuke1984.kibrary.math;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.NoDataException;
+import org.apache.commons.math3.exception.OutOfRangeException;
 import org.apache.commons.math3.linear.*;
 
+import java.io.Serializable;
+
 /**
  * 行列計算 parallelized Matrix
+ * <p>
+ * Entries are stored column by column in primitive arrays (column-major),
+ * so that a column of A is contiguous for computations of A<sup>T</sup>A, A<sup>T</sup>d and Am
+ * in {@link MatrixComputation}. A column is a separate array so that the number of rows times columns
+ * may exceed the limit of a Java array length.
  *
  * @author Kensuke Konishi
- * @version 0.1.0.1
+ * @version 0.2.0.1
  */
-public class Matrix extends Array2DRowRealMatrix {
+public class Matrix extends AbstractRealMatrix implements Serializable {
+
+    private static final long serialVersionUID = 2L;
 
-    private static final long serialVersionUID = 1L;
+    private final int ROW_DIMENSION;
+    private final int COLUMN_DIMENSION;
+    /**
+     * COLUMNS[j][i] is the entry at the i th row and the j th column.
+     */
+    final double[][] COLUMNS;
 
     public Matrix() {
-        super();
+        ROW_DIMENSION = 0;
+        COLUMN_DIMENSION = 0;
+        COLUMNS = new double[0][];
     }
 
+    /**
+     * @param arg0 column vector
+     */
     public Matrix(double[] arg0) {
-        super(arg0);
+        this(arg0.length, 1);
+        System.arraycopy(arg0, 0, COLUMNS[0], 0, arg0.length);
     }
 
+    /**
+     * @param arg0 entries d[row][column]
+     * @param arg1 ignored as the entries are always copied in the column-major storage
+     * @throws IllegalArgumentException if the input is not rectangular
+     * @throws NoDataException          if the input has no row or no column
+     * @throws NullPointerException     if the input is null
+     */
     public Matrix(double[][] arg0, boolean arg1) throws IllegalArgumentException, NullPointerException {
-        super(arg0, arg1);
+        this(arg0);
     }
 
+    /**
+     * @param d entries d[row][column]
+     * @throws IllegalArgumentException if the input is not rectangular
+     * @throws NoDataException          if the input has no row or no column
+     * @throws NullPointerException     if the input is null
+     */
     public Matrix(double[][] d) throws IllegalArgumentException, NullPointerException {
-        super(d);
+        this(rowDimensionOf(d), d[0].length);
+        for (int i = 0; i < ROW_DIMENSION; i++) {
+            if (d[i].length != COLUMN_DIMENSION) throw new DimensionMismatchException(d[i].length, COLUMN_DIMENSION);
+            for (int j = 0; j < COLUMN_DIMENSION; j++)
+                COLUMNS[j][i] = d[i][j];
+        }
+    }
+
+    /**
+     * @param d entries d[row][column]
+     * @return the number of rows of d
+     * @throws NoDataException if d has no row or no column
+     */
+    private static int rowDimensionOf(double[][] d) {
+        if (d.length == 0 || d[0].length == 0) throw new NoDataException();
+        return d.length;
     }
 
     public Matrix(int rowDimension, int columnDimension) throws IllegalArgumentException {
         super(rowDimension, columnDimension);
+        ROW_DIMENSION = rowDimension;
+        COLUMN_DIMENSION = columnDimension;
+        COLUMNS = new double[columnDimension][rowDimension];
+    }
+
+    @Override
+    public int getRowDimension() {
+        return ROW_DIMENSION;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return COLUMN_DIMENSION;
     }
 
+    @Override
+    public Matrix createMatrix(int rowDimension, int columnDimension) {
+        return new Matrix(rowDimension, columnDimension);
+    }
+
+    @Override
+    public Matrix copy() {
+        Matrix copy = new Matrix(ROW_DIMENSION, COLUMN_DIMENSION);
+        for (int j = 0; j < COLUMN_DIMENSION; j++)
+            System.arraycopy(COLUMNS[j], 0, copy.COLUMNS[j], 0, ROW_DIMENSION);
+        return copy;
+    }
+
+    @Override
+    public double getEntry(int row, int column) throws OutOfRangeException {
+        try {
+            return COLUMNS[column][row];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            MatrixUtils.checkMatrixIndex(this, row, column);
+            throw e;
+        }
+    }
+
+    @Override
+    public void setEntry(int row, int column, double value) throws OutOfRangeException {
+        try {
+            COLUMNS[column][row] = value;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            MatrixUtils.checkMatrixIndex(this, row, column);
+            throw e;
+        }
+    }
+
+    @Override
+    public void addToEntry(int row, int column, double increment) throws OutOfRangeException {
+        try {
+            COLUMNS[column][row] += increment;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            MatrixUtils.checkMatrixIndex(this, row, column);
+            throw e;
+        }
+    }
+
+    @Override
+    public void multiplyEntry(int row, int column, double factor) throws OutOfRangeException {
+        try {
+            COLUMNS[column][row] *= factor;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            MatrixUtils.checkMatrixIndex(this, row, column);
+            throw e;
+        }
+    }
+
+    @Override
+    public double[] getColumn(int column) throws OutOfRangeException {
+        MatrixUtils.checkColumnIndex(this, column);
+        return COLUMNS[column].clone();
+    }
+
+    @Override
+    public RealVector getColumnVector(int column) throws OutOfRangeException {
+        return new ArrayRealVector(getColumn(column), false);
+    }
 
     @Override
     public Matrix multiply(RealMatrix arg0) throws IllegalArgumentException {
@@ -63,17 +189,22 @@ public class Matrix extends Array2DRowRealMatrix {
         return MatrixComputation.operate(this, arg0);
     }
 
+    @Override
+    public double walkInOptimizedOrder(RealMatrixPreservingVisitor visitor) {
+        return walkInColumnOrder(visitor);
+    }
+
+    @Override
+    public double walkInOptimizedOrder(RealMatrixChangingVisitor visitor) {
+        return walkInColumnOrder(visitor);
+    }
+
     @Override
     public RealMatrix transpose() {
-        RealMatrix out = new Matrix(getColumnDimension(), getRowDimension());
-        walkInOptimizedOrder(new DefaultRealMatrixPreservingVisitor() {
-            /** {@inheritDoc} */
-            @Override
-            public void visit(int row, int column, double value) {
-                out.setEntry(column, row, value);
-            }
-
-        });
+        Matrix out = new Matrix(getColumnDimension(), getRowDimension());
+        for (int j = 0; j < COLUMN_DIMENSION; j++)
+            for (int i = 0; i < ROW_DIMENSION; i++)
+                out.COLUMNS[i][j] = COLUMNS[j][i];
         return out;
     }
 }
@@ -13,53 +13,148 @@ import java.util.stream.IntStream;
  * Computations of matrix and vector
  *
  * @author Kensuke Konishi
- * @version 0.0.2.1
+ * @version 0.1.0
  */
 class MatrixComputation {
 
-    public static Matrix computeAtA(RealMatrix a) {
+    /**
+     * Number of rows in a block. A segment of a column in a block (8 kB) fits in the L1 cache.
+     */
+    private static final int ROW_BLOCK = 1024;
+    /**
+     * Number of columns in a block for A<sup>T</sup>A.
+     */
+    private static final int COLUMN_BLOCK = 32;
+
+    /**
+     * A<sup>T</sup>A is computed by blocks of {@link #COLUMN_BLOCK} columns.
+     * Only blocks in the upper triangle are computed and mirrored.
+     * Each pair of column blocks is a parallel task, in which row blocks of {@link #ROW_BLOCK} are accumulated.
+     *
+     * @param a matrix A
+     * @return A<sup>T</sup>A
+     */
+    public static Matrix computeAtA(Matrix a) {
         long start = System.nanoTime();
         System.err.print("Computing matrix multiplication AtA");
         int n = a.getColumnDimension();
+        int m = a.getRowDimension();
+        double[][] columns = a.COLUMNS;
         Matrix ata = new Matrix(n, n);
-
-        IntStream.range(0, n).parallel().forEach(i -> {
-            IntStream.range(i, n).parallel().forEach(j -> {
-                double value = computeMultiplication(i, j, a, null);
-                ata.setEntry(i, j, value);
-                ata.setEntry(j, i, value);
-            });
+        int nBlock = (n + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+        IntStream.range(0, nBlock * (nBlock + 1) / 2).parallel().forEach(b -> {
+            // b th pair (bi <= bj) in the upper triangle
+            int bi = 0;
+            int rest = b;
+            while (nBlock - bi <= rest) rest -= nBlock - bi++;
+            int bj = bi + rest;
+            int iStart = bi * COLUMN_BLOCK;
+            int iEnd = Math.min(n, iStart + COLUMN_BLOCK);
+            int jStart = bj * COLUMN_BLOCK;
+            int jEnd = Math.min(n, jStart + COLUMN_BLOCK);
+            double[][] block = new double[iEnd - iStart][jEnd - jStart];
+            for (int kStart = 0; kStart < m; kStart += ROW_BLOCK) {
+                int kEnd = Math.min(m, kStart + ROW_BLOCK);
+                for (int i = iStart; i < iEnd; i++) {
+                    double[] ci = columns[i];
+                    double[] blockRow = block[i - iStart];
+                    int j = bi == bj ? i : jStart;
+                    // four columns at once to reuse ci[k] in a register
+                    for (; j + 3 < jEnd; j += 4) {
+                        double[] c0 = columns[j];
+                        double[] c1 = columns[j + 1];
+                        double[] c2 = columns[j + 2];
+                        double[] c3 = columns[j + 3];
+                        double s0 = 0;
+                        double s1 = 0;
+                        double s2 = 0;
+                        double s3 = 0;
+                        for (int k = kStart; k < kEnd; k++) {
+                            double aki = ci[k];
+                            s0 += aki * c0[k];
+                            s1 += aki * c1[k];
+                            s2 += aki * c2[k];
+                            s3 += aki * c3[k];
+                        }
+                        blockRow[j - jStart] += s0;
+                        blockRow[j + 1 - jStart] += s1;
+                        blockRow[j + 2 - jStart] += s2;
+                        blockRow[j + 3 - jStart] += s3;
+                    }
+                    for (; j < jEnd; j++)
+                        blockRow[j - jStart] += dot(ci, columns[j], kStart, kEnd);
+                }
+            }
+            for (int i = iStart; i < iEnd; i++)
+                for (int j = bi == bj ? i : jStart; j < jEnd; j++) {
+                    double value = block[i - iStart][j - jStart];
+                    ata.COLUMNS[j][i] = value;
+                    ata.COLUMNS[i][j] = value;
+                }
         });
         System.err.println(", it took " + Utilities.toTimeString(System.nanoTime() - start));
         return ata;
     }
 
-    public static RealVector operate(RealMatrix a, RealVector m) {
+    /**
+     * @param x     vector
+     * @param y     vector
+     * @param start index to start (inclusive)
+     * @param end   index to end (exclusive)
+     * @return &sum;<sub>start&le;k&lt;end</sub> x<sub>k</sub>y<sub>k</sub>
+     */
+    private static double dot(double[] x, double[] y, int start, int end) {
+        double value = 0;
+        for (int k = start; k < end; k++)
+            value += x[k] * y[k];
+        return value;
+    }
+
+    /**
+     * Am is computed by blocks of {@link #ROW_BLOCK} rows in parallel.
+     * In each block, columns of A are added with the weights of m.
+     *
+     * @param a matrix A
+     * @param m vector m
+     * @return Am
+     */
+    public static RealVector operate(Matrix a, RealVector m) {
         int n = a.getRowDimension();
         int length = m.getDimension();
         if (a.getColumnDimension() != length) throw new RuntimeException("dimension invalid");
-        RealVector vector = new ArrayRealVector(n);
-        IntStream.range(0, n).parallel().forEach(i -> {
-            double value = 0;
-            for (int k = 0; k < length; k++)
-                value += a.getEntry(i, k) * m.getEntry(k);
-            vector.setEntry(i, value);
+        double[][] columns = a.COLUMNS;
+        double[] mArray = m.toArray();
+        double[] vector = new double[n];
+        IntStream.range(0, (n + ROW_BLOCK - 1) / ROW_BLOCK).parallel().forEach(b -> {
+            int iStart = b * ROW_BLOCK;
+            int iEnd = Math.min(n, iStart + ROW_BLOCK);
+            for (int k = 0; k < length; k++) {
+                double mk = mArray[k];
+                if (mk == 0) continue;
+                double[] ck = columns[k];
+                for (int i = iStart; i < iEnd; i++)
+                    vector[i] += ck[i] * mk;
+            }
         });
-        return vector;
+        return new ArrayRealVector(vector, false);
     }
 
-    public static RealVector premultiply(RealVector v, RealMatrix a) {
+    /**
+     * v<sup>T</sup>A (=A<sup>T</sup>v) is computed as dot products of v and each (contiguous) column in parallel.
+     *
+     * @param v vector v
+     * @param a matrix A
+     * @return v<sup>T</sup>A
+     */
+    public static RealVector premultiply(RealVector v, Matrix a) {
         int n = a.getColumnDimension();
         int length = v.getDimension();
         if (length != a.getRowDimension()) throw new RuntimeException("dimension invalid");
-        RealVector vector = new ArrayRealVector(n);
-        IntStream.range(0, n).parallel().forEach(i -> {
-            double value = 0;
-            for (int k = 0; k < length; k++)
-                value += a.getEntry(k, i) * v.getEntry(k);
-            vector.setEntry(i, value);
-        });
-        return vector;
+        double[][] columns = a.COLUMNS;
+        double[] vArray = v.toArray();
+        double[] vector = new double[n];
+        IntStream.range(0, n).parallel().forEach(i -> vector[i] = dot(columns[i], vArray, 0, length));
+        return new ArrayRealVector(vector, false);
     }
 
     public static Matrix computeAB(RealMatrix former, RealMatrix latter) throws DimensionMismatchException {
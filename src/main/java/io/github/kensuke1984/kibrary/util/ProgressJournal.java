@@ -0,0 +1,133 @@
+package io.github.kensuke1984.kibrary.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Durable journal of progress in a long run, with which the run can be resumed.
+ * <p>
+ * A run finishes units of work (e.g. a pair of a station and an event) and commits them with some information
+ * (e.g. sizes of output files, with which the outputs are consistent with the units).
+ * Units are committed only together with the information, so units which are finished after the last commit
+ * are not in the journal. Each commit is written to the disk before {@link #commit(Collection, String)} returns.
+ * <p>
+ * The file is a text file. Each line is 'unit [name of a unit]' or 'commit [information]'.
+ * A broken end of the file (e.g. after a node failure) is discarded when it is opened.
+ * <p>
+ * This class is <b>thread-safe</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public class ProgressJournal implements Closeable {
+
+    private static final String UNIT = "unit ";
+    private static final String COMMIT = "commit ";
+
+    private final Path PATH;
+    private final FileChannel CHANNEL;
+    /**
+     * names of committed units
+     */
+    private final Set<String> DONE = new HashSet<>();
+    /**
+     * information of the commits in order
+     */
+    private final List<String> COMMITS = new ArrayList<>();
+
+    /**
+     * If the file exists, committed units in it are read, otherwise a new journal is created.
+     *
+     * @param path of the journal
+     * @throws IOException if an I/O error occurs
+     */
+    public ProgressJournal(Path path) throws IOException {
+        PATH = path;
+        long validLength = 0;
+        if (Files.exists(path)) {
+            byte[] bytes = Files.readAllBytes(path);
+            List<String> pending = new ArrayList<>();
+            for (int start = 0, end; start < bytes.length; start = end + 1) {
+                for (end = start; end < bytes.length && bytes[end] != '\n'; end++) ;
+                // a line without the line feed is broken
+                if (end == bytes.length) break;
+                String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+                if (line.startsWith(UNIT)) pending.add(line.substring(UNIT.length()));
+                else if (line.startsWith(COMMIT)) {
+                    DONE.addAll(pending);
+                    pending.clear();
+                    COMMITS.add(line.substring(COMMIT.length()));
+                    validLength = end + 1;
+                } else throw new RuntimeException(path + " is not a journal. " + line);
+            }
+        }
+        CHANNEL = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // units after the last commit are not committed
+        CHANNEL.truncate(validLength);
+        CHANNEL.position(validLength);
+    }
+
+    /**
+     * @return Path of the journal
+     */
+    public Path getPath() {
+        return PATH;
+    }
+
+    /**
+     * @param unit name of a unit
+     * @return if the unit is committed
+     */
+    public synchronized boolean isDone(String unit) {
+        return DONE.contains(unit);
+    }
+
+    /**
+     * @return number of the committed units
+     */
+    public synchronized int getNumberOfDoneUnits() {
+        return DONE.size();
+    }
+
+    /**
+     * @return information of the commits in order
+     */
+    public synchronized List<String> getCommits() {
+        return new ArrayList<>(COMMITS);
+    }
+
+    /**
+     * Commits units with information and writes them to the disk.
+     *
+     * @param units       names of units to commit (can be empty). They must not contain line feeds.
+     * @param information of the commit. It must not contain line feeds.
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void commit(Collection<String> units, String information) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String unit : units) {
+            if (unit.contains("\n")) throw new IllegalArgumentException("Invalid unit " + unit);
+            sb.append(UNIT).append(unit).append('\n');
+        }
+        if (information.contains("\n")) throw new IllegalArgumentException("Invalid information " + information);
+        sb.append(COMMIT).append(information).append('\n');
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) CHANNEL.write(buffer);
+        CHANNEL.force(false);
+        DONE.addAll(units);
+        COMMITS.add(information);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        CHANNEL.close();
+    }
+
+}
@@ -10,7 +10,7 @@ import java.io.IOException;
  * This class is <b>immutable</b>
  *
  * @author Kensuke Konishi
- * @version 1.0.0.1
+ * @version 1.0.0.2
  * @see <a href=http://ds.iris.edu/ds/nodes/dmc/forms/sac/>SAC</a>
  */
 class SACFile extends SACHeader implements SACData {
@@ -57,9 +57,9 @@ class SACFile extends SACHeader implements SACData {
             double periodMax = 2 * Math.PI * getValue(SACHeaderEnum.DELTA) / bsf.getOmegaH();
             sd = sd.setValue(SACHeaderEnum.USER0, periodMax).setValue(SACHeaderEnum.USER1, periodMin);
         }
-        double[] sacdata = filter.applyFilter(waveData.clone());
-        sd = sd.setSACData(sacdata);
-        return sd;
+        double[] sacdata = waveData.clone();
+        filter.filterInPlace(sacdata, new double[filter.getWorkLength()]);
+        return sd.setSACData(sacdata);
     }
 
     /**
@@ -0,0 +1,101 @@
+package io.github.kensuke1984.kibrary.util.spc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link DSMOutput}s read by {@link SPCFile#readMapped()}, so that a spectrum file (e.g. an FP file
+ * used with BP files of many stations) is read and decoded only once as long as it stays in the cache.
+ * <p>
+ * The least recently used outputs are discarded when the estimated size of the decoded spectra exceeds the capacity.
+ * The size of an output is estimated as all its spectra are decoded
+ * (nbody &times; ncomponent &times; (np+1) &times; 16 byte).
+ * <p>
+ * This class is <b>thread-safe</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public class DSMOutputCache {
+
+    /**
+     * [byte]
+     */
+    private final long CAPACITY;
+    private final Map<Path, DSMOutput> OUTPUTS = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hit;
+    private long miss;
+
+    /**
+     * @param capacity [byte] of the cache
+     */
+    public DSMOutputCache(long capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative. " + capacity);
+        CAPACITY = capacity;
+    }
+
+    /**
+     * @return [byte] a quarter of the maximum heap
+     */
+    public static long defaultCapacity() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    private static long sizeOf(DSMOutput output) {
+        int nComponent = output.getSpcBodyList().isEmpty() ? 0 :
+                output.getSpcBodyList().get(0).getNumberOfComponent();
+        return 16L * output.nbody() * nComponent * (output.np() + 1);
+    }
+
+    /**
+     * @param spcFile to read
+     * @return output in the cache, or the one newly read if it is not in the cache.
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized DSMOutput get(SPCFile spcFile) throws IOException {
+        Path path = spcFile.toPath().toAbsolutePath();
+        DSMOutput output = OUTPUTS.get(path);
+        if (output != null) {
+            hit++;
+            return output;
+        }
+        miss++;
+        output = spcFile.readMapped();
+        long outputSize = sizeOf(output);
+        if (outputSize <= CAPACITY) {
+            OUTPUTS.put(path, output);
+            size += outputSize;
+            for (Iterator<DSMOutput> iterator = OUTPUTS.values().iterator(); CAPACITY < size; ) {
+                size -= sizeOf(iterator.next());
+                iterator.remove();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return number of requests found in the cache
+     */
+    public synchronized long getHitCount() {
+        return hit;
+    }
+
+    /**
+     * @return number of requests read from files
+     */
+    public synchronized long getMissCount() {
+        return miss;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = hit + miss;
+        return "Spectrum cache: " + hit + " hits, " + miss + " misses (hit ratio " +
+                (total == 0 ? 0 : Math.round(100.0 * hit / total)) + "%), " + OUTPUTS.size() + " outputs, " +
+                size / 1024 / 1024 + " MB / " + CAPACITY / 1024 / 1024 + " MB";
+    }
+}
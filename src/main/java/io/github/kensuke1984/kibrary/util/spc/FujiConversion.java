@@ -16,7 +16,7 @@ import java.util.List;
  * (2010)
  *
  * @author Kensuke Konishi
- * @version 0.1.0
+ * @version 0.1.2
  */
 public final class FujiConversion {
 
@@ -45,31 +45,8 @@ public final class FujiConversion {
         String sourceID = spectrum.getSourceID();
         double[] bodyR = spectrum.getBodyR();
         double omega0 = spectrum.tlen(); // TODO
-        for (int i = 0; i < spectrum.nbody(); i++) {
-            double r = bodyR[i];
-            double q = 1 / STRUCTURE.getQmuAt(r);
-            double mu0 = STRUCTURE.computeMu(r);
-            SPCBody body = spectrum.getSpcBodyList().get(i);
-            SPCBody newBody = new SPCBody(3, np);
-            for (int ip = 0; ip < np + 1; ip++) {
-                Complex[] dudq = new Complex[body.getNumberOfComponent()];
-//                Complex[] dudQ = new Complex[body.getNumberOfComponent()];
-                double omegaOverOmega0 = (ip + 1) / omega0;
-                double log = 2 * FastMath.log(omegaOverOmega0) / Math.PI;
-                double dmudmu0Real = (1 + q * log);
-                Complex dmudmu0 = Complex.valueOf(dmudmu0Real, dmudmu0Real * q);
-                Complex dmudq = Complex.valueOf(mu0 * log, mu0 * (1 + 2 * log * q));
-                for (int iComponent = 0; iComponent < body.getNumberOfComponent(); iComponent++) {
-                    Complex dudmu0 = body.getSpcComponent(SACComponent.getComponent(iComponent + 1))
-                            .getValueInFrequencyDomain()[ip];
-//                    dudQ[iComponent] = dudmu0.multiply(-q * q).multiply(dmudq).divide(dmudmu0);
-                    dudq[iComponent] = dudmu0.multiply(dmudq).divide(dmudmu0);
-                }
-//                newBody.add(ip, dudQ);
-                newBody.add(ip, dudq);
-            }
-            spcBodyList.add(newBody);
-        }
+        for (int i = 0; i < spectrum.nbody(); i++)
+            spcBodyList.add(convert(spectrum.getSpcBodyList().get(i), bodyR[i], omega0));
 
         return new DSMOutput() {
 
@@ -130,4 +107,39 @@ public final class FujiConversion {
         };
     }
 
+    /**
+     * @param body   partial spectra for &mu;<sub>0</sub> at r
+     * @param r      radius of the body
+     * @param omega0 TLEN of the spectra
+     * @return partial spectra for q at r
+     */
+    SPCBody convert(SPCBody body, double r, double omega0) {
+        int np = body.getNp();
+        double q = 1 / STRUCTURE.getQmuAt(r);
+        double mu0 = STRUCTURE.computeMu(r);
+        SPCBody newBody = new SPCBody(3, np);
+        for (int ip = 0; ip < np + 1; ip++) {
+//            Complex[] dudQ = new Complex[body.getNumberOfComponent()];
+            double omegaOverOmega0 = (ip + 1) / omega0;
+            double log = 2 * FastMath.log(omegaOverOmega0) / Math.PI;
+            double dmudmu0Real = (1 + q * log);
+            Complex dmudmu0 = Complex.valueOf(dmudmu0Real, dmudmu0Real * q);
+            Complex dmudq = Complex.valueOf(mu0 * log, mu0 * (1 + 2 * log * q));
+            // du/dq = du/dmu0 * dmu/dq / dmu/dmu0
+            Complex ratio = dmudq.divide(dmudmu0);
+            double ratioReal = ratio.getReal();
+            double ratioImaginary = ratio.getImaginary();
+            for (int iComponent = 0; iComponent < body.getNumberOfComponent(); iComponent++) {
+                SACComponent component = SACComponent.getComponent(iComponent + 1);
+                double[] dudmu0 = body.getSpcComponent(component).getRawValueInFrequencyDomain();
+                double[] dudq = newBody.getSpcComponent(component).getRawValueInFrequencyDomain();
+//                dudQ[iComponent] = dudmu0.multiply(-q * q).multiply(dmudq).divide(dmudmu0);
+                dudq[2 * ip] = dudmu0[2 * ip] * ratioReal - dudmu0[2 * ip + 1] * ratioImaginary;
+                dudq[2 * ip + 1] = dudmu0[2 * ip] * ratioImaginary + dudmu0[2 * ip + 1] * ratioReal;
+            }
+//            newBody.add(ip, dudQ);
+        }
+        return newBody;
+    }
+
 }
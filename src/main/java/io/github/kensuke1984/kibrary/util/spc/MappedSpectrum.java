@@ -0,0 +1,198 @@
+package io.github.kensuke1984.kibrary.util.spc;
+
+import io.github.kensuke1984.kibrary.util.HorizontalPosition;
+import io.github.kensuke1984.kibrary.util.Location;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Spectrum file by DSM, which is mapped on memory and decoded lazily.
+ * <p>
+ * Only the header is read and validated (against the file size) at construction.
+ * Spectra in the file are stored in the order of (&omega;, body, component),
+ * so the spectrum of a component in a body is located directly and decoded when it is accessed first.
+ * Bodies and components which are never used (e.g. other radii, or components for unneeded directions of BP)
+ * are never decoded.
+ * <p>
+ * Decoding is thread-safe, so an instance can be shared by threads.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see Spectrum
+ */
+class MappedSpectrum implements DSMOutput {
+
+    private final String OBSERVER_ID;
+    private final String SOURCE_ID;
+    private final double TLEN;
+    private final int NP;
+    private final int NBODY;
+    private final int N_COMPONENT;
+    private final SPCType TYPE;
+    private final double OMEGAI;
+    private final HorizontalPosition OBSERVER_POSITION;
+    private final Location SOURCE_LOCATION;
+    private final double[] BODY_R;
+    private final List<SPCBody> BODY_LIST;
+    /**
+     * whole the file (read-only)
+     */
+    private final ByteBuffer BUFFER;
+    /**
+     * [byte] where the spectra start
+     */
+    private final int DATA_START;
+
+    private MappedSpectrum(SPCFile spcFile, ByteBuffer buffer) {
+        BUFFER = buffer;
+        SOURCE_ID = spcFile.getSourceID();
+        OBSERVER_ID = spcFile.getObserverID();
+        TLEN = buffer.getDouble();
+        NP = buffer.getInt();
+        NBODY = buffer.getInt();
+        if (NP <= 0 || NBODY <= 0) throw new RuntimeException(spcFile + " has an invalid header. NP: " + NP +
+                " NBODY: " + NBODY);
+        switch (buffer.getInt()) {
+            case 0: // isotropic 1D partial par2 (lambda)
+                TYPE = spcFile.getFileType();
+                N_COMPONENT = 3;
+                break;
+            case 3: // normal synthetic
+                TYPE = SPCType.SYNTHETIC;
+                N_COMPONENT = 3;
+                break;
+            case 9: // forward propagation
+                TYPE = SPCType.PF;
+                N_COMPONENT = 9;
+                break;
+            case 27: // back propagation
+                TYPE = SPCType.PB;
+                N_COMPONENT = 27;
+                break;
+            default:
+                throw new RuntimeException("component can be only 3(synthetic), 9(fp) or 27(bp) right now");
+        }
+        OMEGAI = buffer.getDouble();
+        OBSERVER_POSITION = new HorizontalPosition(buffer.getDouble(), buffer.getDouble());
+        SOURCE_LOCATION = N_COMPONENT == 27 ? new Location(buffer.getDouble(), buffer.getDouble(), 0) :
+                new Location(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+        BODY_R = new double[NBODY];
+        if (TYPE != SPCType.SYNTHETIC) for (int i = 0; i < NBODY; i++)
+            BODY_R[i] = buffer.getDouble();
+        DATA_START = buffer.position();
+        long expectedSize = DATA_START + (long) (NP + 1) * NBODY * recordSize();
+        if (buffer.limit() != expectedSize) throw new RuntimeException(
+                spcFile + " has an invalid size " + buffer.limit() + " (expected: " + expectedSize + ")");
+        BODY_LIST = Collections.unmodifiableList(IntStream.range(0, NBODY).mapToObj(this::createBody)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * @param spcFile must exist.
+     * @return DSMOutput of the spcFile
+     * @throws IOException If the spcFile does not exist, or an I/O error occurs
+     */
+    static DSMOutput getInstance(SPCFile spcFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(spcFile.toPath(), StandardOpenOption.READ)) {
+            // too large to be mapped at once
+            if (Integer.MAX_VALUE < channel.size()) return Spectrum.getInstance(spcFile);
+            return new MappedSpectrum(spcFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return [byte] size of (ip, values of all the components) for a body
+     */
+    private int recordSize() {
+        return 4 + 16 * N_COMPONENT;
+    }
+
+    private SPCBody createBody(int iBody) {
+        SPCComponent[] components = new SPCComponent[N_COMPONENT];
+        for (int k = 0; k < N_COMPONENT; k++) {
+            int iComponent = k;
+            components[k] = new SPCComponent(NP, u -> decode(iBody, iComponent, u));
+        }
+        return new SPCBody(NP, components);
+    }
+
+    /**
+     * @param iBody      index of the body
+     * @param iComponent index of the component
+     * @param u          to be filled with the spectrum (real and imaginary parts are interleaved)
+     */
+    private void decode(int iBody, int iComponent, double[] u) {
+        int recordSize = recordSize();
+        for (int ip = 0; ip < NP + 1; ip++) {
+            int record = DATA_START + (ip * NBODY + iBody) * recordSize;
+            if (BUFFER.getInt(record) != ip)
+                throw new RuntimeException("Spectra in " + OBSERVER_ID + "." + SOURCE_ID + " are broken at ip=" + ip);
+            int position = record + 4 + 16 * iComponent;
+            u[2 * ip] = BUFFER.getDouble(position);
+            u[2 * ip + 1] = BUFFER.getDouble(position + 8);
+        }
+    }
+
+    @Override
+    public String getObserverID() {
+        return OBSERVER_ID;
+    }
+
+    @Override
+    public String getSourceID() {
+        return SOURCE_ID;
+    }
+
+    @Override
+    public Location getSourceLocation() {
+        return SOURCE_LOCATION;
+    }
+
+    @Override
+    public HorizontalPosition getObserverPosition() {
+        return OBSERVER_POSITION;
+    }
+
+    @Override
+    public double tlen() {
+        return TLEN;
+    }
+
+    @Override
+    public int np() {
+        return NP;
+    }
+
+    @Override
+    public double omegai() {
+        return OMEGAI;
+    }
+
+    @Override
+    public List<SPCBody> getSpcBodyList() {
+        return BODY_LIST;
+    }
+
+    @Override
+    public int nbody() {
+        return NBODY;
+    }
+
+    @Override
+    public SPCType getSpcFileType() {
+        return TYPE;
+    }
+
+    @Override
+    public double[] getBodyR() {
+        return BODY_R.clone();
+    }
+
+}
@@ -29,7 +29,7 @@ import java.util.function.Predicate;
  * in Global CMT catalog, the information for the event is written in SAC.
  *
  * @author Kensuke Konishi
- * @version 0.1.9.1
+ * @version 0.1.10
  * @see <a href=http://ds.iris.edu/ds/nodes/dmc/forms/sac/>SAC</a>
  */
 public class SACMaker implements Runnable {
@@ -197,6 +197,14 @@ public class SACMaker implements Runnable {
      * Output path
      */
     private Path outPath;
+    /**
+     * SAC files written by {@link #run()}
+     */
+    private final List<Path> outputs = new ArrayList<>();
+    /**
+     * if writing any SAC file failed in {@link #run()}
+     */
+    private boolean failed;
     private GlobalCMTID globalCMTID;
     /**
      * if required, true.
@@ -458,12 +466,8 @@ public class SACMaker implements Runnable {
         for (SACComponent component : components) {
             SACExtension ext = sourceTimeFunction != null ? SACExtension.valueOfConvolutedSynthetic(component) :
                     SACExtension.valueOfSynthetic(component);
-            try {
-                sac.of(component).setSACData(body.getTimeseries(component))
-                        .writeSAC(outPath.resolve(station.getName() + "." + primeSPC.getSourceID() + "." + ext));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            write(sac.of(component).setSACData(body.getTimeseries(component)),
+                    outPath.resolve(station.getName() + "." + primeSPC.getSourceID() + "." + ext));
         }
 
         if (temporalDifferentiation) {
@@ -474,16 +478,42 @@ public class SACMaker implements Runnable {
                 SACExtension extT =
                         sourceTimeFunction != null ? SACExtension.valueOfConvolutedTemporalPartial(component) :
                                 SACExtension.valueOfTemporalPartial(component);
-                try {
-                    sac.of(component).setSACData(bodyT.getTimeseries(component))
-                            .writeSAC(outPath.resolve(station.getName() + "." + globalCMTID + "." + extT));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                write(sac.of(component).setSACData(bodyT.getTimeseries(component)),
+                        outPath.resolve(station.getName() + "." + globalCMTID + "." + extT));
             }
         }
     }
 
+    /**
+     * Writes a SAC file in {@link #run()}. An error is printed and recorded ({@link #hasFailed()}).
+     *
+     * @param sacData to write
+     * @param path    of the SAC file
+     */
+    private void write(SACData sacData, Path path) {
+        try {
+            sacData.writeSAC(path);
+            outputs.add(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+
+    /**
+     * @return SAC files written by {@link #run()}
+     */
+    protected List<Path> getOutputs() {
+        return Collections.unmodifiableList(outputs);
+    }
+
+    /**
+     * @return if writing any SAC file failed in {@link #run()}
+     */
+    protected boolean hasFailed() {
+        return failed;
+    }
+
     /**
      * set headers on the input sacFile
      *
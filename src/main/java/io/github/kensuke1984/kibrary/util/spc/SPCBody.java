@@ -16,7 +16,7 @@ import java.util.stream.IntStream;
  * ista に対応する
  *
  * @author Kensuke Konishi
- * @version 0.1.2.2
+ * @version 0.1.3
  */
 public class SPCBody {
 
@@ -37,6 +37,16 @@ public class SPCBody {
         allocateComponents();
     }
 
+    /**
+     * @param np         the number of steps in frequency domain
+     * @param components components in the body
+     */
+    SPCBody(int np, SPCComponent... components) {
+        N_COMPONENT = components.length;
+        NP = np;
+        spcComponents = components;
+    }
+
     /**
      * @return DEEP copy of this
      */
@@ -1,19 +1,22 @@
 package io.github.kensuke1984.kibrary.util.spc;
 
 import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
+import io.github.kensuke1984.kibrary.math.InPlaceFFT;
 import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.apache.commons.math3.util.FastMath;
 
-import java.util.Arrays;
+import java.util.function.Consumer;
 
 /**
  * Data for one element in one {@link SPCBody} in a {@link Spectrum}
+ * <p>
+ * The spectrum is stored in a primitive array, in which real and imaginary parts are interleaved,
+ * and all the operations are done in place.
+ * <p>
+ * A component can be given a decoder (e.g. from a mapped SPC file), then the spectrum is decoded on the first access.
  *
  * @author Kensuke Konishi
- * @version 0.1.6
+ * @version 0.2.2
  */
 public class SPCComponent {
 
@@ -26,17 +29,50 @@ public class SPCComponent {
      */
     private int nptsInTimeDomain;
     /**
-     * 周波数領域のデータ u[i] i=[0, NP] The length is NP+1
+     * 周波数領域のデータ u[i] i=[0, NP] The length is 2(NP+1).
+     * uFreq[2i] and uFreq[2i+1] are the real and imaginary parts of u[i].
      */
-    private Complex[] uFreq;
+    private double[] uFreq;
     /**
-     * 時間領域のデータ u[i] i=[0,nptsInTimedomain-1]
+     * fills uFreq on the first access. null if uFreq is ready.
      */
-    private Complex[] uTime;
+    private volatile Consumer<double[]> decoder;
+    /**
+     * 時間領域のデータ u[i] i=[0,nptsInTimedomain-1] (real part), or a part of it from {@link #timeOffset}
+     */
+    private double[] uTime;
+    /**
+     * index of the first point of uTime in the whole time series
+     */
+    private int timeOffset;
 
     SPCComponent(int np) {
         NP = np;
-        uFreq = new Complex[np + 1];
+        uFreq = new double[2 * (np + 1)];
+    }
+
+    /**
+     * @param np      the number of steps in frequency domain
+     * @param decoder fills the given array (length 2(np+1)) with the spectrum when it is accessed first
+     */
+    SPCComponent(int np, Consumer<double[]> decoder) {
+        NP = np;
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return uFreq, which is decoded if it is not yet.
+     */
+    private double[] spectrum() {
+        if (decoder != null) synchronized (this) {
+            if (decoder != null) {
+                double[] u = new double[2 * (NP + 1)];
+                decoder.accept(u);
+                uFreq = u;
+                decoder = null;
+            }
+        }
+        return uFreq;
     }
 
     /**
@@ -45,7 +81,8 @@ public class SPCComponent {
     public SPCComponent copy() {
         SPCComponent s = new SPCComponent(NP);
         s.nptsInTimeDomain = nptsInTimeDomain;
-        System.arraycopy(uFreq, 0, s.uFreq, 0, uFreq.length);
+        s.timeOffset = timeOffset;
+        System.arraycopy(spectrum(), 0, s.uFreq, 0, s.uFreq.length);
         if (uTime != null) s.uTime = uTime.clone();
         return s;
     }
@@ -59,7 +96,20 @@ public class SPCComponent {
      * @param spec {@link Complex} to set at ip
      */
     void set(int ip, Complex spec) {
-        uFreq[ip] = spec;
+        set(ip, spec.getReal(), spec.getImaginary());
+    }
+
+    /**
+     * set ip th step
+     *
+     * @param ip        index of &omega;
+     * @param real      real part at ip
+     * @param imaginary imaginary part at ip
+     */
+    void set(int ip, double real, double imaginary) {
+        double[] uFreq = spectrum();
+        uFreq[2 * ip] = real;
+        uFreq[2 * ip + 1] = imaginary;
     }
 
     /**
@@ -70,9 +120,10 @@ public class SPCComponent {
     public void addComponent(SPCComponent anotherComponent) {
         if (NP != anotherComponent.getNP()) throw new RuntimeException("Error: Size of body is not equal!");
 
-        Complex[] another = anotherComponent.getValueInFrequencyDomain();
-        for (int i = 0; i < NP + 1; i++)
-            uFreq[i] = uFreq[i].add(another[i]);
+        double[] uFreq = spectrum();
+        double[] another = anotherComponent.spectrum();
+        for (int i = 0; i < uFreq.length; i++)
+            uFreq[i] += another[i];
 
     }
 
@@ -83,8 +134,8 @@ public class SPCComponent {
      */
     public void amplitudeCorrection(double tlen) {
         double tmp = nptsInTimeDomain * 1e3 / tlen;
-        for (int i = 0; i < nptsInTimeDomain; i++)
-            uTime[i] = uTime[i].multiply(tmp);
+        for (int i = 0; i < uTime.length; i++)
+            uTime[i] *= tmp;
 
     }
 
@@ -96,8 +147,8 @@ public class SPCComponent {
      */
     public void applyGrowingExponential(double omegai, double tlen) {
         double constant = omegai * tlen / nptsInTimeDomain;
-        for (int i = 0; i < nptsInTimeDomain; i++)
-            uTime[i] = uTime[i].multiply(FastMath.exp(constant * i));
+        for (int i = 0; i < uTime.length; i++)
+            uTime[i] *= FastMath.exp(constant * (timeOffset + i));
     }
 
     /**
@@ -106,7 +157,7 @@ public class SPCComponent {
      * @param sourceTimeFunction to be applied
      */
     public void applySourceTimeFunction(SourceTimeFunction sourceTimeFunction) {
-        uFreq = sourceTimeFunction.convolve(uFreq);
+        sourceTimeFunction.convolveSpectrum(spectrum());
     }
 
     /**
@@ -118,18 +169,36 @@ public class SPCComponent {
      * @param tlen time length
      */
     void differentiate(double tlen) {
+        double[] uFreq = spectrum();
         double constant = 2 * Math.PI / tlen;
         for (int i = 1; i <= NP; i++) {
             double c = constant * i;
-            uFreq[i] = new Complex(uFreq[i].getImaginary() * c, -uFreq[i].getReal() * c);
+            double real = uFreq[2 * i];
+            uFreq[2 * i] = uFreq[2 * i + 1] * c;
+            uFreq[2 * i + 1] = -real * c;
         }
     }
 
     /**
+     * Each call creates new {@link Complex}es. Use {@link #getRawValueInFrequencyDomain()} to avoid that.
+     *
      * @return 周波数領域のデータ
      */
     public Complex[] getValueInFrequencyDomain() {
-        return uFreq;
+        double[] uFreq = spectrum();
+        Complex[] u = new Complex[NP + 1];
+        for (int i = 0; i < NP + 1; i++)
+            u[i] = new Complex(uFreq[2 * i], uFreq[2 * i + 1]);
+        return u;
+    }
+
+    /**
+     * The array is NOT copied, and changes in it are reflected in this.
+     *
+     * @return 周波数領域のデータ. [2i] and [2i+1] are the real and imaginary parts of u[i] (i=[0, NP]).
+     */
+    public double[] getRawValueInFrequencyDomain() {
+        return spectrum();
     }
 
     private int getNP() {
@@ -137,10 +206,10 @@ public class SPCComponent {
     }
 
     /**
-     * @return the data in time_domain
+     * @return the data in time_domain (the part if {@link #toTimeDomain(int, int, int)} is used)
      */
     public double[] getTimeseries() {
-        return Arrays.stream(uTime).mapToDouble(Complex::getReal).toArray();
+        return uTime.clone();
     }
 
     private int getNPTS(int lsmooth) {
@@ -151,27 +220,22 @@ public class SPCComponent {
 
     public void toTimeDomain(int lsmooth) {
         nptsInTimeDomain = getNPTS(lsmooth);
+        timeOffset = 0;
+        uTime = InPlaceFFT.inverseHermitian(spectrum(), nptsInTimeDomain);
+    }
 
-        int nnp = nptsInTimeDomain / 2;
-
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-
-        // pack to temporary Complex array
-        Complex[] data = new Complex[nptsInTimeDomain];
-        System.arraycopy(uFreq, 0, data, 0, NP + 1);
-
-        // set blank due to lsmooth
-        Arrays.fill(data, NP + 1, nnp + 1, Complex.ZERO);
-
-        // set values for imaginary frequency  F[i] = F[N-i]
-        for (int i = 0; i < nnp - 1; i++)
-            data[nnp + 1 + i] = data[nnp - 1 - i].conjugate();
-
-        // fast fourier transformation
-        data = fft.transform(data, TransformType.INVERSE);
-
-        // put values in time domain into collections
-        uTime = data;
+    /**
+     * Only the part [from, to) of the time series is computed.
+     * The cost depends on the length of the part rather than the whole length when the part is short.
+     *
+     * @param lsmooth lsmooth
+     * @param from    index of the first point (inclusive)
+     * @param to      index of the last point (exclusive)
+     */
+    public void toTimeDomain(int lsmooth, int from, int to) {
+        nptsInTimeDomain = getNPTS(lsmooth);
+        timeOffset = from;
+        uTime = InPlaceFFT.inverseHermitian(spectrum(), nptsInTimeDomain, from, to);
     }
 
 }
@@ -16,7 +16,7 @@ import java.nio.file.Path;
  * 'PSV', 'SH' must be upper case.
  *
  * @author Kensuke Konishi
- * @version 0.2.0
+ * @version 0.2.1
  */
 public abstract class SPCFile extends File {
 
@@ -100,4 +100,16 @@ public abstract class SPCFile extends File {
      */
     public abstract DSMOutput read() throws IOException;
 
+    /**
+     * Maps the file on memory and reads only the header.
+     * Each spectrum (a component in a body) is decoded when it is used first,
+     * so spectra which are not needed cost neither I/O nor heap.
+     *
+     * @return output of DSM which is decoded lazily
+     * @throws IOException if an I/O error occurs
+     */
+    public DSMOutput readMapped() throws IOException {
+        return MappedSpectrum.getInstance(this);
+    }
+
 }
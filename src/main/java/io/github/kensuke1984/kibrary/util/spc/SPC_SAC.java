@@ -4,6 +4,7 @@ import io.github.kensuke1984.kibrary.Operation;
 import io.github.kensuke1984.kibrary.Property;
 import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
 import io.github.kensuke1984.kibrary.util.EventFolder;
+import io.github.kensuke1984.kibrary.util.ProgressJournal;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
 import io.github.kensuke1984.kibrary.util.sac.SACComponent;
@@ -12,7 +13,9 @@ import io.github.kensuke1984.kibrary.util.sac.SACData;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
@@ -30,13 +33,25 @@ import java.util.stream.Collectors;
  * the information file. If you leave 'model name' blank and each event folder
  * has only one folder, then model name will be set automatically the name of
  * the folder.
+ * <p>
+ * Progress is recorded in a journal 'spcsac[date].journal' ({@link ProgressJournal}) in the work folder.
+ * Each SPC file (or a pair of PSV and SH files) is committed after its SAC files are written and forced to the disk.
+ * Such files are committed together every {@link #COMMIT_INTERVAL} ns. A file whose SAC files fail to be written is
+ * not committed, and then the run is not marked as finished.
+ * With 'resume' (a journal of a broken run), committed files are skipped and SAC files are written in the folder of
+ * the run.
  *
  * @author Kensuke Konishi
- * @version 0.2.4.5.1
+ * @version 0.2.6
  * @see <a href=http://ds.iris.edu/ds/nodes/dmc/forms/sac/>SAC</a>
  */
 public final class SPC_SAC implements Operation {
 
+    /**
+     * [ns] interval of commits of finished SPC files
+     */
+    private static final long COMMIT_INTERVAL = 10_000_000_000L;
+
     private Properties property;
     /**
      * Path for the work folder
@@ -69,6 +84,20 @@ public final class SPC_SAC implements Operation {
     private Set<SPCFile> psvSPCs;
     private Set<SPCFile> shSPCs;
     private Path outPath;
+    /**
+     * journal of a run to resume (null for a new run)
+     */
+    private Path resumePath;
+    private ProgressJournal journal;
+    /**
+     * units whose SAC files are written and forced, but which are not committed yet
+     */
+    private final List<String> FINISHED_UNITS = new ArrayList<>();
+    /**
+     * [ns] time of the last commit of {@link #FINISHED_UNITS}
+     */
+    private long lastCommitTime = System.nanoTime();
+    private final AtomicInteger numberOfFailedUnits = new AtomicInteger();
 
     public SPC_SAC(Properties properties) throws IOException {
         property = (Properties) properties.clone();
@@ -113,6 +142,9 @@ public final class SPC_SAC implements Operation {
             pw.println("#samplingHz");
             pw.println("#timePartial If it is true, then temporal partial is computed. (false)");
             pw.println("#timePartial");
+            pw.println("##Path of a journal (spcsac[date].journal) of a broken run to resume.");
+            pw.println("##If it is unset, a new run starts.");
+            pw.println("#resume");
         }
         System.err.println(outPath + " is created.");
     }
@@ -166,6 +198,7 @@ public final class SPC_SAC implements Operation {
         setSourceTimeFunction();
         computesPartial = Boolean.parseBoolean(property.getProperty("timePartial"));
         samplingHz = 20; // TODO
+        if (property.containsKey("resume")) resumePath = getPath("resume");
     }
 
     private void readUserSourceTimeFunctions() throws IOException {
@@ -239,7 +272,7 @@ public final class SPC_SAC implements Operation {
     @Override
     public void run() throws IOException {
         int nThread = Runtime.getRuntime().availableProcessors();
-        outPath = workPath.resolve("spcsac" + Utilities.getTemporaryString());
+        setJournal();
         System.err.println("Work folder is " + workPath.toAbsolutePath());
         System.err.println("Converting SPC files in the work folder to SAC files in " + outPath);
         System.err.println("Model name is " + modelName);
@@ -256,14 +289,17 @@ public final class SPC_SAC implements Operation {
         // single
         int nSAC = 0;
         if (psvPath == null || shPath == null) for (SPCFile spc : psvSPCs != null ? psvSPCs : shSPCs) {
+            if (journal.isDone(spc.getName())) continue;
             Spectrum one = Spectrum.getInstance(spc);
             Files.createDirectories(outPath.resolve(spc.getSourceID()));
-            execs.execute(createSACMaker(one, null));
+            execs.execute(createSACMaker(one, null, spc.getName()));
+            checkpoint(false);
             nSAC++;
             if (nSAC % 5 == 0) System.err.print("\rReading SPC files ... " + nSAC);
         }
             // both
         else for (SPCFile spc : psvSPCs) {
+            if (journal.isDone(spc.getName())) continue;
             Spectrum one = Spectrum.getInstance(spc);
             SPCFile pair = pairFile(spc);
             if (pair == null || !pair.exists()) {
@@ -272,7 +308,8 @@ public final class SPC_SAC implements Operation {
             }
             Spectrum two = Spectrum.getInstance(pairFile(spc));
             Files.createDirectories(outPath.resolve(spc.getSourceID()));
-            execs.execute(createSACMaker(one, two));
+            execs.execute(createSACMaker(one, two, spc.getName()));
+            checkpoint(false);
             nSAC++;
             if (nSAC % 5 == 0) System.err.print("\rReading SPC files ... " + nSAC);
         }
@@ -281,10 +318,75 @@ public final class SPC_SAC implements Operation {
         while (!execs.isTerminated()) try {
             System.err.print("\rConverting " + Math.ceil(100.0 * numberOfCreatedSAC.get() / nSAC) + "%");
             Thread.sleep(100);
-        } catch (Exception e) {
+            checkpoint(false);
+        } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        checkpoint(true);
         System.err.println("\rConverting finished.");
+        if (numberOfFailedUnits.get() == 0) journal.commit(Collections.emptyList(), "finished");
+        else System.err.println(numberOfFailedUnits + " SPC files failed. They can be converted again by resuming " +
+                journal.getPath());
+        journal.close();
+    }
+
+    /**
+     * Commits units in {@link #FINISHED_UNITS}.
+     *
+     * @param now if true, they are committed now, otherwise only when {@link #COMMIT_INTERVAL} passes from the last
+     *            commit
+     * @throws IOException if an I/O error occurs
+     */
+    private void checkpoint(boolean now) throws IOException {
+        if (!now && System.nanoTime() - lastCommitTime < COMMIT_INTERVAL) return;
+        synchronized (FINISHED_UNITS) {
+            if (!FINISHED_UNITS.isEmpty()) journal.commit(FINISHED_UNITS, "unit");
+            FINISHED_UNITS.clear();
+        }
+        lastCommitTime = System.nanoTime();
+    }
+
+    /**
+     * Forces a file to be written to the disk.
+     *
+     * @param path of the file
+     * @throws IOException if an I/O error occurs
+     */
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Opens a new journal, or the journal to resume and sets {@link #outPath} of the run.
+     */
+    private void setJournal() throws IOException {
+        if (resumePath == null) {
+            String dateString = Utilities.getTemporaryString();
+            outPath = workPath.resolve("spcsac" + dateString).toAbsolutePath();
+            journal = new ProgressJournal(workPath.resolve("spcsac" + dateString + ".journal"));
+            journal.commit(Collections.emptyList(), "output\t" + outPath);
+            return;
+        }
+        if (!Files.exists(resumePath)) throw new NoSuchFileException(resumePath + " (resume)");
+        journal = new ProgressJournal(resumePath);
+        for (String commit : journal.getCommits()) {
+            String[] parts = commit.split("\t");
+            switch (parts[0]) {
+                case "output":
+                    outPath = Paths.get(parts[1]);
+                    break;
+                case "unit":
+                    break;
+                case "finished":
+                    throw new RuntimeException(resumePath + " is a journal of a finished run.");
+                default:
+                    throw new RuntimeException("Unknown commit in " + resumePath + " " + commit);
+            }
+        }
+        if (outPath == null) throw new RuntimeException(resumePath + " has no information about outputs.");
+        System.err.println("Resuming " + resumePath + " (" + journal.getNumberOfDoneUnits() + " files are done)");
     }
 
     private AtomicInteger numberOfCreatedSAC = new AtomicInteger();
@@ -294,16 +396,31 @@ public final class SPC_SAC implements Operation {
      *
      * @param primeSPC     spectrum file for SAC
      * @param secondarySPC null is ok
+     * @param unit         name of the unit in the journal
      * @return {@link SACMaker}
      */
-    private SACMaker createSACMaker(Spectrum primeSPC, Spectrum secondarySPC) {
+    private SACMaker createSACMaker(Spectrum primeSPC, Spectrum secondarySPC, String unit) {
         SourceTimeFunction sourceTimeFunction = getSourceTimeFunction(primeSPC.np(), primeSPC.tlen(), samplingHz,
                 new GlobalCMTID(primeSPC.getSourceID()));
         SACMaker sm = new SACMaker(primeSPC, secondarySPC, sourceTimeFunction) {
             @Override
             public void run() {
-                super.run();
-                numberOfCreatedSAC.incrementAndGet();
+                boolean done = false;
+                try {
+                    super.run();
+                    if (hasFailed()) return;
+                    for (Path path : getOutputs())
+                        force(path);
+                    synchronized (FINISHED_UNITS) {
+                        FINISHED_UNITS.add(unit);
+                    }
+                    done = true;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (!done) numberOfFailedUnits.incrementAndGet();
+                    numberOfCreatedSAC.incrementAndGet();
+                }
             }
         };
         sm.setComponents(components);
@@ -2,7 +2,6 @@ package io.github.kensuke1984.kibrary.util.spc;
 
 import io.github.kensuke1984.kibrary.util.HorizontalPosition;
 import io.github.kensuke1984.kibrary.util.Location;
-import org.apache.commons.math3.complex.Complex;
 
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
@@ -16,7 +15,7 @@ import java.util.List;
  * Spectrum file by DSM.
  *
  * @author Kensuke Konishi
- * @version 0.1.2.1
+ * @version 0.1.3
  */
 class Spectrum implements DSMOutput {
 
@@ -121,11 +120,10 @@ class Spectrum implements DSMOutput {
             // read body
             for (int i = 0; i < np + 1; i++)
                 for (SPCBody body : specFile.spcBody) {
-                    Complex[] u = new Complex[specFile.nComponent];
+                    SPCComponent[] components = body.getSpcComponents();
                     int ip = dis.readInt();
                     for (int k = 0; k < specFile.nComponent; k++)
-                        u[k] = new Complex(dis.readDouble(), dis.readDouble());
-                    body.add(ip, u);
+                        components[k].set(ip, dis.readDouble(), dis.readDouble());
                 }
             return specFile;
         }
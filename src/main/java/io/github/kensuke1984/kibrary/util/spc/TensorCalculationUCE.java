@@ -1,30 +1,47 @@
 package io.github.kensuke1984.kibrary.util.spc;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.FastMath;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Calculation of U<sub>j,q</sub> C<sub>jqrs</sub> &eta;<sub>ri,s</sub> in
  * Geller &amp; Hara (1993)
+ * <p>
+ * Spectra are handled as primitive arrays in which real and imaginary parts are interleaved
+ * (see {@link SPCComponent#getRawValueInFrequencyDomain()}).
+ * <p>
+ * Only the weighting factors differ among partial types,
+ * so the products U<sub>p,q</sub> &eta;<sub>ri,s</sub> for a pair of bodies are computed once (when needed first)
+ * and shared by all the partial types and components. Sums for each weighting factor are also kept.
+ * <p>
+ * This class is <b>NOT thread-safe</b>.
  *
  * @author Kensuke Konishi
- * @version 0.0.2.1
+ * @version 0.1.0
  */
 class TensorCalculationUCE {
 
     /**
      * Uj,q = u[j][q][(NP)]
      */
-    private Complex[][][] u = new Complex[3][3][];
+    private final double[][][] u = new double[3][3][];
 
     /**
-     * i に対して都度計算するので iは引数に取らない Eta ri,s = eta （[i]）[r][s][(NP)]
+     * Eta ri,s = eta[i][r][s][(NP)] (rotated)
      */
-    private Complex[][][] eta = new Complex[3][3][];
+    private final double[][][][] eta = new double[3][][][];
 
-    private WeightingFactor factor;
+    /**
+     * products[i][9(3p+q)+(3r+s)] = u[p][q] eta[i][r][s]
+     */
+    private final double[][][] products = new double[3][81][];
+
+    /**
+     * computed results for weighting factors. factor &rarr; [i][(NP)]
+     */
+    private final Map<WeightingFactor, double[][]> results = new HashMap<>();
 
     private SPCBody fp;
     private SPCBody bp;
@@ -39,16 +56,14 @@ class TensorCalculationUCE {
     /**
      * input cに対するテンソル積の和を計算する
      *
-     * @param fp     forward propagation spc file
-     * @param bp     back propagation spc file
-     * @param factor どう重み付けするか
+     * @param fp    forward propagation spc file
+     * @param bp    back propagation spc file
      * @param angle
      */
-    TensorCalculationUCE(SPCBody fp, SPCBody bp, WeightingFactor factor, double angle) {
+    TensorCalculationUCE(SPCBody fp, SPCBody bp, double angle) {
         this.fp = fp;
         this.bp = bp;
         np = fp.getNp();
-        this.factor = factor;
         this.angle = angle;
     }
 
@@ -74,48 +89,62 @@ class TensorCalculationUCE {
 
     /**
      * Uj,q Cjqrs Eri,sのi成分の計算
+     * <p>
+     * The returning array must not be changed.
      *
-     * @param i (0: Z 1:R 2:T)
-     * @return {@link Complex}[NP] i成分を返す
+     * @param i      (0: Z 1:R 2:T)
+     * @param factor どう重み付けするか
+     * @return i成分を返す. [2ip] and [2ip+1] are the real and imaginary parts at ip (ip=[0, NP]).
      */
-    public Complex[] calc(int i) {
-        Complex[] partial = new Complex[np + 1];
-        Arrays.fill(partial, Complex.ZERO);
-
-        for (int r = 0; r < 3; r++)
-            for (int s = 0; s < 3; s++) {
-                SPCTensorComponent irs = SPCTensorComponent.valueOfBP(i + 1, r + 1, s + 1);
-                eta[r][s] = bp.getSpcComponent(irs).getValueInFrequencyDomain();
-            }
-
-        eta = rotateEta(eta);
-
+    public double[] calc(int i, WeightingFactor factor) {
+        double[][] result = results.computeIfAbsent(factor, f -> new double[3][]);
+        if (result[i] != null) return result[i];
+        double[] partial = new double[2 * (np + 1)];
         for (int p = 0; p < 3; p++)
-            for (int q = 0; q < 3; q++) {
-                SPCTensorComponent pq = SPCTensorComponent.valueOfFP(p + 1, q + 1);
-                u[p][q] = fp.getSpcComponent(pq).getValueInFrequencyDomain();
-                // u = rotate(u,anglefp);
+            for (int q = 0; q < 3; q++)
                 for (int r = 0; r < 3; r++)
                     for (int s = 0; s < 3; s++) {
                         // 球座標系とデカルト座標の調整
-                        double factor = getFactor(p, q, r, s);
-                        if (factor != 0) addPartial(partial, calcCrossCorrelation(u[p][q], eta[r][s]), factor);
+                        double coef = getFactor(factor, p, q, r, s);
+                        if (coef != 0) addPartial(partial, getProduct(i, p, q, r, s), coef);
                     }
-            }
-        return partial;
+        return result[i] = partial;
+    }
+
+    /**
+     * @return u[p][q] eta[i][r][s] (computed if it is not yet)
+     */
+    private double[] getProduct(int i, int p, int q, int r, int s) {
+        int index = 9 * (3 * p + q) + 3 * r + s;
+        if (products[i][index] != null) return products[i][index];
+        if (eta[i] == null) {
+            double[][][] etaI = new double[3][3][];
+            for (int r1 = 0; r1 < 3; r1++)
+                for (int s1 = 0; s1 < 3; s1++) {
+                    SPCTensorComponent irs = SPCTensorComponent.valueOfBP(i + 1, r1 + 1, s1 + 1);
+                    etaI[r1][s1] = bp.getSpcComponent(irs).getRawValueInFrequencyDomain();
+                }
+            eta[i] = rotateEta(etaI);
+        }
+        if (u[p][q] == null) {
+            SPCTensorComponent pq = SPCTensorComponent.valueOfFP(p + 1, q + 1);
+            u[p][q] = fp.getSpcComponent(pq).getRawValueInFrequencyDomain();
+        }
+        return products[i][index] = calcCrossCorrelation(u[p][q], eta[i][r][s]);
     }
 
     /**
      * 球座標系pqrs(0, 1, 2)に対して 係数を求める (0, 1, 2) = (r, theta, phi) (->) (Z, X, Y) =
      * (2, 0, 1)
      *
+     * @param factor weighting factor
      * @param p
      * @param q
      * @param r
      * @param s
      * @return
      */
-    private double getFactor(int p, int q, int r, int s) {
+    private static double getFactor(WeightingFactor factor, int p, int q, int r, int s) {
         return factor.getFactor(switchCoordinateSystem(p), switchCoordinateSystem(q), switchCoordinateSystem(r),
                 switchCoordinateSystem(s));
     }
@@ -123,22 +152,23 @@ class TensorCalculationUCE {
     /**
      * back propagateのローカル座標をforwardのものにあわせる
      *
-     * @param eta eta[3][3][NP+1]
-     * @param r
+     * @param eta eta[3][3][2(NP+1)]
      * @return ETAir, s（back propagation） をテンソルのZ軸中心に {@link #angle} 回す
      */
-    private Complex[][][] rotateEta(Complex[][][] eta) {
+    private double[][][] rotateEta(double[][][] eta) {
 
         // double angle = this.angle+Math.toRadians(195);
         /*
          * テンソル（eta）をangleだけ回転させ新しいテンソル(reta)を返す。
-		 * 
+		 *
 		 * reta = forwardMatrix eta backmatrix
-		 * 
+		 *
 		 * 中間値として neweta = forwardmatrix eta
-		 * 
+		 *
 		 * reta = neweta backmatrix
-		 */
+		 *
+		 * Only neweta is used.
+         */
         // angle= 0;
         double cosine = FastMath.cos(angle);
         double sine = FastMath.sin(angle);
@@ -146,27 +176,17 @@ class TensorCalculationUCE {
         // 回転行列 前から
         double[][] forwardMatrix = new double[][]{{1, 0, 0}, {0, cosine, sine}, {0, -sine, cosine}};
 
-        // 回転行列 後ろから
-        double[][] backMatrix = new double[][]{{1, 0, 0}, {0, cosine, -sine}, {0, sine, cosine}};
+        double[][][] newETA = new double[3][3][2 * (np + 1)];
 
-        Complex[][][] newETA = new Complex[3][3][np + 1];
-
-        for (int ip = 0; ip < np + 1; ip++)
-            for (int r = 0; r < 3; r++)
-                for (int s = 0; s < 3; s++) {
-                    newETA[r][s][ip] = Complex.ZERO;
-                    for (int k = 0; k < 3; k++)
-                        newETA[r][s][ip] = newETA[r][s][ip].add(eta[k][s][ip].multiply(forwardMatrix[r][k]));
-                }
-
-        Complex[][][] rETA = new Complex[3][3][np + 1];
-
-        for (int ip = 0; ip < np + 1; ip++)
-            for (int r = 0; r < 3; r++)
-                for (int s = 0; s < 3; s++) {
-                    rETA[r][s][ip] = Complex.ZERO;
-                    for (int k = 0; k < 3; k++)
-                        rETA[r][s][ip] = rETA[r][s][ip].add(newETA[r][k][ip].multiply(backMatrix[k][s]));
+        for (int r = 0; r < 3; r++)
+            for (int s = 0; s < 3; s++)
+                for (int k = 0; k < 3; k++) {
+                    double m = forwardMatrix[r][k];
+                    if (m == 0) continue;
+                    double[] from = eta[k][s];
+                    double[] to = newETA[r][s];
+                    for (int i = 0; i < to.length; i++)
+                        to[i] += from[i] * m;
                 }
 
         return newETA;
@@ -180,9 +200,12 @@ class TensorCalculationUCE {
      * @param eta
      * @return c[i] = u[i]* eta[i]
      */
-    private Complex[] calcCrossCorrelation(Complex[] u, Complex[] eta) {
-        Complex[] c = new Complex[np + 1];
-        Arrays.parallelSetAll(c, i -> u[i].multiply(eta[i]));
+    private double[] calcCrossCorrelation(double[] u, double[] eta) {
+        double[] c = new double[u.length];
+        for (int i = 0; i < c.length; i += 2) {
+            c[i] = u[i] * eta[i] - u[i + 1] * eta[i + 1];
+            c[i + 1] = u[i] * eta[i + 1] + u[i + 1] * eta[i];
+        }
         return c;
     }
 
@@ -195,10 +218,9 @@ class TensorCalculationUCE {
      * @param uce
      * @param coef
      */
-    private void addPartial(Complex[] partial, Complex[] uce, double coef) {
-        for (int i = 0; i < np + 1; i++)
-            partial[i] = partial[i].add(uce[i].multiply(coef));
-        return;
+    private void addPartial(double[] partial, double[] uce, double coef) {
+        for (int i = 0; i < partial.length; i++)
+            partial[i] += coef * uce[i];
     }
 
 }
@@ -2,14 +2,11 @@ package io.github.kensuke1984.kibrary.util.spc;
 
 import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
+import io.github.kensuke1984.kibrary.math.InPlaceFFT;
 import io.github.kensuke1984.kibrary.util.Earth;
 import io.github.kensuke1984.kibrary.util.HorizontalPosition;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.sac.SACComponent;
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,9 +17,12 @@ import java.util.List;
  * backward propagation
  * <p>
  * U<sub>j,q</sub> C<sub>jqrs</sub> &eta;<sub>ri,s</sub>
+ * <p>
+ * The products U<sub>j,q</sub> &eta;<sub>ri,s</sub> for a body are shared by all the partial types and components.
+ * This class is <b>NOT thread-safe</b>.
  *
  * @author Kensuke Konishi
- * @version 0.0.2.1
+ * @version 0.0.6
  */
 public class ThreeDPartialMaker {
 
@@ -56,6 +56,16 @@ public class ThreeDPartialMaker {
     private int lsmooth;
     private FujiConversion fujiConversion;
     private SourceTimeFunction sourceTimeFunction;
+    /**
+     * products of U and &eta; shared by partial types for the body {@link #tensorCalculationBody}
+     */
+    private TensorCalculationUCE tensorCalculation;
+    private int tensorCalculationBody = -1;
+    /**
+     * Q partial spectra for the body {@link #qBodyIndex}
+     */
+    private SPCBody qBody;
+    private int qBodyIndex = -1;
 
     /**
      * 用いたいspcファイルたちと ヘッダーに加えたい情報
@@ -146,24 +156,8 @@ public class ThreeDPartialMaker {
         String sourceID = fp.getSourceID();
         double[] bodyR = bp.getBodyR();
         List<SPCBody> spcBodyList = new ArrayList<>(nbody);
-        for (int ibody = 0; ibody < nbody; ibody++) {
-            TensorCalculationUCE tensorcalc =
-                    new TensorCalculationUCE(fp.getSpcBodyList().get(ibody), bp.getSpcBodyList().get(ibody),
-                            type.getWeightingFactor(), angleForTensor);
-            // tensorcalc.setBP(angleBP);
-            // tensorcalc.setFP(angleFP);
-            // System.out.println("angleForTensor "+angleForTensor);
-            Complex[] partialZ = tensorcalc.calc(0); // frequency domain Z
-            Complex[] partial1 = tensorcalc.calc(1); // R
-            Complex[] partial2 = tensorcalc.calc(2); // T
-
-            Complex[] partialR = rotatePartial(partial1, partial2, SACComponent.R);
-            Complex[] partialT = rotatePartial(partial1, partial2, SACComponent.T);
-            SPCBody body = new SPCBody(3, np);
-            for (int ip = 0; ip < bp.np() + 1; ip++)
-                body.add(ip, partialZ[ip], partialR[ip], partialT[ip]);
-            spcBodyList.add(body);
-        }
+        for (int ibody = 0; ibody < nbody; ibody++)
+            spcBodyList.add(toBody(ibody, type));
         return new DSMOutput() {
 
             @Override
@@ -223,6 +217,33 @@ public class ThreeDPartialMaker {
         };
     }
 
+    /**
+     * @param iBody index for SacBody
+     * @param type  {@link PartialType}
+     * @return partial spectra (Z, R, T) for the body
+     */
+    private SPCBody toBody(int iBody, PartialType type) {
+        TensorCalculationUCE tensorcalc = getTensorCalculation(iBody);
+        // tensorcalc.setBP(angleBP);
+        // tensorcalc.setFP(angleFP);
+        // System.out.println("angleForTensor "+angleForTensor);
+        WeightingFactor factor = type.getWeightingFactor();
+        double[] partialZ = tensorcalc.calc(0, factor); // frequency domain Z
+        double[] partial1 = tensorcalc.calc(1, factor); // R
+        double[] partial2 = tensorcalc.calc(2, factor); // T
+
+        double[] partialR = rotatePartial(partial1, partial2, SACComponent.R);
+        double[] partialT = rotatePartial(partial1, partial2, SACComponent.T);
+        SPCBody body = new SPCBody(3, bp.np());
+        System.arraycopy(partialZ, 0, body.getSpcComponent(SACComponent.Z).getRawValueInFrequencyDomain(), 0,
+                partialZ.length);
+        System.arraycopy(partialR, 0, body.getSpcComponent(SACComponent.R).getRawValueInFrequencyDomain(), 0,
+                partialR.length);
+        System.arraycopy(partialT, 0, body.getSpcComponent(SACComponent.T).getRawValueInFrequencyDomain(), 0,
+                partialT.length);
+        return body;
+    }
+
     /**
      * ibody番目のボディ（深さ）に対する摂動の Partial derivatives のiに対する成分 ETAri,s の i
      *
@@ -232,15 +253,39 @@ public class ThreeDPartialMaker {
      * @return Ui(t) u[t] 時間領域
      */
     public double[] createPartial(SACComponent component, int iBody, PartialType type) {
-        Complex[] partial_frequency = type == PartialType.Q ? computeQpartial(component, iBody) :
+        return createPartial(component, iBody, type, 0, npts);
+    }
+
+    /**
+     * Only the part [from, to) of {@link #createPartial(SACComponent, int, PartialType)} is computed,
+     * so the cost depends on the length of the part rather than TLEN when the part is short.
+     *
+     * @param component {@link SACComponent}
+     * @param iBody     index for SacBody
+     * @param type      {@link PartialType}
+     * @param from      index of the first point (inclusive) in the time domain at the sampling Hz
+     * @param to        index of the last point (exclusive)
+     * @return Ui(t) u[t] (t = from, .., to-1) 時間領域
+     */
+    public double[] createPartial(SACComponent component, int iBody, PartialType type, int from, int to) {
+        double[] partial_frequency = type == PartialType.Q ? computeQpartial(component, iBody) :
                 computeTensorCulculus(component, iBody, type);
-        if (null != sourceTimeFunction) partial_frequency = sourceTimeFunction.convolve(partial_frequency);
-        Complex[] partial_time = toTimedomain(partial_frequency);
-        double[] partialdouble = new double[npts];
-        for (int j = 0; j < npts; j++)
-            partialdouble[j] = partial_time[j].getReal();
-//        Arrays.stream(partial_time).mapToDouble(Complex::abs).toArray();
-        return partialdouble;
+        if (null != sourceTimeFunction) sourceTimeFunction.convolveSpectrum(partial_frequency);
+        return toTimedomain(partial_frequency, from, to);
+    }
+
+    /**
+     * @return number of points in the time domain of partials
+     */
+    public int getNPTS() {
+        return npts;
+    }
+
+    /**
+     * @return [Hz] sampling frequency of partials in the time domain
+     */
+    public double getSamplingHz() {
+        return samplingFrequency;
     }
 
     /**
@@ -250,13 +295,24 @@ public class ThreeDPartialMaker {
      */
     public void setStructure(PolynomialStructure structure) {
         fujiConversion = new FujiConversion(structure);
+        qBody = null;
+        qBodyIndex = -1;
     }
 
-    private Complex[] computeQpartial(SACComponent component, int iBody) {
+    /**
+     * The Q spectra are converted from the MU spectra once for a body, and kept for the last body.
+     *
+     * @param component {@link SACComponent}
+     * @param iBody     index for sacbody
+     * @return Q partial in frequency domain (a copy)
+     */
+    private double[] computeQpartial(SACComponent component, int iBody) {
         if (fujiConversion == null) fujiConversion = new FujiConversion(PolynomialStructure.PREM);
-        DSMOutput qspec = fujiConversion.convert(toSpectrum(PartialType.MU));
-        return qspec.getSpcBodyList().get(iBody).getSpcComponent(component).getValueInFrequencyDomain();
-
+        if (qBodyIndex != iBody) {
+            qBody = fujiConversion.convert(toBody(iBody, PartialType.MU), bp.getBodyR()[iBody], bp.tlen());
+            qBodyIndex = iBody;
+        }
+        return qBody.getSpcComponent(component).getRawValueInFrequencyDomain().clone();
     }
 
     /**
@@ -267,12 +323,26 @@ public class ThreeDPartialMaker {
      * @param type      {@link PartialType}
      * @return uCe
      */
-    private Complex[] computeTensorCulculus(SACComponent component, int iBody, PartialType type) {
-        TensorCalculationUCE tensorcalc =
-                new TensorCalculationUCE(fp.getSpcBodyList().get(iBody), bp.getSpcBodyList().get(iBody),
-                        type.getWeightingFactor(), angleForTensor);
-        return component == SACComponent.Z ? tensorcalc.calc(0) :
-                rotatePartial(tensorcalc.calc(1), tensorcalc.calc(2), component);
+    private double[] computeTensorCulculus(SACComponent component, int iBody, PartialType type) {
+        TensorCalculationUCE tensorcalc = getTensorCalculation(iBody);
+        WeightingFactor factor = type.getWeightingFactor();
+        return component == SACComponent.Z ? tensorcalc.calc(0, factor).clone() :
+                rotatePartial(tensorcalc.calc(1, factor), tensorcalc.calc(2, factor), component);
+    }
+
+    /**
+     * The products for the last body are kept, as partials are usually computed body by body.
+     *
+     * @param iBody index for sacbody
+     * @return tensor calculation for the body
+     */
+    private TensorCalculationUCE getTensorCalculation(int iBody) {
+        if (tensorCalculationBody != iBody) {
+            tensorCalculation = new TensorCalculationUCE(fp.getSpcBodyList().get(iBody), bp.getSpcBodyList().get(iBody),
+                    angleForTensor);
+            tensorCalculationBody = iBody;
+        }
+        return tensorCalculation;
 
     }
 
@@ -288,22 +358,18 @@ public class ThreeDPartialMaker {
      * @param component R, T 震源 観測点の乗る大円上
      * @return 回転させてできたi成分の偏微分波形
      */
-    private Complex[] rotatePartial(Complex[] partial1, Complex[] partial2, SACComponent component) {
-        Complex[] partial = new Complex[fp.np() + 1];
+    private double[] rotatePartial(double[] partial1, double[] partial2, SACComponent component) {
+        double[] partial = new double[2 * (fp.np() + 1)];
+        double cosine = Math.cos(angleForVector);
+        double sine = Math.sin(angleForVector);
         switch (component) {
             case R:
-                for (int j = 0; j < fp.np() + 1; j++)
-                    partial[j] = new Complex(Math.cos(angleForVector) * partial1[j].getReal() +
-                            Math.sin(angleForVector) * partial2[j].getReal(),
-                            Math.cos(angleForVector) * partial1[j].getImaginary() +
-                                    Math.sin(angleForVector) * partial2[j].getImaginary());
+                for (int j = 0; j < partial.length; j++)
+                    partial[j] = cosine * partial1[j] + sine * partial2[j];
                 return partial;
             case T:
-                for (int j = 0; j < fp.np() + 1; j++)
-                    partial[j] = new Complex(-Math.sin(angleForVector) * partial1[j].getReal() +
-                            Math.cos(angleForVector) * partial2[j].getReal(),
-                            -Math.sin(angleForVector) * partial1[j].getImaginary() +
-                                    Math.cos(angleForVector) * partial2[j].getImaginary());
+                for (int j = 0; j < partial.length; j++)
+                    partial[j] = -sine * partial1[j] + cosine * partial2[j];
                 return partial;
             default:
                 System.out.println(Thread.currentThread().getStackTrace()[1].getMethodName());
@@ -329,11 +395,14 @@ public class ThreeDPartialMaker {
 
     /**
      * 時間領域のデータにGrowingExponentialを考慮する
+     *
+     * @param uTime time series from the point 'from'
+     * @param from  index of the first point of uTime
      */
-    private void applyGrowingExponential(Complex[] uTime) {
+    private void applyGrowingExponential(double[] uTime, int from) {
         double x = bp.tlen() * fp.omegai() / npts;
-        for (int i = 0; i < npts; i++)
-            uTime[i] = uTime[i].multiply(Math.exp(i * x));
+        for (int i = 0; i < uTime.length; i++)
+            uTime[i] *= Math.exp((from + i) * x);
 
     }
 
@@ -342,54 +411,28 @@ public class ThreeDPartialMaker {
      *
      * @param uTime time series
      */
-    private void correctAmplitude(Complex[] uTime) {
+    private void correctAmplitude(double[] uTime) {
         double tmp = npts * 1e3 / bp.tlen();
-        for (int i = 0; i < npts; i++)
-            uTime[i] = uTime[i].multiply(tmp);
+        for (int i = 0; i < uTime.length; i++)
+            uTime[i] *= tmp;
     }
 
     /**
      * compute waveform in timedomain from spector in frequency domain. aplitude
      * correction and growing exponential will be considered.
      *
-     * @param spector u in frequency domain
-     * @return u in time domain
+     * @param spector u in frequency domain (real and imaginary parts are interleaved)
+     * @param from    index of the first point (inclusive)
+     * @param to      index of the last point (exclusive)
+     * @return u in time domain [from, to)
      */
-    private Complex[] toTimedomain(Complex[] spector) {
-        Complex[] partial_time = inverseFourierTransform(spector);
-        applyGrowingExponential(partial_time);
+    private double[] toTimedomain(double[] spector, int from, int to) {
+        double[] partial_time = InPlaceFFT.inverseHermitian(spector, npts, from, to);
+        applyGrowingExponential(partial_time, from);
         correctAmplitude(partial_time);
         return partial_time;
     }
 
-    /**
-     * input complexを時間領域に
-     *
-     * @param complex waveform in frequency domain
-     * @return 時間領域の複素数列
-     */
-    private Complex[] inverseFourierTransform(Complex[] complex) {
-        // must be tested
-        int nnp = fp.np() * lsmooth;
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-
-        Complex[] data = new Complex[nnp * 2];
-
-        // pack to temporary Complex array
-        System.arraycopy(complex, 0, data, 0, fp.np() + 1);
-
-        // set blank due to lsmooth
-        Arrays.fill(data, fp.np() + 1, nnp + 1, Complex.ZERO);
-
-        // set values for imaginary frequency
-        for (int i = 0; i < nnp - 1; i++)
-            data[nnp + i + 1] = data[nnp - i - 1].conjugate();
-
-        // fast fourier transformation
-        return fft.transform(data, TransformType.INVERSE); // check
-
-    }
-
     /**
      * frequency domain をsamplingFrequencyでtime-domain TLEN(s)にもってくるスムージング値を探す
      */
@@ -31,9 +31,11 @@ import java.util.Arrays;
  * Sampling Hz<br>
  * If one is convoluted or observed, true<br>
  * Position of a waveform for the ID<br>
+ * <p>
+ * The waveform is either held in the ID, or decoded from a {@link MappedWaveformData} every time it is requested.
  *
  * @author Kensuke Konishi
- * @version 0.3.1.2
+ * @version 0.3.2
  */
 public class BasicID {
 
@@ -61,6 +63,10 @@ public class BasicID {
      * waveform
      */
     private final double[] DATA;
+    /**
+     * mapped data file which the waveform is decoded from (null if the waveform is in {@link #DATA})
+     */
+    private final MappedWaveformData MAPPED_DATA;
 
     /**
      * @param waveFormType Type of waveform data.
@@ -93,6 +99,29 @@ public class BasicID {
         if (waveformData.length != 0 && waveformData.length != npts)
             throw new IllegalArgumentException("Input waveform data length is invalid");
         DATA = waveformData.clone();
+        MAPPED_DATA = null;
+    }
+
+    /**
+     * A copy of the id whose waveform is decoded from the mappedData when it is requested.
+     *
+     * @param id         to copy (its waveform is not copied)
+     * @param mappedData mapped data file which contains the waveform of the id
+     */
+    BasicID(BasicID id, MappedWaveformData mappedData) {
+        TYPE = id.TYPE;
+        SAMPLINGHZ = id.SAMPLINGHZ;
+        START_TIME = id.START_TIME;
+        NPTS = id.NPTS;
+        STATION = id.STATION;
+        ID = id.ID;
+        COMPONENT = id.COMPONENT;
+        MIN_PERIOD = id.MIN_PERIOD;
+        MAX_PERIOD = id.MAX_PERIOD;
+        START_BYTE = id.START_BYTE;
+        CONVOLUTE = id.CONVOLUTE;
+        DATA = new double[0];
+        MAPPED_DATA = mappedData;
     }
 
     public boolean containsData() {
@@ -103,7 +132,7 @@ public class BasicID {
      * @return Arrays of waveform data
      */
     public double[] getData() {
-        return DATA.clone();
+        return MAPPED_DATA == null ? DATA.clone() : MAPPED_DATA.read(this);
     }
 
     /**
@@ -239,9 +268,10 @@ public class BasicID {
      * @return Trace of the waveform for this ID.
      */
     public Trace getTrace() {
-        double[] x = new double[DATA.length];
+        double[] data = MAPPED_DATA == null ? DATA : MAPPED_DATA.read(this);
+        double[] x = new double[data.length];
         Arrays.setAll(x, i -> START_TIME + i / SAMPLINGHZ);
-        return new Trace(x, DATA);
+        return new Trace(x, data);
     }
 
 }
@@ -44,7 +44,7 @@ import java.util.stream.IntStream;
  * </dl>
  *
  * @author Kensuke Konishi
- * @version 0.3.0.5.1
+ * @version 0.3.2
  * @see BasicID
  */
 public final class BasicIDFile {
@@ -104,8 +104,11 @@ public final class BasicIDFile {
      *                 IOException
      * @param dataPath {@link Path} of an data file, if it does not exist, an
      *                 IOException
-     * @return Array of {@link BasicID} containing waveform data
+     * @return Array of {@link BasicID} containing waveform data. The waveforms are not read here,
+     * but decoded from the mapped data file when they are requested, so the data file must not be changed while
+     * the IDs are used.
      * @throws IOException if an I/O error happens,
+     * @see MappedWaveformData
      */
     public static BasicID[] read(Path idPath, Path dataPath) throws IOException {
         BasicID[] ids = read(idPath);
@@ -114,21 +117,11 @@ public final class BasicIDFile {
         BasicID lastID = ids[ids.length - 1];
         if (dataSize != lastID.START_BYTE + lastID.NPTS * 8)
             throw new RuntimeException(dataPath + " is not invalid for " + idPath);
-        try (BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(dataPath))) {
-            byte[][] bytes = new byte[ids.length][];
-            Arrays.parallelSetAll(bytes, i -> new byte[ids[i].NPTS * 8]);
+        try (MappedWaveformData data = new MappedWaveformData(dataPath, ids)) {
             for (int i = 0; i < ids.length; i++)
-                bis.read(bytes[i]);
-            IntStream.range(0, ids.length).parallel().forEach(i -> {
-                BasicID id = ids[i];
-                ByteBuffer bb = ByteBuffer.wrap(bytes[i]);
-                double[] data = new double[id.NPTS];
-                for (int j = 0; j < data.length; j++)
-                    data[j] = bb.getDouble();
-                ids[i] = id.setData(data);
-            });
+                ids[i] = data.mapData(ids[i]);
         }
-        System.err.println("Waveforms are read in " + Utilities.toTimeString(System.nanoTime() - t));
+        System.err.println("Waveforms are mapped in " + Utilities.toTimeString(System.nanoTime() - t));
         return ids;
     }
 
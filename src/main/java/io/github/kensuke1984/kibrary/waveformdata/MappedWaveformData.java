@@ -0,0 +1,154 @@
+package io.github.kensuke1984.kibrary.waveformdata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Random-access view of a waveform data file (the pair of an ID file) by memory mapping.
+ * <p>
+ * The data file is mapped by {@link FileChannel#map} in segments, each of which is at most {@link #MAX_SEGMENT_BYTE}
+ * and never divides a waveform. A waveform for an ID is located by its START_BYTE and NPTS,
+ * and decoded only when it is requested, so the heap does not have to be sized to the whole dataset.
+ * Only the regions of the IDs given at construction are mapped.
+ * <p>
+ * This class is <b>thread-safe</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ * @see BasicIDFile
+ * @see PartialIDFile
+ */
+public final class MappedWaveformData implements Closeable {
+
+    /**
+     * [byte] Maximum size of one mapped segment
+     */
+    static final long MAX_SEGMENT_BYTE = 1L << 30;
+
+    private final Path DATAPATH;
+    private final FileChannel CHANNEL;
+    /**
+     * [byte] where each segment starts in the file (ascending)
+     */
+    private final long[] SEGMENT_STARTS;
+    private final MappedByteBuffer[] SEGMENTS;
+
+    /**
+     * @param dataPath {@link Path} of a data file
+     * @param ids      IDs whose waveforms are to be accessed. They do not need to contain waveform data.
+     * @throws IOException if an I/O error occurs
+     */
+    public MappedWaveformData(Path dataPath, BasicID... ids) throws IOException {
+        DATAPATH = dataPath;
+        CHANNEL = FileChannel.open(dataPath, StandardOpenOption.READ);
+        long dataSize = CHANNEL.size();
+        BasicID[] sorted = ids.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(BasicID::getStartByte));
+        List<Long> starts = new ArrayList<>();
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        if (sorted.length != 0) {
+            long segmentStart = sorted[0].START_BYTE;
+            long segmentEnd = segmentStart;
+            for (BasicID id : sorted) {
+                long end = id.START_BYTE + 8L * id.NPTS;
+                if (dataSize < end) throw new RuntimeException(dataPath + " is too short for " + id);
+                if (MAX_SEGMENT_BYTE < 8L * id.NPTS)
+                    throw new RuntimeException("A waveform is too large to be mapped. " + id);
+                if (MAX_SEGMENT_BYTE < end - segmentStart) {
+                    starts.add(segmentStart);
+                    segments.add(CHANNEL.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+                    segmentStart = id.START_BYTE;
+                }
+                segmentEnd = Math.max(segmentEnd, end);
+            }
+            starts.add(segmentStart);
+            segments.add(CHANNEL.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+        }
+        SEGMENT_STARTS = starts.stream().mapToLong(Long::longValue).toArray();
+        SEGMENTS = segments.toArray(new MappedByteBuffer[0]);
+    }
+
+    /**
+     * @return {@link Path} of the data file
+     */
+    public Path getDataPath() {
+        return DATAPATH;
+    }
+
+    /**
+     * The returning buffer is read-only and independent of other calls. Nothing is decoded until the buffer is read.
+     *
+     * @param id {@link BasicID} (or {@link PartialID}) given at the construction
+     * @return waveform for the ID
+     */
+    public DoubleBuffer getWaveform(BasicID id) {
+        int index = Arrays.binarySearch(SEGMENT_STARTS, id.START_BYTE);
+        if (index < 0) index = -index - 2;
+        if (index < 0) throw new IllegalArgumentException(id + " is not in " + DATAPATH);
+        ByteBuffer segment = SEGMENTS[index].duplicate();
+        long position = id.START_BYTE - SEGMENT_STARTS[index];
+        if (segment.limit() < position + 8L * id.NPTS)
+            throw new IllegalArgumentException(id + " is not in " + DATAPATH);
+        // cast for the compatibility of Java 8
+        ((Buffer) segment).position((int) position).limit((int) position + 8 * id.NPTS);
+        return segment.slice().asDoubleBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * @param id {@link BasicID} (or {@link PartialID}) given at the construction
+     * @return decoded waveform for the ID
+     */
+    public double[] read(BasicID id) {
+        double[] data = new double[id.NPTS];
+        getWaveform(id).get(data);
+        return data;
+    }
+
+    /**
+     * @param id {@link BasicID} given at the construction
+     * @return {@link BasicID} with the waveform data
+     */
+    public BasicID readData(BasicID id) {
+        return id.setData(read(id));
+    }
+
+    /**
+     * The returning ID does not hold the waveform, which is decoded from this every time it is requested.
+     * It is valid after this is closed.
+     *
+     * @param id {@link BasicID} given at the construction
+     * @return {@link BasicID} backed by this
+     */
+    public BasicID mapData(BasicID id) {
+        return new BasicID(id, this);
+    }
+
+    /**
+     * @param id {@link PartialID} given at the construction
+     * @return {@link PartialID} with the waveform data
+     */
+    public PartialID readData(PartialID id) {
+        return id.setData(read(id));
+    }
+
+    /**
+     * Mapped regions stay valid until they are garbage collected.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        CHANNEL.close();
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.kensuke1984.kibrary.waveformdata;
 
 import io.github.kensuke1984.kibrary.Operation;
+import io.github.kensuke1984.kibrary.butterworth.DecimatingFilter;
 import io.github.kensuke1984.kibrary.datacorrection.StaticCorrection;
 import io.github.kensuke1984.kibrary.datacorrection.StaticCorrectionFile;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
@@ -21,7 +22,6 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Creates dataset containing observed and synthetic waveforms. <br>
@@ -48,7 +48,7 @@ import java.util.stream.IntStream;
  * network in one event</b>
  *
  * @author Kensuke Konishi
- * @version 0.2.3
+ * @version 0.2.4
  */
 public class ObservedSyntheticDatasetMaker implements Operation {
 
@@ -272,8 +272,7 @@ public class ObservedSyntheticDatasetMaker implements Operation {
         Trace trace = sac.createTrace();
         int step = (int) (sacSamplingHz / finalSamplingHz);
         int startPoint = trace.getNearestXIndex(startTime);
-        double[] waveData = trace.getY();
-        return IntStream.range(0, npts).parallel().mapToDouble(i -> waveData[i * step + startPoint]).toArray();
+        return DecimatingFilter.decimate(trace.getY(), startPoint, step, npts);
     }
 
     @Override
@@ -4,12 +4,14 @@ import io.github.kensuke1984.kibrary.Operation;
 import io.github.kensuke1984.kibrary.Property;
 import io.github.kensuke1984.kibrary.butterworth.BandPassFilter;
 import io.github.kensuke1984.kibrary.butterworth.ButterworthFilter;
+import io.github.kensuke1984.kibrary.butterworth.DecimatingFilter;
 import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationFile;
 import io.github.kensuke1984.kibrary.util.EventFolder;
 import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.ProgressJournal;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
@@ -39,9 +41,16 @@ import java.util.stream.Collectors;
  * <p>
  * <b>Assume there are no station with the same name but different networks in
  * same events</b> TODO
+ * <p>
+ * Progress is recorded in a journal 'partial1D[date].journal' ({@link ProgressJournal}) in units of SPC files.
+ * Units are committed when a worker finishes an event, after the outputs so far are written to the disk.
+ * With 'resume' (a journal of a broken run), committed units are skipped and the dataset of the run is truncated
+ * at the last checkpoint and appended. The other parameters must be the same as the ones of the run.
+ * Outputs of an SPC file are written after all of them are computed, so an SPC file which fails in the computation
+ * is processed again in a resumed run without duplicates ({@link UnitWriter}).
  *
  * @author Kensuke Konishi
- * @version 0.2.2.1
+ * @version 0.2.5
  */
 public class Partial1DDatasetMaker implements Operation {
     private boolean backward;
@@ -115,6 +124,15 @@ public class Partial1DDatasetMaker implements Operation {
     private Map<GlobalCMTID, SourceTimeFunction> userSourceTimeFunctions;
     private Set<Location> perturbationLocationSet;
     private double[][] periodRanges;
+    /**
+     * journal of a run to resume (null for a new run)
+     */
+    private Path resumePath;
+    private ProgressJournal journal;
+    /**
+     * writes outputs of units and commits them to {@link #journal}
+     */
+    private UnitWriter unitWriter;
 
     public Partial1DDatasetMaker(Properties property) throws IOException {
         this.property = (Properties) property.clone();
@@ -157,6 +175,9 @@ public class Partial1DDatasetMaker implements Operation {
             pw.println("#finalSamplingHz");
             pw.println("##radii for perturbation points, must be set.");
             pw.println("#bodyR 3505 3555 3605");
+            pw.println("##Path of a journal (partial1D[date].journal) of a broken run to resume.");
+            pw.println("##If it is unset, a new run starts.");
+            pw.println("#resume");
         }
         System.err.println(outPath + " is created.");
     }
@@ -245,11 +266,11 @@ public class Partial1DDatasetMaker implements Operation {
         // partialSamplingHz
         // =Double.parseDouble(reader.getFirstValue("partialSamplingHz")); TODO
         finalSamplingHz = Double.parseDouble(property.getProperty("finalSamplingHz"));
-
+        if (property.containsKey("resume")) resumePath = getPath("resume");
     }
 
-    private synchronized void add() {
-        numberOfAddedID++;
+    private synchronized void add(int n) {
+        numberOfAddedID += n;
     }
 
     private void setLsmooth() throws IOException {
@@ -319,10 +340,39 @@ public class Partial1DDatasetMaker implements Operation {
         // create ThreadPool
         ExecutorService execs = Executors.newFixedThreadPool(N_THREADS);
 
-        Path idPath = workPath.resolve("partial1DID" + dateString + ".dat");
-        Path datasetPath = workPath.resolve("partial1D" + dateString + ".dat");
+        Path idPath = workPath.resolve("partial1DID" + dateString + ".dat").toAbsolutePath();
+        Path datasetPath = workPath.resolve("partial1D" + dateString + ".dat").toAbsolutePath();
+        long idLength = -1;
+        long dataLength = -1;
+        if (resumePath != null) {
+            if (!Files.exists(resumePath)) throw new NoSuchFileException(resumePath + " (resume)");
+            journal = new ProgressJournal(resumePath);
+            for (String commit : journal.getCommits()) {
+                String[] parts = commit.split("\t");
+                switch (parts[0]) {
+                    case "output":
+                        idPath = Paths.get(parts[1]);
+                        datasetPath = Paths.get(parts[2]);
+                        break;
+                    case "checkpoint":
+                        idLength = Long.parseLong(parts[1]);
+                        dataLength = Long.parseLong(parts[2]);
+                        break;
+                    case "finished":
+                        throw new RuntimeException(resumePath + " is a journal of a finished run.");
+                    default:
+                        throw new RuntimeException("Unknown commit in " + resumePath + " " + commit);
+                }
+            }
+            writeLog("Resuming " + resumePath + " (" + journal.getNumberOfDoneUnits() + " units are done)");
+        } else {
+            journal = new ProgressJournal(workPath.resolve("partial1D" + dateString + ".journal"));
+            journal.commit(Collections.emptyList(), "output\t" + idPath + "\t" + datasetPath);
+        }
+        unitWriter = new UnitWriter(journal);
+        writeLog("Progress is recorded in " + journal.getPath());
         try (WaveformDataWriter pdw = new WaveformDataWriter(idPath, datasetPath, stationSet, idSet, periodRanges,
-                perturbationLocationSet)) {
+                perturbationLocationSet, idLength, dataLength)) {
             partialDataWriter = pdw;
             for (EventFolder eventDir : eventDirs)
                 execs.execute(new Worker(eventDir));
@@ -335,8 +385,19 @@ public class Partial1DDatasetMaker implements Operation {
                 System.err.print("\033[2K\rWorking each thread " + per + " % : entire progress " +
                         Math.ceil(100.0 * numberOfFinishedEvents.get() / eventDirs.size()) + " %");
             }
+            checkpoint();
+            if (unitWriter.getNumberOfFailedUnits() == 0) journal.commit(Collections.emptyList(), "finished");
+            else {
+                String line = unitWriter.getNumberOfFailedUnits() + " SPC files failed. They can be processed again " +
+                        "by resuming " + journal.getPath() +
+                        (unitWriter.isCommittable() ? "" : " (from the last commit before a unit partly written)");
+                System.err.println(line);
+                writeLog(line);
+            }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            journal.close();
         }
         System.err.println("\u001B[2K\rWorking " + 100.0 + " %");
         String endLine = Partial1DDatasetMaker.class.getName() + " finished in " +
@@ -348,6 +409,13 @@ public class Partial1DDatasetMaker implements Operation {
 
     }
 
+    /**
+     * Writes all the outputs so far and commits the finished units.
+     */
+    private void checkpoint() throws IOException {
+        unitWriter.checkpoint(partialDataWriter);
+    }
+
     private void setBandPassFilter() throws IOException {
         double omegaH = maxFreq * 2 * Math.PI / partialSamplingHz;
         double omegaL = minFreq * 2 * Math.PI / partialSamplingHz;
@@ -385,10 +453,15 @@ public class Partial1DDatasetMaker implements Operation {
         private SourceTimeFunction sourceTimeFunction;
         private final GlobalCMTID ID;
         private final EventFolder EVENT_DIR;
+        /**
+         * {@link #filter} and decimation for this worker
+         */
+        private final DecimatingFilter DECIMATING_FILTER;
 
         private Worker(EventFolder eventDir) {
             EVENT_DIR = eventDir;
             ID = eventDir.getGlobalCMTID();
+            DECIMATING_FILTER = new DecimatingFilter(filter, step);
         }
 
         @Override
@@ -442,26 +515,60 @@ public class Partial1DDatasetMaker implements Operation {
 
                 if (!(partialTypes.contains(partialType) ||
                         (partialTypes.contains(PartialType.PARQ) && spcFileType == SPCType.PAR2))) continue;
-                try {
-                    addPartialSpectrum(spcFileName);
-                } catch (ClassCastException e) {
-                    System.err.println(spcFileName + "is not 1D partial.");
-                } catch (Exception e) {
-                    System.err.println(spcFileName + " is invalid.");
-                    e.printStackTrace();
-                    try {
-                        writeLog(spcFileName + " is invalid.");
-                    } catch (IOException e1) {
-                        e1.printStackTrace();
-                    }
-                }
+                String unit = spcFileName.getName();
+                if (journal.isDone(unit)) continue;
+                processUnit(spcFileName, unit);
                 int percent = finished++ * 100 / spcFileNameSet.size();
                 processMap.put(ID, percent);
             }
             processMap.remove(ID);
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
             numberOfFinishedEvents.incrementAndGet();
         }
 
+        /**
+         * Computes all the partials in the SPC file, and writes them.
+         *
+         * @param spcFileName SPC file to process
+         * @param unit        name of the SPC file in the journal
+         */
+        private void processUnit(SPCFile spcFileName, String unit) {
+            // outputs of the SPC file are written after all of them are computed
+            List<PartialID> partialIDs = new ArrayList<>();
+            try {
+                addPartialSpectrum(spcFileName, partialIDs);
+            } catch (ClassCastException e) {
+                System.err.println(spcFileName + "is not 1D partial.");
+                return;
+            } catch (Exception e) {
+                System.err.println(spcFileName + " is invalid.");
+                e.printStackTrace();
+                unitWriter.fail();
+                try {
+                    writeLog(spcFileName + " is invalid.");
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+                return;
+            }
+            try {
+                unitWriter.write(partialDataWriter, unit, partialIDs);
+                add(partialIDs.size());
+            } catch (Exception e) {
+                e.printStackTrace();
+                try {
+                    writeLog(spcFileName + " failed to be written." +
+                            (unitWriter.isCommittable() ? "" : " No more commits are made."));
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+            }
+        }
+
         private SourceTimeFunction computeSourceTimeFunction() {
             GlobalCMTID id = EVENT_DIR.getGlobalCMTID();
             double halfDuration = id.getEvent().getHalfDuration();
@@ -479,21 +586,11 @@ public class Partial1DDatasetMaker implements Operation {
             }
         }
 
-        private void cutAndWrite(Station station, double[] filteredUt, TimewindowInformation t, double bodyR,
-                                 PartialType partialType) {
-
-            double[] cutU = sampleOutput(filteredUt, t);
-
-            PartialID pid = new PartialID(station, ID, t.getComponent(), finalSamplingHz, t.getStartTime(), cutU.length,
+        private PartialID toPartialID(Station station, double[] cutU, TimewindowInformation t, double bodyR,
+                                      PartialType partialType) {
+            return new PartialID(station, ID, t.getComponent(), finalSamplingHz, t.getStartTime(), cutU.length,
                     1 / maxFreq, 1 / minFreq, 0, sourceTimeFunction != null, new Location(0, 0, bodyR), partialType,
                     cutU);
-            try {
-                partialDataWriter.addPartialID(pid);
-                add();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
         }
 
         // to time domain
@@ -509,12 +606,19 @@ public class Partial1DDatasetMaker implements Operation {
         }
 
         private void outputProcess(Station station, PartialType partialType, DSMOutput spectrum,
-                                   SACComponent component) {
+                                   SACComponent component, List<PartialID> partialIDs) {
             Set<TimewindowInformation> tw = timewindowInformationSet.stream()
                     .filter(info -> info.getStation().getName().equals(station.getName()))
                     .filter(info -> info.getGlobalCMTID().equals(ID)).filter(info -> info.getComponent() == component)
                     .collect(Collectors.toSet());
             if (tw.isEmpty()) return;
+            TimewindowInformation[] windows = tw.toArray(new TimewindowInformation[0]);
+            int[] starts = new int[windows.length];
+            int[] outnpts = new int[windows.length];
+            for (int i = 0; i < windows.length; i++) {
+                starts[i] = (int) (windows[i].getStartTime() * partialSamplingHz);
+                outnpts[i] = (int) ((windows[i].getEndTime() - windows[i].getStartTime()) * finalSamplingHz);
+            }
             for (int k = 0; k < spectrum.nbody(); k++) {
                 double bodyR = spectrum.getBodyR()[k];
                 boolean exists = false;
@@ -522,15 +626,21 @@ public class Partial1DDatasetMaker implements Operation {
                     if (r == bodyR) exists = true;
                 if (!exists) continue;
                 double[] ut = spectrum.getSpcBodyList().get(k).getSpcComponent(component).getTimeseries();
-                // applying the filter
-                double[] filteredUt = filter.applyFilter(ut);
-                for (TimewindowInformation t : tw)
-                    cutAndWrite(station, filteredUt, t, bodyR, partialType);
+                // applying the filter and cutting waveforms for outputting
+                double[][] cutUs = Arrays.stream(outnpts).mapToObj(double[]::new).toArray(double[][]::new);
+                DECIMATING_FILTER.apply(ut, 0, ut.length, starts, cutUs);
+                for (int i = 0; i < windows.length; i++)
+                    partialIDs.add(toPartialID(station, cutUs[i], windows[i], bodyR, partialType));
             }
         }
 
 
-        private void addPartialSpectrum(SPCFile spcname) throws IOException {
+        /**
+         * @param spcname    SPC file to process
+         * @param partialIDs to which the partials in the SPC file are added
+         * @throws IOException if an I/O error occurs
+         */
+        private void addPartialSpectrum(SPCFile spcname, List<PartialID> partialIDs) throws IOException {
             DSMOutput spectrum = spcname.read();
             if (spectrum.tlen() != tlen || spectrum.np() != np) {
                 System.err.println(spcname + " has different NP or TLEN.");
@@ -544,30 +654,14 @@ public class Partial1DDatasetMaker implements Operation {
                 DSMOutput qSpectrum = fujiConversion.convert(spectrum);
                 process(qSpectrum);
                 for (SACComponent component : components)
-                    outputProcess(station, PartialType.PARQ, qSpectrum, component);
+                    outputProcess(station, PartialType.PARQ, qSpectrum, component, partialIDs);
             }
             if (spcname.getFileType() == SPCType.PAR2 && !partialTypes.contains(PartialType.PAR2)) return;
             else process(spectrum);
 
             for (SACComponent component : components)
-                outputProcess(station, partialType, spectrum, component);
-
-        }
+                outputProcess(station, partialType, spectrum, component, partialIDs);
 
-        /**
-         * @param u                     partial waveform
-         * @param timewindowInformation cut information
-         * @return u cut by considering sampling Hz
-         */
-        private double[] sampleOutput(double[] u, TimewindowInformation timewindowInformation) {
-            int cutstart = (int) (timewindowInformation.getStartTime() * partialSamplingHz);
-            // waveform to output
-            int outnpts = (int) ((timewindowInformation.getEndTime() - timewindowInformation.getStartTime()) *
-                    finalSamplingHz);
-            double[] sampleU = new double[outnpts];
-            // cutting a waveform for outputting
-            Arrays.setAll(sampleU, j -> u[cutstart + j * step]);
-            return sampleU;
         }
 
     }
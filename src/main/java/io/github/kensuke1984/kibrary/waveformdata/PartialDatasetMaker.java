@@ -4,18 +4,19 @@ import io.github.kensuke1984.kibrary.Operation;
 import io.github.kensuke1984.kibrary.Property;
 import io.github.kensuke1984.kibrary.butterworth.BandPassFilter;
 import io.github.kensuke1984.kibrary.butterworth.ButterworthFilter;
+import io.github.kensuke1984.kibrary.butterworth.DecimatingFilter;
 import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationFile;
 import io.github.kensuke1984.kibrary.util.EventFolder;
 import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.ProgressJournal;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
 import io.github.kensuke1984.kibrary.util.sac.SACComponent;
 import io.github.kensuke1984.kibrary.util.spc.*;
-import org.apache.commons.math3.complex.Complex;
 
 import java.io.File;
 import java.io.IOException;
@@ -53,9 +54,30 @@ import java.util.stream.Stream;
  * TODO
  * <p>
  * Because of DSM condition, stations can not have the same name...
+ * <p>
+ * With 'scheduling' point, work is grouped by perturbation points instead of stations,
+ * so that an FP file for a pair of a perturbation point and an event is read once and used with BP files of all
+ * the stations. FP spectra are kept in a {@link DSMOutputCache} of 'spectrumCacheMB'.
+ * <p>
+ * Partials are synthesized in the time domain only in the span of the time windows (expanded for filtering)
+ * for each component. See {@link ThreeDPartialMaker#createPartial(SACComponent, int, PartialType, int, int)}.
+ * They are filtered and decimated at once by {@link DecimatingFilter}.
+ * <p>
+ * With 'shard' true, outputs for each station (or point) are written in a shard (a pair of files) in a folder
+ * 'partial[date]shards', and the shards are merged by {@link WaveformDataWriter#merge(Path, Path, List, List, boolean)}
+ * at the end. The shards are deleted after the merge.
+ * <p>
+ * Progress is recorded in a journal 'pdm[date].journal' ({@link ProgressJournal}) in units of
+ * (station, BP point, event). Units are committed after their outputs are written to the disk
+ * (after each BP file (or point), or each shard with 'shard' true).
+ * With 'resume' (a journal of a broken run), committed units are skipped and the outputs of the run are continued
+ * (the dataset is truncated at the last checkpoint and appended, or new shards are written).
+ * The other parameters must be the same as the ones of the run.
+ * Outputs of a unit are written after all of them are computed, so a unit which fails in the computation is
+ * computed again in a resumed run without duplicates ({@link UnitWriter}).
  *
  * @author Kensuke Konishi
- * @version 2.3.2
+ * @version 2.6.2
  */
 public class PartialDatasetMaker implements Operation {
 
@@ -156,6 +178,46 @@ public class PartialDatasetMaker implements Operation {
     private Path logPath;
     private final long START_TIME = System.nanoTime();
     private Map<GlobalCMTID, SourceTimeFunction> userSourceTimeFunctions;
+    /**
+     * if the work is grouped by perturbation points (true) or by stations (false)
+     */
+    private boolean pointMajor;
+    /**
+     * cache for FP spectra
+     */
+    private DSMOutputCache spectrumCache;
+    /**
+     * if outputs are written in a shard for each station (or point)
+     */
+    private boolean shard;
+    /**
+     * final output
+     */
+    private Path idPath;
+    private Path datasetPath;
+    /**
+     * folder for shards
+     */
+    private Path shardPath;
+    private final List<Path> ID_SHARDS = new ArrayList<>();
+    private final List<Path> DATA_SHARDS = new ArrayList<>();
+    /**
+     * name of the current shard
+     */
+    private String shardName;
+    /**
+     * names of the shards committed in the run to resume
+     */
+    private final Set<String> DONE_SHARDS = new HashSet<>();
+    /**
+     * journal of a run to resume (null for a new run)
+     */
+    private Path resumePath;
+    private ProgressJournal journal;
+    /**
+     * writes outputs of units and commits them to {@link #journal}
+     */
+    private UnitWriter unitWriter;
 
     public PartialDatasetMaker(Properties property) throws IOException {
         this.property = (Properties) property.clone();
@@ -201,6 +263,17 @@ public class PartialDatasetMaker implements Operation {
             pw.println("#perturbationPath perturbationPoint.inf");
             pw.println("##File for Qstructure (if no file, then PREM)");
             pw.println("#qinf");
+            pw.println("##Work is grouped by 'station' or perturbation 'point' (station)");
+            pw.println("##With point, each FP file is read once for all the stations.");
+            pw.println("#scheduling");
+            pw.println("##long [MB] Memory for FP spectra kept in a cache (a quarter of the maximum heap)");
+            pw.println("#spectrumCacheMB");
+            pw.println("##boolean If true, outputs for each station (or point) are written in a shard");
+            pw.println("##and the shards are merged at the end (false)");
+            pw.println("#shard");
+            pw.println("##Path of a journal (pdm[date].journal) of a broken run to resume.");
+            pw.println("##If it is unset, a new run starts.");
+            pw.println("#resume");
         }
         System.err.println(outPath + " is created.");
     }
@@ -243,6 +316,10 @@ public class PartialDatasetMaker implements Operation {
         if (!property.containsKey("partialTypes")) property.setProperty("partialTypes", "MU");
         if (!property.containsKey("partialSamplingHz")) property.setProperty("partialSamplingHz", "20");
         if (!property.containsKey("finalSamplingHz")) property.setProperty("finalSamplingHz", "1");
+        if (!property.containsKey("scheduling")) property.setProperty("scheduling", "station");
+        if (!property.containsKey("spectrumCacheMB"))
+            property.setProperty("spectrumCacheMB", String.valueOf(DSMOutputCache.defaultCapacity() / 1024 / 1024));
+        if (!property.containsKey("shard")) property.setProperty("shard", "false");
         if (!property.containsKey("perturbationPath"))
             throw new IllegalArgumentException("There is no information about perturbationPath.");
     }
@@ -278,6 +355,19 @@ public class PartialDatasetMaker implements Operation {
         // =Double.parseDouble(reader.getFirstValue("partialSamplingHz")); TODO
 
         finalSamplingHz = Double.parseDouble(property.getProperty("finalSamplingHz"));
+        switch (property.getProperty("scheduling")) {
+            case "station":
+                pointMajor = false;
+                break;
+            case "point":
+                pointMajor = true;
+                break;
+            default:
+                throw new IllegalArgumentException("scheduling must be station or point.");
+        }
+        spectrumCache = new DSMOutputCache(Long.parseLong(property.getProperty("spectrumCacheMB")) * 1024 * 1024);
+        shard = Boolean.parseBoolean(property.getProperty("shard"));
+        if (property.containsKey("resume")) resumePath = getPath("resume");
     }
 
     /**
@@ -325,13 +415,121 @@ public class PartialDatasetMaker implements Operation {
     }
 
     private void setOutput() throws IOException {
-        Path idPath = workPath.resolve("partialID" + dateString + ".dat");
-        Path datasetPath = workPath.resolve("partial" + dateString + ".dat");
-
-        partialDataWriter =
+        if (resumePath != null) {
+            resumeOutput();
+            return;
+        }
+        journal = new ProgressJournal(workPath.resolve("pdm" + dateString + ".journal"));
+        unitWriter = new UnitWriter(journal);
+        idPath = workPath.resolve("partialID" + dateString + ".dat").toAbsolutePath();
+        datasetPath = workPath.resolve("partial" + dateString + ".dat").toAbsolutePath();
+        shardPath = workPath.resolve("partial" + dateString + "shards").toAbsolutePath();
+        journal.commit(Collections.emptyList(),
+                "output\t" + shard + "\t" + idPath + "\t" + datasetPath + "\t" + shardPath);
+        if (shard) {
+            Files.createDirectories(shardPath);
+            writeLog("Creating shards in " + shardPath);
+        } else partialDataWriter =
                 new WaveformDataWriter(idPath, datasetPath, stationSet, idSet, periodRanges, perturbationLocationSet);
         writeLog("Creating " + idPath + " " + datasetPath);
         System.out.println("Creating " + idPath + " " + datasetPath);
+        writeLog("Progress is recorded in " + journal.getPath());
+    }
+
+    /**
+     * Reads the journal to resume, and continues the outputs of the run.
+     */
+    private void resumeOutput() throws IOException {
+        if (!Files.exists(resumePath)) throw new NoSuchFileException(resumePath + " (resume)");
+        journal = new ProgressJournal(resumePath);
+        unitWriter = new UnitWriter(journal);
+        long idLength = -1;
+        long dataLength = -1;
+        for (String commit : journal.getCommits()) {
+            String[] parts = commit.split("\t");
+            switch (parts[0]) {
+                case "output":
+                    if (Boolean.parseBoolean(parts[1]) != shard)
+                        throw new IllegalArgumentException("'shard' must be " + parts[1] + " as in " + resumePath);
+                    idPath = Paths.get(parts[2]);
+                    datasetPath = Paths.get(parts[3]);
+                    shardPath = Paths.get(parts[4]);
+                    break;
+                case "checkpoint":
+                    idLength = Long.parseLong(parts[1]);
+                    dataLength = Long.parseLong(parts[2]);
+                    break;
+                case "shard":
+                    DONE_SHARDS.add(parts[1]);
+                    ID_SHARDS.add(Paths.get(parts[2]));
+                    DATA_SHARDS.add(Paths.get(parts[3]));
+                    break;
+                case "finished":
+                    throw new RuntimeException(resumePath + " is a journal of a finished run.");
+                default:
+                    throw new RuntimeException("Unknown commit in " + resumePath + " " + commit);
+            }
+        }
+        if (idPath == null) throw new RuntimeException(resumePath + " has no information about outputs.");
+        if (shard) {
+            // shards which were not finished
+            Set<Path> finished = new HashSet<>(ID_SHARDS);
+            finished.addAll(DATA_SHARDS);
+            try (Stream<Path> shards = Files.list(Files.createDirectories(shardPath))) {
+                for (Path path : shards.collect(Collectors.toList()))
+                    if (!finished.contains(path)) Files.delete(path);
+            }
+        } else partialDataWriter =
+                new WaveformDataWriter(idPath, datasetPath, stationSet, idSet, periodRanges, perturbationLocationSet,
+                        idLength, dataLength);
+        String line = "Resuming " + resumePath + " (" + journal.getNumberOfDoneUnits() + " units are done) to " +
+                idPath + " " + datasetPath;
+        writeLog(line);
+        System.err.println(line);
+    }
+
+    /**
+     * @return name of the unit of work for the station, the BP point and the event
+     */
+    private static String toUnit(Station station, SPCFile bpname, GlobalCMTID id) {
+        return station.getName() + " " + bpname.getObserverID() + " " + bpname.getMode() + " " + id;
+    }
+
+    /**
+     * Writes all the outputs so far and commits the finished units (unless shards are used).
+     * Any computations must not be running.
+     */
+    private void checkpoint() throws IOException {
+        if (shard) partialDataWriter.flush();
+        else unitWriter.checkpoint(partialDataWriter);
+    }
+
+    /**
+     * Opens a new shard as {@link #partialDataWriter} if shards are used.
+     *
+     * @param name of the station or point (used in the file names)
+     */
+    private void openShard(String name) throws IOException {
+        if (!shard) return;
+        shardName = name;
+        String suffix = "_" + ID_SHARDS.size() + "_" + name.replaceAll("\\s+", "_") + ".dat";
+        Path idShard = shardPath.resolve("partialID" + suffix);
+        Path dataShard = shardPath.resolve("partial" + suffix);
+        partialDataWriter = new WaveformDataWriter(idShard, dataShard, stationSet, idSet, periodRanges,
+                perturbationLocationSet);
+        ID_SHARDS.add(idShard);
+        DATA_SHARDS.add(dataShard);
+    }
+
+    /**
+     * Closes the current shard if shards are used.
+     */
+    private void closeShard() throws IOException {
+        if (!shard) return;
+        partialDataWriter.close();
+        unitWriter.commit("shard\t" + shardName + "\t" + partialDataWriter.getIDPath() + "\t" +
+                partialDataWriter.getDataPath());
+        writeLog(partialDataWriter.getIDPath() + " " + partialDataWriter.getDataPath() + " were created");
     }
 
     private void readPerturbationPoints() throws IOException {
@@ -361,62 +559,161 @@ public class PartialDatasetMaker implements Operation {
         // Number of step to pick up from sac data
         step = (int) (partialSamplingHz / finalSamplingHz);
         setOutput();
-        int bpnum = 0;
         setSourceTimeFunctions();
+        if (pointMajor) runByPoint(N_THREADS);
+        else runByStation(N_THREADS);
+        terminate();
+    }
+
+    /**
+     * @param station target
+     * @return IDs of events which have time windows for the station
+     */
+    private Set<GlobalCMTID> collectEvents(Station station) {
+        return timewindowInformation.stream().filter(info -> components.contains(info.getComponent()))
+                .filter(info -> info.getStation().equals(station)).map(TimewindowInformation::getGlobalCMTID)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @param bpname    BP file for a perturbation point
+     * @param eventPath folder of an event
+     * @return FP file for the point and the event (in the same mode as the BP)
+     */
+    private SPCFile toFPFile(SPCFile bpname, Path eventPath) {
+        String eventName = eventPath.getFileName().toString();
+        return new FormattedSPCFile(eventPath.resolve(modelName).resolve(bpname.getObserverID() + "." + eventName +
+                ".PF..." + bpname.getMode() + ".spc"));
+    }
+
+    private void runByStation(int nThreads) throws IOException {
+        int bpnum = 0;
         // bp loop
         for (Station station : stationSet) {
             Path bp0000Path = bpPath.resolve("0000" + station.getName());
             Path bpModelPath = bp0000Path.resolve(modelName);
 
             // Set of global cmt IDs for the station in the timewindow.
-            Set<GlobalCMTID> idSet =
-                    timewindowInformation.stream().filter(info -> components.contains(info.getComponent()))
-                            .filter(info -> info.getStation().equals(station))
-                            .map(TimewindowInformation::getGlobalCMTID).collect(Collectors.toSet());
+            Set<GlobalCMTID> idSet = collectEvents(station);
 
-            if (idSet.isEmpty()) continue;
+            if (idSet.isEmpty() || DONE_SHARDS.contains(station.getName())) continue;
 
             // spectral files in bpModelFolder
             Set<SPCFile> bpFiles = Utilities.collectSpcFileName(bpModelPath);
             System.err.println(bpFiles.size() + " bpfiles are found.");
 
-            // model folders in FPfolders with timewindows for station
-            Path[] fpEventPaths = idSet.stream().map(id -> fpPath.resolve(id + "/" + modelName)).filter(Files::exists)
-                    .toArray(Path[]::new);
+            // event folders in FPfolders with timewindows for station
+            Path[] fpEventPaths = idSet.stream().map(id -> fpPath.resolve(id.toString()))
+                    .filter(p -> Files.exists(p.resolve(modelName))).toArray(Path[]::new);
 
             int donebp = 0;
+            openShard(station.getName());
             // foreach bpfile in bpfolder
             for (SPCFile bpname : bpFiles) {
-                // create ThreadPool
-                ExecutorService execs = Executors.newFixedThreadPool(N_THREADS);
                 System.err.println("Working for " + bpname.getName() + " " + ++donebp + "/" + bpFiles.size());
+                // units which are not done
+                Map<SPCFile, String> fpUnits = new LinkedHashMap<>();
+                for (Path fpEventPath : fpEventPaths) {
+                    SPCFile fpfile = toFPFile(bpname, fpEventPath);
+                    String unit = toUnit(station, bpname, new GlobalCMTID(fpfile.getSourceID()));
+                    if (fpfile.exists() && !journal.isDone(unit)) fpUnits.put(fpfile, unit);
+                }
+                if (fpUnits.isEmpty()) continue;
+                // create ThreadPool
+                ExecutorService execs = Executors.newFixedThreadPool(nThreads);
 
-                DSMOutput bp = bpname.read();
-                String pointName = bp.getObserverID();
+                DSMOutput bp = bpname.readMapped();
 
                 // fp loop
-                for (Path fpEventPath : fpEventPaths) {
-                    String eventName = fpEventPath.getParent().getFileName().toString();
-                    SPCFile fpfile = new FormattedSPCFile(
-                            fpEventPath.resolve(pointName + "." + eventName + ".PF..." + bpname.getMode() + ".spc"));
-                    if (!fpfile.exists()) continue;
-                    PartialComputation pc = new PartialComputation(bp, station, fpfile);
-                    execs.execute(pc);
-                }
-                execs.shutdown();
-                while (!execs.isTerminated()) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-                partialDataWriter.flush();
+                fpUnits.forEach((fpfile, unit) -> execs.execute(new PartialComputation(bp, station, fpfile, unit)));
+                awaitTermination(execs);
+                checkpoint();
                 System.err.println();
             }
+            closeShard();
             writeLog(+bpnum++ + "th " + bp0000Path + " was done.");
         }
-        terminate();
+    }
+
+    /**
+     * Work is grouped by perturbation points. For each point, all the pairs of BP (stations) and FP (events) are
+     * computed, so each FP file is read once. BP files are read directly (not via the cache) so that they do not
+     * push FP spectra out of the cache; they are used only for the point.
+     */
+    private void runByPoint(int nThreads) throws IOException {
+        // (point name, mode) -> BP files of the stations
+        Map<String, Map<Station, SPCFile>> bpFileMap = new TreeMap<>();
+        // number of points which are not done yet for each station
+        Map<Station, Integer> restPoints = new HashMap<>();
+        for (Station station : stationSet) {
+            if (collectEvents(station).isEmpty()) continue;
+            Path bpModelPath = bpPath.resolve("0000" + station.getName()).resolve(modelName);
+            for (SPCFile bpname : Utilities.collectSpcFileName(bpModelPath)) {
+                bpFileMap.computeIfAbsent(bpname.getObserverID() + " " + bpname.getMode(), k -> new HashMap<>())
+                        .put(station, bpname);
+                restPoints.merge(station, 1, Integer::sum);
+            }
+        }
+        System.err.println(bpFileMap.size() + " perturbation points are found.");
+        int donePoint = 0;
+        int bpnum = 0;
+        for (Map.Entry<String, Map<Station, SPCFile>> point : bpFileMap.entrySet()) {
+            Map<Station, SPCFile> bpFiles = point.getValue();
+            if (DONE_SHARDS.contains(point.getKey())) {
+                donePoint++;
+                bpnum = logDoneBPFolders(bpFiles.keySet(), restPoints, bpnum);
+                continue;
+            }
+            openShard(point.getKey());
+            ExecutorService execs = Executors.newFixedThreadPool(nThreads);
+            for (Map.Entry<Station, SPCFile> entry : bpFiles.entrySet()) {
+                Station station = entry.getKey();
+                SPCFile bpname = entry.getValue();
+                DSMOutput bp = null;
+                for (GlobalCMTID id : collectEvents(station)) {
+                    SPCFile fpfile = toFPFile(bpname, fpPath.resolve(id.toString()));
+                    String unit = toUnit(station, bpname, id);
+                    if (!fpfile.exists() || journal.isDone(unit)) continue;
+                    if (bp == null) bp = bpname.readMapped();
+                    execs.execute(new PartialComputation(bp, station, fpfile, unit));
+                }
+            }
+            awaitTermination(execs);
+            checkpoint();
+            closeShard();
+            System.err.println();
+            System.err.println(++donePoint + "/" + bpFileMap.size() + " points are done. " + spectrumCache);
+            writeLog(donePoint + "/" + bpFileMap.size() + " points were done. " + spectrumCache);
+            bpnum = logDoneBPFolders(bpFiles.keySet(), restPoints, bpnum);
+        }
+    }
+
+    /**
+     * Writes in the log bp folders whose points are all done.
+     *
+     * @param stations   stations of the point which is just done
+     * @param restPoints number of points which are not done yet for each station
+     * @param bpnum      number of bp folders which are done before
+     * @return number of bp folders which are done
+     * @throws IOException if an I/O error occurs
+     */
+    private int logDoneBPFolders(Set<Station> stations, Map<Station, Integer> restPoints, int bpnum)
+            throws IOException {
+        for (Station station : stations)
+            if (restPoints.merge(station, -1, Integer::sum) == 0)
+                writeLog(+bpnum++ + "th " + bpPath.resolve("0000" + station.getName()) + " was done.");
+        return bpnum;
+    }
+
+    private static void awaitTermination(ExecutorService execs) {
+        execs.shutdown();
+        while (!execs.isTerminated()) {
+            try {
+                Thread.sleep(100);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     private void setSourceTimeFunctions() throws IOException {
@@ -449,13 +746,32 @@ public class PartialDatasetMaker implements Operation {
     }
 
     private void terminate() throws IOException {
-        partialDataWriter.close();
+        if (shard) {
+            writeLog("Merging " + ID_SHARDS.size() + " shards");
+            WaveformDataWriter.merge(idPath, datasetPath, ID_SHARDS, DATA_SHARDS, true);
+            for (int i = 0; i < ID_SHARDS.size(); i++) {
+                Files.delete(ID_SHARDS.get(i));
+                Files.delete(DATA_SHARDS.get(i));
+            }
+            Files.delete(shardPath);
+        } else partialDataWriter.close();
+        if (unitWriter.getNumberOfFailedUnits() == 0) journal.commit(Collections.emptyList(), "finished");
+        else {
+            String line = unitWriter.getNumberOfFailedUnits() + " units failed. They can be computed again by " +
+                    "resuming " + journal.getPath() +
+                    (unitWriter.isCommittable() ? "" : " (from the last commit before a unit partly written)");
+            System.err.println(line);
+            writeLog(line);
+        }
+        journal.close();
         long endTime = System.nanoTime();
         long nanoSeconds = endTime - START_TIME;
         String endLine = "Everything is done in " + Utilities.toTimeString(nanoSeconds) + ". Over n out! ";
         System.err.println(endLine);
         writeLog(endLine);
-        writeLog(partialDataWriter.getIDPath() + " " + partialDataWriter.getDataPath() + " were created");
+        System.err.println(spectrumCache);
+        writeLog(spectrumCache.toString());
+        writeLog(idPath + " " + datasetPath + " were created");
     }
 
     private synchronized void writeLog(String line) throws IOException {
@@ -512,51 +828,116 @@ public class PartialDatasetMaker implements Operation {
         private DSMOutput fp;
         private final Station STATION;
         private final GlobalCMTID ID;
+        /**
+         * name of the unit in the journal
+         */
+        private final String UNIT;
+        /**
+         * {@link #filter} and decimation for this computation
+         */
+        private DecimatingFilter decimatingFilter;
 
         /**
          * @param bp     back propagate
          * @param fpFile forward propagate
+         * @param unit   name of the unit in the journal
          */
-        private PartialComputation(DSMOutput bp, Station station, SPCFile fpFile) {
+        private PartialComputation(DSMOutput bp, Station station, SPCFile fpFile, String unit) {
             BP = bp;
             STATION = station;
             FPNAME = fpFile;
             ID = new GlobalCMTID(FPNAME.getSourceID());
+            UNIT = unit;
+        }
+
+        /**
+         * Writes in the log that the unit failed.
+         */
+        private void logFailure() {
+            try {
+                writeLog(UNIT + " failed." + (unitWriter.isCommittable() ? "" : " No more commits are made."));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * @param timewindowInformation time window information
+         * @return index of the first point to cut (start-ext)
+         */
+        private int cutStart(TimewindowInformation timewindowInformation) {
+            return (int) (timewindowInformation.getStartTime() * partialSamplingHz) - ext;
         }
 
         /**
-         * cut partial derivative in [start-ext, start+ext] The ext is for
-         * filtering .
-         *
-         * @param u                     waveform
          * @param timewindowInformation time window information
-         * @return cut waveform
+         * @return index of the last point (exclusive) to cut (end+ext)
          */
-        private Complex[] cutPartial(double[] u, TimewindowInformation timewindowInformation) {
-            int cutstart = (int) (timewindowInformation.getStartTime() * partialSamplingHz) - ext;
-            // TODO why
-            if (cutstart < 0) return null;
-            int cutend = (int) (timewindowInformation.getEndTime() * partialSamplingHz) + ext;
-            Complex[] cut = new Complex[cutend - cutstart];
-            Arrays.parallelSetAll(cut, i -> new Complex(u[i + cutstart]));
-            return cut;
+        private int cutEnd(TimewindowInformation timewindowInformation) {
+            return (int) (timewindowInformation.getEndTime() * partialSamplingHz) + ext;
         }
 
-        private double[] sampleOutput(Complex[] u, TimewindowInformation timewindowInformation) {
+        /**
+         * The partial derivative is cut in [start-ext, end+ext] (the ext is for filtering), filtered
+         * and sampled from the start.
+         *
+         * @param u                     waveform from the point 'offset'
+         * @param offset                index of the first point of u
+         * @param timewindowInformation time window information
+         * @return cut, filtered and sampled waveform
+         */
+        private double[] sampleOutput(double[] u, int offset, TimewindowInformation timewindowInformation) {
+            int cutstart = cutStart(timewindowInformation) - offset;
+            int cutend = cutEnd(timewindowInformation) - offset;
             // waveform to output
             int outnpts = (int) ((timewindowInformation.getEndTime() - timewindowInformation.getStartTime()) *
                     finalSamplingHz);
-            double[] sampleU = new double[outnpts];
-
-            // cutting a waveform for outputting
-            Arrays.parallelSetAll(sampleU, j -> u[ext + j * step].getReal());
-            return sampleU;
+            return decimatingFilter.apply(u, cutstart, cutend, cutstart + ext, outnpts);
         }
 
         private SourceTimeFunction getSourceTimeFunction() {
             return sourceTimeFunction == 0 ? null : userSourceTimeFunctions.get(ID);
         }
 
+        /**
+         * Computes partials of all the time windows for the unit.
+         *
+         * @param id             of the event
+         * @param timewindowList time windows of the station and the event
+         * @param partialIDs     to which the partials are added
+         */
+        private void computePartials(GlobalCMTID id, Set<TimewindowInformation> timewindowList,
+                                     List<PartialID> partialIDs) {
+            decimatingFilter = new DecimatingFilter(filter, step);
+            ThreeDPartialMaker threedPartialMaker = new ThreeDPartialMaker(fp, BP);
+            threedPartialMaker.setSourceTimeFunction(getSourceTimeFunction());
+            if (structure != null) threedPartialMaker.setStructure(structure);
+
+            // partial for ith radius
+            for (int ibody = 0, nbody = fp.nbody(); ibody < nbody; ibody++) {
+                // name for transverse (2) TODO so far
+                Location location = fp.getObserverPosition().toLocation(fp.getBodyR()[ibody]);
+                for (PartialType type : partialTypes)
+                    for (SACComponent component : components) {
+                        TimewindowInformation[] windows =
+                                timewindowList.stream().filter(info -> info.getComponent() == component)
+                                        .filter(info -> 0 <= cutStart(info)).toArray(TimewindowInformation[]::new);
+                        if (windows.length == 0) continue;
+                        // only the span of the (expanded) time windows is computed
+                        int from = Arrays.stream(windows).mapToInt(this::cutStart).min().getAsInt();
+                        int to = Math.min(threedPartialMaker.getNPTS(),
+                                Arrays.stream(windows).mapToInt(this::cutEnd).max().getAsInt());
+                        double[] partial = threedPartialMaker.createPartial(component, ibody, type, from, to);
+                        for (TimewindowInformation info : windows) {
+                            double[] cutU = sampleOutput(partial, from, info);
+                            partialIDs.add(new PartialID(STATION, id, component, finalSamplingHz, info.getStartTime(),
+                                    cutU.length, 1 / maxFreq, 1 / minFreq, 0, sourceTimeFunction != 0, location, type,
+                                    cutU));
+                        }
+                    }
+            }
+        }
+
         @Override
         public void run() {
             String stationName = BP.getSourceID();
@@ -575,42 +956,36 @@ public class PartialDatasetMaker implements Operation {
                             .filter(info -> info.getGlobalCMTID().equals(id)).collect(Collectors.toSet());
 
             // skip if no timewindows found
-            if (timewindowList.isEmpty()) return;
+            if (timewindowList.isEmpty()) {
+                unitWriter.finish(UNIT);
+                return;
+            }
 
             try {
-                fp = FPNAME.read();
+                fp = spectrumCache.get(FPNAME);
             } catch (Exception e) {
                 e.printStackTrace();
+                unitWriter.fail();
+                logFailure();
                 return;
             }
 
-            ThreeDPartialMaker threedPartialMaker = new ThreeDPartialMaker(fp, BP);
-            threedPartialMaker.setSourceTimeFunction(getSourceTimeFunction());
-            if (structure != null) threedPartialMaker.setStructure(structure);
-
-            // partial for ith radius
-            for (int ibody = 0, nbody = fp.nbody(); ibody < nbody; ibody++) {
-                // name for transverse (2) TODO so far
-                Location location = fp.getObserverPosition().toLocation(fp.getBodyR()[ibody]);
-                for (PartialType type : partialTypes)
-                    for (SACComponent component : components) {
-                        if (timewindowList.stream().noneMatch(info -> info.getComponent() == component)) continue;
-                        double[] partial = threedPartialMaker.createPartial(component, ibody, type);
-                        timewindowList.stream().filter(info -> info.getComponent() == component).forEach(info -> {
-                            Complex[] u = cutPartial(partial, info);
-                            u = filter.applyFilter(u);
-                            double[] cutU = sampleOutput(u, info);
-                            PartialID pid = new PartialID(STATION, id, component, finalSamplingHz, info.getStartTime(),
-                                    cutU.length, 1 / maxFreq, 1 / minFreq, 0, sourceTimeFunction != 0, location, type,
-                                    cutU);
-                            try {
-                                partialDataWriter.addPartialID(pid);
-                                System.err.print(".");
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        });
-                    }
+            // outputs of the unit are written after all of them are computed
+            List<PartialID> partialIDs = new ArrayList<>();
+            try {
+                computePartials(id, timewindowList, partialIDs);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                unitWriter.fail();
+                logFailure();
+                return;
+            }
+            try {
+                unitWriter.write(partialDataWriter, UNIT, partialIDs);
+                System.err.print(".");
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                logFailure();
             }
         }
     }
@@ -18,7 +18,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -43,7 +42,7 @@ import java.util.stream.IntStream;
  * READing has problem. TODO
  *
  * @author Kensuke Konishi
- * @version 0.3.2
+ * @version 0.3.3
  */
 public final class PartialIDFile {
 
@@ -55,6 +54,16 @@ public final class PartialIDFile {
     private PartialIDFile() {
     }
 
+    /**
+     * Only the waveforms of the chosen IDs are read from the data file.
+     *
+     * @param idPath   {@link Path} of an ID file
+     * @param dataPath {@link Path} of a data file
+     * @param chooser  {@link Predicate} for IDs to read
+     * @return Array of chosen {@link PartialID} containing waveform data
+     * @throws IOException if an I/O error occurs
+     * @see MappedWaveformData
+     */
     public static PartialID[] read(Path idPath, Path dataPath, Predicate<PartialID> chooser) throws IOException {
         PartialID[] ids = read(idPath);
         long t = System.nanoTime();
@@ -62,25 +71,13 @@ public final class PartialIDFile {
         PartialID lastID = ids[ids.length - 1];
         if (dataSize != lastID.START_BYTE + lastID.NPTS * 8)
             throw new RuntimeException(dataPath + " is invalid for " + idPath);
-        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(dataPath)))) {
-            for (int i = 0; i < ids.length; i++) {
-                if (!chooser.test(ids[i])) {
-                    dis.skipBytes(ids[i].NPTS * 8);
-                    ids[i] = null;
-                    continue;
-                }
-                double[] data = new double[ids[i].NPTS];
-                for (int j = 0; j < data.length; j++)
-                    data[j] = dis.readDouble();
-                ids[i] = ids[i].setData(data);
-                if (i % (ids.length / 20) == 0)
-                    System.err.print("\rReading partial data ... " + Math.ceil(i * 100.0 / ids.length) + " %");
-            }
-            System.err.println("\rReading partial data ... 100.0 %");
+        PartialID[] chosen = Arrays.stream(ids).parallel().filter(chooser).toArray(PartialID[]::new);
+        try (MappedWaveformData data = new MappedWaveformData(dataPath, chosen)) {
+            IntStream.range(0, chosen.length).parallel().forEach(i -> chosen[i] = data.readData(chosen[i]));
         }
-        if (chooser != null) ids = Arrays.stream(ids).parallel().filter(Objects::nonNull).toArray(PartialID[]::new);
-        System.err.println("Partial data are read in " + Utilities.toTimeString(System.nanoTime() - t));
-        return ids;
+        System.err.println(
+                chosen.length + " partial data are read in " + Utilities.toTimeString(System.nanoTime() - t));
+        return chosen;
     }
 
     /**
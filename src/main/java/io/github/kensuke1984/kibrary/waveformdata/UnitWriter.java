@@ -0,0 +1,140 @@
+package io.github.kensuke1984.kibrary.waveformdata;
+
+import io.github.kensuke1984.kibrary.util.ProgressJournal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes outputs of units of work (e.g. SPC files) in a long run to {@link WaveformDataWriter}s, and commits finished
+ * units to a {@link ProgressJournal}.
+ * <p>
+ * All outputs of a unit are computed before they are written by {@link #write(WaveformDataWriter, String, List)},
+ * so a unit which fails in the computation leaves nothing in the files.
+ * If writing the outputs fails partway, the files have a part of the unit, which would be written again when the run
+ * is resumed. No more commits are made after that, so a resumed run starts from the last commit before it.
+ * <p>
+ * Units can be written by many threads at once. {@link #checkpoint(WaveformDataWriter)} waits for units being
+ * written, so the sizes of the files in a commit are consistent with the committed units.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class UnitWriter {
+    private final ProgressJournal JOURNAL;
+    /**
+     * units finished after the last commit
+     */
+    private final List<String> FINISHED_UNITS = new ArrayList<>();
+    /**
+     * Units are written under the read lock, and committed under the write lock.
+     */
+    private final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    private final AtomicInteger NUMBER_OF_FAILED_UNITS = new AtomicInteger();
+    /**
+     * false after outputs of a unit are partly written
+     */
+    private volatile boolean committable = true;
+
+    /**
+     * @param journal to which units are committed
+     */
+    UnitWriter(ProgressJournal journal) {
+        JOURNAL = journal;
+    }
+
+    /**
+     * Writes all the outputs of a unit, and the unit is finished (it is committed at the next commit).
+     * If any of them can not be written, the unit fails and the error is thrown.
+     *
+     * @param writer  to write the outputs
+     * @param unit    name of the unit in the journal
+     * @param outputs all the outputs of the unit ({@link PartialID}s for a writer of partials)
+     * @throws IOException if an I/O error occurs
+     */
+    void write(WaveformDataWriter writer, String unit, List<? extends BasicID> outputs) throws IOException {
+        LOCK.readLock().lock();
+        int written = 0;
+        try {
+            for (BasicID output : outputs) {
+                if (output instanceof PartialID) writer.addPartialID((PartialID) output);
+                else writer.addBasicID(output);
+                written++;
+            }
+            finish(unit);
+        } catch (IOException | RuntimeException e) {
+            fail();
+            if (0 < written) committable = false;
+            throw e;
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * The unit is finished without outputs (it is committed at the next commit).
+     *
+     * @param unit name of the unit in the journal
+     */
+    void finish(String unit) {
+        synchronized (FINISHED_UNITS) {
+            FINISHED_UNITS.add(unit);
+        }
+    }
+
+    /**
+     * A unit failed before its outputs are written.
+     */
+    void fail() {
+        NUMBER_OF_FAILED_UNITS.incrementAndGet();
+    }
+
+    /**
+     * Waits for units being written, writes all the outputs so far to the disk, and commits the finished units with
+     * the sizes of the files ("checkpoint [size of the ID file] [size of the data file]").
+     *
+     * @param writer to which the units are written
+     * @throws IOException if an I/O error occurs
+     */
+    void checkpoint(WaveformDataWriter writer) throws IOException {
+        LOCK.writeLock().lock();
+        try {
+            writer.flush();
+            commit("checkpoint\t" + writer.getIDLength() + "\t" + writer.getDataLength());
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Commits the finished units with the information, unless outputs of any unit are partly written.
+     * The outputs of the units must be written to the disk.
+     *
+     * @param information of the commit
+     * @throws IOException if an I/O error occurs
+     */
+    void commit(String information) throws IOException {
+        synchronized (FINISHED_UNITS) {
+            if (committable) JOURNAL.commit(FINISHED_UNITS, information);
+            FINISHED_UNITS.clear();
+        }
+    }
+
+    /**
+     * @return if commits are made, i.e. no outputs of a unit are partly written
+     */
+    boolean isCommittable() {
+        return committable;
+    }
+
+    /**
+     * @return number of units which failed
+     */
+    int getNumberOfFailedUnits() {
+        return NUMBER_OF_FAILED_UNITS.get();
+    }
+}
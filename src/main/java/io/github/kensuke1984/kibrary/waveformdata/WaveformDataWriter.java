@@ -3,27 +3,66 @@ package io.github.kensuke1984.kibrary.waveformdata;
 import io.github.kensuke1984.kibrary.util.HorizontalPosition;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
 import io.github.kensuke1984.kibrary.util.sac.WaveformType;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
 /**
  * Writer of BasicDataset and PartialDataset
  * <p>
  * This class create a new set of dataset files.
+ * <p>
+ * IDs can be added by many threads at once without locks. The place of each waveform in the data file
+ * (and of each ID in the ID file) is reserved atomically, and the thread encodes them into a buffer taken from a pool
+ * of the writer. The buffers are written at the reserved places by a write-behind thread through {@link FileChannel}s,
+ * and then returned to the pool for reuse. The pool has {@link #BUFFER_COUNT} buffers,
+ * so a thread waits for the write-behind thread when all the buffers are waiting to be written.
+ * <p>
+ * The order of IDs in the ID file is the order of the reservation. The format of the files is unchanged.
+ * <p>
+ * Pairs of files (e.g. shards written in parallel) can be appended ({@link #append(Path, Path)}) or merged into a new
+ * pair ({@link #merge(Path, Path, List, List, boolean)}) without decoding waveforms.
+ * <p>
+ * A writer can resume writing a pair at a checkpoint, where the sizes of the files were taken by
+ * {@link #getIDLength()} and {@link #getDataLength()} after {@link #flush()}
+ * (see {@link #WaveformDataWriter(Path, Path, Set, Set, double[][], Set, long, long)}).
  *
  * @author Kensuke Konishi
- * @version 0.4.0.4
+ * @version 0.5.5
  */
 public class WaveformDataWriter implements Closeable, Flushable {
+    /**
+     * number of buffers which can be filled before they are written
+     */
+    private static final int BUFFER_COUNT = 4 * Runtime.getRuntime().availableProcessors();
+    /**
+     * [byte] size of an ID for {@link BasicID}
+     */
+    private static final int BASICID_SIZE = 28;
+    /**
+     * [byte] size of an ID for {@link PartialID}
+     */
+    private static final int PARTIALID_SIZE = 30;
+
     /**
      * id information file
      */
@@ -38,13 +77,29 @@ public class WaveformDataWriter implements Closeable, Flushable {
      */
     private final int MODE;
     /**
-     * stream for id
+     * channel for id
+     */
+    private final FileChannel ID_CHANNEL;
+    /**
+     * channel for wavedata
+     */
+    private final FileChannel DATA_CHANNEL;
+    /**
+     * records waiting to be written
+     */
+    private final BlockingQueue<Record> QUEUE = new LinkedBlockingQueue<>();
+    /**
+     * free buffers shared by all the threads
      */
-    private DataOutputStream idStream;
+    private final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(BUFFER_COUNT);
     /**
-     * stream for wavedata
+     * write-behind thread
      */
-    private DataOutputStream dataStream;
+    private final Thread WRITER;
+    /**
+     * the first error in the write-behind thread
+     */
+    private volatile IOException failure;
     /**
      * index map for stations
      */
@@ -62,9 +117,14 @@ public class WaveformDataWriter implements Closeable, Flushable {
      */
     private double[][] periodRanges;
     /**
-     * The file size (byte). (should be StartByte)
+     * The file size (byte) including reserved parts. (should be StartByte)
+     */
+    private final AtomicLong DATA_LENGTH = new AtomicLong();
+    /**
+     * The id file size (byte) including reserved parts.
      */
-    private long dataLength;
+    private final AtomicLong ID_LENGTH = new AtomicLong();
+
     /**
      * This constructor is only for BasicID. All write ID must have a station,
      * a Global CMT ID and period ranges in the input ones.
@@ -99,25 +159,139 @@ public class WaveformDataWriter implements Closeable, Flushable {
      */
     public WaveformDataWriter(Path idPath, Path dataPath, Set<Station> stationSet, Set<GlobalCMTID> globalCMTIDSet,
                               double[][] periodRanges, Set<Location> perturbationPoints) throws IOException {
+        this(idPath, dataPath, stationSet, globalCMTIDSet, periodRanges, perturbationPoints, -1, -1);
+    }
+
+    /**
+     * Resumes writing a pair of files at a checkpoint. The files are truncated to the sizes at the checkpoint,
+     * and IDs are added after them. The header of the ID file must be the same as the one made from the input.
+     * <p>
+     * If idLength is negative, new files are created as other constructors.
+     *
+     * @param idPath             Path for ID file (must exist unless idLength is negative)
+     * @param dataPath           Path for data file (must exist unless idLength is negative)
+     * @param stationSet         must contain all information of the IDs to write
+     * @param globalCMTIDSet     must contain all information of the IDs to write
+     * @param periodRanges       must contain all information of the IDs to write
+     * @param perturbationPoints must contain all information of the IDs to write (null for BasicID)
+     * @param idLength           [byte] size of the ID file at the checkpoint ({@link #getIDLength()})
+     * @param dataLength         [byte] size of the data file at the checkpoint ({@link #getDataLength()})
+     * @throws IOException if an error occurs
+     */
+    public WaveformDataWriter(Path idPath, Path dataPath, Set<Station> stationSet, Set<GlobalCMTID> globalCMTIDSet,
+                              double[][] periodRanges, Set<Location> perturbationPoints, long idLength,
+                              long dataLength) throws IOException {
         IDPATH = idPath;
         DATAPATH = dataPath;
         if (checkDuplication(periodRanges)) throw new RuntimeException("Input periodRanges have duplication.");
         this.periodRanges = periodRanges;
-        idStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(idPath)));
-        dataStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataPath)));
-        dataLength = Files.size(dataPath);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream idStream = new DataOutputStream(header);
         idStream.writeShort(stationSet.size());
         idStream.writeShort(globalCMTIDSet.size());
         idStream.writeShort(periodRanges.length);
         if (perturbationPoints != null) idStream.writeShort(perturbationPoints.size());
-        makeStationMap(stationSet);
-        makeGlobalCMTIDMap(globalCMTIDSet);
+        makeStationMap(stationSet, idStream);
+        makeGlobalCMTIDMap(globalCMTIDSet, idStream);
         for (double[] periodRange : periodRanges) {
             idStream.writeFloat((float) periodRange[0]);
             idStream.writeFloat((float) periodRange[1]);
         }
-        if (perturbationPoints != null) makePerturbationMap(perturbationPoints);
+        if (perturbationPoints != null) makePerturbationMap(perturbationPoints, idStream);
         MODE = perturbationPoints == null ? 0 : 1;
+        if (idLength < 0) {
+            ID_CHANNEL = FileChannel.open(idPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            DATA_CHANNEL = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header.toByteArray());
+            while (headerBuffer.hasRemaining()) ID_CHANNEL.write(headerBuffer);
+            ID_LENGTH.set(header.size());
+        } else {
+            int idSize = MODE == 1 ? PARTIALID_SIZE : BASICID_SIZE;
+            if (idLength < header.size() || (idLength - header.size()) % idSize != 0 || dataLength < 0 ||
+                    Files.size(idPath) < idLength || Files.size(dataPath) < dataLength)
+                throw new RuntimeException("Invalid checkpoint " + idLength + " " + dataLength + " for " + idPath);
+            byte[] headerBytes = new byte[header.size()];
+            try (DataInputStream dis = new DataInputStream(Files.newInputStream(idPath))) {
+                dis.readFully(headerBytes);
+            }
+            if (!Arrays.equals(headerBytes, header.toByteArray()))
+                throw new RuntimeException("The header of " + idPath + " differs from the input.");
+            ID_CHANNEL = FileChannel.open(idPath, StandardOpenOption.WRITE);
+            DATA_CHANNEL = FileChannel.open(dataPath, StandardOpenOption.WRITE);
+            ID_CHANNEL.truncate(idLength);
+            DATA_CHANNEL.truncate(dataLength);
+            ID_LENGTH.set(idLength);
+            DATA_LENGTH.set(dataLength);
+        }
+        for (int i = 0; i < BUFFER_COUNT; i++)
+            BUFFERS.add(ByteBuffer.allocate(0));
+        WRITER = new Thread(this::writeBehind, "WaveformDataWriter " + idPath.getFileName());
+        WRITER.setDaemon(true);
+        WRITER.start();
+    }
+
+    /**
+     * Merges pairs of an ID file and a data file (e.g. shards) into a new pair.
+     * The header of the new pair is the union of the ones of the pairs.
+     *
+     * @param args [-b|-p] [output ID file] [output data file] [ID file] [data file] ([ID file] [data file] ...)
+     *             <br>-b for basic IDs, -p for partial IDs
+     * @throws IOException if an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5 || args.length % 2 == 0 || !(args[0].equals("-b") || args[0].equals("-p"))) {
+            System.err.println("usage:[-b|-p] [output ID file] [output data file] [ID file] [data file] ..." +
+                    "\n -b for basic IDs, -p for partial IDs");
+            return;
+        }
+        List<Path> idPaths = new ArrayList<>();
+        List<Path> dataPaths = new ArrayList<>();
+        for (int i = 3; i < args.length; i += 2) {
+            idPaths.add(Paths.get(args[i]));
+            dataPaths.add(Paths.get(args[i + 1]));
+        }
+        merge(Paths.get(args[1]), Paths.get(args[2]), idPaths, dataPaths, args[0].equals("-p"));
+    }
+
+    /**
+     * Merges pairs of an ID file and a data file into a new pair. The header of the new pair is the union of the
+     * headers of the pairs. IDs are in the order of the input pairs.
+     *
+     * @param idPath    Path for the new ID file (must not exist)
+     * @param dataPath  Path for the new data file (must not exist)
+     * @param idPaths   ID files to merge
+     * @param dataPaths data files to merge (in the same order as the ID files)
+     * @param partial   if the files are for {@link PartialID} (true) or {@link BasicID} (false)
+     * @throws IOException if an I/O error occurs
+     */
+    public static void merge(Path idPath, Path dataPath, List<Path> idPaths, List<Path> dataPaths, boolean partial)
+            throws IOException {
+        if (idPaths.size() != dataPaths.size())
+            throw new IllegalArgumentException("Numbers of ID files and data files differ.");
+        if (Files.exists(idPath) || Files.exists(dataPath))
+            throw new FileAlreadyExistsException(idPath + " or " + dataPath);
+        long t = System.nanoTime();
+        Set<Station> stationSet = new LinkedHashSet<>();
+        Set<GlobalCMTID> idSet = new LinkedHashSet<>();
+        List<double[]> periodRanges = new ArrayList<>();
+        Set<Location> perturbationPoints = new LinkedHashSet<>();
+        for (Path path : idPaths) {
+            Header header = Header.read(path, partial);
+            stationSet.addAll(Arrays.asList(header.STATIONS));
+            idSet.addAll(Arrays.asList(header.IDS));
+            for (double[] range : header.PERIOD_RANGES)
+                if (periodRanges.stream().noneMatch(r -> Arrays.equals(r, range))) periodRanges.add(range);
+            if (partial) perturbationPoints.addAll(Arrays.asList(header.POINTS));
+        }
+        try (WaveformDataWriter writer = new WaveformDataWriter(idPath, dataPath, stationSet, idSet,
+                periodRanges.toArray(new double[0][]), partial ? perturbationPoints : null)) {
+            for (int i = 0; i < idPaths.size(); i++)
+                writer.append(idPaths.get(i), dataPaths.get(i));
+        }
+        System.err.println(idPaths.size() + " pairs are merged into " + idPath + " " + dataPath + " in " +
+                Utilities.toTimeString(System.nanoTime() - t));
     }
 
     private static boolean checkDuplication(double[][] periodRanges) {
@@ -135,19 +309,131 @@ public class WaveformDataWriter implements Closeable, Flushable {
         return DATAPATH;
     }
 
+    /**
+     * Waits for all the records added so far to be written, then closes the files.
+     * If the write-behind thread has ended by an error, the files are closed and the error is thrown.
+     *
+     * @throws IOException if an I/O error occurs
+     */
     @Override
     public void close() throws IOException {
-        idStream.close();
-        dataStream.close();
+        if (!ID_CHANNEL.isOpen()) return;
+        try {
+            flush();
+        } finally {
+            QUEUE.add(new Record(null));
+            try {
+                WRITER.join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while closing " + IDPATH);
+            } finally {
+                BUFFERS.clear();
+                ID_CHANNEL.close();
+                DATA_CHANNEL.close();
+            }
+        }
+    }
+
+    /**
+     * After {@link #flush()} with no additions in progress, the ID file is written up to this size.
+     *
+     * @return [byte] size of the ID file including reserved parts
+     */
+    public long getIDLength() {
+        return ID_LENGTH.get();
+    }
+
+    /**
+     * After {@link #flush()} with no additions in progress, the data file is written up to this size.
+     *
+     * @return [byte] size of the data file including reserved parts
+     */
+    public long getDataLength() {
+        return DATA_LENGTH.get();
     }
 
+    /**
+     * Waits for all the records added so far to be written, and forces them to be written to the disk.
+     *
+     * @throws IOException if an I/O error occurs, or this is already closed
+     */
     @Override
     public void flush() throws IOException {
-        idStream.flush();
-        dataStream.flush();
+        checkFailure();
+        if (!WRITER.isAlive()) throw new IOException(IDPATH + " is already closed.");
+        CountDownLatch latch = new CountDownLatch(1);
+        QUEUE.add(new Record(latch));
+        try {
+            // the write-behind thread may end before it takes the latch
+            while (!latch.await(1, TimeUnit.SECONDS))
+                if (!WRITER.isAlive()) {
+                    checkFailure();
+                    throw new IOException(IDPATH + " is already closed.");
+                }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while flushing " + IDPATH);
+        }
+        checkFailure();
+        DATA_CHANNEL.force(false);
+        ID_CHANNEL.force(false);
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) throw new IOException("Writing " + IDPATH + " or " + DATAPATH + " failed.", failure);
+    }
+
+    /**
+     * Loop of the write-behind thread, which writes records in the queue until the end mark (a record without a
+     * buffer and a latch) comes. After an error, records are discarded (but buffers are returned).
+     * If the thread is interrupted, it fails and ends after the records in the queue are discarded.
+     */
+    private void writeBehind() {
+        while (true) {
+            Record record;
+            try {
+                record = QUEUE.take();
+            } catch (InterruptedException e) {
+                if (failure == null) failure = new InterruptedIOException("Interrupted while writing " + IDPATH);
+                discardQueue();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (record.BUFFER == null) {
+                if (record.LATCH == null) return;
+                record.LATCH.countDown();
+                continue;
+            }
+            ByteBuffer buffer = record.BUFFER;
+            try {
+                if (failure == null) {
+                    ((Buffer) buffer).limit(record.ID_START).position(0);
+                    write(DATA_CHANNEL, buffer, record.DATA_POSITION);
+                    ((Buffer) buffer).limit(record.ID_START + record.ID_SIZE).position(record.ID_START);
+                    write(ID_CHANNEL, buffer, record.ID_POSITION);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                release(buffer);
+            }
+        }
     }
 
-    private void makeGlobalCMTIDMap(Set<GlobalCMTID> globalCMTIDSet) throws IOException {
+    /**
+     * Discards all the records in the queue. Their buffers are returned, and their latches are counted down.
+     */
+    private void discardQueue() {
+        Record record;
+        while ((record = QUEUE.poll()) != null)
+            if (record.BUFFER != null) release(record.BUFFER);
+            else if (record.LATCH != null) record.LATCH.countDown();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+    }
+
+    private void makeGlobalCMTIDMap(Set<GlobalCMTID> globalCMTIDSet, DataOutputStream idStream) throws IOException {
         int i = 0;
         globalCMTIDMap = new HashMap<>();
         for (GlobalCMTID id : globalCMTIDSet) {
@@ -156,7 +442,7 @@ public class WaveformDataWriter implements Closeable, Flushable {
         }
     }
 
-    private void makePerturbationMap(Set<Location> perturbationMap) throws IOException {
+    private void makePerturbationMap(Set<Location> perturbationMap, DataOutputStream idStream) throws IOException {
         int i = 0;
         perturbationLocationMap = new HashMap<>();
         for (Location loc : perturbationMap) {
@@ -167,7 +453,7 @@ public class WaveformDataWriter implements Closeable, Flushable {
         }
     }
 
-    private void makeStationMap(Set<Station> stationSet) throws IOException {
+    private void makeStationMap(Set<Station> stationSet, DataOutputStream idStream) throws IOException {
         int i = 0;
         stationMap = new HashMap<>();
         for (Station station : stationSet) {
@@ -181,49 +467,205 @@ public class WaveformDataWriter implements Closeable, Flushable {
     }
 
     /**
-     * Writes a waveform
+     * Appends all the IDs and waveforms in a pair of files written by another writer (e.g. a shard).
+     * The waveforms are copied between the files without being decoded,
+     * and StartBytes and indices (of stations, events, period ranges and perturbation points) in the IDs are rewritten.
+     * <p>
+     * This writer must contain all the information in the header of the pair. As the header is written in float,
+     * positions of stations and perturbation points, and period ranges are compared after they are rounded to float.
+     * It can be called at the same time as other additions.
      *
-     * @param data waveform data
+     * @param idPath   ID file to append
+     * @param dataPath data file to append
+     * @throws IOException if an I/O error occurs
      */
-    private void addWaveform(double[] data) throws IOException {
-        for (double aData : data) dataStream.writeDouble(aData);
-        dataLength += 8 * data.length;
+    public void append(Path idPath, Path dataPath) throws IOException {
+        checkFailure();
+        if (!WRITER.isAlive()) throw new IOException(IDPATH + " is already closed.");
+        boolean partial = MODE == 1;
+        int idSize = partial ? PARTIALID_SIZE : BASICID_SIZE;
+        Header header = Header.read(idPath, partial);
+        long idBytes = Files.size(idPath) - header.SIZE;
+        if (idBytes % idSize != 0) throw new RuntimeException(idPath + " is invalid..");
+        Map<Station, Integer> stations = toHeaderPrecision(stationMap, station -> new Station(station.getName(),
+                new HorizontalPosition((float) station.getPosition().getLatitude(),
+                        (float) station.getPosition().getLongitude()), station.getNetwork()));
+        int[] stationIndices = Arrays.stream(header.STATIONS).mapToInt(station -> indexOf(stations, station))
+                .toArray();
+        int[] idIndices = Arrays.stream(header.IDS).mapToInt(id -> indexOf(globalCMTIDMap, id)).toArray();
+        int[] rangeIndices =
+                Arrays.stream(header.PERIOD_RANGES).mapToInt(range -> getIndexOfHeaderRange(range[0], range[1]))
+                        .toArray();
+        int[] pointIndices = null;
+        if (partial) {
+            Map<Location, Integer> points = toHeaderPrecision(perturbationLocationMap,
+                    point -> new Location((float) point.getLatitude(), (float) point.getLongitude(),
+                            (float) point.getR()));
+            pointIndices = Arrays.stream(header.POINTS).mapToInt(point -> indexOf(points, point)).toArray();
+        }
+        // offsets of the indices and StartByte in an ID
+        int stationOffset = partial ? 0 : 1;
+        int rangeOffset = stationOffset + 5;
+        int startByteOffset = stationOffset + 19;
+        try (FileChannel dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ);
+             FileChannel idChannel = FileChannel.open(idPath, StandardOpenOption.READ)) {
+            long dataSize = dataChannel.size();
+            long dataStart = DATA_LENGTH.getAndAdd(dataSize);
+            // transferFrom can not write beyond the end of the file, which may be reserved but not written yet
+            ByteBuffer dataBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+            for (long done = 0; done < dataSize; ) {
+                ((Buffer) dataBuffer).clear();
+                if (dataChannel.read(dataBuffer) < 0) throw new EOFException(dataPath + " is shorter than expected.");
+                ((Buffer) dataBuffer).flip();
+                int length = dataBuffer.limit();
+                write(DATA_CHANNEL, dataBuffer, dataStart + done);
+                done += length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(idSize * 4096);
+            idChannel.position(header.SIZE);
+            for (long done = 0; done < idBytes; ) {
+                ((Buffer) buffer).clear();
+                ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), idBytes - done));
+                while (buffer.hasRemaining())
+                    if (idChannel.read(buffer) < 0) throw new EOFException(idPath + " is shorter than expected.");
+                for (int i = 0; i < buffer.limit(); i += idSize) {
+                    buffer.putShort(i + stationOffset, (short) stationIndices[buffer.getShort(i + stationOffset)]);
+                    buffer.putShort(i + stationOffset + 2, (short) idIndices[buffer.getShort(i + stationOffset + 2)]);
+                    buffer.put(i + rangeOffset, (byte) rangeIndices[buffer.get(i + rangeOffset)]);
+                    long startByte = buffer.getLong(i + startByteOffset);
+                    if (dataSize < startByte) throw new RuntimeException(dataPath + " is invalid for " + idPath);
+                    buffer.putLong(i + startByteOffset, startByte + dataStart);
+                    if (partial) buffer.putShort(i + 28, (short) pointIndices[buffer.getShort(i + 28)]);
+                }
+                ((Buffer) buffer).flip();
+                write(ID_CHANNEL, buffer, ID_LENGTH.getAndAdd(buffer.limit()));
+                done += buffer.limit();
+            }
+        }
+    }
+
+    /**
+     * @param map   index map of this
+     * @param round rounds a key to the precision of the header
+     * @param <T>   type of keys
+     * @return index map whose keys are rounded
+     */
+    private static <T> Map<T, Integer> toHeaderPrecision(Map<T, Integer> map, UnaryOperator<T> round) {
+        Map<T, Integer> rounded = new HashMap<>();
+        map.forEach((key, index) -> {
+            if (rounded.put(round.apply(key), index) != null)
+                throw new RuntimeException(key + " can not be distinguished from others in the header.");
+        });
+        return rounded;
+    }
+
+    private static <T> int indexOf(Map<T, Integer> map, T key) {
+        Integer index = map.get(key);
+        if (index == null) throw new RuntimeException(key + " is not in the header of the writer.");
+        return index;
+    }
+
+    /**
+     * Takes a free buffer from the pool (waits if there is none), which can contain the waveform and the ID.
+     * The buffer must be passed to {@link #submit(ByteBuffer, int, int)}, or {@link #release(ByteBuffer) released}
+     * if the ID can not be put.
+     *
+     * @param data   waveform data
+     * @param idSize [byte] size of the ID
+     * @return buffer in which the waveform is put
+     */
+    private ByteBuffer bufferFor(double[] data, int idSize) throws IOException {
+        checkFailure();
+        if (!WRITER.isAlive()) throw new IOException(IDPATH + " is already closed.");
+        ByteBuffer buffer;
+        try {
+            buffer = BUFFERS.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a buffer.");
+        }
+        try {
+            int size = 8 * data.length + idSize;
+            if (buffer.capacity() < size) buffer = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+            buffer.asDoubleBuffer().put(data);
+            ((Buffer) buffer).position(8 * data.length);
+            return buffer;
+        } catch (RuntimeException | Error e) {
+            release(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer taken by {@link #bufferFor(double[], int)}
+     */
+    private void release(ByteBuffer buffer) {
+        ((Buffer) buffer).clear();
+        BUFFERS.add(buffer);
+    }
+
+    /**
+     * Reserves places for the waveform and the ID in the buffer, and passes it to the write-behind thread.
+     *
+     * @param buffer in which the waveform and the ID (with StartByte at startBytePosition) are put
+     * @param npts   number of points of the waveform
+     * @param startBytePosition index of StartByte in the buffer
+     */
+    private void submit(ByteBuffer buffer, int npts, int startBytePosition) {
+        int idStart = 8 * npts;
+        int idSize = buffer.position() - idStart;
+        long startByte = DATA_LENGTH.getAndAdd(8L * npts);
+        buffer.putLong(startBytePosition, startByte);
+        QUEUE.add(new Record(buffer, idStart, idSize, startByte, ID_LENGTH.getAndAdd(idSize)));
     }
 
     /**
      * @param basicID StartByte will be ignored and set properly in the write file.
      * @throws IOException if an I/O error occurs
      */
-    public synchronized void addBasicID(BasicID basicID) throws IOException {
+    public void addBasicID(BasicID basicID) throws IOException {
         if (MODE != 0) throw new RuntimeException("No BasicID please, would you.");
 
+        boolean isObs;
         switch (basicID.TYPE) {
             case OBS:
-                idStream.writeBoolean(true); // if it is obs 1Byte
+                isObs = true;
                 break;
             case SYN:
-                idStream.writeBoolean(false); // if it is obs
+                isObs = false;
                 break;
             default:
                 throw new RuntimeException("This is a partial derivative.");
         }
-        long startByte = dataLength;
-        addWaveform(basicID.getData());
-        idStream.writeShort(stationMap.get(basicID.STATION));
-        idStream.writeShort(globalCMTIDMap.get(basicID.ID));
-        idStream.writeByte(basicID.COMPONENT.valueOf());
-        idStream.writeByte(getIndexOfRange(basicID.MIN_PERIOD, basicID.MAX_PERIOD));
+        int station = stationMap.get(basicID.STATION);
+        int id = globalCMTIDMap.get(basicID.ID);
+        int range = getIndexOfRange(basicID.MIN_PERIOD, basicID.MAX_PERIOD);
+        double[] data = basicID.getData();
 
-        // 4Byte * 3
-        idStream.writeFloat((float) basicID.getStartTime()); // start time
-        idStream.writeInt(basicID.getNpts()); // number of points
-        idStream.writeFloat((float) basicID.getSamplingHz()); // sampling Hz
+        ByteBuffer buffer = bufferFor(data, BASICID_SIZE);
+        boolean submitted = false;
+        try {
+            buffer.put((byte) (isObs ? 1 : 0)); // if it is obs 1Byte
+            buffer.putShort((short) station);
+            buffer.putShort((short) id);
+            buffer.put((byte) basicID.COMPONENT.valueOf());
+            buffer.put((byte) range);
 
+            // 4Byte * 3
+            buffer.putFloat((float) basicID.getStartTime()); // start time
+            buffer.putInt(basicID.getNpts()); // number of points
+            buffer.putFloat((float) basicID.getSamplingHz()); // sampling Hz
 
-        // if its convolute  true for obs
-        idStream.writeBoolean(basicID.getWaveformType() == WaveformType.OBS || basicID.CONVOLUTE); // 1Byte
-        idStream.writeLong(startByte); // data address 8 Byte
-
+            // if its convolute  true for obs
+            buffer.put((byte) (basicID.getWaveformType() == WaveformType.OBS || basicID.CONVOLUTE ? 1 : 0)); // 1Byte
+            int startBytePosition = buffer.position();
+            buffer.putLong(0); // data address 8 Byte (set in submit)
+            submit(buffer, data.length, startBytePosition);
+            submitted = true;
+        } finally {
+            if (!submitted) release(buffer);
+        }
     }
 
     private int getIndexOfRange(double min, double max) {
@@ -233,29 +675,155 @@ public class WaveformDataWriter implements Closeable, Flushable {
         throw new RuntimeException("A range is N/A");
     }
 
+    /**
+     * @param min minimum period in a header (float)
+     * @param max maximum period in a header (float)
+     * @return index of the range which is the same as the input in float
+     */
+    private int getIndexOfHeaderRange(double min, double max) {
+        for (int i = 0; i < periodRanges.length; i++)
+            if ((float) periodRanges[i][0] == (float) min && (float) periodRanges[i][1] == (float) max) return i;
+        throw new RuntimeException("A range [" + min + ", " + max + "] is N/A");
+    }
+
     /**
      * @param partialID {@link PartialID} must contain waveform data. StartByte will
      *                  be ignored and set properly in the write file.
      * @throws IOException if an I/O error occurs
      */
-    public synchronized void addPartialID(PartialID partialID) throws IOException {
+    public void addPartialID(PartialID partialID) throws IOException {
         if (partialID.TYPE != WaveformType.PARTIAL) throw new RuntimeException(
                 "This is not a partial derivative. " + Thread.currentThread().getStackTrace()[1].getMethodName());
         if (MODE != 1) throw new RuntimeException("No Partial please, would you.");
-        long startByte = dataLength;
-        addWaveform(partialID.getData());
-        idStream.writeShort(stationMap.get(partialID.STATION));
-        idStream.writeShort(globalCMTIDMap.get(partialID.ID));
-        idStream.writeByte(partialID.COMPONENT.valueOf());
-        idStream.writeByte(getIndexOfRange(partialID.MIN_PERIOD, partialID.MAX_PERIOD));
-        idStream.writeFloat((float) partialID.START_TIME); // start time 4 Byte
-        idStream.writeInt(partialID.NPTS); // npts 4 Byte
-        idStream.writeFloat((float) partialID.SAMPLINGHZ); // sampling Hz 4 Byte
-        // if its convolute
-        idStream.writeBoolean(partialID.CONVOLUTE); // 1Byte
-        idStream.writeLong(startByte); // data address 8 Byte
-        // partial type 1 Byte
-        idStream.writeByte(partialID.getPartialType().getValue());
-        idStream.writeShort(perturbationLocationMap.get(partialID.POINT_LOCATION));
+        int station = stationMap.get(partialID.STATION);
+        int id = globalCMTIDMap.get(partialID.ID);
+        int range = getIndexOfRange(partialID.MIN_PERIOD, partialID.MAX_PERIOD);
+        int point = perturbationLocationMap.get(partialID.POINT_LOCATION);
+        double[] data = partialID.getData();
+
+        ByteBuffer buffer = bufferFor(data, PARTIALID_SIZE);
+        boolean submitted = false;
+        try {
+            buffer.putShort((short) station);
+            buffer.putShort((short) id);
+            buffer.put((byte) partialID.COMPONENT.valueOf());
+            buffer.put((byte) range);
+            buffer.putFloat((float) partialID.START_TIME); // start time 4 Byte
+            buffer.putInt(partialID.NPTS); // npts 4 Byte
+            buffer.putFloat((float) partialID.SAMPLINGHZ); // sampling Hz 4 Byte
+            // if its convolute
+            buffer.put((byte) (partialID.CONVOLUTE ? 1 : 0)); // 1Byte
+            int startBytePosition = buffer.position();
+            buffer.putLong(0); // data address 8 Byte (set in submit)
+            // partial type 1 Byte
+            buffer.put((byte) partialID.getPartialType().getValue());
+            buffer.putShort((short) point);
+            submit(buffer, data.length, startBytePosition);
+            submitted = true;
+        } finally {
+            if (!submitted) release(buffer);
+        }
+    }
+
+    /**
+     * Header of an ID file
+     */
+    private static class Header {
+        private final Station[] STATIONS;
+        private final GlobalCMTID[] IDS;
+        private final double[][] PERIOD_RANGES;
+        /**
+         * null for {@link BasicID}
+         */
+        private final Location[] POINTS;
+        /**
+         * [byte]
+         */
+        private final int SIZE;
+
+        private Header(Station[] stations, GlobalCMTID[] ids, double[][] periodRanges, Location[] points, int size) {
+            STATIONS = stations;
+            IDS = ids;
+            PERIOD_RANGES = periodRanges;
+            POINTS = points;
+            SIZE = size;
+        }
+
+        /**
+         * @param idPath  ID file
+         * @param partial if the file is for {@link PartialID} (true) or {@link BasicID} (false)
+         * @return header of the file
+         * @throws IOException if an I/O error occurs
+         */
+        private static Header read(Path idPath, boolean partial) throws IOException {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(idPath)))) {
+                Station[] stations = new Station[dis.readShort()];
+                GlobalCMTID[] ids = new GlobalCMTID[dis.readShort()];
+                double[][] periodRanges = new double[dis.readShort()][2];
+                Location[] points = partial ? new Location[dis.readShort()] : null;
+                // name(8),network(8),position(4*2)
+                byte[] stationBytes = new byte[24];
+                for (int i = 0; i < stations.length; i++) {
+                    dis.readFully(stationBytes);
+                    stations[i] = Station.createStation(stationBytes);
+                }
+                byte[] cmtIDBytes = new byte[15];
+                for (int i = 0; i < ids.length; i++) {
+                    dis.readFully(cmtIDBytes);
+                    ids[i] = new GlobalCMTID(new String(cmtIDBytes).trim());
+                }
+                for (double[] periodRange : periodRanges) {
+                    periodRange[0] = dis.readFloat();
+                    periodRange[1] = dis.readFloat();
+                }
+                if (partial) for (int i = 0; i < points.length; i++)
+                    points[i] = new Location(dis.readFloat(), dis.readFloat(), dis.readFloat());
+                int size = 2 * 3 + 24 * stations.length + 15 * ids.length + 4 * 2 * periodRanges.length +
+                        (partial ? 2 + 4 * 3 * points.length : 0);
+                return new Header(stations, ids, periodRanges, points, size);
+            }
+        }
+    }
+
+    /**
+     * A waveform and its ID to be written, or a mark in the queue (without a buffer)
+     */
+    private static class Record {
+        /**
+         * waveform in [0, ID_START) and ID in [ID_START, ID_START + ID_SIZE)
+         */
+        private final ByteBuffer BUFFER;
+        private final int ID_START;
+        private final int ID_SIZE;
+        /**
+         * [byte] reserved position in the data file
+         */
+        private final long DATA_POSITION;
+        /**
+         * [byte] reserved position in the id file
+         */
+        private final long ID_POSITION;
+        /**
+         * counted down when the mark is reached (null for the end mark)
+         */
+        private final CountDownLatch LATCH;
+
+        private Record(ByteBuffer buffer, int idStart, int idSize, long dataPosition, long idPosition) {
+            BUFFER = buffer;
+            ID_START = idStart;
+            ID_SIZE = idSize;
+            DATA_POSITION = dataPosition;
+            ID_POSITION = idPosition;
+            LATCH = null;
+        }
+
+        private Record(CountDownLatch latch) {
+            BUFFER = null;
+            ID_START = 0;
+            ID_SIZE = 0;
+            DATA_POSITION = 0;
+            ID_POSITION = 0;
+            LATCH = latch;
+        }
     }
 }
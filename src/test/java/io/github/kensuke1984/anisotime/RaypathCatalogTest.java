@@ -4,15 +4,20 @@ import edu.sc.seis.TauP.TauModelException;
 import edu.sc.seis.TauP.TauPException;
 import io.github.kensuke1984.kibrary.external.TauPPhase;
 import io.github.kensuke1984.kibrary.external.TauP_Time;
+import org.apache.commons.math3.linear.RealVector;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * @author Kensuke Konishi
- * @version 0.0.3
+ * @version 0.0.5
  */
 class RaypathCatalogTest {
     private static void readCheck() {
@@ -152,10 +157,210 @@ class RaypathCatalogTest {
     }
 
 
-    public static void main(String[] args) throws TauPException, IOException, TauModelException {
+    /**
+     * A catalog written in the binary format and read again must have the same values of raypaths.
+     *
+     * @param catalog to write
+     */
+    private static void checkBinaryRoundTrip(RaypathCatalog catalog) throws IOException, ClassNotFoundException {
+        Path path = Files.createTempFile("raypath", ".bcat");
+        try {
+            catalog.write(path);
+            RaypathCatalog read = RaypathCatalog.read(path);
+            if (!read.getStructure().equals(catalog.getStructure()))
+                throw new RuntimeException("Structures differ after the round trip.");
+            Raypath[] raypaths = catalog.getRaypaths();
+            Raypath[] readRaypaths = read.getRaypaths();
+            if (raypaths.length != readRaypaths.length)
+                throw new RuntimeException("Numbers of raypaths differ after the round trip.");
+            for (int i = 0; i < raypaths.length; i++) {
+                if (raypaths[i].getRayParameter() != readRaypaths[i].getRayParameter())
+                    throw new RuntimeException("Ray parameters differ at " + i);
+                for (PhasePart pp : PhasePart.values()) {
+                    for (int k = 0; k < 8; k++)
+                        if (Double.doubleToLongBits(raypaths[i].getCatalogValue(k, pp)) !=
+                                Double.doubleToLongBits(readRaypaths[i].getCatalogValue(k, pp)))
+                            throw new RuntimeException("Values " + k + " of " + pp + " differ at " + i);
+                    if (!Arrays.equals(raypaths[i].getDTheta(pp), readRaypaths[i].getDTheta(pp)))
+                        throw new RuntimeException("dTheta of " + pp + " differ at " + i);
+                }
+            }
+            for (Phase phase : new Phase[]{Phase.P, Phase.PcP, Phase.PKIKP, Phase.S, Phase.ScS, Phase.SKS})
+                for (double delta = 5; delta < 180; delta += 25) {
+                    Raypath[] found = catalog.searchPath(phase, 6271, Math.toRadians(delta), false);
+                    Raypath[] readFound = read.searchPath(phase, 6271, Math.toRadians(delta), false);
+                    if (found.length != readFound.length) throw new RuntimeException(
+                            "Numbers of raypaths for " + phase + " at " + delta + " differ after the round trip.");
+                    for (int i = 0; i < found.length; i++)
+                        if (Double.compare(found[i].computeT(phase, 6271), readFound[i].computeT(phase, 6271)) != 0)
+                            throw new RuntimeException(
+                                    "T of " + phase + " at " + delta + " differ after the round trip.");
+                }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Arrivals by {@link RaypathCatalog#computeArrivals(Phase, double[], double[])}, which looks them up in
+     * {@link TravelTimeTable}s, must be the ones of {@link Raypath}s of their ray parameters.
+     * Raypaths by {@link RaypathCatalog#searchPath(Phase, double, double, boolean)} reaching the distance must be in
+     * the arrivals (the tables may find more arrivals close to edges of branches).
+     *
+     * @param catalog to search
+     */
+    private static void checkTravelTimeTable(RaypathCatalog catalog) {
+        double[] eventRs = {6371, 6200, 5900};
+        Phase[] phases = {Phase.P, Phase.PcP, Phase.PKIKP, Phase.S, Phase.ScS, Phase.SKS, Phase.sS};
+        int nDelta = 90;
+        for (Phase phase : phases) {
+            double[] eventR = new double[eventRs.length * nDelta];
+            double[] delta = new double[eventR.length];
+            for (int i = 0; i < eventR.length; i++) {
+                eventR[i] = eventRs[i / nDelta];
+                delta[i] = Math.toRadians(0.5 + 2 * (i % nDelta));
+            }
+            Arrivals[] arrivals = catalog.computeArrivals(phase, eventR, delta);
+            for (int i = 0; i < eventR.length; i++) {
+                String pair = phase + " " + eventR[i] + " " + Math.toDegrees(delta[i]) + " " + arrivals[i];
+                for (int k = 0; k < arrivals[i].getMultiplicity(); k++) {
+                    Raypath raypath = new Raypath(arrivals[i].getRayParameter(k), catalog.getStructure());
+                    double t = travelTime(raypath, phase, eventR[i], delta[i], catalog.getStructure());
+                    if (!(Math.abs(t - arrivals[i].getTravelTime(k)) < 0.01))
+                        throw new RuntimeException("Travel times differ from a raypath: " + pair + " " + t);
+                }
+                Raypath[] raypaths;
+                try {
+                    raypaths = catalog.searchPath(phase, eventR[i], delta[i], false);
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                for (Raypath raypath : raypaths) {
+                    Phase actual = actualPhase(raypath, phase, eventR[i], delta[i], catalog.getStructure());
+                    if (!(Math.abs(raypath.computeDelta(actual, eventR[i]) - delta[i]) < Math.toRadians(0.1)))
+                        continue;
+                    double p = raypath.getRayParameter();
+                    double t = travelTime(raypath, phase, eventR[i], delta[i], catalog.getStructure());
+                    if (Arrays.stream(arrivals[i].getRayParameters()).noneMatch(q -> Math.abs(p - q) < 1) ||
+                            Arrays.stream(arrivals[i].getTravelTimes()).noneMatch(u -> Math.abs(t - u) < 0.01))
+                        throw new RuntimeException("A raypath by searchPath is not found: " + pair + " " + p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Raypaths by {@link RaypathCatalog#searchPathInTable(Phase, double, double)} must be the ones by
+     * {@link RaypathCatalog#searchPathInCatalogs(Phase, double, double, boolean)} reaching the distance, for sources
+     * on and off the mesh. Where the latter finds no raypaths reaching the distance, the former must not decide.
+     *
+     * @param catalog to search
+     */
+    private static void checkSearchPathInTable(RaypathCatalog catalog) {
+        RealVector mantleMesh = catalog.getMesh().getMesh(Partition.MANTLE);
+        int top = mantleMesh.getDimension() - 1;
+        int middle = top / 2;
+        // 4 radii on the mesh and 2 off the mesh
+        double[] eventRs = {mantleMesh.getEntry(top), mantleMesh.getEntry(top - 3), mantleMesh.getEntry(middle),
+                mantleMesh.getEntry(1), (mantleMesh.getEntry(top - 1) + 2 * mantleMesh.getEntry(top - 2)) / 3,
+                (mantleMesh.getEntry(middle) + mantleMesh.getEntry(middle + 1)) / 2};
+        Phase[] phases = {Phase.P, Phase.PcP, Phase.PKiKP, Phase.PKIKP, Phase.S, Phase.ScS, Phase.SKS, Phase.pP,
+                Phase.sS};
+        VelocityStructure structure = catalog.getStructure();
+        int nTable = 0;
+        int nEmpty = 0;
+        for (Phase phase : phases)
+            for (double eventR : eventRs) {
+                // searchPath has no depth phases for a source on the surface
+                if (phase.toString().matches("[ps].*") && eventR == mantleMesh.getEntry(top)) continue;
+                for (int i = 0; i < 79; i++) {
+                    double delta = Math.toRadians(1 + 2.25 * i);
+                    String query = phase + " " + eventR + " " + Math.toDegrees(delta);
+                    Raypath[] inCatalogs;
+                    try {
+                        inCatalogs = catalog.searchPathInCatalogs(phase, eventR, delta, false);
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    Raypath[] reaching = Arrays.stream(inCatalogs).filter(raypath -> Math.abs(
+                            raypath.computeDelta(actualPhase(raypath, phase, eventR, delta, structure), eventR) -
+                                    delta) < Math.toRadians(0.1)).sorted().toArray(Raypath[]::new);
+                    if (reaching.length == 0) nEmpty++;
+                    Raypath[] inTable = catalog.searchPathInTable(phase, eventR, delta);
+                    if (inTable == null) {
+                        // searchPath falls back to the scan
+                        if (catalog.searchPath(phase, eventR, delta, false).length != inCatalogs.length)
+                            throw new RuntimeException("searchPath does not fall back to the scan: " + query);
+                        continue;
+                    }
+                    // a table without arrivals can not tell if the phase exists beyond an edge
+                    if (inTable.length == 0) throw new RuntimeException("An empty look-up is trusted: " + query);
+                    nTable++;
+                    if (inTable.length != reaching.length) throw new RuntimeException(
+                            "Numbers of raypaths differ: " + query + " " + inTable.length + " " + reaching.length);
+                    Arrays.sort(inTable);
+                    // ray parameters within the tolerance of Delta can differ where Delta changes slowly with them
+                    for (int k = 0; k < inTable.length; k++) {
+                        Raypath raypath = inTable[k];
+                        double error = raypath.computeDelta(actualPhase(raypath, phase, eventR, delta, structure),
+                                eventR) - delta;
+                        double t = travelTime(raypath, phase, eventR, delta, structure);
+                        double u = travelTime(reaching[k], phase, eventR, delta, structure);
+                        if (!(Math.abs(error) < Math.toRadians(0.01) && Math.abs(t - u) < 0.01))
+                            throw new RuntimeException("Raypaths differ: " + query + " p " + raypath.getRayParameter() +
+                                    " " + reaching[k].getRayParameter() + " T " + t + " " + u);
+                    }
+                }
+            }
+        if (nTable == 0 || nEmpty == 0) throw new RuntimeException(
+                "Queries are not covered. " + nTable + " by tables, " + nEmpty + " without raypaths.");
+    }
+
+    /**
+     * @param raypath   for the phase
+     * @param phase     target phase
+     * @param eventR    [km] radius of the source
+     * @param delta     [rad] epicentral distance
+     * @param structure of the catalog
+     * @return the phase or the one of its possibilities whose epicentral distance is closest to the delta
+     */
+    private static Phase actualPhase(Raypath raypath, Phase phase, double eventR, double delta,
+                                     VelocityStructure structure) {
+        if (Math.abs(raypath.computeDelta(phase, eventR) - delta) < Math.toRadians(0.1)) return phase;
+        return Arrays.stream(phase.toAllPossibilities(structure))
+                .filter(p -> !Double.isNaN(raypath.computeT(p, eventR)))
+                .min(Comparator.comparingDouble(p -> Math.abs(raypath.computeDelta(p, eventR) - delta)))
+                .orElse(phase);
+    }
+
+    /**
+     * @param raypath   for the phase
+     * @param phase     target phase
+     * @param eventR    [km] radius of the source
+     * @param delta     [rad] epicentral distance
+     * @param structure of the catalog
+     * @return [s] travel time of the raypath corrected to the delta by dT/d&Delta; = p
+     */
+    private static double travelTime(Raypath raypath, Phase phase, double eventR, double delta,
+                                     VelocityStructure structure) {
+        Phase actual = actualPhase(raypath, phase, eventR, delta, structure);
+        return raypath.computeT(actual, eventR) +
+                raypath.getRayParameter() * (delta - raypath.computeDelta(actual, eventR));
+    }
+
+    /**
+     * @param args [catalog file] (the default catalog for PREM if none) for the checks of the binary format and the
+     *             tables. Without the file, the phases are also checked with TauP.
+     */
+    public static void main(String[] args) throws TauPException, IOException, TauModelException,
+            ClassNotFoundException {
 //        debugPKJKP();
 //        readCheck();
-        checkPhases();
+        RaypathCatalog catalog = args.length == 0 ? RaypathCatalog.prem() : RaypathCatalog.read(Paths.get(args[0]));
+        checkBinaryRoundTrip(catalog);
+        checkTravelTimeTable(catalog);
+        checkSearchPathInTable(catalog);
+        if (args.length == 0) checkPhases();
     }
 
     //TODO K J I
@@ -0,0 +1,147 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import io.github.kensuke1984.kibrary.util.HorizontalPosition;
+import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.sac.SACComponent;
+import io.github.kensuke1984.kibrary.util.sac.WaveformType;
+import io.github.kensuke1984.kibrary.util.spc.PartialType;
+import io.github.kensuke1984.kibrary.waveformdata.BasicID;
+import io.github.kensuke1984.kibrary.waveformdata.PartialID;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks of {@link NormalEquation} against {@link ObservationEquation}s of synthetic datasets
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class NormalEquationTest {
+
+    private static final Station[] STATIONS = {new Station("ST0", new HorizontalPosition(10, 20), "NW"),
+            new Station("ST1", new HorizontalPosition(-35, 140), "NW"),
+            new Station("ST2", new HorizontalPosition(60, -120), "XX")};
+    private static final GlobalCMTID[] EVENTS = {new GlobalCMTID("201001010000A"), new GlobalCMTID("201102031234B")};
+    private static final List<UnknownParameter> PARAMETERS = new ArrayList<>();
+
+    static {
+        PARAMETERS.add(new Physical3DParameter(PartialType.MU, new Location(0, 0, 3505), 1));
+        PARAMETERS.add(new Physical3DParameter(PartialType.MU, new Location(10, 20, 3605), 2));
+        PARAMETERS.add(new Physical3DParameter(PartialType.MU, new Location(-5, 45, 3705), 0.5));
+    }
+
+    /**
+     * relative tolerance of AtA and Atd
+     */
+    private static final double TOLERANCE = 1e-13;
+
+    private NormalEquationTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        DataSet event0 = createDataSet(EVENTS[0], random);
+        DataSet event1 = createDataSet(EVENTS[1], random);
+        DataSet both = new DataSet(concat(event0.BASIC_IDS, event1.BASIC_IDS),
+                concat(event0.PARTIAL_IDS, event1.PARTIAL_IDS));
+        checkAdd(event0, event1, both);
+        checkSubtract(event0, event1, both);
+        checkWeighting(event0, event1);
+        System.err.println("NormalEquationTest passed.");
+    }
+
+    /**
+     * Adding the events one by one must give the normal equation of the both.
+     */
+    private static void checkAdd(DataSet event0, DataSet event1, DataSet both) {
+        NormalEquation equation = new NormalEquation(PARAMETERS);
+        equation.add(event0.BASIC_IDS, event0.PARTIAL_IDS, 1);
+        equation.add(event1.BASIC_IDS, event1.PARTIAL_IDS, 1);
+        ObservationEquation full = both.toObservationEquation();
+        compare(equation, full.getAtA(), full.getAtD(), "Sum of the events");
+        compare(new NormalEquation(full), full.getAtA(), full.getAtD(), "Equation from an ObservationEquation");
+    }
+
+    /**
+     * Subtracting an event from the both must give the normal equation of the other.
+     */
+    private static void checkSubtract(DataSet event0, DataSet event1, DataSet both) {
+        NormalEquation equation = new NormalEquation(both.toObservationEquation());
+        equation.subtract(event1.BASIC_IDS, event1.PARTIAL_IDS, 1);
+        ObservationEquation expected = event0.toObservationEquation();
+        compare(equation, expected.getAtA(), expected.getAtD(), "Both minus an event");
+    }
+
+    /**
+     * A weighting w scales the contribution of a set by w<sup>2</sup>, in adding, subtracting and reweighting.
+     */
+    private static void checkWeighting(DataSet event0, DataSet event1) {
+        ObservationEquation equation0 = event0.toObservationEquation();
+        ObservationEquation equation1 = event1.toObservationEquation();
+        NormalEquation equation = new NormalEquation(PARAMETERS);
+        equation.add(event0.BASIC_IDS, event0.PARTIAL_IDS, 1);
+        equation.add(event1.BASIC_IDS, event1.PARTIAL_IDS, 3);
+        compare(equation, equation0.getAtA().add(equation1.getAtA().scalarMultiply(9)),
+                equation0.getAtD().add(equation1.getAtD().mapMultiply(9)), "Weighting 3");
+        equation.reweight(event1.BASIC_IDS, event1.PARTIAL_IDS, 3, 0.5);
+        compare(equation, equation0.getAtA().add(equation1.getAtA().scalarMultiply(0.25)),
+                equation0.getAtD().add(equation1.getAtD().mapMultiply(0.25)), "Reweighting from 3 to 0.5");
+        equation.subtract(event1.BASIC_IDS, event1.PARTIAL_IDS, 0.5);
+        compare(equation, equation0.getAtA(), equation0.getAtD(), "Subtraction with weighting 0.5");
+    }
+
+    private static void compare(NormalEquation equation, RealMatrix ata, RealVector atd, String name) {
+        double ataError = equation.getAtA().subtract(ata).getFrobeniusNorm() / ata.getFrobeniusNorm();
+        double atdError = equation.getAtD().subtract(atd).getNorm() / atd.getNorm();
+        if (!(ataError < TOLERANCE && atdError < TOLERANCE))
+            throw new RuntimeException(name + ": AtA and Atd differ by " + ataError + " and " + atdError);
+    }
+
+    /**
+     * An observed and a synthetic waveform for each station, and partials of them for all the parameters.
+     */
+    private static DataSet createDataSet(GlobalCMTID event, Random random) {
+        List<BasicID> basicIDs = new ArrayList<>();
+        List<PartialID> partialIDs = new ArrayList<>();
+        for (Station station : STATIONS) {
+            int npts = 20 + random.nextInt(40);
+            double startTime = 100 + random.nextInt(1000);
+            basicIDs.add(new BasicID(WaveformType.OBS, 1, startTime, npts, station, event, SACComponent.T, 20, 100, 0,
+                    true, random.doubles(npts, -1, 1).toArray()));
+            basicIDs.add(new BasicID(WaveformType.SYN, 1, startTime, npts, station, event, SACComponent.T, 20, 100, 0,
+                    true, random.doubles(npts, -1, 1).toArray()));
+            for (UnknownParameter parameter : PARAMETERS)
+                partialIDs.add(new PartialID(station, event, SACComponent.T, 1, startTime, npts, 20, 100, 0, true,
+                        ((Physical3DParameter) parameter).getPointLocation(), parameter.getPartialType(),
+                        random.doubles(npts, -1, 1).toArray()));
+        }
+        return new DataSet(basicIDs.toArray(new BasicID[0]), partialIDs.toArray(new PartialID[0]));
+    }
+
+    private static <T> T[] concat(T[] a, T[] b) {
+        T[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static class DataSet {
+        private final BasicID[] BASIC_IDS;
+        private final PartialID[] PARTIAL_IDS;
+
+        private DataSet(BasicID[] basicIDs, PartialID[] partialIDs) {
+            BASIC_IDS = basicIDs;
+            PARTIAL_IDS = partialIDs;
+        }
+
+        private ObservationEquation toObservationEquation() {
+            return new ObservationEquation(PARTIAL_IDS, PARAMETERS, new Dvector(BASIC_IDS));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.kensuke1984.kibrary.waveformdata;
+
+import io.github.kensuke1984.kibrary.util.HorizontalPosition;
+import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.ProgressJournal;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.sac.SACComponent;
+import io.github.kensuke1984.kibrary.util.spc.PartialType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Checks of {@link UnitWriter}
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class UnitWriterTest {
+
+    private static final Station STATION = new Station("ST0", new HorizontalPosition(10.1, 20.2), "NW");
+    private static final Station UNKNOWN_STATION = new Station("ST9", new HorizontalPosition(-10, 30), "NW");
+    private static final GlobalCMTID EVENT = new GlobalCMTID("201001010000A");
+    private static final Location POINT = new Location(0, 0, 3505);
+    private static final double[][] PERIOD_RANGES = {{20, 100}};
+    private static final int N_UNIT = 30;
+    private static final int UNIT_SIZE = 10;
+
+    private UnitWriterTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("UnitWriterTest");
+        checkResumeAfterFailures(dir);
+        System.err.println("UnitWriterTest passed in " + dir);
+    }
+
+    /**
+     * The ith partial has the start time i, which identifies it in the output.
+     *
+     * @param i       index of the partial
+     * @param station of the partial
+     * @return partial
+     */
+    private static PartialID createPartial(int i, Station station) {
+        double[] data = new double[1 + i % 7];
+        for (int j = 0; j < data.length; j++)
+            data[j] = i + j / 8.0;
+        return new PartialID(station, EVENT, SACComponent.T, 1, i, data.length, 20, 100, 0, true, POINT,
+                PartialType.MU, data);
+    }
+
+    /**
+     * @param unit    index of the unit
+     * @param failure index of a partial in the unit which can not be computed (-1 for none)
+     * @return outputs of the unit
+     */
+    private static List<PartialID> computeUnit(int unit, int failure) {
+        List<PartialID> partials = new ArrayList<>();
+        for (int i = 0; i < UNIT_SIZE; i++) {
+            if (i == failure) throw new RuntimeException("Injected failure in the computation of " + unit);
+            partials.add(createPartial(unit * UNIT_SIZE + i, STATION));
+        }
+        return partials;
+    }
+
+    private static WaveformDataWriter createWriter(Path idPath, Path dataPath, long idLength, long dataLength)
+            throws IOException {
+        return new WaveformDataWriter(idPath, dataPath, Collections.singleton(STATION),
+                Collections.singleton(EVENT), PERIOD_RANGES, Collections.singleton(POINT), idLength, dataLength);
+    }
+
+    /**
+     * A run fails in the computation of a unit and in writing another unit partway, and breaks.
+     * The resumed run must have every partial exactly once.
+     */
+    private static void checkResumeAfterFailures(Path dir) throws IOException {
+        Path idPath = dir.resolve("partialID.dat");
+        Path dataPath = dir.resolve("partial.dat");
+        Path journalPath = dir.resolve("unit.journal");
+        int computationFailure = 7;
+        int writeFailure = 12;
+        // the run breaks after this unit
+        int lastUnit = 20;
+        try (ProgressJournal journal = new ProgressJournal(journalPath);
+             WaveformDataWriter writer = createWriter(idPath, dataPath, -1, -1)) {
+            UnitWriter unitWriter = new UnitWriter(journal);
+            for (int unit = 0; unit <= lastUnit; unit++) {
+                List<PartialID> partials;
+                try {
+                    partials = computeUnit(unit, unit == computationFailure ? 4 : -1);
+                } catch (RuntimeException e) {
+                    unitWriter.fail();
+                    continue;
+                }
+                // a partial with a station which is not in the header can not be written
+                if (unit == writeFailure) partials.set(5, createPartial(unit * UNIT_SIZE + 5, UNKNOWN_STATION));
+                try {
+                    unitWriter.write(writer, String.valueOf(unit), partials);
+                    if (unit == writeFailure) throw new RuntimeException("Writing unit " + unit + " must fail.");
+                } catch (RuntimeException e) {
+                    if (unit != writeFailure) throw e;
+                }
+                if (unit % 3 == 2) unitWriter.checkpoint(writer);
+            }
+            if (unitWriter.getNumberOfFailedUnits() != 2 || unitWriter.isCommittable())
+                throw new RuntimeException("Failures are not counted.");
+        }
+
+        try (ProgressJournal journal = new ProgressJournal(journalPath)) {
+            // units before the one partly written are committed except the one failed in the computation
+            for (int unit = 0; unit < N_UNIT; unit++)
+                if (journal.isDone(String.valueOf(unit)) != (unit < 12 && unit != computationFailure))
+                    throw new RuntimeException("Unit " + unit + " is wrongly committed.");
+            String[] checkpoint = null;
+            for (String commit : journal.getCommits())
+                if (commit.startsWith("checkpoint")) checkpoint = commit.split("\t");
+            if (checkpoint == null) throw new RuntimeException("No checkpoint in " + journalPath);
+            try (WaveformDataWriter writer = createWriter(idPath, dataPath, Long.parseLong(checkpoint[1]),
+                    Long.parseLong(checkpoint[2]))) {
+                UnitWriter unitWriter = new UnitWriter(journal);
+                for (int unit = 0; unit < N_UNIT; unit++)
+                    if (!journal.isDone(String.valueOf(unit)))
+                        unitWriter.write(writer, String.valueOf(unit), computeUnit(unit, -1));
+                unitWriter.checkpoint(writer);
+            }
+        }
+
+        PartialID[] partials = PartialIDFile.read(idPath, dataPath);
+        if (partials.length != N_UNIT * UNIT_SIZE)
+            throw new RuntimeException(partials.length + " partials are written instead of " + N_UNIT * UNIT_SIZE);
+        Set<Integer> written = new HashSet<>();
+        for (PartialID partial : partials) {
+            int i = (int) partial.getStartTime();
+            if (!written.add(i)) throw new RuntimeException("Partial " + i + " is written twice.");
+            if (!Arrays.equals(partial.getData(), createPartial(i, STATION).getData()))
+                throw new RuntimeException("Waveform of partial " + i + " is wrong.");
+        }
+    }
+}
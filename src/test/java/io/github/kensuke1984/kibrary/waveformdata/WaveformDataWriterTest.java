@@ -0,0 +1,319 @@
+package io.github.kensuke1984.kibrary.waveformdata;
+
+import io.github.kensuke1984.kibrary.util.HorizontalPosition;
+import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.ProgressJournal;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.sac.SACComponent;
+import io.github.kensuke1984.kibrary.util.sac.WaveformType;
+import io.github.kensuke1984.kibrary.util.spc.PartialType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks of {@link WaveformDataWriter}
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+class WaveformDataWriterTest {
+
+    private static final Set<Station> STATIONS = new LinkedHashSet<>(Arrays.asList(
+            new Station("ST0", new HorizontalPosition(10.1, 20.2), "NW"),
+            new Station("ST1", new HorizontalPosition(-35.123456789, 140.987654321), "NW"),
+            new Station("ST2", new HorizontalPosition(60, -120.75), "XX")));
+    private static final Set<GlobalCMTID> EVENTS = new LinkedHashSet<>(
+            Arrays.asList(new GlobalCMTID("201001010000A"), new GlobalCMTID("201102031234B")));
+    private static final Set<Location> POINTS = new LinkedHashSet<>(
+            Arrays.asList(new Location(0, 0, 3505), new Location(10.3, 20.7, 3605.1), new Location(-5, 45, 3705)));
+    /**
+     * not exact in float, which is the precision of the header
+     */
+    private static final double[][] PERIOD_RANGES = {{20.1, 100.7}, {5, 33.333}};
+
+    private WaveformDataWriterTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("WaveformDataWriterTest");
+        checkConcurrentAddition(dir, false);
+        checkConcurrentAddition(dir, true);
+        checkMerge(dir, false);
+        checkMerge(dir, true);
+        checkResume(dir, false);
+        checkResume(dir, true);
+        checkFlushAfterEnd(dir);
+        System.err.println("WaveformDataWriterTest passed in " + dir);
+    }
+
+    private static List<BasicID> createIDs(boolean partial, int n, long seed) {
+        Random random = new Random(seed);
+        Station[] stations = STATIONS.toArray(new Station[0]);
+        GlobalCMTID[] events = EVENTS.toArray(new GlobalCMTID[0]);
+        Location[] points = POINTS.toArray(new Location[0]);
+        List<BasicID> ids = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double[] data = random.doubles(1 + random.nextInt(300)).toArray();
+            Station station = stations[random.nextInt(stations.length)];
+            GlobalCMTID event = events[random.nextInt(events.length)];
+            SACComponent component = SACComponent.values()[random.nextInt(3)];
+            double[] range = PERIOD_RANGES[random.nextInt(PERIOD_RANGES.length)];
+            double startTime = random.nextInt(100000) / 8.0;
+            ids.add(partial ?
+                    new PartialID(station, event, component, 1, startTime, data.length, range[0], range[1], 0, true,
+                            points[random.nextInt(points.length)], PartialType.values()[random.nextInt(6)], data) :
+                    new BasicID(random.nextBoolean() ? WaveformType.OBS : WaveformType.SYN, 1, startTime,
+                            data.length, station, event, component, range[0], range[1], 0, random.nextBoolean(),
+                            data));
+        }
+        return ids;
+    }
+
+    private static WaveformDataWriter createWriter(Path idPath, Path dataPath, boolean partial) throws IOException {
+        return new WaveformDataWriter(idPath, dataPath, STATIONS, EVENTS, PERIOD_RANGES, partial ? POINTS : null);
+    }
+
+    private static void add(WaveformDataWriter writer, BasicID id) throws IOException {
+        if (id instanceof PartialID) writer.addPartialID((PartialID) id);
+        else writer.addBasicID(id);
+    }
+
+    /**
+     * IDs added by threads at once must be written as the ones added one by one, except for their order.
+     */
+    private static void checkConcurrentAddition(Path dir, boolean partial) throws Exception {
+        List<BasicID> ids = createIDs(partial, 2000, 1);
+        String name = partial ? "partial" : "basic";
+        Path seqID = dir.resolve(name + "Sequential.id");
+        Path seqData = dir.resolve(name + "Sequential.dat");
+        try (WaveformDataWriter writer = createWriter(seqID, seqData, partial)) {
+            for (BasicID id : ids)
+                add(writer, id);
+        }
+        Path conID = dir.resolve(name + "Concurrent.id");
+        Path conData = dir.resolve(name + "Concurrent.dat");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (WaveformDataWriter writer = createWriter(conID, conData, partial)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (BasicID id : ids)
+                futures.add(executor.submit(() -> {
+                    add(writer, id);
+                    return null;
+                }));
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        compare(seqID, seqData, conID, conData, ids.size(), partial, false);
+    }
+
+    /**
+     * Shards appended to a writer, or merged into a new pair, must be the same as the pair written by one writer.
+     */
+    private static void checkMerge(Path dir, boolean partial) throws IOException {
+        List<BasicID> ids = createIDs(partial, 1000, 2);
+        String name = partial ? "partial" : "basic";
+        Path singleID = dir.resolve(name + "Single.id");
+        Path singleData = dir.resolve(name + "Single.dat");
+        try (WaveformDataWriter writer = createWriter(singleID, singleData, partial)) {
+            for (BasicID id : ids)
+                add(writer, id);
+        }
+        int nShard = 3;
+        List<Path> shardIDs = new ArrayList<>();
+        List<Path> shardData = new ArrayList<>();
+        for (int i = 0; i < nShard; i++) {
+            shardIDs.add(dir.resolve(name + "Shard" + i + ".id"));
+            shardData.add(dir.resolve(name + "Shard" + i + ".dat"));
+            try (WaveformDataWriter writer = createWriter(shardIDs.get(i), shardData.get(i), partial)) {
+                for (BasicID id : ids.subList(i * ids.size() / nShard, (i + 1) * ids.size() / nShard))
+                    add(writer, id);
+            }
+        }
+        Path mergedID = dir.resolve(name + "Merged.id");
+        Path mergedData = dir.resolve(name + "Merged.dat");
+        WaveformDataWriter.merge(mergedID, mergedData, shardIDs, shardData, partial);
+        compare(singleID, singleData, mergedID, mergedData, ids.size(), partial, true);
+
+        Path appendedID = dir.resolve(name + "Appended.id");
+        Path appendedData = dir.resolve(name + "Appended.dat");
+        try (WaveformDataWriter writer = createWriter(appendedID, appendedData, partial)) {
+            for (int i = 0; i < nShard; i++)
+                writer.append(shardIDs.get(i), shardData.get(i));
+        }
+        compare(singleID, singleData, appendedID, appendedData, ids.size(), partial, true);
+    }
+
+    /**
+     * A run broken after a checkpoint in a {@link ProgressJournal} and resumed from it must write the same pair as a
+     * run without a break. The journal has a broken tail (uncommitted units and a line without a line feed).
+     */
+    private static void checkResume(Path dir, boolean partial) throws IOException {
+        List<BasicID> ids = createIDs(partial, 600, 3);
+        String name = partial ? "partial" : "basic";
+        Path singleID = dir.resolve(name + "Unbroken.id");
+        Path singleData = dir.resolve(name + "Unbroken.dat");
+        try (WaveformDataWriter writer = createWriter(singleID, singleData, partial)) {
+            for (BasicID id : ids)
+                add(writer, id);
+        }
+
+        Path idPath = dir.resolve(name + "Resumed.id");
+        Path dataPath = dir.resolve(name + "Resumed.dat");
+        Path journalPath = dir.resolve(name + ".journal");
+        // the run is broken after 500 IDs are written and 400 are committed
+        try (ProgressJournal journal = new ProgressJournal(journalPath);
+             WaveformDataWriter writer = createWriter(idPath, dataPath, partial)) {
+            for (int from = 0; from < 500; from += 200) {
+                List<String> units = new ArrayList<>();
+                for (int i = from; i < Math.min(from + 200, 500); i++) {
+                    add(writer, ids.get(i));
+                    units.add(String.valueOf(i));
+                }
+                writer.flush();
+                if (from + 200 <= 400)
+                    journal.commit(units, "checkpoint\t" + writer.getIDLength() + "\t" + writer.getDataLength());
+            }
+        }
+        long validLength = Files.size(journalPath);
+        StringBuilder tail = new StringBuilder();
+        for (int i = 400; i < 450; i++)
+            tail.append("unit ").append(i).append('\n');
+        tail.append("commit checkpoint\t123");
+        Files.write(journalPath, tail.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ProgressJournal journal = new ProgressJournal(journalPath)) {
+            if (Files.size(journalPath) != validLength)
+                throw new RuntimeException("The broken tail of " + journalPath + " is not truncated.");
+            if (journal.getNumberOfDoneUnits() != 400 || !journal.isDone("399") || journal.isDone("400") ||
+                    journal.getCommits().size() != 2)
+                throw new RuntimeException("Committed units in " + journalPath + " are wrong.");
+            String[] checkpoint = journal.getCommits().get(1).split("\t");
+            List<String> units = new ArrayList<>();
+            try (WaveformDataWriter writer = new WaveformDataWriter(idPath, dataPath, STATIONS, EVENTS,
+                    PERIOD_RANGES, partial ? POINTS : null, Long.parseLong(checkpoint[1]),
+                    Long.parseLong(checkpoint[2]))) {
+                for (int i = 0; i < ids.size(); i++)
+                    if (!journal.isDone(String.valueOf(i))) {
+                        add(writer, ids.get(i));
+                        units.add(String.valueOf(i));
+                    }
+                writer.flush();
+                journal.commit(units, "checkpoint\t" + writer.getIDLength() + "\t" + writer.getDataLength());
+            }
+        }
+        try (ProgressJournal journal = new ProgressJournal(journalPath)) {
+            if (journal.getNumberOfDoneUnits() != ids.size() || journal.getCommits().size() != 3)
+                throw new RuntimeException("Units committed after resuming " + journalPath + " are wrong.");
+        }
+        compare(singleID, singleData, idPath, dataPath, ids.size(), partial, true);
+    }
+
+    /**
+     * {@link WaveformDataWriter#flush()} after the writer is closed, or after the write-behind thread is interrupted,
+     * must throw an exception instead of waiting forever.
+     */
+    private static void checkFlushAfterEnd(Path dir) throws Exception {
+        List<BasicID> ids = createIDs(false, 10, 4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            WaveformDataWriter closed = createWriter(dir.resolve("closed.id"), dir.resolve("closed.dat"), false);
+            for (BasicID id : ids)
+                add(closed, id);
+            closed.close();
+            checkFlushFails(executor, closed);
+
+            Path idPath = dir.resolve("interrupted.id");
+            WaveformDataWriter interrupted = createWriter(idPath, dir.resolve("interrupted.dat"), false);
+            for (BasicID id : ids)
+                add(interrupted, id);
+            Thread writer = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().equals("WaveformDataWriter " + idPath.getFileName()))
+                    .findAny().orElseThrow(() -> new RuntimeException("No write-behind thread"));
+            writer.interrupt();
+            writer.join(10000);
+            if (writer.isAlive()) throw new RuntimeException("The write-behind thread does not end.");
+            checkFlushFails(executor, interrupted);
+            try {
+                interrupted.close();
+                throw new RuntimeException("close() after an interruption must throw an exception.");
+            } catch (IOException e) {
+                // expected
+            }
+            interrupted.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void checkFlushFails(ExecutorService executor, WaveformDataWriter writer) throws Exception {
+        Future<?> future = executor.submit(() -> {
+            writer.flush();
+            return null;
+        });
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) return;
+            throw e;
+        } catch (TimeoutException e) {
+            throw new RuntimeException("flush() of " + writer.getIDPath() + " does not return.");
+        }
+        throw new RuntimeException("flush() of " + writer.getIDPath() + " must throw an exception.");
+    }
+
+    /**
+     * Compares two pairs of files byte by byte. The headers must be the same. Each ID (with StartByte cleared)
+     * and its waveform must be found in both pairs, in the same order if ordered is true.
+     */
+    private static void compare(Path idPath0, Path dataPath0, Path idPath1, Path dataPath1, int n, boolean partial,
+                                boolean ordered) throws IOException {
+        byte[] id0 = Files.readAllBytes(idPath0);
+        byte[] id1 = Files.readAllBytes(idPath1);
+        byte[] data0 = Files.readAllBytes(dataPath0);
+        byte[] data1 = Files.readAllBytes(dataPath1);
+        if (id0.length != id1.length || data0.length != data1.length)
+            throw new RuntimeException("Sizes of " + idPath0 + " and " + idPath1 + " differ.");
+        int idSize = partial ? PartialIDFile.oneIDByte : BasicIDFile.oneIDByte;
+        int headerSize = id0.length - n * idSize;
+        if (!Arrays.equals(Arrays.copyOf(id0, headerSize), Arrays.copyOf(id1, headerSize)))
+            throw new RuntimeException("Headers of " + idPath0 + " and " + idPath1 + " differ.");
+        List<String> records0 = toRecords(id0, data0, headerSize, n, partial);
+        List<String> records1 = toRecords(id1, data1, headerSize, n, partial);
+        if (!ordered) {
+            Collections.sort(records0);
+            Collections.sort(records1);
+        }
+        if (!records0.equals(records1))
+            throw new RuntimeException("IDs or waveforms in " + idPath0 + " and " + idPath1 + " differ.");
+    }
+
+    /**
+     * @return each ID (with StartByte cleared) and its waveform as a string of the bytes
+     */
+    private static List<String> toRecords(byte[] idBytes, byte[] dataBytes, int headerSize, int n, boolean partial) {
+        int idSize = partial ? PartialIDFile.oneIDByte : BasicIDFile.oneIDByte;
+        int nptsOffset = partial ? 10 : 11;
+        int startByteOffset = partial ? 19 : 20;
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ByteBuffer id = ByteBuffer.wrap(Arrays.copyOfRange(idBytes, headerSize + i * idSize,
+                    headerSize + (i + 1) * idSize));
+            int startByte = (int) id.getLong(startByteOffset);
+            int npts = id.getInt(nptsOffset);
+            id.putLong(startByteOffset, 0);
+            records.add(Base64.getEncoder().encodeToString(id.array()) + " " + Base64.getEncoder()
+                    .encodeToString(Arrays.copyOfRange(dataBytes, startByte, startByte + 8 * npts)));
+        }
+        return records;
+    }
+}